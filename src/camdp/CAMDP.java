@@ -55,6 +55,7 @@ public class CAMDP {
     public boolean COMPARE_OPTIMAL = false;
     public boolean DISCRETIZE_PROBLEM = false;
     public int DISCRETE_NUMBER = 11;
+    public boolean BATCH_DISCRETIZATION = true; // substitute all discrete values in one pass
     public int GLOBAL_LB = -9;
     public int GLOBAL_UB = 9;
 
@@ -129,13 +130,20 @@ public class CAMDP {
      * Constructor - filename
      */
     public CAMDP(String filename) {
-        this(filename, HierarchicalParser.ParseFile(filename));
+        this(filename, "");
+    }
+
+    /**
+     * Constructor - filename, with a suffix for the log file (for several instances of the same problem)
+     */
+    public CAMDP(String filename, String logSuffix) {
+        this(filename, HierarchicalParser.ParseFile(filename), logSuffix);
     }
 
     /**
      * Constructor - pre-parsed file
      */
-    private CAMDP(String file_source, ArrayList input) {
+    private CAMDP(String file_source, ArrayList input, String logSuffix) {
 
         // Basic initializations
         _problemFile = file_source;
@@ -195,7 +203,7 @@ public class CAMDP {
 
         // Setup a logger
         try {
-            _logStream = new PrintStream(new FileOutputStream(/*"timeSpace.txt"));*/_logFileRoot + ".log"));
+            _logStream = new PrintStream(new FileOutputStream(/*"timeSpace.txt"));*/_logFileRoot + logSuffix + ".log"));
             _logStream.println(this.toString());
             //Default log to stdout
             _testLogStream = System.out;
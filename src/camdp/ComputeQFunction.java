@@ -136,43 +136,14 @@ public class ComputeQFunction {
                     continue;
                 }
                 //discretizing for continuous domains ( C is the step size)
-                if (_camdp.DISCRETIZE_PROBLEM) {
+                if (_camdp.DISCRETIZE_PROBLEM && _camdp.BATCH_DISCRETIZATION) {
+                    _camdp._logStream.println("- DISCRETIZING '" + avar + " into " + _camdp.DISCRETE_NUMBER + " batched discrete actions");
+                    q = maxOutDiscreteVar(q, avar);
+                    _camdp._logStream.println("-->: " + _context.getString(q));
+                    _camdp.flushCaches(Arrays.asList(q) /* additional node to save */);
+                } else if (_camdp.DISCRETIZE_PROBLEM) {
                     _camdp._logStream.println("- DISCRETIZING '" + avar + " into " + _camdp.DISCRETE_NUMBER + " discrete actions");
-                    int actionTree = q;
-                    Integer maximizedTree = null;
-                    double range = _camdp.GLOBAL_LB;
-                    double stepsize = (_camdp.GLOBAL_UB - _camdp.GLOBAL_LB) / (_camdp.DISCRETE_NUMBER - 1);
-                    int var_id = _context._cvar2ID.get(avar);
-                    int actionReplace = -1;
-                    //int interval = (ub - lb) / 10;
-                    while (range <= _camdp.GLOBAL_UB) {
-                        ArithExpr range_a = new DoubleExpr(range);
-                        Integer actionValue = _context.getTermNode(range_a);
-                        // Check cache
-                        _contRegrKey.set(var_id, actionValue, actionTree);
-                        Integer result = null;
-                        if ((result = _camdp._hmContRegrCache.get(_contRegrKey)) != null)
-                            actionReplace = result;
-                        else {
-                            // Perform regression via delta function substitution
-                            actionReplace = _context.reduceProcessXADDLeaf(actionValue,
-                                    _context.new DeltaFunctionSubstitution(avar, actionTree), true);
-
-                            // Cache result
-                            _camdp._hmContRegrCache.put(new IntTriple(_contRegrKey), actionReplace);
-                        }
-
-//                        System.out.println("Warning using Continuous Action discretezation;");
-                        maximizedTree = (maximizedTree == null) ? actionReplace :
-                                _context.apply(maximizedTree, actionReplace, XADD.MAX);
-                        maximizedTree = _context.reduceRound(maximizedTree); // Round!
-                        maximizedTree = _context.reduceLP(maximizedTree); // Rely on flag XADD.CHECK_REDUNDANCY
-
-                        range = range + stepsize;
-                        //_camdp.flushCaches(Arrays.asList(maximizedTree,actionReplace) /* additional node to save */);
-
-                    }
-                    q = maximizedTree;
+                    q = maxOutDiscreteVarSequential(q, avar);
                 } else //not discretizing! continuous version
                 {
                     _camdp._logStream.println("- Maxing out action param '" + avar + "': [" + lb + "," + ub + "]");
@@ -319,6 +290,87 @@ public class ComputeQFunction {
         return max._runningResult;
     }
 
+    /**
+     * Max over the discretized values of var (see discreteValues), substituting and maxing
+     * one value at a time.
+     */
+    public int maxOutDiscreteVarSequential(int q, String avar) {
+        int actionTree = q;
+        Integer maximizedTree = null;
+        int var_id = _context._cvar2ID.get(avar);
+        int actionReplace = -1;
+        for (double range : discreteValues()) {
+            ArithExpr range_a = new DoubleExpr(range);
+            Integer actionValue = _context.getTermNode(range_a);
+            // Check cache
+            _contRegrKey.set(var_id, actionValue, actionTree);
+            Integer result = null;
+            if ((result = _camdp._hmContRegrCache.get(_contRegrKey)) != null)
+                actionReplace = result;
+            else {
+                // Perform regression via delta function substitution
+                actionReplace = _context.reduceProcessXADDLeaf(actionValue,
+                        _context.new DeltaFunctionSubstitution(avar, actionTree), true);
+
+                // Cache result
+                _camdp._hmContRegrCache.put(new IntTriple(_contRegrKey), actionReplace);
+            }
+
+//            System.out.println("Warning using Continuous Action discretezation;");
+            maximizedTree = (maximizedTree == null) ? actionReplace :
+                    _context.apply(maximizedTree, actionReplace, XADD.MAX);
+            maximizedTree = _context.reduceRound(maximizedTree); // Round!
+            maximizedTree = _context.reduceLP(maximizedTree); // Rely on flag XADD.CHECK_REDUNDANCY
+
+            //_camdp.flushCaches(Arrays.asList(maximizedTree,actionReplace) /* additional node to save */);
+
+        }
+        return maximizedTree;
+    }
+
+    // The DISCRETE_NUMBER evenly spaced values from GLOBAL_LB to GLOBAL_UB (just GLOBAL_LB for a single value)
+    public ArrayList<Double> discreteValues() {
+        ArrayList<Double> values = new ArrayList<Double>();
+        if (_camdp.DISCRETE_NUMBER <= 1) {
+            values.add((double) _camdp.GLOBAL_LB);
+            return values;
+        }
+        double stepsize = (_camdp.GLOBAL_UB - _camdp.GLOBAL_LB) / (double) (_camdp.DISCRETE_NUMBER - 1);
+        for (int i = 0; i < _camdp.DISCRETE_NUMBER - 1; i++)
+            values.add(_camdp.GLOBAL_LB + i * stepsize);
+        values.add((double) _camdp.GLOBAL_UB); // Exactly, without accumulated rounding
+        return values;
+    }
+
+    /**
+     * Max over the discretized values of var, the same as maxOutDiscreteVarSequential: all
+     * values are substituted in a single memoised pass over q (sub-diagrams not mentioning
+     * var are shared), then the substituted diagrams are maxed pairwise in a balanced tree.
+     */
+    public int maxOutDiscreteVar(int q, String var) {
+        ArrayList<Double> discrete = discreteValues();
+        ArithExpr[] values = new ArithExpr[discrete.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = new DoubleExpr(discrete.get(i));
+
+        int[] level = _context.substituteValues(q, var, values);
+        while (level.length > 1) {
+            int[] next = new int[(level.length + 1) / 2];
+            for (int i = 0; i < next.length; i++) {
+                if (2 * i + 1 == level.length) {
+                    next[i] = level[2 * i];
+                    continue;
+                }
+                int max = _context.apply(level[2 * i], level[2 * i + 1], XADD.MAX);
+                max = _context.reduceRound(max); // Round!
+                next[i] = _context.reduceLP(max); // Rely on flag XADD.CHECK_REDUNDANCY
+            }
+            level = next;
+            // No flush here: it would only keep this level, not the diagrams of the caller
+        }
+        return level[0];
+    }
+
     public int minOutVar(int ixadd, String var, double lb, double ub) {
         XADDLeafMinOrMax min = _context.new XADDLeafMinOrMax(var, lb, ub, false /* is_max */, _camdp._logStream);
         ixadd = _context.reduceProcessXADDLeaf(ixadd, min, false);
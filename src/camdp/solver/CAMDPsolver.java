@@ -19,14 +19,16 @@ import camdp.CAction;
 import camdp.CAMDP.FileOptions;
 import camdp.State;
 import util.DevNullPrintStream;
+import util.IntTriple;
 import xadd.XADD;
 import xadd.XADDUtils;
 import xadd.XADD.XADDLeafMinOrMax;
+import xadd.ExprLib.DoubleExpr;
 
 public abstract class CAMDPsolver {
     
-    public static CAMDP mdp;
-    public static XADD context;
+    public CAMDP mdp;
+    public XADD context;
     public Integer valueDD;
     public int nIter;
     public Integer curIter;
@@ -71,6 +73,10 @@ public abstract class CAMDPsolver {
     public int[] solutionNodeList = null;
     public double[] solutionInitialSValueList = null;
     public double[] solutionMaxValueList = null;
+    protected List<Integer> pinnedDDs = new ArrayList<Integer>(); // Diagrams in use across cache flushes
+    
+    /* Compiled greedy policy, built on demand from the last solution */
+    public CompiledPolicy policy = null;
     
     /* *********************** Methods *********************** */
     public void setApproxTest(double eps, PrintStream log, boolean always) {
@@ -83,7 +89,78 @@ public abstract class CAMDPsolver {
     //    Common Solution methods
     public abstract int solve();
     public abstract ParametrizedAction getGreedyAction(int valueDD, State s);
+    public abstract CompiledPolicy compilePolicy();
+    
+    // Greedy action from the compiled policy of the current solution, compiled on first use
+    public ParametrizedAction getGreedyAction(State s){
+        if (policy == null) policy = compilePolicy();
+        return policy.getAction(s);
+    }
+    
+    /**
+     * Compiles the greedy policy of valDD: an argmax XADD over the state indexing the 
+     * greedy action and, for each action, the argmax XADD of each continuous parameter.
+     **/
+    public CompiledPolicy compilePolicy(int valDD){
+        int RUN_DEPTH = 2;
+        ArrayList<CAction> actions = new ArrayList<CAction>(mdp._hmName2Action.values());
+        int[][] paramArgs = new int[actions.size()][];
+        Integer bestQ = null, bestAction = null;
+        
+        for (int i = 0; i < actions.size(); i++){
+            CAction a = actions.get(i);
+            int q = regress(valDD, a, false);
+            
+            // Max out each action param in turn, keeping its argmax
+            paramArgs[i] = new int[a._actionParams.size()];
+            HashSet<String> q_vars = context.collectVars(q);
+            for (int j = 0; j < a._actionParams.size(); j++){
+                String avar = a._actionParams.get(j);
+                paramArgs[i][j] = -1; // Indeterminate, lower bound is used
+                if (!q_vars.contains(avar)) continue;
+                XADD.XADDLeafMinOrMax max = context.new XADDLeafMinOrMax(avar, a._hmAVar2LB.get(avar), a._hmAVar2UB.get(avar), true /* is_max */, true /* track_arg */, _logStream);
+                context.reduceProcessXADDLeaf(q, max, false);
+                q = max._runningResult;
+                paramArgs[i][j] = max._runningArgResult;
+                // Previous argmax may depend on avar, substitute its argmax in
+                for (int k = 0; k < j; k++)
+                    if (paramArgs[i][k] != -1)
+                        paramArgs[i][k] = context.reduceProcessXADDLeaf(paramArgs[i][j], context.new DeltaFunctionSubstitution(avar, paramArgs[i][k]), true);
+            }
+            q = mdp.standardizeDD(q);
+            
+            // Running argmax over actions, ties kept by the earlier action
+            int index = context.getTermNode(new DoubleExpr(i));
+            if (bestQ == null){
+                bestQ = q;
+                bestAction = index;
+            }
+            else {
+                bestAction = context.selectByIndicator(context.indicatorPositive(context.apply(q, bestQ, XADD.MINUS)), index, bestAction);
+                bestQ = mdp.standardizeDD(context.apply(bestQ, q, XADD.MAX));
+            }
+            pinnedDDs.clear();
+            pinnedDDs.add(bestQ);
+            pinnedDDs.add(bestAction);
+            for (int k = 0; k <= i; k++)
+                for (int arg : paramArgs[k]) 
+                    if (arg != -1) pinnedDDs.add(arg);
+            if (DEBUG_DEPTH > RUN_DEPTH) debugShow(bestAction, "Policy after "+a._sName, false);
+            flushCaches();
+        }
+        CompiledPolicy compiled = new CompiledPolicy(context, actions, bestAction, paramArgs);
+        pinnedDDs.clear();
+        return compiled;
+    }
 
+    // Max-norm difference between two value functions: exact for linear problems (LP over
+    // both signs of the difference), otherwise only identical diagrams are known to be equal.
+    public double bellmanResidual(int prevDD, int newDD){
+        if (prevDD == newDD) return 0d;
+        if (!mdp.LINEAR_PROBLEM) return Double.POSITIVE_INFINITY;
+        return context.linMaxDiff(newDD, prevDD);
+    }
+    
     //Regression functions 
     public Graph buildDBNDependencyDAG(CAction a, HashSet<String> vars) {
         // Works backward from this root factor
@@ -208,6 +285,123 @@ public abstract class CAMDPsolver {
         }
         return q;
     }
+    /**
+     * Regress a DD through an action
+     **/
+    public int regress(int vfun, CAction a, boolean regressCont) {
+        int RUN_DEPTH=3;
+        // Prime the value function 
+        int q = context.substitute(vfun, mdp._hmPrimeSubs); 
+        if (DEBUG_DEPTH > RUN_DEPTH){
+            debugOutput.println("REGRESSING ACTION " + a._sName + " Iter "+ curIter );
+            debugShow(q, "Q Start "+a._sName+"^"+curIter, false);
+        }
+        
+        // Discount
+        if (mdp._bdDiscount.doubleValue() != 1){
+            debugOutput.println("Warning: Using discount on Finite Horizon");
+            q = context.scalarOp(q, mdp._bdDiscount.doubleValue(), XADD.PROD);
+        }
+        
+        // Add reward *if* it contains primed vars that need to be regressed
+        HashSet<String> i_and_ns_vars_in_reward = filterIandNSVars(context.collectVars(a._reward), true, true);
+        if (!i_and_ns_vars_in_reward.isEmpty()) {
+            q = context.apply(a._reward, q, XADD.SUM); // Add reward to already discounted primed value function
+        }
+            
+        // Derive a variable elimination order for the DBN w.r.t. the reward that puts children before parents
+        HashSet<String> vars_to_regress = filterIandNSVars(context.collectVars(q), true, true);
+        Graph g = buildDBNDependencyDAG(a, vars_to_regress);
+        if (g.hasCycle()) 
+            displayCyclesAndExit(g, a);
+        
+        // Get a valid elimination order (does not minimize tree width, could be optimized)
+        List var_order = g.topologicalSort(true);
+        // Regress each variable in the topological order
+        for (Object o : var_order) {
+            String var_to_elim = (String)o;
+            if (mdp._hsBoolIVars.contains(var_to_elim) || mdp._hsBoolNSVars.contains(var_to_elim)) {
+                q = regressBVars(q, a, var_to_elim);
+            } else if (mdp._hsContIVars.contains(var_to_elim) || mdp._hsContNSVars.contains(var_to_elim)) {
+                q = regressCVars(q, a, var_to_elim);
+            }
+        }
+
+        if (DEBUG_DEPTH > RUN_DEPTH){
+            debugShow(q, "Q after Regressing "+a._sName+"^"+curIter, false);
+        }
+        if (i_and_ns_vars_in_reward.isEmpty()) {
+            q = context.apply(a._reward, q, XADD.SUM);
+        }
+        
+        //Continuous Noise
+        q = regressNoise(q,a);
+        //Continuous Parameter
+        if (regressCont){
+            q = regressAction(q, a);
+        }
+        //Final Display
+        if (DEBUG_DEPTH > RUN_DEPTH){
+            debugShow(q, "Before Standard Q "+a._sName+"^"+curIter, false);
+        }
+        q = mdp.standardizeDD(q);
+
+        //Final Display
+        if (DEBUG_DEPTH > RUN_DEPTH){
+            debugShow(q, "Final Q "+a._sName+"^"+curIter, false);
+        }
+        return q;
+    }
+    
+    
+    private IntTriple _contRegrKey = new IntTriple(-1,-1,-1); //Temporary variable for key
+    public int regressCVars(int q, CAction a, String var) {
+        int RUN_DEPTH = 4;
+        // Get cpf for continuous var'
+        int var_id = context._cvar2ID.get(var);
+        Integer dd_conditional_sub = a._hmVar2DD.get(var);
+
+        // Check cache
+        _contRegrKey.set(var_id, dd_conditional_sub, q);
+        Integer result = null;
+        if ((result = mdp._hmContRegrCache.get(_contRegrKey)) != null)
+            return result;
+        
+        // Perform regression via delta function substitution
+        q = context.reduceProcessXADDLeaf(dd_conditional_sub, 
+                context.new DeltaFunctionSubstitution(var, q), true);
+        
+        // Cache result
+        mdp._hmContRegrCache.put(new IntTriple(_contRegrKey), q);
+        
+        if (DEBUG_DEPTH > RUN_DEPTH) {
+            debugOutput.println("Integrating out: "+var+" at regression of "+a._sName+"^"+curIter);
+            debugShow(q, "Q after integrating out "+var, false);
+        }
+        return q;        
+    }
+
+    public int regressBVars(int q, CAction a, String var) {
+        int RUN_DEPTH = 4;
+        // Get cpf for boolean var'
+        int var_id = context.getVarIndex( context.new BoolDec(var), false);
+        Integer dd_cpf = a._hmVar2DD.get(var);
+        
+        _logStream.println("- Summing out: " + var + "/" + var_id /*+ " in\n" + context.getString(dd_cpf)*/);
+        q = context.apply(q, dd_cpf, XADD.PROD);
+        
+        // Following is a safer way to marginalize (instead of using opOut
+        // based on apply) in the event that two branches of a boolean variable 
+        // had equal probability and were collapsed.
+        int restrict_high = context.opOut(q, var_id, XADD.RESTRICT_HIGH);
+        int restrict_low  = context.opOut(q, var_id, XADD.RESTRICT_LOW);
+        q = context.apply(restrict_high, restrict_low, XADD.SUM);
+
+        _logStream.println("-->: " + context.getString(q));
+
+        return q;
+    }
+
     public HashSet<String> filterIandNSVars(HashSet<String> vars, boolean allow_cont, boolean allow_bool) {
         HashSet<String> filter_vars = new HashSet<String>();
         for (String var : vars)
@@ -255,7 +449,7 @@ public abstract class CAMDPsolver {
         DEBUG_DEPTH = verb;
         PLOT_DD = plot;
     }
-    public static void debugShow(int dd, String name, boolean plotValue){
+    public void debugShow(int dd, String name, boolean plotValue){
         if (PLOT_DD) {
             if (plotValue) mdp.doDisplay(dd, name);
             else mdp.displayGraph(dd, name);
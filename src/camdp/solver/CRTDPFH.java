@@ -7,6 +7,11 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import util.IntPair;
 import util.IntTriple;
@@ -43,6 +48,12 @@ public class CRTDPFH extends CAMDPsolver {
     boolean APPROXIMATION = false;
     private static final int TRIAL_PER_APPROX = 3;
     
+    /* Parallel Trials Parameters */
+    public static final long DEFAULT_WORKER_SEED = 1L;
+    public int nWorkers = 1;
+    public long workerSeed = DEFAULT_WORKER_SEED;
+    private Random _rand = new Random();
+    
     /* Debugging Flags */    
     //Local Debug flags    
     private static final boolean GREEDY_ACTION_DEBUG = false;
@@ -76,6 +87,17 @@ public class CRTDPFH extends CAMDPsolver {
         setupResults();
     }
     
+    public CRTDPFH(CAMDP camdp, int nt, int ni, double approx, int workers){
+        this(camdp, nt, ni, approx);
+        nWorkers = Math.max(1, workers);
+    }
+    
+    // Seeds the sequential trials and the per-trial Randoms of the parallel ones, for reproducible runs
+    public void setSeed(long seed){
+        _rand = new Random(seed);
+        workerSeed = seed;
+    }
+    
     private int getValueDD(){
         return valueDDList[nIter];
     }
@@ -92,6 +114,8 @@ public class CRTDPFH extends CAMDPsolver {
         //Initialize value function to zero assumes ZERO is admissible, need a heuristic evaluation
         //for(int i=0; i<=nIter; i++) valueDDList[i] = context.ZERO;
         initializeDDList();
+        policy = null;
+        if (nWorkers > 1) return solveParallel();
         
         curTrial = 0;
         boolean solConverge = false;
@@ -109,7 +133,7 @@ public class CRTDPFH extends CAMDPsolver {
             for(int i=0;i<=nIter;i++) prevDDList[i] = valueDDList[i]; 
                         
             //Perform Trial
-            makeTrial(mdp._initialS);
+            makeTrial(mdp._initialS, _rand);
             solConverge = earlyConverge(prevDDList);
             flushCaches();
             //////////////////////////////////////////////////////////////////////////
@@ -131,6 +155,134 @@ public class CRTDPFH extends CAMDPsolver {
         return finalTrial;
     }
 
+    /**
+     * Multi-worker RTSDP: rounds of nWorkers concurrent trials from the initial state.
+     * The XADD context is not thread-safe, so each worker solves its own copy of the CAMDP
+     * (parsed from the same file) in its own context. All trials of a round start from the
+     * current value functions, which this thread passes to the workers encoded losslessly
+     * (SolutionCheckpointer.encode); afterwards the workers' value functions are merged by MIN,
+     * which keeps them upper bounds. Trial t samples with a Random seeded by (workerSeed, t)
+     * and the merge order is fixed, so runs are reproducible. A failed trial fails the solve.
+     **/
+    private int solveParallel(){
+        int RUN_DEPTH = 1;
+        int nRoundTrials = Math.min(nWorkers, nTrials);
+        CRTDPFH[] workers = new CRTDPFH[nRoundTrials];
+        for(int w=0; w<nRoundTrials; w++) workers[w] = new CRTDPFH(this, w);
+        
+        ExecutorService pool = Executors.newFixedThreadPool(nRoundTrials);
+        long startTime = System.currentTimeMillis();
+        curTrial = 0;
+        boolean solConverge = false;
+        while (curTrial < nTrials && !solConverge) 
+        {
+            int firstTrial = curTrial + 1;
+            int lastTrial = Math.min(nTrials, curTrial + nRoundTrials);
+            if (DEBUG_DEPTH > RUN_DEPTH){
+                debugOutput.println("Starting Parallel Trials# " + firstTrial + " to " + lastTrial);
+            }
+            int []prevDDList = new int[nIter+1];
+            for(int i=0;i<=nIter;i++) prevDDList[i] = valueDDList[i];
+            
+            // Workers and this context start from the same (encoded) value functions
+            byte[][] values = encodeValueDDList();
+            decodeValueDDList(values);
+            List<Callable<Object>> trials = new ArrayList<Callable<Object>>();
+            for(int t=firstTrial; t<=lastTrial; t++){
+                final CRTDPFH worker = workers[t - firstTrial];
+                final int trial = t;
+                worker.decodeValueDDList(values);
+                trials.add(new Callable<Object>() {
+                    public Object call() {
+                        worker.curTrial = trial;
+                        worker.makeTrial(worker.mdp._initialS, trialRandom(trial));
+                        return null;
+                    }
+                });
+            }
+            try {
+                for (Future<Object> f : pool.invokeAll(trials)) f.get();
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Parallel "+solveMethod+" interrupted at trial "+firstTrial, e);
+            } catch (ExecutionException e) {
+                pool.shutdownNow();
+                throw new RuntimeException("Parallel "+solveMethod+" trials "+firstTrial+"-"+lastTrial+" failed: "+e.getCause(), e.getCause());
+            }
+            
+            for(int t=firstTrial; t<=lastTrial; t++){
+                CRTDPFH worker = workers[t - firstTrial];
+                byte[][] workerValues = worker.encodeValueDDList();
+                for(int i=1; i<=nIter; i++){
+                    valueDDList[i] = context.apply(decodeDD(workerValues[i]), valueDDList[i], XADD.MIN);
+                    valueDDList[i] = mdp.standardizeDD(valueDDList[i]);
+                }
+                updateTimes[t] = worker.updateTimes[t];
+                updateNodes[t] = worker.updateNodes[t];
+                updateIniVals[t] = worker.updateIniVals[t];
+            }
+            
+            curTrial = lastTrial;
+            solConverge = earlyConverge(prevDDList);
+            flushCaches();
+            for(int t=firstTrial; t<=lastTrial; t++){
+                solutionDDList[t] = getValueDD();
+                solutionTimeList[t] = System.currentTimeMillis() - startTime;
+                solutionNodeList[t] = getAllNodes();
+                solutionInitialSValueList[t] = getStateVal(mdp._initialS, nIter);
+                if (mdp.LINEAR_PROBLEM) solutionMaxValueList[t] = context.linMaxVal(getValueDD());
+            }
+            if (DEBUG_DEPTH > RUN_DEPTH){
+                debugOutput.println("Trials:" + firstTrial + "-" + lastTrial + " Complete");
+                debugOutput.println("Value DD:"+getValueDD()+" Nodes= "+solutionNodeList[lastTrial]+" Time ="+solutionTimeList[lastTrial]);
+                debugOutput.println("Initial State Value = "+solutionInitialSValueList[lastTrial]);
+                debugShow(getValueDD(), "Value after Trial "+lastTrial, true);
+                debugOutput.println();
+            }
+        }
+        pool.shutdown();
+        finalTrial = curTrial;
+        return finalTrial;
+    }
+    
+    // Worker of the parallel trials: a copy of the master's CAMDP with its own context and no result streams
+    private CRTDPFH(CRTDPFH master, int worker){
+        mdp = new CAMDP(master.mdp._problemFile, ".worker" + worker);
+        context = mdp._context;
+        nTrials = master.nTrials;
+        nIter = master.nIter;
+        dApproxError = master.dApproxError;
+        APPROXIMATION = master.APPROXIMATION;
+        valueDDList = new Integer[nIter+1];
+        _logStream = mdp._logStream;
+        solveMethod = master.solveMethod;
+        setupResults();
+    }
+    
+    private Random trialRandom(int trial){
+        return new Random(workerSeed * 1000003L + trial);
+    }
+    
+    // Value functions encoded without loss of precision, to pass them between contexts
+    private byte[][] encodeValueDDList(){
+        byte[][] values = new byte[nIter+1][];
+        for(int i=0; i<=nIter; i++) values[i] = SolutionCheckpointer.encode(context, valueDDList[i]);
+        return values;
+    }
+    
+    private void decodeValueDDList(byte[][] values){
+        for(int i=0; i<=nIter; i++) valueDDList[i] = decodeDD(values[i]);
+    }
+    
+    private int decodeDD(byte[] encoded){
+        try {
+            return SolutionCheckpointer.decode(context, encoded);
+        } catch (Exception e) {
+            throw new RuntimeException("Couldn't decode value function into "+solveMethod+" context", e);
+        }
+    }
+
     public ParametrizedAction getGreedyAction(int valDD, State s){
       int RUN_DEPTH = 4;
       double maxVal = Double.NEGATIVE_INFINITY;
@@ -179,6 +331,11 @@ public class CRTDPFH extends CAMDPsolver {
       return new ParametrizedAction(greedyAction, greedyParams);
   }
     
+    // Policy for the first decision of the horizon, i.e. the greedy action against V^(H-1)
+    public CompiledPolicy compilePolicy(){
+        return compilePolicy(valueDDList[nIter-1]);
+    }
+    
     private void initializeDDList(){
         int maxRewDD = context.createDoubleNode(mdp.maxImediateReward);
         valueDDList[0] = context.ZERO;
@@ -207,25 +364,24 @@ public class CRTDPFH extends CAMDPsolver {
         }
     }        
     
-    private void makeTrial(State currentS){
+    private void makeTrial(State currentS, Random rand){
         int RUN_DEPTH = 2;
         State []stateList = new State[nIter+1];
         for(curDepth= nIter; curDepth > 0; curDepth--){
             stateList[curDepth] = currentS;
-            CAMDP.resetTimer(RUN_DEPTH);
+            long start = System.currentTimeMillis(); // (CAMDP timers are shared by parallel workers)
             if (DEBUG_DEPTH > RUN_DEPTH){
                 debugOutput.println("Start Backup at T#"+curTrial+", d ="+curDepth+", "+ currentS.toString());    
                 debugOutput.println("State Value = "+ getStateVal(currentS, curDepth) );
             }
             ParametrizedAction greedyAction = regionBellmanBackup(currentS);
             
-            updateTimes[curTrial][curDepth] = CAMDP.getElapsedTime(RUN_DEPTH);
+            updateTimes[curTrial][curDepth] = System.currentTimeMillis() - start;
             updateNodes[curTrial][curDepth] = context.getNodeCount(valueDDList[curDepth]);
             updateIniVals[curTrial][curDepth] = getStateVal(currentS, curDepth);
             
             //Using greedy action, sample next state
-            CAMDP.resetTimer(RUN_DEPTH);
-            State nextS = sample(currentS, greedyAction);
+            State nextS = sample(currentS, greedyAction, rand);
             if (DEBUG_DEPTH > RUN_DEPTH) {
                 debugOutput.println("Backup "+curDepth+" took = "+updateTimes[curTrial][curDepth]);
                 debugOutput.println("Greedy Action = "+greedyAction+"State Value After Update= "+ getStateVal(currentS, curDepth) );
@@ -258,6 +414,28 @@ public class CRTDPFH extends CAMDPsolver {
     }
     
     public ParametrizedAction  regionBellmanBackup(State currS){
+        maxRegressedQ(currS);
+        double currSValue = mdp.evaluateState(maxDD, currS);
+        
+        //Min out Ilegal +Inf values, these will be non update regions
+        valueDDList[curDepth] = context.apply(maxDD, valueDDList[curDepth], XADD.MIN);        
+        valueDDList[curDepth] = mdp.standardizeDD(valueDDList[curDepth]); 
+        if ( Math.abs(currSValue - mdp.evaluateState(valueDDList[curDepth], currS)) > STATE_PRECISION
+        		&& WARN_BACKUP_FAIL){
+            System.err.println("Backup fail, greedy value "+ currSValue+" different from value "+mdp.evaluateState(valueDDList[curDepth], currS)+" for "+currS);
+            System.err.println("Max DD Current State value is " + mdp.evaluateState(maxDD, currS));
+            if (!CAMDP.SILENCE_ERRORS_PLOTS) mdp.displayDifError(maxDD, valueDDList[curDepth]);
+            valueDDList[curDepth] = context.apply(maxDD, valueDDList[curDepth], XADD.MIN);
+        }
+        
+        ParametrizedAction pA = getGreedyAction(valueDDList[curDepth-1], currS);
+        return pA;
+    }
+
+    /**
+     * Max over actions of the region regressed Q functions of valueDDList[curDepth-1] at currS. 
+     **/
+    private int maxRegressedQ(State currS){
         int RUN_DEPTH=3; 
         
         //Iterate over each action
@@ -311,20 +489,7 @@ public class CRTDPFH extends CAMDPsolver {
                 }
     
         }
-        
-        //Min out Ilegal +Inf values, these will be non update regions
-        valueDDList[curDepth] = context.apply(maxDD, valueDDList[curDepth], XADD.MIN);        
-        valueDDList[curDepth] = mdp.standardizeDD(valueDDList[curDepth]); 
-        if ( Math.abs(currSValue - mdp.evaluateState(valueDDList[curDepth], currS)) > STATE_PRECISION
-        		&& WARN_BACKUP_FAIL){
-            System.err.println("Backup fail, greedy value "+ currSValue+" different from value "+mdp.evaluateState(valueDDList[curDepth], currS)+" for "+currS);
-            System.err.println("Max DD Current State value is " + mdp.evaluateState(maxDD, currS));
-            if (!CAMDP.SILENCE_ERRORS_PLOTS) mdp.displayDifError(maxDD, valueDDList[curDepth]);
-            valueDDList[curDepth] = context.apply(maxDD, valueDDList[curDepth], XADD.MIN);
-        }
-        
-        ParametrizedAction pA = getGreedyAction(valueDDList[curDepth-1], currS);
-        return pA;
+        return maxDD;
     }
 
     /**
@@ -650,6 +815,10 @@ public class CRTDPFH extends CAMDPsolver {
     }
 
     public State sample(State currentS, ParametrizedAction parA){
+        return sample(currentS, parA, _rand);
+    }
+    
+    public State sample(State currentS, ParametrizedAction parA, Random rand){
         HashSet<String> AllNSVars = new HashSet<String>();
         AllNSVars.addAll(mdp._hsBoolNSVars);
         AllNSVars.addAll(mdp._hsContNSVars);
@@ -666,7 +835,7 @@ public class CRTDPFH extends CAMDPsolver {
             Integer dd_cpf = parA._action._hmVar2DD.get(var);
             
             if (mdp._hsBoolNSVars.contains(var)) {
-                Boolean val = sampleBVar(currentS, nextS, var, dd_cpf, parA._params);
+                Boolean val = sampleBVar(currentS, nextS, var, dd_cpf, parA._params, rand);
                 nextS._hmBoolVars.put(var, val);
             } else if (mdp._hsContNSVars.contains(var)) {
                 Double val = sampleCVar(currentS,nextS,dd_cpf, parA._params);
@@ -680,11 +849,11 @@ public class CRTDPFH extends CAMDPsolver {
         return unprime(nextS);
     }
     
-    public Boolean sampleBVar(State prevS, State nextS, String bVar, Integer bVarDD, HashMap<String, Double> aParams){
+    public Boolean sampleBVar(State prevS, State nextS, String bVar, Integer bVarDD, HashMap<String, Double> aParams, Random rand){
         HashMap<String, Boolean> bool_assign = makeBoolAssign(prevS, nextS);
         bool_assign.put(bVar, true); //bVar is the next state boolean we are sampling
         double trueProb = context.evaluate(bVarDD, bool_assign, makeContAssign(prevS,nextS, aParams) );
-        return (Math.random() < trueProb) ? true: false;
+        return (rand.nextDouble() < trueProb) ? true: false;
     }
     
     public Double sampleCVar(State prevS, State nextS, Integer cVarDD, HashMap<String, Double> aParams){
@@ -729,6 +898,7 @@ public class CRTDPFH extends CAMDPsolver {
         for(int i=0;i<=nIter;i++) moreSpecialNodes.add(valueDDList[i]);
         if (regressionMask != null) moreSpecialNodes.add(regressionMask);
         if (maxDD != null) moreSpecialNodes.add(maxDD);
+        moreSpecialNodes.addAll(pinnedDDs);
         mdp.flushCaches(moreSpecialNodes);
     }
     
@@ -0,0 +1,143 @@
+package camdp.solver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import camdp.CAction;
+import camdp.State;
+import xadd.XADD;
+import xadd.ExprLib.ArithExpr;
+import xadd.XADD.Decision;
+import xadd.XADD.XADDINode;
+import xadd.XADD.XADDNode;
+import xadd.XADD.XADDTNode;
+
+/**
+ * Greedy policy compiled from a value function (see CAMDPsolver.compilePolicy).
+ * The argmax XADD over actions and the argmax XADDs of each action parameter are
+ * flattened into arrays, so choosing an action is a walk down the action tree
+ * followed by a walk down each parameter tree of the chosen action, with no
+ * regression or LP at query time. Flattened trees do not reference XADD node ids,
+ * hence remain valid after cache flushes.
+ **/
+public class CompiledPolicy {
+
+    private CAction[] _actions;
+    private FlatXADD _actionTree;
+    private FlatXADD[][] _paramTrees; // null if the parameter is indeterminate
+
+    public CompiledPolicy(XADD context, List<CAction> actions, int actionArgmax, int[][] paramArgmax){
+        _actions = actions.toArray(new CAction[actions.size()]);
+        _actionTree = new FlatXADD(context, actionArgmax);
+        _paramTrees = new FlatXADD[_actions.length][];
+        for (int i = 0; i < _actions.length; i++){
+            _paramTrees[i] = new FlatXADD[paramArgmax[i].length];
+            for (int j = 0; j < paramArgmax[i].length; j++)
+                if (paramArgmax[i][j] != -1) _paramTrees[i][j] = new FlatXADD(context, paramArgmax[i][j]);
+        }
+    }
+
+    public ParametrizedAction getAction(State s){
+        Double index = _actionTree.evaluate(s._hmBoolVars, s._hmContVars);
+        if (index == null){
+            System.err.println("Compiled policy: state does not assign all policy variables: " + s);
+            return null;
+        }
+        int a = (int) Math.round(index);
+        if (a < 0 || a >= _actions.length) a = 0; // Only when no action has a finite value
+
+        CAction action = _actions[a];
+        HashMap<String, Double> params = new HashMap<String, Double>();
+        for (int j = 0; j < action._actionParams.size(); j++){
+            String avar = action._actionParams.get(j);
+            double lb = action._hmAVar2LB.get(avar);
+            double ub = action._hmAVar2UB.get(avar);
+            Double val = (_paramTrees[a][j] == null) ? null : _paramTrees[a][j].evaluate(s._hmBoolVars, s._hmContVars);
+            // If an action variable is indeterminate, use the lower bound value (as in getGreedyAction)
+            if (val == null || val.isNaN() || val.isInfinite()) val = lb;
+            params.put(avar, Math.max(lb, Math.min(ub, val)));
+        }
+        return new ParametrizedAction(action, params);
+    }
+
+    public CAction[] getActions(){
+        return _actions;
+    }
+
+    /**
+     * Array form of an XADD: internal nodes 0..n-1 store a decision index and two children,
+     * a child c >= 0 is an internal node and c < 0 is the leaf ~c.
+     **/
+    public static class FlatXADD {
+        private XADD _context;
+        private Decision[] _decisions;
+        private ArithExpr[] _leaves;
+        private int[] _nodeDec;
+        private int[] _nodeHigh;
+        private int[] _nodeLow;
+        private int _root;
+
+        public FlatXADD(XADD context, int xadd){
+            _context = context;
+            ArrayList<XADDINode> inodes = new ArrayList<XADDINode>();
+            ArrayList<ArithExpr> leaves = new ArrayList<ArithExpr>();
+            HashMap<Integer, Integer> id2pos = new HashMap<Integer, Integer>();
+            _root = collect(xadd, inodes, leaves, id2pos);
+
+            HashMap<Integer, Integer> var2dec = new HashMap<Integer, Integer>();
+            ArrayList<Decision> decisions = new ArrayList<Decision>();
+            _nodeDec = new int[inodes.size()];
+            _nodeHigh = new int[inodes.size()];
+            _nodeLow = new int[inodes.size()];
+            for (int i = 0; i < inodes.size(); i++){
+                XADDINode n = inodes.get(i);
+                Integer dec = var2dec.get(n._var);
+                if (dec == null){
+                    dec = decisions.size();
+                    decisions.add(context._alOrder.get(n._var));
+                    var2dec.put(n._var, dec);
+                }
+                _nodeDec[i] = dec;
+                _nodeHigh[i] = id2pos.get(n._high);
+                _nodeLow[i] = id2pos.get(n._low);
+            }
+            _decisions = decisions.toArray(new Decision[decisions.size()]);
+            _leaves = leaves.toArray(new ArithExpr[leaves.size()]);
+        }
+
+        private int collect(int id, ArrayList<XADDINode> inodes, ArrayList<ArithExpr> leaves, HashMap<Integer, Integer> id2pos){
+            Integer pos = id2pos.get(id);
+            if (pos != null) return pos;
+            XADDNode n = _context.getExistNode(id);
+            if (n instanceof XADDTNode){
+                pos = ~leaves.size();
+                leaves.add(((XADDTNode) n)._expr);
+            }
+            else {
+                XADDINode inode = (XADDINode) n;
+                pos = inodes.size();
+                inodes.add(inode);
+                collect(inode._high, inodes, leaves, id2pos);
+                collect(inode._low, inodes, leaves, id2pos);
+            }
+            id2pos.put(id, pos);
+            return pos;
+        }
+
+        public Double evaluate(HashMap<String, Boolean> bool_assign, HashMap<String, Double> cont_assign){
+            int n = _root;
+            while (n >= 0){
+                Boolean branch_high = _context.evaluateDecision(_decisions[_nodeDec[n]], bool_assign, cont_assign);
+                // Not all required variables were assigned
+                if (branch_high == null) return null;
+                n = branch_high ? _nodeHigh[n] : _nodeLow[n];
+            }
+            return _leaves[~n].evaluate(cont_assign);
+        }
+
+        public int getNodeCount(){
+            return _nodeDec.length + _leaves.length;
+        }
+    }
+}
@@ -19,6 +19,10 @@ public class Main {
     //Running Configurations
     private static int VERBOSE = 1;
     private static double APPROX = 0d;
+    private static int WORKERS = 1;
+    private static int CHECKPOINT_PINNED = 0; // 0 -> no checkpoints, else #iterations kept in memory
+    private static boolean CHECKPOINT_RESUME = false;
+    private static double RESIDUAL_EPSILON = 0d; // 0 -> no Bellman residual convergence
     private static String[] solvers = {"Invalid","VI","CRTDP","RTSDP","Aprox VI", "Approx RTSDP"};// 1 -> Value Iteration 2-> RTDP 3-> RTDPFH, Run all and Save All
     
     // Results Configurations
@@ -26,13 +30,13 @@ public class Main {
     private static boolean PRINT_RESULTS = true;
     
     public static void Usage() {
-        System.out.println("\nUsage: MDP-filename #solver #iter #Ddisplay(2or3) #trials [VERBOSE(int) SHOW_PLOT?(boolean) Approx]");
+        System.out.println("\nUsage: MDP-filename #solver #iter #Ddisplay(2or3) #trials [VERBOSE(int) SHOW_PLOT?(boolean) Approx #workers #checkpointPinned(0=off) RESUME?(boolean) ResidualEpsilon(0=off)]");
         System.exit(1);
     }
 
     public static void main(String args[]) {
         int nargs = args.length;
-        if (nargs < 5 || nargs >8) {
+        if (nargs < 5 || nargs >12) {
             Usage();
         }
         
@@ -56,11 +60,18 @@ public class Main {
 
         if (args.length > 5) { VERBOSE=Integer.parseInt(args[5]);
         if (args.length > 6) { CAMDPsolver.debugSetUp(VERBOSE, Boolean.parseBoolean(args[6]));
-        if (args.length > 7) { APPROX = Double.parseDouble(args[7]);} } }
+        if (args.length > 7) { APPROX = Double.parseDouble(args[7]);
+        if (args.length > 8) { WORKERS = Integer.parseInt(args[8]);
+        if (args.length > 9) { CHECKPOINT_PINNED = Integer.parseInt(args[9]);
+        if (args.length > 10) { CHECKPOINT_RESUME = Boolean.parseBoolean(args[10]);
+        if (args.length > 11) { RESIDUAL_EPSILON = Double.parseDouble(args[11]);} } } } } } }
         
         if (VERBOSE >=0) {
             System.out.println("Main Solution Start: Solving "+filename+" with solver "+solvers[solution]+" for "+iter+" iterations and "+trials+" trials.");
             if (APPROX >0) System.out.println("Approximation Allowed Error: "+APPROX); 
+            if (WORKERS >1) System.out.println("Parallel Trial Workers: "+WORKERS); 
+            if (CHECKPOINT_PINNED >0) System.out.println("Checkpointing, iterations in memory: "+CHECKPOINT_PINNED+(CHECKPOINT_RESUME? ", resuming":"")); 
+            if (RESIDUAL_EPSILON >0) System.out.println("Bellman Residual Convergence: "+RESIDUAL_EPSILON); 
         }
         
         // Build a CAMDP, display, solve
@@ -80,6 +91,7 @@ public class Main {
         switch (solution){
         case 1:
              solver = new VI(mdp, iter);
+            setupSolver(solver);
             used = solver.solve();
             if (SAVE_RESULTS) solver.saveResults();
             if (PRINT_RESULTS) solver.printResults();
@@ -97,7 +109,8 @@ public class Main {
 
         case 3:
             checkInitialS(mdp);
-            solver = new CRTDPFH(mdp, trials, iter);
+            solver = new CRTDPFH(mdp, trials, iter, 0d, WORKERS);
+            setupSolver(solver);
             used = solver.solve();
             if (SAVE_RESULTS) solver.saveResults();
             if (PRINT_RESULTS) solver.printResults();
@@ -106,6 +119,7 @@ public class Main {
 
         case 4:
             solver = new VI(mdp, iter, APPROX);
+            setupSolver(solver);
             used = solver.solve();
             if (SAVE_RESULTS) solver.saveResults();
             if (PRINT_RESULTS) solver.printResults();
@@ -114,7 +128,8 @@ public class Main {
 
         case 5:
             checkInitialS(mdp);
-            solver = new CRTDPFH(mdp, trials, iter, APPROX);
+            solver = new CRTDPFH(mdp, trials, iter, APPROX, WORKERS);
+            setupSolver(solver);
             used = solver.solve();
             if (SAVE_RESULTS) solver.saveResults();
             if (PRINT_RESULTS) solver.printResults();
@@ -130,6 +145,23 @@ public class Main {
         if (VERBOSE >= 0) System.out.println("MAIN-FINISH");
     }
 
+    private static void setupSolver(CAMDPsolver solver) {
+        if (CHECKPOINT_PINNED > 0) {
+            if (!(solver instanceof VI)){
+                System.err.println("CAMDP Solver Main Fail: checkpoints are only available for Value Iteration.");
+                System.exit(1);
+            }
+            ((VI) solver).enableCheckpoints(CHECKPOINT_RESUME, CHECKPOINT_PINNED);
+        }
+        if (RESIDUAL_EPSILON > 0) {
+            if (!(solver instanceof VI)){
+                System.err.println("CAMDP Solver Main Fail: Bellman residual convergence is only available for Value Iteration.");
+                System.exit(1);
+            }
+            ((VI) solver).setResidualConvergence(RESIDUAL_EPSILON);
+        }
+    }
+
     private static void checkInitialS(CAMDP mdp) {
         if (!mdp._hsBoolIVars.isEmpty() || !mdp._hsContIVars.isEmpty() || !mdp._hsNoiseVars.isEmpty()){
             System.err.println("CAMDP Solver Main Fail: RTDP Solution incompatible with intermediate and noise Vars!");
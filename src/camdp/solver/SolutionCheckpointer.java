@@ -0,0 +1,364 @@
+package camdp.solver;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import xadd.XADD;
+import xadd.XADD.BoolDec;
+import xadd.XADD.Decision;
+import xadd.XADD.ExprDec;
+import xadd.XADD.XADDINode;
+import xadd.XADD.XADDNode;
+import xadd.XADD.XADDTNode;
+import xadd.ExprLib.ArithExpr;
+import xadd.ExprLib.ArithOperation;
+import xadd.ExprLib.CompExpr;
+import xadd.ExprLib.CompOperation;
+import xadd.ExprLib.DoubleExpr;
+import xadd.ExprLib.FunExpr;
+import xadd.ExprLib.OperExpr;
+import xadd.ExprLib.VarExpr;
+
+/**
+ * Streams the value function of each solver iteration to disk as it is produced.
+ *
+ * The diagram is encoded on the solver thread (the XADD context is not thread-safe), then
+ * gzipped and written by a background thread. Each iteration goes to prefix+iter+".xadd.gz"
+ * and, once that file is complete, a line "iter time nodes initialSValue" is appended to the
+ * index prefix+".ckpt", so every indexed iteration can be reloaded, e.g. to resume a solution
+ * after a crash. Writing starts with open() and ends with close(), once per solve().
+ *
+ * Diagrams are encoded in binary (see encode), keeping every double exactly: the XADD
+ * export format prints constants with 8 decimals, so reloaded solutions would differ.
+ **/
+public class SolutionCheckpointer {
+
+    public final static String INDEX_EXT = ".ckpt";
+    public final static String XADD_EXT = ".xadd.gz";
+
+    private XADD _context;
+    private String _prefix;
+    private PrintStream _index = null;
+    private ExecutorService _writer = null;
+
+    public static class Entry {
+        public int iter;
+        public long time;
+        public int nodes;
+        public double initialSValue;
+
+        public Entry(int i, long t, int n, double v) {
+            iter = i;
+            time = t;
+            nodes = n;
+            initialSValue = v;
+        }
+    }
+
+    public SolutionCheckpointer(XADD context, String prefix) {
+        _context = context;
+        _prefix = prefix;
+    }
+
+    // Starts writing checkpoints, if append is false any previous checkpoint with the same prefix is discarded
+    public void open(boolean append) {
+        close();
+        try {
+            new File(_prefix).getAbsoluteFile().getParentFile().mkdirs();
+            _index = new PrintStream(new FileOutputStream(_prefix + INDEX_EXT, append));
+        } catch (Exception e) {
+            System.err.println("WARNING: could not open checkpoint index " + _prefix + INDEX_EXT + ": " + e);
+        }
+        // Daemon writer, so an unclosed checkpointer does not keep the JVM alive
+        _writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "checkpoint-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public String getXADDFile(int iter) {
+        return _prefix + iter + XADD_EXT;
+    }
+
+    public void checkpoint(final int iter, int dd, final long time, final int nodes, final double initialSValue) {
+        if (_writer == null)
+            throw new IllegalStateException("Checkpoints of " + _prefix + " are not open");
+        final byte[] encoded = encode(_context, dd);
+        final PrintStream index = _index;
+
+        _writer.execute(new Runnable() {
+            public void run() {
+                String filename = getXADDFile(iter);
+                try {
+                    GZIPOutputStream os = new GZIPOutputStream(new FileOutputStream(filename));
+                    os.write(encoded);
+                    os.close();
+                } catch (Exception e) {
+                    System.err.println("WARNING: could not write checkpoint " + filename + ": " + e);
+                    return;
+                }
+                if (index != null) {
+                    index.println(iter + " " + time + " " + nodes + " " + initialSValue);
+                    index.flush();
+                }
+            }
+        });
+    }
+
+    // Complete entries of the index, in the order they were written
+    public ArrayList<Entry> readIndex() {
+        sync();
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new FileReader(_prefix + INDEX_EXT));
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] split = line.trim().split(" ");
+                if (split.length != 4) continue; // Partially written line
+                entries.add(new Entry(Integer.parseInt(split[0]), Long.parseLong(split[1]),
+                        Integer.parseInt(split[2]), Double.parseDouble(split[3])));
+            }
+            br.close();
+        } catch (Exception e) {
+            // No checkpoint yet
+        }
+        return entries;
+    }
+
+    // Decodes a checkpointed iteration back into the context, -1 if unavailable
+    public int load(int iter) {
+        sync();
+        String filename = getXADDFile(iter);
+        int dd = -1;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            InputStream is = new GZIPInputStream(new FileInputStream(filename));
+            byte[] buffer = new byte[8192];
+            for (int n; (n = is.read(buffer)) > 0; ) bytes.write(buffer, 0, n);
+            is.close();
+            dd = decode(_context, bytes.toByteArray());
+        } catch (Exception e) {
+            System.err.println("WARNING: could not load checkpoint " + filename + ": " + e);
+        }
+        return dd;
+    }
+
+    // Waits until all submitted iterations are on disk
+    public void sync() {
+        if (_writer == null || _writer.isShutdown()) return;
+        try {
+            _writer.submit(new Runnable() {
+                public void run() {
+                }
+            }).get();
+        } catch (Exception e) {
+            System.err.println("WARNING: checkpoint writer failed: " + e);
+        }
+    }
+
+    // Waits for the pending writes and releases the index, checkpoints can still be loaded and reopened
+    public void close() {
+        if (_writer != null) {
+            _writer.shutdown();
+            try {
+                _writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("WARNING: interrupted while closing checkpoints " + _prefix);
+            }
+            _writer = null;
+        }
+        if (_index != null) {
+            _index.close();
+            _index = null;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////
+    // Lossless diagram encoding
+    ////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Encodes the diagram dd of context: its decisions in the order of context, then its
+     * nodes children first (as the XADD export format), with doubles written exactly.
+     **/
+    public static byte[] encode(XADD context, int dd) {
+        LinkedHashSet<Integer> nodes = new LinkedHashSet<Integer>();
+        TreeSet<Integer> decisions = new TreeSet<Integer>();
+        collectNodes(context, dd, nodes, decisions);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(decisions.size());
+            for (int var : decisions) {
+                out.writeInt(var);
+                Decision d = context._alOrder.get(var);
+                if (d instanceof BoolDec) {
+                    out.writeByte('B');
+                    out.writeUTF(((BoolDec) d)._sVarName);
+                } else if (d instanceof ExprDec) {
+                    CompExpr comp = ((ExprDec) d)._expr;
+                    out.writeByte('E');
+                    out.writeByte(comp._type.ordinal());
+                    writeExpr(out, comp._lhs);
+                    writeExpr(out, comp._rhs);
+                } else
+                    throw new IllegalArgumentException("Cannot encode XADD decision: " + d);
+            }
+            out.writeInt(nodes.size());
+            for (int id : nodes) {
+                XADDNode node = context.getExistNode(id);
+                out.writeInt(id);
+                if (node instanceof XADDTNode) {
+                    XADDTNode tnode = (XADDTNode) node;
+                    out.writeByte('T');
+                    writeExpr(out, tnode._expr);
+                    out.writeBoolean(tnode._annotate != null);
+                    if (tnode._annotate != null) out.writeUTF(tnode._annotate.toString());
+                } else {
+                    XADDINode inode = (XADDINode) node;
+                    out.writeByte('I');
+                    out.writeInt(inode._var);
+                    out.writeInt(inode._low);
+                    out.writeInt(inode._high);
+                }
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't encode XADD " + dd, e);
+        }
+    }
+
+    /**
+     * Decodes an encoded diagram into context. Its decisions are registered first, in the
+     * order of the encoding context: creating them as the nodes are read yields a differently
+     * ordered (though equivalent) diagram, whose reduceLP does not match the original.
+     **/
+    public static int decode(XADD context, byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        HashMap<Integer, Integer> old2new_dec = new HashMap<Integer, Integer>();
+        int nDecisions = in.readInt();
+        for (int i = 0; i < nDecisions; i++) {
+            int var = in.readInt();
+            Decision d;
+            if (in.readByte() == 'B') d = context.new BoolDec(in.readUTF());
+            else {
+                CompOperation type = CompOperation.values()[in.readByte()];
+                ArithExpr lhs = readExpr(in);
+                d = context.new ExprDec(new CompExpr(type, lhs, readExpr(in)));
+            }
+            old2new_dec.put(var, context.getVarIndex(d, true));
+        }
+        HashMap<Integer, Integer> old2new_node = new HashMap<Integer, Integer>();
+        int nNodes = in.readInt();
+        int xadd_id = -1;
+        for (int i = 0; i < nNodes; i++) {
+            int id = in.readInt();
+            if (in.readByte() == 'T') {
+                ArithExpr expr = readExpr(in);
+                Object annotation = in.readBoolean() ? in.readUTF() : null;
+                xadd_id = context.getTermNode(expr, annotation);
+            } else {
+                int var = old2new_dec.get(in.readInt());
+                int low = old2new_node.get(in.readInt());
+                int high = old2new_node.get(in.readInt());
+                xadd_id = context.getINodeCanon(var, low, high); // Corrects for ordering w.r.t. this XADD
+            }
+            old2new_node.put(id, xadd_id);
+        }
+        return xadd_id; // Root is last
+    }
+
+    private static void collectNodes(XADD context, int id, LinkedHashSet<Integer> nodes, TreeSet<Integer> decisions) {
+        if (nodes.contains(id)) return;
+        XADDNode node = context.getExistNode(id);
+        if (node instanceof XADDINode) {
+            XADDINode inode = (XADDINode) node;
+            collectNodes(context, inode._low, nodes, decisions);
+            collectNodes(context, inode._high, nodes, decisions);
+            decisions.add(inode._var);
+        }
+        nodes.add(id);
+    }
+
+    private static void writeExpr(DataOutputStream out, ArithExpr e) throws IOException {
+        if (e instanceof DoubleExpr) {
+            out.writeByte('D');
+            out.writeDouble(((DoubleExpr) e)._dConstVal);
+        } else if (e instanceof VarExpr) {
+            out.writeByte('V');
+            out.writeUTF(((VarExpr) e)._sVarName);
+        } else if (e instanceof OperExpr) {
+            OperExpr op = (OperExpr) e;
+            out.writeByte('O');
+            out.writeByte(op._type.ordinal());
+            out.writeInt(op._terms.size());
+            for (ArithExpr t : op._terms) writeExpr(out, t);
+        } else if (e instanceof FunExpr) {
+            FunExpr f = (FunExpr) e;
+            out.writeByte('F');
+            out.writeUTF(f.getClass().getName());
+            out.writeInt(f._args.size());
+            for (ArithExpr a : f._args) writeExpr(out, a);
+        } else
+            throw new IllegalArgumentException("Cannot encode XADD expression: " + e);
+    }
+
+    private static ArithExpr readExpr(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case 'D':
+                return new DoubleExpr(in.readDouble());
+            case 'V':
+                return new VarExpr(in.readUTF());
+            case 'O': {
+                ArithOperation type = ArithOperation.values()[in.readByte()];
+                ArrayList<ArithExpr> terms = readExprs(in);
+                return new OperExpr(type, terms);
+            }
+            case 'F': {
+                String className = in.readUTF();
+                ArrayList<ArithExpr> args = readExprs(in);
+                try {
+                    return Class.forName(className).asSubclass(FunExpr.class)
+                            .getDeclaredConstructor(ArrayList.class).newInstance(args);
+                } catch (Exception e) {
+                    throw new IOException("Cannot decode XADD function " + className, e);
+                }
+            }
+            default:
+                throw new IOException("Corrupt XADD encoding");
+        }
+    }
+
+    private static ArrayList<ArithExpr> readExprs(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        ArrayList<ArithExpr> exprs = new ArrayList<ArithExpr>(n);
+        for (int i = 0; i < n; i++) exprs.add(readExpr(in));
+        return exprs;
+    }
+}
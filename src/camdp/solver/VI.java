@@ -1,17 +1,13 @@
 package camdp.solver;
 
-import graph.Graph;
-
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import util.IntTriple;
 import xadd.ExprLib.ArithExpr;
 import xadd.ExprLib.DoubleExpr;
 import xadd.ExprLib.OperExpr;
@@ -24,9 +20,20 @@ import camdp.State;
 
 public class VI extends CAMDPsolver {
 
-    public Integer curIter;   // Current iteration for Value Iteration
     public Integer finalIter;   // Last Iteration in case of early Convergence
     public Integer maxDD; //Current Max during a Bellman Backup
+
+    // Stop once the max-norm Bellman residual ||V^n - V^(n-1)|| is at most CONVERGENCE_EPSILON
+    // (for discount g < 1, eps*(1-g)/(2g) makes the greedy policy eps-optimal)
+    public boolean RESIDUAL_CONVERGENCE = false;
+    public double CONVERGENCE_EPSILON = 1e-6;
+    public double[] solutionResidualList = null;
+
+    /* Checkpointing: solutionDDList entries of unpinned iterations are -1 and reloaded on demand */
+    public SolutionCheckpointer checkpointer = null;
+    public boolean resumeCheckpoint = false;
+    public int pinnedIterations = Integer.MAX_VALUE;
+    protected HashMap<Integer, Integer> reloadedDDs = new HashMap<Integer, Integer>(); // Unpinned iterations reloaded since the last cache flush
         
     
     //////////////////Methods /////////////////////////////////
@@ -57,9 +64,16 @@ public class VI extends CAMDPsolver {
         Integer _prevDD = null;
         //Iteration counter
         curIter = 0;        
+        policy = null;
+        reloadedDDs.clear();
 
-        //Initialize value function to zero
+        //Initialize value function to zero, or to the last checkpointed iteration
         valueDD = context.ZERO;
+        if (checkpointer != null) checkpointer.open(resumeCheckpoint);
+        if (checkpointer != null && resumeCheckpoint){
+            curIter = resumeFromCheckpoint();
+            if (curIter > 0) valueDD = solutionDDList[curIter];
+        }
 
         // Perform value iteration for specified number of iterations, or until convergence detected
         while (curIter < nIter) 
@@ -77,12 +91,15 @@ public class VI extends CAMDPsolver {
             solutionNodeList[curIter] = context.getNodeCount(valueDD);
             //if (mdp.LINEAR_PROBLEM) solutionMaxValueList[curIter] = context.linMaxVal(valueDD);
             if( mdp._initialS != null) solutionInitialSValueList[curIter] = mdp.evaluateInitialS(valueDD);            
+            if (RESIDUAL_CONVERGENCE) solutionResidualList[curIter] = bellmanResidual(_prevDD, valueDD);
+            checkpointIteration(curIter);
 
             if (DEBUG_DEPTH > RUN_DEPTH){
                 debugOutput.println("Iter:" + curIter+" Complete");
                 debugOutput.println("Value DD:"+valueDD+" Nodes= "+solutionNodeList[curIter]+" Time ="+solutionTimeList[curIter]);
                 if (CALCULATE_GREEDY_ACTION) debugOutput.println("Greedy Action ="+getGreedyAction(valueDD, mdp._initialS));
                 if( mdp._initialS != null) debugOutput.println("Initial State Value = "+solutionInitialSValueList[curIter]);
+                if (RESIDUAL_CONVERGENCE) debugOutput.println("Bellman Residual = "+solutionResidualList[curIter]);
                 debugShow(valueDD, makeXADDLabel("V",curIter, dApproxError), true);
                 debugOutput.println();
             }
@@ -91,8 +108,13 @@ public class VI extends CAMDPsolver {
                 if (DEBUG_DEPTH > RUN_DEPTH) debugOutput.println("\nVI: Converged to solution early,  at iteration "+curIter);
                 break;
             }
+            if (RESIDUAL_CONVERGENCE && solutionResidualList[curIter] <= CONVERGENCE_EPSILON) {
+                if (DEBUG_DEPTH > 0) debugOutput.println("\nVI: Bellman residual "+solutionResidualList[curIter]+" <= "+CONVERGENCE_EPSILON+", converged at iteration "+curIter);
+                break;
+            }
         }
         flushCaches();    
+        closeCheckpoints();
         finalIter = curIter;
         return finalIter;
     }
@@ -139,6 +161,10 @@ public class VI extends CAMDPsolver {
         }
         return new ParametrizedAction(greedyAction, greedyParams);    }
     
+    public CompiledPolicy compilePolicy(){
+        return compilePolicy(valueDD);
+    }
+    
     private void checkLinearApprox() {
         int RUN_DEPTH=2;
         if (mdp.LINEAR_PROBLEM && APPROXIMATION) {
@@ -194,130 +220,77 @@ public class VI extends CAMDPsolver {
         valueDD = maxDD;
     }
         
-    /**
-     * Regress a DD through an action
-     **/
-    public int regress(int vfun, CAction a, boolean regressCont) {
-        int RUN_DEPTH=3;
-        // Prime the value function 
-        int q = context.substitute(vfun, mdp._hmPrimeSubs); 
-        if (DEBUG_DEPTH > RUN_DEPTH){
-            debugOutput.println("REGRESSING ACTION " + a._sName + " Iter "+ curIter );
-            debugShow(q, "Q Start "+a._sName+"^"+curIter, false);
-        }
-        
-        // Discount
-        if (mdp._bdDiscount.doubleValue() != 1){
-            debugOutput.println("Warning: Using discount on Finite Horizon");
-            q = context.scalarOp(q, mdp._bdDiscount.doubleValue(), XADD.PROD);
-        }
-        
-        // Add reward *if* it contains primed vars that need to be regressed
-        HashSet<String> i_and_ns_vars_in_reward = filterIandNSVars(context.collectVars(a._reward), true, true);
-        if (!i_and_ns_vars_in_reward.isEmpty()) {
-            q = context.apply(a._reward, q, XADD.SUM); // Add reward to already discounted primed value function
+    public void setResidualConvergence(double epsilon){
+        if (!mdp.LINEAR_PROBLEM) 
+            System.err.println("WARNING: Bellman residual is only computed for LINEAR problems, "+solveMethod+" on "+mdp._problemFile+" will only stop when two iterations give the same diagram.");
+        RESIDUAL_CONVERGENCE = true;
+        CONVERGENCE_EPSILON = epsilon;
+    }
+    
+    //Checkpointing
+    // Stream each iteration to OUTPUT_DIR, keep only the last 'pinned' iterations in memory and
+    // optionally resume solve() from the last checkpointed iteration
+    public void enableCheckpoints(boolean resume, int pinned){
+        checkpointer = new SolutionCheckpointer(context, OUTPUT_DIR + "/" + solveMethod);
+        resumeCheckpoint = resume;
+        pinnedIterations = Math.max(1, pinned);
+    }
+    
+    protected void checkpointIteration(int iter){
+        if (checkpointer == null) return;
+        checkpointer.checkpoint(iter, solutionDDList[iter], solutionTimeList[iter], solutionNodeList[iter], solutionInitialSValueList[iter]);
+        int unpin = iter - pinnedIterations;
+        if (unpin >= 1) solutionDDList[unpin] = -1;
+    }
+    
+    // Restores the solution lists from the checkpoint, returns the last iteration restored (0 if none)
+    protected int resumeFromCheckpoint(){
+        int last = 0;
+        for (SolutionCheckpointer.Entry e : checkpointer.readIndex()){
+            if (e.iter < 1 || e.iter >= solutionDDList.length) continue;
+            solutionDDList[e.iter] = -1;
+            solutionTimeList[e.iter] = e.time;
+            solutionNodeList[e.iter] = e.nodes;
+            solutionInitialSValueList[e.iter] = e.initialSValue;
+            last = Math.max(last, e.iter);
         }
-            
-        // Derive a variable elimination order for the DBN w.r.t. the reward that puts children before parents
-        HashSet<String> vars_to_regress = filterIandNSVars(context.collectVars(q), true, true);
-        Graph g = buildDBNDependencyDAG(a, vars_to_regress);
-        if (g.hasCycle()) 
-            displayCyclesAndExit(g, a);
-        
-        // Get a valid elimination order (does not minimize tree width, could be optimized)
-        List var_order = g.topologicalSort(true);
-        // Regress each variable in the topological order
-        for (Object o : var_order) {
-            String var_to_elim = (String)o;
-            if (mdp._hsBoolIVars.contains(var_to_elim) || mdp._hsBoolNSVars.contains(var_to_elim)) {
-                q = regressBVars(q, a, var_to_elim);
-            } else if (mdp._hsContIVars.contains(var_to_elim) || mdp._hsContNSVars.contains(var_to_elim)) {
-                q = regressCVars(q, a, var_to_elim);
+        if (last > 0){
+            solutionDDList[last] = checkpointer.load(last);
+            if (solutionDDList[last] == -1) {
+                System.err.println("Couldn't resume "+solveMethod+" from iteration "+last+", restarting.");
+                return 0;
             }
+            if (DEBUG_DEPTH > 0) debugOutput.println("Resuming "+solveMethod+" from checkpoint of iteration "+last);
         }
-
-        if (DEBUG_DEPTH > RUN_DEPTH){
-            debugShow(q, "Q after Regressing "+a._sName+"^"+curIter, false);
-        }
-        if (i_and_ns_vars_in_reward.isEmpty()) {
-            q = context.apply(a._reward, q, XADD.SUM);
-        }
-        
-        //Continuous Noise
-        q = regressNoise(q,a);
-        //Continuous Parameter
-        if (regressCont){
-            q = regressAction(q, a);
-        }
-        //Final Display
-        if (DEBUG_DEPTH > RUN_DEPTH){
-            debugShow(q, "Before Standard Q "+a._sName+"^"+curIter, false);
-        }
-        q = mdp.standardizeDD(q);
-
-        //Final Display
-        if (DEBUG_DEPTH > RUN_DEPTH){
-            debugShow(q, "Final Q "+a._sName+"^"+curIter, false);
-        }
-        return q;
+        return last;
     }
     
-    
-    private IntTriple _contRegrKey = new IntTriple(-1,-1,-1); //Temporary variable for key
-    public int regressCVars(int q, CAction a, String var) {
-        int RUN_DEPTH = 4;
-        // Get cpf for continuous var'
-        int var_id = context._cvar2ID.get(var);
-        Integer dd_conditional_sub = a._hmVar2DD.get(var);
-
-        // Check cache
-        _contRegrKey.set(var_id, dd_conditional_sub, q);
-        Integer result = null;
-        if ((result = mdp._hmContRegrCache.get(_contRegrKey)) != null)
-            return result;
-        
-        // Perform regression via delta function substitution
-        q = context.reduceProcessXADDLeaf(dd_conditional_sub, 
-                context.new DeltaFunctionSubstitution(var, q), true);
-        
-        // Cache result
-        mdp._hmContRegrCache.put(new IntTriple(_contRegrKey), q);
-        
-        if (DEBUG_DEPTH > RUN_DEPTH) {
-            debugOutput.println("Integrating out: "+var+" at regression of "+a._sName+"^"+curIter);
-            debugShow(q, "Q after integrating out "+var, false);
+    // Diagram of an iteration, reloaded from the checkpoint if it was unpinned (and kept until the next cache flush)
+    public int getSolutionDD(int iter){
+        if (solutionDDList[iter] != -1 || checkpointer == null) return solutionDDList[iter];
+        Integer dd = reloadedDDs.get(iter);
+        if (dd == null){
+            dd = checkpointer.load(iter);
+            if (dd != -1) reloadedDDs.put(iter, dd);
         }
-        return q;        
+        return dd;
     }
-
-    public int regressBVars(int q, CAction a, String var) {
-        int RUN_DEPTH = 4;
-        // Get cpf for boolean var'
-        int var_id = context.getVarIndex( context.new BoolDec(var), false);
-        Integer dd_cpf = a._hmVar2DD.get(var);
-        
-        _logStream.println("- Summing out: " + var + "/" + var_id /*+ " in\n" + context.getString(dd_cpf)*/);
-        q = context.apply(q, dd_cpf, XADD.PROD);
-        
-        // Following is a safer way to marginalize (instead of using opOut
-        // based on apply) in the event that two branches of a boolean variable 
-        // had equal probability and were collapsed.
-        int restrict_high = context.opOut(q, var_id, XADD.RESTRICT_HIGH);
-        int restrict_low  = context.opOut(q, var_id, XADD.RESTRICT_LOW);
-        q = context.apply(restrict_high, restrict_low, XADD.SUM);
-
-        _logStream.println("-->: " + context.getString(q));
-
-        return q;
+    
+    // Waits for the checkpoint writes and releases the index until the next solve(), unpinned iterations can still be reloaded
+    protected void closeCheckpoints(){
+        if (checkpointer != null) checkpointer.close();
     }
-
+    
     //Memory Management
     public void flushCaches(List<Integer> specialNodes){
         ArrayList<Integer> moreSpecialNodes = new ArrayList<Integer>();
         moreSpecialNodes.addAll(specialNodes);
         moreSpecialNodes.add(valueDD);
         if (maxDD != null)  moreSpecialNodes.add(maxDD);
-        for(int i=1;i<curIter;i++) moreSpecialNodes.add(solutionDDList[i]);
+        moreSpecialNodes.addAll(pinnedDDs);
+        for(int i=1;i<curIter;i++) 
+            if (solutionDDList[i] != -1) moreSpecialNodes.add(solutionDDList[i]);
+        reloadedDDs.clear(); // Unpinned, their ids may be reused
         mdp.flushCaches(moreSpecialNodes);
     }
 
@@ -333,18 +306,20 @@ public class VI extends CAMDPsolver {
         solutionTimeList = new long[nIter+1];
         solutionNodeList = new int[nIter+1];
         solutionInitialSValueList = new double[nIter+1];
+        solutionResidualList = new double[nIter+1];
 //        solutionMaxValueList = new double[nIter+1];
     }
 
     public void saveResults(){
         //Results: NIter, Time, Nodes, InitialS Value.
-        for(int i=1; i<=nIter; i++){
+        for(int i=1; i<=finalIter; i++){
         _resultStream.format("%d %f %d %f\n", i, solutionTimeList[i]/1000.0, solutionNodeList[i], (mdp._initialS != null) ? solutionInitialSValueList[i]: 0d);
         }
-        for(int i=1; i<=nIter; i++){
-            if (mdp.DISPLAY_3D) save3D(solutionDDList[i], String.format(solveMethod+"-Value%d", i) );
-            if (mdp.DISPLAY_2D) save2D(solutionDDList[i], String.format(solveMethod+"-Value%d", i) );
-            saveGraph(solutionDDList[i], String.format(solveMethod+"-Value%d", i) );
+        for(int i=1; i<=finalIter; i++){
+            int solDD = getSolutionDD(i);
+            if (mdp.DISPLAY_3D) save3D(solDD, String.format(solveMethod+"-Value%d", i) );
+            if (mdp.DISPLAY_2D) save2D(solDD, String.format(solveMethod+"-Value%d", i) );
+            saveGraph(solDD, String.format(solveMethod+"-Value%d", i) );
         }
     }
 
@@ -353,10 +328,13 @@ public class VI extends CAMDPsolver {
         debugOutput.print("Time:"); for(int i=1; i<=finalIter; i++) debugOutput.print(solutionTimeList[i]+" ");debugOutput.println(";");
         debugOutput.print("Nodes:"); for(int i=1; i<=finalIter; i++) debugOutput.print(solutionNodeList[i]+" ");debugOutput.println(";");
         debugOutput.print("Initial S Value:"); for(int i=1; i<=finalIter; i++) debugOutput.print(solutionInitialSValueList[i]+" ");debugOutput.println(";");
+        if (RESIDUAL_CONVERGENCE) {
+            debugOutput.print("Bellman Residual:"); for(int i=1; i<=finalIter; i++) debugOutput.print(solutionResidualList[i]+" ");debugOutput.println(";");
+        }
     }
 
     public void exportSolutionToFile() {
-        for(int i=1; i<=finalIter; i++) context.exportXADDToFile(solutionNodeList[i], makeResultFile(i));
+        for(int i=1; i<=finalIter; i++) context.exportXADDToFile(getSolutionDD(i), makeResultFile(i));
     }
 }
 
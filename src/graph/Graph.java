@@ -20,6 +20,12 @@ import graph.gviz.*; // Graph viewer
 import java.io.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import util.*;
 
@@ -60,6 +66,10 @@ public class Graph {
     /* For printing */
     public static final boolean PRINT_WARNING = false;
 
+    /* computeBestOrder also tries the non-incremental heuristics */
+    public static boolean LEGACY_ORDERS = true;
+    private static ExecutorService _orderPool = null;
+
     public static DecimalFormat _df = new DecimalFormat("#.###");
 
     // ///////////////////////////////////////////////////////////////////////////
@@ -648,40 +658,300 @@ public class Graph {
 
     /**
      * Show different tree widths *
+     *
+     * The candidate orders are computed concurrently and scored by the estimated
+     * size of the factors they generate (see scoreOrder), tree width breaks ties.
+     * The incremental min-fill / min-weight orders are always tried, the legacy
+     * heuristics too unless LEGACY_ORDERS is unset. Sets _nTreeWidth and
+     * _dMaxBinaryWidth of the order.
      */
     public List computeBestOrder() {
         System.out.println("Searching for a good order...");
-        String[] name = new String[6];
-        name[0] = "minf_deepest       ";
-        name[1] = "minf_shallow       ";
-        name[2] = "topological_normal ";
-        name[3] = "topological_reverse";
-        name[4] = "greedy_deepest     ";
-        name[5] = "greedy_shallow     ";
-        List[] order = new List[6];
-        order[0] = minfillSort(true);
-        order[1] = minfillSort(false);
-        order[2] = topologicalSort(false);
-        order[3] = topologicalSort(true);
-        order[4] = greedyTWSort(true);
-        order[5] = greedyTWSort(false);
+        final String[] name = LEGACY_ORDERS ? new String[8] : new String[2];
+        name[0] = "minf_incremental   ";
+        name[1] = "minw_incremental   ";
+        if (LEGACY_ORDERS) {
+            name[2] = "minf_deepest       ";
+            name[3] = "minf_shallow       ";
+            name[4] = "topological_normal ";
+            name[5] = "topological_reverse";
+            name[6] = "greedy_deepest     ";
+            name[7] = "greedy_shallow     ";
+        }
+
+        // All heuristics only read the graph (greedyTWOrder does not set the widths)
+        ArrayList<Callable<List<?>>> heuristics = new ArrayList<Callable<List<?>>>();
+        for (int i = 0; i < name.length; i++) {
+            final int h = i;
+            heuristics.add(new Callable<List<?>>() {
+                public List<?> call() {
+                    switch (h) {
+                        case 0: return incrementalOrderSort(false);
+                        case 1: return incrementalOrderSort(true);
+                        case 2: return minfillSort(true);
+                        case 3: return minfillSort(false);
+                        case 4: return topologicalSort(false);
+                        case 5: return topologicalSort(true);
+                        case 6: return greedyTWOrder(true, new double[1]);
+                        default: return greedyTWOrder(false, new double[1]);
+                    }
+                }
+            });
+        }
+        List<?>[] order = new List<?>[name.length];
+        try {
+            List<Future<List<?>>> results = getOrderPool().invokeAll(heuristics);
+            for (int i = 0; i < order.length; i++) {
+                try {
+                    order[i] = results.get(i).get();
+                } catch (ExecutionException e) {
+                    System.err.println("Graph.computeBestOrder: " + name[i].trim() + " failed: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Graph.computeBestOrder interrupted", e);
+        }
+
+        double best_size = Double.POSITIVE_INFINITY;
         int best_tw = Integer.MAX_VALUE;
         int best_order = -1;
+        double[] best_score = null;
         for (int i = 0; i < order.length; i++) {
-            int tw = computeTreeWidth(order[i]);
-            System.out.print(((tw < best_tw) ? "* " : "  ") + "TW of "
-                    + name[i] + ": " + tw);
+            if (order[i] == null) {
+                continue;
+            }
+            double[] score = scoreOrder(completeOrder(order[i]));
+            int tw = (int) score[0];
+            boolean better = score[1] < best_size || (score[1] == best_size && tw < best_tw);
+            System.out.print((better ? "* " : "  ") + "TW of "
+                    + name[i] + ": " + tw + ", log2 size: " + _df.format(score[1]));
             System.out.println("  " + order[i]);
-            if (tw < best_tw) {
+            if (better) {
+                best_size = score[1];
                 best_tw = tw;
                 best_order = i;
+                best_score = score;
             }
         }
+        if (best_order == -1) {
+            // Any order of the nodes is a valid elimination order
+            System.err.println("Graph.computeBestOrder: all heuristics failed, using the node order");
+            List<Object> nodes = new ArrayList<Object>();
+            for (Object node : _hmNodes.keySet()) {
+                nodes.add(node);
+            }
+            best_score = scoreOrder(nodes);
+            _nTreeWidth = (int) best_score[0];
+            _dMaxBinaryWidth = best_score[2];
+            return nodes;
+        }
         System.out.println(name[best_order] + "/TW:" + best_tw + "...done");
+        _nTreeWidth = best_tw;
+        _dMaxBinaryWidth = best_score[2];
 
         return order[best_order];
     }
 
+    // Legacy heuristics may leave nodes out (minfillSort skips nodes without
+    // parents), such orders are scored as if those nodes were eliminated last
+    private List<Object> completeOrder(List<?> order) {
+        ArrayList<Object> complete = new ArrayList<Object>(order);
+        HashSet<Object> ordered = new HashSet<Object>(order);
+        for (Object node : _hmNodes.keySet()) {
+            if (!ordered.contains(node)) {
+                complete.add(node);
+            }
+        }
+        return complete;
+    }
+
+    // Daemon threads shared by all computeBestOrder calls
+    private static synchronized ExecutorService getOrderPool() {
+        if (_orderPool == null) {
+            _orderPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "graph-order");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return _orderPool;
+    }
+
+    /**
+     * Scores an elimination order as {tree width, log2 of the estimated total size
+     * of the generated factors, log2 of the estimated size of the largest one}.
+     * Eliminating var generates a factor over var and its current neighbors whose
+     * size is estimated as 2^(sum of the node sizes), where the size of a node is
+     * its log_sz (see addNode), e.g., the number of decisions a variable appears in
+     * for XADD factors. The tree width is the same as computeTreeWidth.
+     */
+    public double[] scoreOrder(List<?> order) {
+        HashMap<Object, Integer> index = new HashMap<Object, Integer>();
+        BitSet[] adj = buildAdjacency(order, index);
+        double[] weight = getNodeWeights(order);
+
+        int tw = 0;
+        double log_size = Double.NEGATIVE_INFINITY;
+        double max_size = 0d;
+        BitSet eliminated = new BitSet(adj.length);
+        for (int v = 0; v < adj.length; v++) {
+            BitSet nbrs = (BitSet) adj[v].clone();
+            nbrs.andNot(eliminated);
+            tw = Math.max(tw, nbrs.cardinality());
+
+            // log2(2^log_size + 2^factor_size) without overflow
+            double factor_size = weight[v];
+            for (int u = nbrs.nextSetBit(0); u >= 0; u = nbrs.nextSetBit(u + 1)) {
+                factor_size += weight[u];
+            }
+            max_size = Math.max(max_size, factor_size);
+            double hi = Math.max(log_size, factor_size);
+            double lo = Math.min(log_size, factor_size);
+            log_size = hi + Math.log(1d + Math.pow(2d, lo - hi)) / Math.log(2d);
+
+            // Connect the remaining neighbors
+            for (int u = nbrs.nextSetBit(0); u >= 0; u = nbrs.nextSetBit(u + 1)) {
+                adj[u].or(nbrs);
+                adj[u].clear(u);
+            }
+            eliminated.set(v);
+        }
+        return new double[]{tw, log_size, max_size};
+    }
+
+    /**
+     * Min-fill (or min-weight) order maintained incrementally. The moral graph is
+     * kept as adjacency bitsets and the variables in a priority queue keyed by their
+     * current fill (number of missing links among neighbors) or weight (log size of
+     * the factor their elimination generates, see scoreOrder). Eliminating a
+     * variable only changes the scores of variables within two links of it, so only
+     * those are re-queued (stale queue entries are skipped). Ties are broken by
+     * depth (deepest first) as in minfillSort.
+     */
+    public List<Object> incrementalOrderSort(final boolean min_weight) {
+
+        Object[] depths = computeAllVarDepths(true);
+        ArrayList<Object> vars = new ArrayList<Object>();
+        for (int i = 0; i < depths.length; i++) {
+            vars.add(((Map.Entry<?, ?>) depths[i]).getKey());
+        }
+        HashMap<Object, Integer> index = new HashMap<Object, Integer>();
+        final BitSet[] adj = buildAdjacency(vars, index);
+        final double[] weight = getNodeWeights(vars);
+        int n = adj.length;
+
+        final double[] score = new double[n];
+        final int[] version = new int[n];
+        PriorityQueue<long[]> queue = new PriorityQueue<long[]>(Math.max(1, n), new Comparator<long[]>() {
+            public int compare(long[] e1, long[] e2) {
+                int c = Double.compare(Double.longBitsToDouble(e1[0]), Double.longBitsToDouble(e2[0]));
+                return (c != 0) ? c : Long.compare(e1[1], e2[1]);
+            }
+        });
+        BitSet eliminated = new BitSet(n);
+        for (int v = 0; v < n; v++) {
+            score[v] = eliminationScore(v, adj, weight, min_weight);
+            queue.add(new long[]{Double.doubleToLongBits(score[v]), v, version[v]});
+        }
+
+        ArrayList<Object> order = new ArrayList<Object>();
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int v = (int) entry[1];
+            if (eliminated.get(v) || entry[2] != version[v]) {
+                continue; // Stale
+            }
+            order.add(vars.get(v));
+            eliminated.set(v);
+
+            // Connect the neighbors of v and detach v
+            BitSet nbrs = adj[v];
+            BitSet affected = new BitSet(n);
+            for (int u = nbrs.nextSetBit(0); u >= 0; u = nbrs.nextSetBit(u + 1)) {
+                adj[u].or(nbrs);
+                adj[u].clear(u);
+                adj[u].clear(v);
+                affected.or(adj[u]);
+            }
+            affected.or(nbrs);
+            affected.andNot(eliminated);
+
+            for (int u = affected.nextSetBit(0); u >= 0; u = affected.nextSetBit(u + 1)) {
+                double new_score = eliminationScore(u, adj, weight, min_weight);
+                if (new_score != score[u]) {
+                    score[u] = new_score;
+                    version[u]++;
+                    queue.add(new long[]{Double.doubleToLongBits(new_score), u, version[u]});
+                }
+            }
+        }
+        return order;
+    }
+
+    private double eliminationScore(int v, BitSet[] adj, double[] weight, boolean min_weight) {
+        BitSet nbrs = adj[v];
+        if (min_weight) {
+            double w = weight[v];
+            for (int u = nbrs.nextSetBit(0); u >= 0; u = nbrs.nextSetBit(u + 1)) {
+                w += weight[u];
+            }
+            return w;
+        }
+        // Missing links u - w among the neighbors, each counted once (w > u)
+        int fill = 0;
+        for (int u = nbrs.nextSetBit(0); u >= 0; u = nbrs.nextSetBit(u + 1)) {
+            BitSet missing = (BitSet) nbrs.clone();
+            missing.andNot(adj[u]);
+            missing.clear(0, u + 1);
+            fill += missing.cardinality();
+        }
+        return fill;
+    }
+
+    // Moral graph over vars (each var linked with its parents, which are linked
+    // with each other, as for the factors in computeTreeWidth); index is filled
+    // with var -> position in vars
+    private BitSet[] buildAdjacency(List<?> vars, HashMap<Object, Integer> index) {
+        for (int i = 0; i < vars.size(); i++) {
+            index.put(vars.get(i), i);
+        }
+        BitSet[] adj = new BitSet[vars.size()];
+        for (int i = 0; i < adj.length; i++) {
+            adj[i] = new BitSet(adj.length);
+        }
+        BitSet family = new BitSet(adj.length);
+        for (int i = 0; i < adj.length; i++) {
+            family.clear();
+            family.set(i);
+            Set<?> parents = getLinkSet(vars.get(i), false);
+            if (parents != null) {
+                for (Object parent : parents) {
+                    Integer p = index.get(parent);
+                    if (p != null) {
+                        family.set(p.intValue());
+                    }
+                }
+            }
+            for (int u = family.nextSetBit(0); u >= 0; u = family.nextSetBit(u + 1)) {
+                adj[u].or(family);
+                adj[u].clear(u);
+            }
+        }
+        return adj;
+    }
+
+    private double[] getNodeWeights(List<?> vars) {
+        double[] weight = new double[vars.size()];
+        for (int i = 0; i < weight.length; i++) {
+            Integer sz = (Integer) _hmNodes.get(vars.get(i));
+            weight[i] = (sz == null) ? 1d : sz.doubleValue();
+        }
+        return weight;
+    }
+
     /**
      * Computes the induced tree-width for a specified elimination order *
      */
@@ -753,32 +1023,43 @@ public class Graph {
      * directed graphs (e.g. Bayesian networks).
      */
     public List greedyTWSort(boolean deepest_first) {
-        ArrayList free = new ArrayList();
+        ArrayList<Object> free = new ArrayList<Object>();
+        Set<Set<Object>> factors = new HashSet<Set<Object>>();
+        initGreedyTW(deepest_first, free, factors);
+        return greedyTWSort(free, factors);
+    }
+
+    // As greedyTWSort, but only returns the max binary width in max_binary_width[0]
+    // instead of setting _dMaxBinaryWidth and _nTreeWidth
+    private List<Object> greedyTWOrder(boolean deepest_first, double[] max_binary_width) {
+        ArrayList<Object> free = new ArrayList<Object>();
+        Set<Set<Object>> factors = new HashSet<Set<Object>>();
+        initGreedyTW(deepest_first, free, factors);
+        return greedyTWOrder(free, factors, max_binary_width);
+    }
+
+    // Free variables by depth and a factor for each variable and its parents
+    private void initGreedyTW(boolean deepest_first, List<Object> free, Set<Set<Object>> factors) {
 
         // Find var depths and populate free set
         Object[] depths = computeAllVarDepths(deepest_first);
         for (int i = 0; i < depths.length; i++) {
-            Map.Entry me = (Map.Entry) depths[i];
+            Map.Entry<?, ?> me = (Map.Entry<?, ?>) depths[i];
             free.add(me.getKey());
             // System.out.println(me);
         }
 
         // Initialize a set of sets containing vars and their parents
-        Iterator it = free.iterator();
-        Set factors = new HashSet();
-        while (it.hasNext()) {
-            Object var = it.next();
-            Set varset = new HashSet();
+        for (Object var : free) {
+            Set<Object> varset = new HashSet<Object>();
             varset.add(var);
-            Set s = getLinkSet(var);
+            Set<?> s = getLinkSet(var);
             if (s != null) {
                 varset.addAll(s);
             }
             factors.add(varset);
             // System.out.println("Adding varset " + varset + " for " + var);
         }
-
-        return greedyTWSort(free, factors);
     }
 
     /**
@@ -798,11 +1079,19 @@ public class Graph {
      * ordered resolution).
      */
     public List greedyTWSort(List free, Set factors) {
+        double[] max_binary_width = new double[1];
+        List<Object> order = greedyTWOrder(free, factors, max_binary_width);
+        _dMaxBinaryWidth = max_binary_width[0];
+        _nTreeWidth = computeTreeWidth(order);
+        return order;
+    }
+
+    private List<Object> greedyTWOrder(List<?> free, Set factors, double[] max_binary_width) {
 
         // System.out.println("Factors: " + factors);
 
         double cur_tw = 0d;
-        ArrayList order = new ArrayList();
+        ArrayList<Object> order = new ArrayList<Object>();
 
         // System.out.println(factors);
 
@@ -864,20 +1153,17 @@ public class Graph {
             // System.exit(1);
         }
 
-        _dMaxBinaryWidth = cur_tw;
-        _nTreeWidth = computeTreeWidth(order);
+        max_binary_width[0] = cur_tw;
         // System.out.print("(" + _df.format(cur_tw) + ")");
 
         return order;
     }
 
     // Computes tree-width based on log_2 num entries
-    static Set affected_vars = new HashSet();
-
     public double getTWofElimVar(Set factors, Object var) {
 
-        // Separate the sets
-        affected_vars.clear();
+        // Separate the sets (local, heuristics may run concurrently)
+        Set affected_vars = new HashSet();
         Iterator j = factors.iterator();
         while (j.hasNext()) {
             Set factor_j = (Set) j.next();
@@ -909,7 +1195,6 @@ public class Graph {
                             .println("--------------------------------------------------------------");
                 }
                 sz = new Integer(1);
-                _hmNodes.put(t, sz);
             }
             num_tuples *= Math.pow(2d, sz.doubleValue());
         }
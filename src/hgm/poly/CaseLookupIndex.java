@@ -0,0 +1,136 @@
+package hgm.poly;
+
+import java.util.*;
+
+/**
+ * An index over the cases of a {@link PiecewiseExpression} to find the activated case of an assignment without
+ * evaluating every constraint of every case:
+ * <ul>
+ * <li>constraints shared by several cases are evaluated (at most) once per lookup, and once a constraint fails, all
+ * cases containing it are eliminated without further evaluations;</li>
+ * <li>the constraints of each case are tested in the decreasing order of the number of cases they are shared with, so
+ * that a failure eliminates as many cases as possible;</li>
+ * <li>the last activated case is tested first, since successive (MCMC) samples usually stay in the same case.</li>
+ * </ul>
+ * Since cases are assumed to be mutually exclusive, the result equals that of testing the cases one by one.
+ * The scratch memory (and the last activated case) is kept per thread, so an index can be shared by parallel chains.
+ */
+class CaseLookupIndex {
+    private WeakExpression[] constraints;       //distinct constraints of all cases
+    private int[][] caseConstraintIds;      //caseConstraintIds[case] = ids of the constraints of the case
+    private int[][] constraintCaseIds;      //constraintCaseIds[constraint] = ids of the cases containing the constraint
+    private ThreadLocal<Scratch> scratches;
+
+    private static class Scratch {
+        int generation = 0;             //lookup counter, so that the arrays are not cleared per lookup
+        int[] evaluatedAt;              //evaluatedAt[constraint] == generation iff the constraint is evaluated in this lookup
+        boolean[] holds;
+        int[] eliminatedAt;             //eliminatedAt[case] == generation iff a constraint of the case fails in this lookup
+        int lastActivatedCaseId = -1;
+
+        Scratch(int numConstraints, int numCases) {
+            evaluatedAt = new int[numConstraints];
+            holds = new boolean[numConstraints];
+            eliminatedAt = new int[numCases];
+        }
+    }
+
+    CaseLookupIndex(List<? extends ConstrainedExpression<?>> cases) {
+        Map<WeakExpression, Integer> constraintIds = new HashMap<WeakExpression, Integer>();
+        List<WeakExpression> constraintList = new ArrayList<WeakExpression>();
+        final List<List<Integer>> constraintCases = new ArrayList<List<Integer>>();
+        caseConstraintIds = new int[cases.size()][];
+
+        for (int caseId = 0; caseId < cases.size(); caseId++) {
+            Collection<? extends WeakExpression> caseConstraints = cases.get(caseId).getConstraints();
+            List<Integer> ids = new ArrayList<Integer>(caseConstraints.size());
+            for (WeakExpression constraint : caseConstraints) {
+                Integer id = constraintIds.get(constraint);
+                if (id == null) {
+                    id = constraintList.size();
+                    constraintIds.put(constraint, id);
+                    constraintList.add(constraint);
+                    constraintCases.add(new ArrayList<Integer>());
+                }
+                ids.add(id);
+                constraintCases.get(id).add(caseId);
+            }
+
+            //most shared constraints first:
+            Collections.sort(ids, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer c1, Integer c2) {
+                    return constraintCases.get(c2).size() - constraintCases.get(c1).size();
+                }
+            });
+            caseConstraintIds[caseId] = toArray(ids);
+        }
+
+        constraints = constraintList.toArray(new WeakExpression[constraintList.size()]);
+        constraintCaseIds = new int[constraints.length][];
+        for (int c = 0; c < constraints.length; c++) {
+            constraintCaseIds[c] = toArray(constraintCases.get(c));
+        }
+
+        final int numCases = cases.size();
+        scratches = new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch(constraints.length, numCases);
+            }
+        };
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    int numCases() {
+        return caseConstraintIds.length;
+    }
+
+    /**
+     * @return the id of the (first) case all constraints of which hold, or -1 if no such case exists
+     */
+    int lookup(Double[] assignment) {
+        Scratch s = scratches.get();
+        if (s.generation == Integer.MAX_VALUE) {
+            Arrays.fill(s.evaluatedAt, 0);
+            Arrays.fill(s.eliminatedAt, 0);
+            s.generation = 0;
+        }
+        int generation = ++s.generation;
+
+        int last = s.lastActivatedCaseId;
+        if (last != -1 && holds(last, assignment, s, generation)) return last;
+
+        for (int caseId = 0; caseId < caseConstraintIds.length; caseId++) {
+            if (s.eliminatedAt[caseId] == generation) continue;
+            if (holds(caseId, assignment, s, generation)) {
+                s.lastActivatedCaseId = caseId;
+                return caseId;
+            }
+        }
+        return -1;
+    }
+
+    private boolean holds(int caseId, Double[] assignment, Scratch s, int generation) {
+        for (int c : caseConstraintIds[caseId]) {
+            if (s.evaluatedAt[c] != generation) {
+                s.evaluatedAt[c] = generation;
+                s.holds[c] = constraints[c].evaluate(assignment) > 0;
+                if (!s.holds[c]) {
+                    for (int eliminatedCaseId : constraintCaseIds[c]) {
+                        s.eliminatedAt[eliminatedCaseId] = generation;
+                    }
+                }
+            }
+            if (!s.holds[c]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,30 @@
+package hgm.poly;
+
+/**
+ * A fraction compiled for repeated evaluation (see {@link Fraction#compile()} and {@link CompiledPolynomial}).
+ */
+public class CompiledFraction {
+    private CompiledPolynomial numerator;
+    private CompiledPolynomial denominator;
+
+    CompiledFraction(CompiledPolynomial numerator, CompiledPolynomial denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+    }
+
+    public double evaluate(Double[] fullVarValues) {
+        return numerator.evaluate(fullVarValues) / denominator.evaluate(fullVarValues);
+    }
+
+    public double evaluate(double[] fullVarValues) {
+        return numerator.evaluate(fullVarValues) / denominator.evaluate(fullVarValues);
+    }
+
+    public CompiledPolynomial getNumerator() {
+        return numerator;
+    }
+
+    public CompiledPolynomial getDenominator() {
+        return denominator;
+    }
+}
@@ -0,0 +1,199 @@
+package hgm.poly;
+
+import java.util.Arrays;
+
+/**
+ * A polynomial compiled for repeated evaluation (see {@link Polynomial#compile()}).
+ * Each term is flattened to its coefficient and the (variable, power) pairs of its non-zero powers. Positive integer
+ * powers are read from per-variable power tables that are filled once per evaluation by repeated multiplication, so
+ * Math.pow is only called for fractional or negative powers. The tables are allocated once, hence an evaluation
+ * allocates nothing. A compiled polynomial shared between threads (e.g. sampling chains) is evaluated with the
+ * {@link PowerTables} of the calling chain; the methods without tables use those of the polynomial itself and should
+ * not be called by several threads at once.
+ * <p/>
+ * If all other variables are fixed, {@link #collapse(Double[], int)} reduces the polynomial to the coefficients of a
+ * univariate polynomial in the remaining variable, which is then evaluated by the Horner scheme.
+ */
+public class CompiledPolynomial {
+
+    /**
+     * Reusable power tables, table[v][k] = (value of v)^k, that grow to the largest power required by the polynomials
+     * evaluated with them. Not to be shared between threads.
+     */
+    public static class PowerTables {
+        private double[][] tables = new double[0][];
+
+        private double[] table(int v, int size) {
+            if (v >= tables.length) tables = Arrays.copyOf(tables, v + 1);
+            double[] table = tables[v];
+            if (table == null || table.length < size) {
+                table = new double[size];
+                table[0] = 1d;
+                tables[v] = table;
+            }
+            return table;
+        }
+    }
+
+    private int numVars;
+
+    private double[] coefs;
+    private int[] termEnds;    // factors of term t are termEnds[t-1] ... termEnds[t]-1
+    private int[] factorVars;
+    private int[] factorIntPows;    // positive integer power, or 0 if Math.pow is needed
+    private double[] factorPows;
+
+    private int[] scopeVars;
+    private int[] maxIntPows;
+    private int[] tableSizes;    // 1 + max(1, max. integer power of v); entry 1 is the value itself (read by Math.pow)
+    private PowerTables ownTables = new PowerTables();
+
+    CompiledPolynomial(PolynomialFactory factory, double[] powers, double[] coefs, int size) {
+        this.numVars = factory.numberOfVars();
+        this.coefs = Arrays.copyOf(coefs, size);
+        this.termEnds = new int[size];
+
+        int numFactors = 0;
+        for (int i = 0; i < size * numVars; i++) {
+            if (powers[i] != 0d) numFactors++;
+        }
+        factorVars = new int[numFactors];
+        factorIntPows = new int[numFactors];
+        factorPows = new double[numFactors];
+
+        maxIntPows = new int[numVars];
+        boolean[] inScope = new boolean[numVars];
+        int f = 0;
+        for (int t = 0; t < size; t++) {
+            for (int v = 0; v < numVars; v++) {
+                double p = powers[t * numVars + v];
+                if (p == 0d) continue;
+                factorVars[f] = v;
+                factorPows[f] = p;
+                factorIntPows[f] = (p > 0 && p == (int) p) ? (int) p : 0;
+                maxIntPows[v] = Math.max(maxIntPows[v], factorIntPows[f]);
+                inScope[v] = true;
+                f++;
+            }
+            termEnds[t] = f;
+        }
+
+        int numScopeVars = 0;
+        for (boolean b : inScope) {
+            if (b) numScopeVars++;
+        }
+        scopeVars = new int[numScopeVars];
+        int s = 0;
+        for (int v = 0; v < numVars; v++) {
+            if (inScope[v]) scopeVars[s++] = v;
+        }
+        tableSizes = new int[numVars];
+        for (int v : scopeVars) {
+            tableSizes[v] = Math.max(maxIntPows[v], 1) + 1;
+        }
+    }
+
+    public double evaluate(Double[] fullVarValues) {
+        return evaluate(fullVarValues, ownTables);
+    }
+
+    public double evaluate(Double[] fullVarValues, PowerTables powerTables) {
+        for (int v : scopeVars) {
+            if (fullVarValues[v] == null) throw new PolynomialException("full assignment expected: " + Arrays.toString(fullVarValues));
+            fillPowerTable(powerTables.table(v, tableSizes[v]), tableSizes[v], fullVarValues[v]);
+        }
+        return sumTerms(powerTables.tables);
+    }
+
+    public double evaluate(double[] fullVarValues) {
+        return evaluate(fullVarValues, ownTables);
+    }
+
+    public double evaluate(double[] fullVarValues, PowerTables powerTables) {
+        for (int v : scopeVars) {
+            fillPowerTable(powerTables.table(v, tableSizes[v]), tableSizes[v], fullVarValues[v]);
+        }
+        return sumTerms(powerTables.tables);
+    }
+
+    private static void fillPowerTable(double[] table, int size, double value) {
+        for (int k = 1; k < size; k++) {
+            table[k] = table[k - 1] * value;
+        }
+    }
+
+    private double sumTerms(double[][] tables) {
+        double eval = 0d;
+        int f = 0;
+        for (int t = 0; t < coefs.length; t++) {
+            double c = coefs[t];
+            for (; f < termEnds[t]; f++) {
+                c *= factorPow(tables, f);
+            }
+            eval += c;
+        }
+        return eval;
+    }
+
+    private double factorPow(double[][] tables, int f) {
+        double[] table = tables[factorVars[f]];
+        int k = factorIntPows[f];
+        return k > 0 ? table[k] : Math.pow(table[1], factorPows[f]);
+    }
+
+    /**
+     * @return true if all powers of the variable are non-negative integers (so that it can be collapsed into)
+     */
+    public boolean isPolynomialIn(int varIndex) {
+        for (int f = 0; f < factorVars.length; f++) {
+            if (factorVars[f] == varIndex && factorIntPows[f] == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param varValues values of all variables (in the scope of this polynomial) except 'varIndex' which is ignored
+     * @return coefficients c such that this polynomial is c[0] + c[1]*x + ... + c[d]*x^d where x is the variable
+     * 'varIndex' (see {@link #horner(double[], double)}); requires {@link #isPolynomialIn(int)}
+     */
+    public double[] collapse(Double[] varValues, int varIndex) {
+        return collapse(varValues, varIndex, ownTables);
+    }
+
+    public double[] collapse(Double[] varValues, int varIndex, PowerTables powerTables) {
+        int degree = 0;
+        for (int v : scopeVars) {
+            if (v == varIndex) {
+                degree = maxIntPows[v];
+                continue;
+            }
+            if (varValues[v] == null) throw new PolynomialException("assignment expected for all variables except " + varIndex + ": " + Arrays.toString(varValues));
+            fillPowerTable(powerTables.table(v, tableSizes[v]), tableSizes[v], varValues[v]);
+        }
+        double[][] tables = powerTables.tables;
+
+        double[] coefficients = new double[degree + 1];
+        int f = 0;
+        for (int t = 0; t < coefs.length; t++) {
+            double c = coefs[t];
+            int k = 0;
+            for (; f < termEnds[t]; f++) {
+                if (factorVars[f] == varIndex) {
+                    k = factorIntPows[f];
+                } else {
+                    c *= factorPow(tables, f);
+                }
+            }
+            coefficients[k] += c;
+        }
+        return coefficients;
+    }
+
+    public static double horner(double[] coefficients, double x) {
+        double result = 0d;
+        for (int k = coefficients.length - 1; k >= 0; k--) {
+            result = result * x + coefficients[k];
+        }
+        return result;
+    }
+}
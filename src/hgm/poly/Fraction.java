@@ -151,6 +151,13 @@ public class Fraction implements Expression<Fraction>, Cloneable {
         return evaluate(varValues);
     }
 
+    /**
+     * @return a snapshot of this fraction for repeated evaluation (see {@link Polynomial#compile()})
+     */
+    public CompiledFraction compile() {
+        return new CompiledFraction(numerator.compile(), denominator.compile());
+    }
+
     @Override
     public String toString() {
         String ns = numerator.toString();
@@ -203,6 +210,8 @@ public class Fraction implements Expression<Fraction>, Cloneable {
     }
 
 
+    //the returned integrals are stateless (Polynomial.evaluate rather than compiled polynomials with their own power
+    // tables), since the CDF generators holding them are shared between parallel sampling chains
     public WeakExpression calcIndefIntegral(final int varIndex) {
         int denominatorRelDegree = denominator.degree(varIndex);
 
@@ -269,7 +278,7 @@ public class Fraction implements Expression<Fraction>, Cloneable {
 
                     if (del > 0) {
                         double delRoot = Math.sqrt(del);
-                        double result = (2 * c1.evaluate(fullVarAssign) * Math.atan(two_ax_plus_b / delRoot)) / delRoot;
+                        double result = (2 * g * Math.atan(two_ax_plus_b / delRoot)) / delRoot;
                         if (Double.isNaN(result)) throw new RuntimeException();
                         return result;
                     } else if (del < 0) {
@@ -0,0 +1,157 @@
+package hgm.poly;
+
+import org.apache.commons.math3.optim.MaxIter;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.linear.LinearConstraint;
+import org.apache.commons.math3.optim.linear.LinearConstraintSet;
+import org.apache.commons.math3.optim.linear.LinearObjectiveFunction;
+import org.apache.commons.math3.optim.linear.NonNegativeConstraint;
+import org.apache.commons.math3.optim.linear.Relationship;
+import org.apache.commons.math3.optim.linear.SimplexSolver;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A cheap summary of a set of (case statement) constraints, each of which means 'expression > 0', used to detect
+ * (some) empty regions: constraints that are linear in a single variable are turned into an open interval of that
+ * variable; other linear constraints are only kept for an (optional) linear programming test; non-linear constraints are
+ * ignored. Hence if the region is reported empty, it is empty, but not vice versa.
+ */
+public class LinearConstraintBounds {
+    public static final double LP_TOLERANCE = 1E-10;
+    public static final int LP_MAX_ITERATIONS = 1000;
+
+    private int numVars;
+    private double[] lowers;
+    private double[] uppers;
+    private boolean empty = false;
+    private List<double[]> multiVarConstraints = new ArrayList<double[]>(); // linear coefficients (see Polynomial.getLinearCoefficients())
+
+    public LinearConstraintBounds(PolynomialFactory factory, Collection<? extends WeakExpression> constraints) {
+        this(factory.numberOfVars());
+        for (WeakExpression constraint : constraints) {
+            add(constraint);
+        }
+    }
+
+    private LinearConstraintBounds(int numVars) {
+        this.numVars = numVars;
+        lowers = new double[numVars];
+        uppers = new double[numVars];
+        Arrays.fill(lowers, Double.NEGATIVE_INFINITY);
+        Arrays.fill(uppers, Double.POSITIVE_INFINITY);
+    }
+
+    private void add(WeakExpression constraint) {
+        double[] c = linearCoefficients(constraint);
+        if (c == null) return; // not linear
+
+        int var = -1;
+        int numConstraintVars = 0;
+        for (int i = 0; i < numVars; i++) {
+            if (c[i] != 0d) {
+                var = i;
+                numConstraintVars++;
+            }
+        }
+        if (numConstraintVars == 0) {
+            if (c[numVars] <= 0d) empty = true;  // constant constraint
+        } else if (numConstraintVars == 1) {
+            double bound = -c[numVars] / c[var];   // c[var] * x + c[n] > 0
+            if (c[var] > 0) lowers[var] = Math.max(lowers[var], bound);
+            else uppers[var] = Math.min(uppers[var], bound);
+            if (lowers[var] >= uppers[var]) empty = true;
+        } else {
+            multiVarConstraints.add(c);
+        }
+    }
+
+    private double[] linearCoefficients(WeakExpression constraint) {
+        if (constraint instanceof Polynomial) return ((Polynomial) constraint).getLinearCoefficients();
+        if (constraint instanceof Fraction) {
+            Fraction f = (Fraction) constraint;
+            Polynomial den = f.getDenominator();
+            if (!den.isNumber() || den.getNumericalValue() == 0d) return null;
+            double[] c = f.getNumerator().getLinearCoefficients();
+            if (c == null) return null;
+            double d = den.getNumericalValue();
+            for (int i = 0; i < c.length; i++) {
+                c[i] /= d;
+            }
+            return c;
+        }
+        return null;
+    }
+
+    /**
+     * @return bounds of the union of both constraint sets (i.e. of the intersection of their regions)
+     */
+    public LinearConstraintBounds intersect(LinearConstraintBounds other) {
+        if (numVars != other.numVars) throw new RuntimeException("factory mismatch");
+        LinearConstraintBounds result = new LinearConstraintBounds(numVars);
+        result.empty = this.empty || other.empty;
+        for (int i = 0; i < numVars; i++) {
+            result.lowers[i] = Math.max(this.lowers[i], other.lowers[i]);
+            result.uppers[i] = Math.min(this.uppers[i], other.uppers[i]);
+            if (result.lowers[i] >= result.uppers[i]) result.empty = true;
+        }
+        result.multiVarConstraints.addAll(this.multiVarConstraints);
+        result.multiVarConstraints.addAll(other.multiVarConstraints);
+        return result;
+    }
+
+    /**
+     * @return true if the single variable intervals (or constant constraints) are contradictory
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Besides {@link #isEmpty()}, if there are linear constraints on several variables, tests by the simplex method if
+     * a point satisfies all linear constraints with a positive slack t, i.e. maximizes t subject to
+     * 'linear constraint - t >= 0' (and t <= 1 to keep it bounded).
+     */
+    public boolean isEmptyByLinearProgramming() {
+        if (empty) return true;
+        if (multiVarConstraints.isEmpty()) return false;
+
+        int t = numVars; //index of the slack variable
+        List<LinearConstraint> lpConstraints = new ArrayList<LinearConstraint>();
+        for (double[] c : multiVarConstraints) {
+            double[] row = Arrays.copyOf(c, numVars + 1);
+            row[t] = -1d;
+            lpConstraints.add(new LinearConstraint(row, Relationship.GEQ, -c[numVars]));
+        }
+        for (int i = 0; i < numVars; i++) {
+            if (lowers[i] != Double.NEGATIVE_INFINITY) {  // x_i - t >= lower
+                double[] row = new double[numVars + 1];
+                row[i] = 1d;
+                row[t] = -1d;
+                lpConstraints.add(new LinearConstraint(row, Relationship.GEQ, lowers[i]));
+            }
+            if (uppers[i] != Double.POSITIVE_INFINITY) { // -x_i - t >= -upper
+                double[] row = new double[numVars + 1];
+                row[i] = -1d;
+                row[t] = -1d;
+                lpConstraints.add(new LinearConstraint(row, Relationship.GEQ, -uppers[i]));
+            }
+        }
+        double[] tOnly = new double[numVars + 1];
+        tOnly[t] = 1d;
+        lpConstraints.add(new LinearConstraint(tOnly, Relationship.LEQ, 1d));
+
+        try {
+            PointValuePair solution = new SimplexSolver().optimize(new MaxIter(LP_MAX_ITERATIONS),
+                    new LinearObjectiveFunction(tOnly, 0d), new LinearConstraintSet(lpConstraints),
+                    GoalType.MAXIMIZE, new NonNegativeConstraint(false));
+            return solution.getValue() <= LP_TOLERANCE;
+        } catch (RuntimeException e) {
+            return false; // (e.g. too many iterations) not known to be empty
+        }
+    }
+}
@@ -10,12 +10,25 @@ import java.util.*;
  * Time: 8:07 PM
  */
 public class PiecewiseExpression<E extends Expression>{
+    /**
+     * If set, the cases of products (and sums) whose combined constraints are contradictory (see
+     * {@link LinearConstraintBounds}) are dropped, and so are the cases whose constraints equal those of a former case
+     * (that would never be activated).
+     */
+    public static boolean PRUNE_EMPTY_CASES = true;
+    /**
+     * If set (as well as {@link #PRUNE_EMPTY_CASES}), linear constraints on several variables are tested by linear
+     * programming as well, that is more expensive but finds more empty cases.
+     */
+    public static boolean PRUNE_EMPTY_CASES_BY_LINEAR_PROGRAMMING = false;
+
     /**
      * It is assumed that (the constraints of) different cases are mutually exclusive and jointly exhaustive.
      * However, if this parameter is unset, it is assumed that a case exists with constraint = 'negation of constraints of other cases' and value = 0.
      */
     boolean isJointlyExhaustive = true;
     private List<ConstrainedExpression<E>> cases;
+    private volatile CaseLookupIndex caseLookupIndex = null; //built on the first lookup
 
     public PiecewiseExpression(ConstrainedExpression<E>... cases) {
         this(true, cases);
@@ -86,21 +99,17 @@ public class PiecewiseExpression<E extends Expression>{
 
     }
 
+    /**
+     * Note: the cases are indexed on the first call (see {@link CaseLookupIndex}) so they should not be modified afterwards.
+     */
     public Integer getActivatedCaseId(Double[] assignment) throws FatalSamplingException {
-        for (int caseId = 0; caseId < cases.size(); caseId++) {
-            ConstrainedExpression aCase = cases.get(caseId);
-            Collection<Expression> constraints = aCase.getConstraints();
-            boolean allConstraintsOfThisCaseHold = true;
-            for (Expression constraint : constraints) {
-                if (constraint.evaluate(assignment) <= 0) {
-                    allConstraintsOfThisCaseHold = false;
-                    break; //another case should be tested...
-                }
-            }
-            if (allConstraintsOfThisCaseHold) {
-                return caseId;
-            }
+        CaseLookupIndex index = caseLookupIndex;
+        if (index == null || index.numCases() != cases.size()) {
+            index = new CaseLookupIndex(cases);
+            caseLookupIndex = index;
         }
+        int caseId = index.lookup(assignment);
+        if (caseId != -1) return caseId;
 
         if (isJointlyExhaustive) {
             throw new FatalSamplingException("For assignment: " + Arrays.toString(assignment) + " no case (in a jointly exhaustive piecewise polynomial) holds!\n" + this.toString());
@@ -119,20 +128,27 @@ public class PiecewiseExpression<E extends Expression>{
      * @return adds the new constraints to all statements and multiplies all sub-functions in the new polynomial
      */
     public PiecewiseExpression multiply(List<? extends Expression> newConstraints, Expression newPolynomial){
-        ConstrainedExpression[] augmentedCases = new ConstrainedExpression[cases.size()];
-        for (int i = 0; i < cases.size(); i++) {
-            ConstrainedExpression aCase = cases.get(i);
+        List<ConstrainedExpression> augmentedCases = new ArrayList<ConstrainedExpression>(cases.size());
+        LinearConstraintBounds newBounds = PRUNE_EMPTY_CASES ? new LinearConstraintBounds(getFactory(), newConstraints) : null;
+        for (ConstrainedExpression<E> aCase : cases) {
+            if (PRUNE_EMPTY_CASES && isEmpty(new LinearConstraintBounds(getFactory(), aCase.getConstraints()).intersect(newBounds))) {
+                continue; //the augmented case is zero everywhere
+            }
             List<Expression> augmentedConstraints = new ArrayList<Expression>(aCase.getConstraints().size() + newConstraints.size());
             augmentedConstraints.addAll(aCase.getConstraints());
             augmentedConstraints.addAll(newConstraints);
 
             ConstrainedExpression augmentedCase = new ConstrainedExpression(aCase.getFruit().returnMultiplication(newPolynomial), augmentedConstraints);
-            augmentedCases[i] = augmentedCase;
+            augmentedCases.add(augmentedCase);
         }
 
         return new PiecewiseExpression(false, augmentedCases);
     }
 
+    private static boolean isEmpty(LinearConstraintBounds bounds) {
+        return PRUNE_EMPTY_CASES_BY_LINEAR_PROGRAMMING ? bounds.isEmptyByLinearProgramming() : bounds.isEmpty();
+    }
+
     public PiecewiseExpression add(PiecewiseExpression other) {
         if (!this.isJointlyExhaustive || !other.isJointlyExhaustive) throw new RuntimeException("ADDITION is not implemented for nonExhaustive piecewise expressions");
         return addCrossProdOp.run(this, other);
@@ -183,44 +199,76 @@ public class PiecewiseExpression<E extends Expression>{
     abstract class SegmentCrossProdOperation{
         PiecewiseExpression run(PiecewiseExpression<E> thisPP, PiecewiseExpression<E> otherPP){
             boolean prodIsJointlyExclusive = thisPP.isJointlyExhaustive && otherPP.isJointlyExhaustive;
-            List<ConstrainedExpression> prodCases = new ArrayList<ConstrainedExpression>();
+            List<ConstrainedExpression<E>> prodCases = new ArrayList<ConstrainedExpression<E>>();
+            Set<Set<E>> prodConstraints = new HashSet<Set<E>>(); //constraints of the product cases so far
+            Map<List<Expression<?>>, E> operationCache = new HashMap<List<Expression<?>>, E>(); //fruits are often repeated in different cases
 
             //determining sub-regions...
             Map<CaseStatementConstraints, CaseStatementConstraints> subset2superSet = computeSub2SuperSetMap(thisPP, otherPP);
 
+            //bounds of the constraints of the other cases, to skip combined cases that are empty:
+            List<ConstrainedExpression<E>> otherCases = otherPP.getCases();
+            LinearConstraintBounds[] otherBounds = new LinearConstraintBounds[otherCases.size()];
+            if (PRUNE_EMPTY_CASES) {
+                for (int j = 0; j < otherCases.size(); j++) {
+                    otherBounds[j] = new LinearConstraintBounds(thisPP.getFactory(), otherCases.get(j).getConstraints());
+                }
+            }
+
             for (ConstrainedExpression<E> cp1 : thisPP.getCases()) {
-                CaseStatementConstraints cn1 = cp1.getConstraints();
+                CaseStatementConstraints<E> cn1 = cp1.getConstraints();
 
                 CaseStatementConstraints superSetOfCn1 = subset2superSet.get(cn1);
                 if (superSetOfCn1 != null) { //cn1 is a sub-set of a set...
                     //so only consider the super-set:
-                    prodCases.add(new ConstrainedExpression(
-                            operate(cp1.getFruit(), otherPP.getCorrespondingPolynomial(superSetOfCn1)), //cp1.getPolynomial().multiply(otherPP.getCorrespondingPolynomial(superSetOfCn1)),
-                            cn1));
+                    addCase(prodCases, prodConstraints,
+                            cachedOperate(operationCache, cp1.getFruit(), otherPP.getCorrespondingPolynomial(superSetOfCn1)), //cp1.getPolynomial().multiply(otherPP.getCorrespondingPolynomial(superSetOfCn1)),
+                            cn1);
                 } else {
-                    for (ConstrainedExpression<E> cp2: otherPP.getCases()) {
-                        CaseStatementConstraints cn2 = cp2.getConstraints();
+                    LinearConstraintBounds bounds1 = PRUNE_EMPTY_CASES ? new LinearConstraintBounds(thisPP.getFactory(), cn1) : null;
+                    for (int j = 0; j < otherCases.size(); j++) {
+                        ConstrainedExpression<E> cp2 = otherCases.get(j);
+                        CaseStatementConstraints<E> cn2 = cp2.getConstraints();
                         CaseStatementConstraints superSetOfCn2 = subset2superSet.get(cn2);
                         if (superSetOfCn2 == null) {
-                            Set<Expression> bothConstraints = new HashSet<Expression>(cn1);
+                            if (PRUNE_EMPTY_CASES && isEmpty(bounds1.intersect(otherBounds[j]))) continue; //the combined case is empty
+
+                            Set<E> bothConstraints = new HashSet<E>(cn1);
                             bothConstraints.addAll(cn2);
-                            prodCases.add(new ConstrainedExpression(
-                                    operate(cp1.getFruit(), cp2.getFruit()), //cp1.getPolynomial().multiply(cp2.getPolynomial()),
-                                    bothConstraints));
+                            addCase(prodCases, prodConstraints,
+                                    cachedOperate(operationCache, cp1.getFruit(), cp2.getFruit()), //cp1.getPolynomial().multiply(cp2.getPolynomial()),
+                                    bothConstraints);
 
                         } else if (superSetOfCn2.equals(cn1)) {
-                            prodCases.add(new ConstrainedExpression(
-                                    operate(cp1.getFruit(), cp2.getFruit()), //cp1.getPolynomial().multiply(cp2.getPolynomial()),
-                                    cn2));
+                            addCase(prodCases, prodConstraints,
+                                    cachedOperate(operationCache, cp1.getFruit(), cp2.getFruit()), //cp1.getPolynomial().multiply(cp2.getPolynomial()),
+                                    cn2);
                         } //else do nothing since cn2 is a subset of another partition in the first piecewise function...
                     }
                 }
             }
 
-            return new PiecewiseExpression(prodIsJointlyExclusive, prodCases);
+            return new PiecewiseExpression<E>(prodIsJointlyExclusive, prodCases);
 
         }
 
+        //a case with the same constraints as a former case is never activated (see getActivatedCaseId()), so it is not added:
+        private void addCase(List<ConstrainedExpression<E>> prodCases, Set<Set<E>> prodConstraints, E fruit, Set<E> constraints) {
+            if (PRUNE_EMPTY_CASES && !prodConstraints.add(new HashSet<E>(constraints))) return;
+            prodCases.add(new ConstrainedExpression<E>(fruit, constraints));
+        }
+
+        @SuppressWarnings("unchecked") //operate() on two fruits of type E returns an E
+        private E cachedOperate(Map<List<Expression<?>>, E> operationCache, Expression<?> poly1, Expression<?> poly2) {
+            List<Expression<?>> key = Arrays.<Expression<?>>asList(poly1, poly2);
+            E result = operationCache.get(key);
+            if (result == null) {
+                result = (E) operate(poly1, poly2);
+                operationCache.put(key, result);
+            }
+            return result;
+        }
+
         abstract Expression operate(Expression poly1, Expression poly2);
 
         Map<CaseStatementConstraints, CaseStatementConstraints> computeSub2SuperSetMap(PiecewiseExpression<E> thisPP, PiecewiseExpression<E> otherPP) {
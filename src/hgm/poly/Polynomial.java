@@ -11,24 +11,25 @@ import java.util.*;
  */
 public class Polynomial implements Expression<Polynomial>, Cloneable{
     private PolynomialFactory factory;
-    private Map<List<Double> /*powers*/, Double /*coefficient*/> powers2coefMap;
+    private int numVars;
 
-//    private List<Double> zeroPowers;
+    // Terms are packed in primitive arrays, sorted by their powers (in decreasing lexicographic order, see compare()):
+    // the powers of the i-th term are powers[i*numVars ... (i+1)*numVars - 1] and its coefficient is coefs[i].
+    // Zero coefficients are not stored so equal polynomials have equal arrays.
+    private double[] powers;
+    private double[] coefs;
+    private int size;
 
     public Polynomial(PolynomialFactory factory) {
-//        this.factory = factory;
-//        powers2coefMap = new HashMap<List<Double>, Double>();
-        this(factory, new HashMap<List<Double>, Double>());
+        this(factory, 4);
     }
 
-    private Polynomial(PolynomialFactory factory, Map<List<Double>, Double> powers2coefMap) {
+    private Polynomial(PolynomialFactory factory, int capacity) {
         this.factory = factory;
-        this.powers2coefMap = powers2coefMap;
-
-//        Double[] zeros = new Double[factory.getAllVars().length];
-//        Arrays.fill(zeros, 0d);
-//        zeroPowers = Arrays.asList(zeros);
-//        System.out.println("zeroPowers = " + zeroPowers);
+        this.numVars = factory.numberOfVars();
+        this.powers = new double[capacity * numVars];
+        this.coefs = new double[capacity];
+        this.size = 0;
     }
 
     @Override
@@ -39,7 +40,13 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
         Polynomial that = (Polynomial) o;
 
         if (!factory.equals(that.factory)) return false;
-        if (!powers2coefMap.equals(that.powers2coefMap)) return false;
+        if (size != that.size) return false;
+        for (int i = 0; i < size; i++) {
+            if (coefs[i] != that.coefs[i]) return false;
+        }
+        for (int i = 0; i < size * numVars; i++) {
+            if (powers[i] != that.powers[i]) return false;
+        }
 
         return true;
     }
@@ -47,50 +54,160 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     @Override
     public int hashCode() {
         int result = factory.hashCode();
-        result = 31 * result + powers2coefMap.hashCode();
+        for (int i = 0; i < size; i++) {
+            long bits = Double.doubleToLongBits(coefs[i]);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+        }
+        for (int i = 0; i < size * numVars; i++) {
+            long bits = Double.doubleToLongBits(powers[i]);
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+        }
         return result;
     }
 
     public Double getCoefficient(List<Double> powers) {
-        Double c = powers2coefMap.get(powers);
-        return c == null ? 0d : c;
+        int i = indexOf(toArray(powers), 0);
+        return i < 0 ? 0d : coefs[i];
     }
 
 
     public void addTerm(List<Double> powers, Double coefficient) {
+        addTerm(toArray(powers), 0, coefficient);
+    }
+
+    // adds coefficient * (the monomial with powers pows[from ... from+numVars-1])
+    private void addTerm(double[] pows, int from, double coefficient) {
         if (coefficient == 0d) return;
 
-        Double existingCoef = getCoefficient(powers);
+        int i = indexOf(pows, from);
+        if (i >= 0) {
+            double newCoef = coefs[i] + coefficient;
+            if (newCoef == 0d) {
+                removeTerm(i);  // zero coefficients are not stored
+            } else {
+                coefs[i] = newCoef;
+            }
+            return;
+        }
 
-        Double newCoef = existingCoef + coefficient;
-        if (newCoef == 0d) {
-            powers2coefMap.remove(powers);  // zero coefficients are not stored
-        } else {
-            powers2coefMap.put(powers, newCoef);
+        i = -(i + 1);
+        ensureCapacity(size + 1);
+        System.arraycopy(coefs, i, coefs, i + 1, size - i);
+        System.arraycopy(powers, i * numVars, powers, (i + 1) * numVars, (size - i) * numVars);
+        System.arraycopy(pows, from, powers, i * numVars, numVars);
+        coefs[i] = coefficient;
+        size++;
+    }
+
+    private void removeTerm(int i) {
+        System.arraycopy(coefs, i + 1, coefs, i, size - i - 1);
+        System.arraycopy(powers, (i + 1) * numVars, powers, i * numVars, (size - i - 1) * numVars);
+        size--;
+    }
+
+    // appends a term that comes after all current terms (in the sorted order)
+    private void appendTerm(double[] pows, int from, double coefficient) {
+        ensureCapacity(size + 1);
+        System.arraycopy(pows, from, powers, size * numVars, numVars);
+        coefs[size++] = coefficient;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= coefs.length) return;
+        int capacity = Math.max(n, 2 * coefs.length);
+        coefs = Arrays.copyOf(coefs, capacity);
+        powers = Arrays.copyOf(powers, capacity * numVars);
+    }
+
+    // binary search for the term with the given powers, if not found returns -(insertion point) - 1
+    private int indexOf(double[] pows, int from) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(powers, mid * numVars, pows, from, numVars);
+            if (c < 0) low = mid + 1;
+            else if (c > 0) high = mid - 1;
+            else return mid;
         }
+        return -(low + 1);
     }
 
-    public void addToThis(Polynomial other) {
-        assetMatching(other);
+    // term order: the term with the higher power of the first differing variable comes first
+    private static int compare(double[] p1, int from1, double[] p2, int from2, int numVars) {
+        for (int i = 0; i < numVars; i++) {
+            double d1 = p1[from1 + i];
+            double d2 = p2[from2 + i];
+            if (d1 > d2) return -1;
+            if (d1 < d2) return 1;
+        }
+        return 0;
+    }
 
-        for (Map.Entry<List<Double>, Double> otherTermAndCoef : other.powers2coefMap.entrySet()) {
-            List<Double> otherPowers = otherTermAndCoef.getKey();
-            Double otherCoef = otherTermAndCoef.getValue();
+    private double[] toArray(List<Double> pows) {
+        double[] a = new double[numVars];
+        for (int i = 0; i < numVars; i++) {
+            a[i] = pows.get(i) + 0d; //+0 turns -0.0 into 0.0
+        }
+        return a;
+    }
 
-            addTerm(otherPowers, otherCoef);
+    private List<Double> powersOf(int term) {
+        Double[] pow = new Double[numVars];
+        for (int i = 0; i < numVars; i++) {
+            pow[i] = powers[term * numVars + i];
+        }
+        return Arrays.asList(pow);
+    }
+
+    public void addToThis(Polynomial other) {
+        assetMatching(other);
+        Polynomial sum = merge(this, other);
+        this.powers = sum.powers;
+        this.coefs = sum.coefs;
+        this.size = sum.size;
+    }
+
+    // sum of two polynomials by merging their sorted terms
+    private static Polynomial merge(Polynomial a, Polynomial b) {
+        int numVars = a.numVars;
+        Polynomial sum = new Polynomial(a.factory, a.size + b.size);
+        int i = 0;
+        int j = 0;
+        while (i < a.size && j < b.size) {
+            int c = compare(a.powers, i * numVars, b.powers, j * numVars, numVars);
+            if (c < 0) {
+                sum.appendTerm(a.powers, i * numVars, a.coefs[i]);
+                i++;
+            } else if (c > 0) {
+                sum.appendTerm(b.powers, j * numVars, b.coefs[j]);
+                j++;
+            } else {
+                double coef = a.coefs[i] + b.coefs[j];
+                if (coef != 0d) sum.appendTerm(a.powers, i * numVars, coef);
+                i++;
+                j++;
+            }
         }
+        for (; i < a.size; i++) sum.appendTerm(a.powers, i * numVars, a.coefs[i]);
+        for (; j < b.size; j++) sum.appendTerm(b.powers, j * numVars, b.coefs[j]);
+        return sum;
     }
 
     public void addScalarToThis(double d) {
-        addTerm(factory.getZeroPowers(), d);
+        addTerm(new double[numVars], 0, d);
     }
 
     public Set<List<Double>> getAllPowers() {
-        return powers2coefMap.keySet();
+        Set<List<Double>> allPowers = new LinkedHashSet<List<Double>>(2 * size);
+        for (int i = 0; i < size; i++) {
+            allPowers.add(powersOf(i));
+        }
+        return allPowers;
     }
 
     public int size() {
-        return powers2coefMap.size();
+        return size;
     }
 
     private void assetMatching(Polynomial other) {
@@ -99,12 +216,12 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
 
     public void multiplyScalarInThis(double c) {
         if (c==0) {
-            powers2coefMap.clear();
+            size = 0;
             return;
         }
 
-        for (Map.Entry<List<Double>, Double> term : powers2coefMap.entrySet()) {
-            term.setValue(term.getValue() * c);
+        for (int i = 0; i < size; i++) {
+            coefs[i] *= c;
         }
     }
 
@@ -117,32 +234,51 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     @Override
     public Polynomial returnMultiplication(Polynomial other) {
         assetMatching(other);
-        Polynomial prod = new Polynomial(factory);
-        for (Map.Entry<List<Double>, Double> thisEntry : powers2coefMap.entrySet()) {
-            List<Double> thisPow = thisEntry.getKey();
-            Double thisCoef = thisEntry.getValue();
-
-            for (Map.Entry<List<Double>, Double> thatEntry : other.powers2coefMap.entrySet()) {
-                List<Double> thatPow = thatEntry.getKey();
-                Double thatCoef = thatEntry.getValue();
-
-                Double prodCoef = thisCoef * thatCoef;
-                List<Double> prodPow = powersProduct(thisPow, thatPow);
-
-                prod.addTerm(prodPow, prodCoef);
+        if (this.size == 0 || other.size == 0) return new Polynomial(factory);
+
+        // Multiplying all terms of the longer polynomial by the same monomial keeps them sorted, so the product is
+        // a merge of such sorted runs (one per term of the shorter polynomial)
+        Polynomial shorter = this.size <= other.size ? this : other;
+        Polynomial longer = this.size <= other.size ? other : this;
+
+        Polynomial[] runs = new Polynomial[shorter.size];
+        for (int i = 0; i < shorter.size; i++) {
+            Polynomial run = new Polynomial(factory, longer.size);
+            for (int j = 0; j < longer.size; j++) {
+                int to = j * numVars;
+                int from1 = i * numVars;
+                int from2 = j * numVars;
+                for (int k = 0; k < numVars; k++) {
+                    run.powers[to + k] = shorter.powers[from1 + k] + longer.powers[from2 + k];
+                }
+                run.coefs[j] = shorter.coefs[i] * longer.coefs[j];
             }
+            run.size = longer.size;
+            runs[i] = run;
         }
 
+        for (int n = runs.length; n > 1; n = (n + 1) / 2) {
+            for (int i = 0; i < n / 2; i++) {
+                runs[i] = merge(runs[2 * i], runs[2 * i + 1]);
+            }
+            if (n % 2 == 1) runs[n / 2] = runs[n - 1];
+        }
+        Polynomial prod = runs[0];
+        prod.removeZeroTerms();
         return prod;
     }
 
-    private List<Double> powersProduct(List<Double> thisPow, List<Double> thatPow) {
-        Double[] prodPow = new Double[thatPow.size()];
-        for (int i = 0; i < prodPow.length; i++) {
-            prodPow[i] = thisPow.get(i) + thatPow.get(i);
+    private void removeZeroTerms() {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (coefs[i] == 0d) continue;
+            if (n != i) {
+                coefs[n] = coefs[i];
+                System.arraycopy(powers, i * numVars, powers, n * numVars, numVars);
+            }
+            n++;
         }
-
-        return Arrays.asList(prodPow);
+        size = n;
     }
 
     @Override
@@ -153,23 +289,22 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
 
     @Override
     public Polynomial substitute(Double[] varValues) {
-        Polynomial result = new Polynomial(factory);
-        for (Map.Entry<List<Double>, Double> term : powers2coefMap.entrySet()) {
-
-            List<Double> pow = term.getKey();
-            List<Double> newPow = new ArrayList<Double>(pow.size());
+        Polynomial result = new Polynomial(factory, size);
+        double[] newPow = new double[numVars];
+        for (int t = 0; t < size; t++) {
 
             double c = 1.0;
-            for (int i = 0; i < varValues.length; i++) {
+            for (int i = 0; i < numVars; i++) {
+                double p = powers[t * numVars + i];
                 if (varValues[i] != null) {
-                    newPow.add(0d);
-                    c *= Math.pow(varValues[i], pow.get(i));
+                    newPow[i] = 0d;
+                    if (p != 0d) c *= Math.pow(varValues[i], p);
                 } else {
-                    newPow.add(pow.get(i));
+                    newPow[i] = p;
                 }
             }
 
-            result.addTerm(newPow, term.getValue() * c);
+            result.addTerm(newPow, 0, coefs[t] * c);
         }
 
         return result;
@@ -178,22 +313,18 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
 
     public void replaceThisWithDerivative(int derivativeVarIndex) {
 
-        Map<List<Double>, Double> newEntries = new HashMap<List<Double>, Double>(powers2coefMap.size());
-
-        for (Iterator<Map.Entry<List<Double>, Double>> iterator = powers2coefMap.entrySet().iterator(); iterator.hasNext(); ) {
-            Map.Entry<List<Double>, Double> term = iterator.next();
-
-//            iterator.remove();
-            List<Double> pow = term.getKey();
-
-            Double currentP = pow.get(derivativeVarIndex);
+        // Decreasing the same power of all terms keeps them sorted
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            double currentP = powers[i * numVars + derivativeVarIndex];
             if (currentP != 0) {
-            pow.set(derivativeVarIndex, currentP - 1);
-            newEntries.put(pow, term.getValue() * currentP);
+                if (n != i) System.arraycopy(powers, i * numVars, powers, n * numVars, numVars);
+                powers[n * numVars + derivativeVarIndex] = currentP - 1;
+                coefs[n] = coefs[i] * currentP;
+                n++;
             }
         }
-
-        powers2coefMap = newEntries;
+        size = n;
     }
 
     public Polynomial returnDerivative(int derivativeVarIndex) {
@@ -210,20 +341,12 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
 
     public void replaceThisWithIndefiniteIntegral(int integrationVarIndex) {
 
-        Map<List<Double>, Double> newEntries = new HashMap<List<Double>, Double>(powers2coefMap.size());
-
-        for (Iterator<Map.Entry<List<Double>, Double>> iterator = powers2coefMap.entrySet().iterator(); iterator.hasNext(); ) {
-            Map.Entry<List<Double>, Double> term = iterator.next();
-
-            iterator.remove();
-            List<Double> pow = term.getKey();
-
-            Double newP = pow.get(integrationVarIndex) + 1;
-            pow.set(integrationVarIndex, newP);
-            newEntries.put(pow, term.getValue() / newP);
+        // Increasing the same power of all terms keeps them sorted
+        for (int i = 0; i < size; i++) {
+            double newP = powers[i * numVars + integrationVarIndex] + 1;
+            powers[i * numVars + integrationVarIndex] = newP;
+            coefs[i] /= newP;
         }
-
-        powers2coefMap = newEntries;
     }
 
     public Polynomial returnIndefiniteIntegral(int integrationVarIndex) {
@@ -235,16 +358,16 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     //like 2 + 3.5*x^(3.9) + 6.66*x^(9.7)*y^(-3)
     @Override
     public String toString() {
-        if (this.powers2coefMap.isEmpty()) return "0.0";
+        if (size == 0) return "0.0";
 
         StringBuilder sb = new StringBuilder(this.size());
         String[] allVars = factory.getAllVars();
 
-        for (List<Double> powers : this.getAllPowers()) {
+        for (int t = 0; t < size; t++) {
 
-            sb.append(this.getCoefficient(powers)).append("*");
-            for (int i = 0; i < powers.size(); i++) {
-                Double p = powers.get(i);
+            sb.append(coefs[t]).append("*");
+            for (int i = 0; i < numVars; i++) {
+                double p = powers[t * numVars + i];
                 if (p != 0d) {
                     sb.append(allVars[i]).append("^(").append(p).append(")*");
                 }
@@ -263,15 +386,11 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     @Override
     @SuppressWarnings("CloneDoesntCallSuperClone, CloneDoesntDeclareCloneNotSupportedException")
     public Polynomial clone() {
-        Map<List<Double> /*powers*/, Double /*coefficient*/> newMap = new HashMap<List<Double>, Double>(powers2coefMap.size());
-
-        for (Map.Entry<List<Double>, Double> powersAndCoef : powers2coefMap.entrySet()) {
-            List<Double> ps = powersAndCoef.getKey();
-            Double c = powersAndCoef.getValue();
-            newMap.put(new ArrayList<Double>(ps), c);
-        }
-
-        return new Polynomial(factory, newMap);
+        Polynomial cloned = new Polynomial(factory, 0);
+        cloned.powers = Arrays.copyOf(powers, size * numVars);
+        cloned.coefs = Arrays.copyOf(coefs, size);
+        cloned.size = size;
+        return cloned;
     }
 
     @Deprecated
@@ -283,34 +402,61 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     @Override
     public double evaluate(Double[] fullVarValues) {
         double eval = 0d;
-        for (Map.Entry<List<Double>, Double> term : powers2coefMap.entrySet()) {
-            List<Double> pow = term.getKey();
+        for (int t = 0; t < size; t++) {
 
             double c = 1.0;
-            for (int i = 0; i < fullVarValues.length; i++) {
-                if (pow.get(i) != 0d) {
+            for (int i = 0; i < numVars; i++) {
+                double p = powers[t * numVars + i];
+                if (p != 0d) {
                     if (fullVarValues[i] == null) throw new PolynomialException("full assignment expected: " + Arrays.toString(fullVarValues));
-                    c *= Math.pow(fullVarValues[i], pow.get(i));
+                    c *= (p == 1d) ? fullVarValues[i] : Math.pow(fullVarValues[i], p);
                 }
             }
 
-            eval += term.getValue()*c;
+            eval += coefs[t]*c;
         }
 
         return eval;
     }
 
+    /**
+     * @return a snapshot of this polynomial for repeated evaluation (later changes to this polynomial are not reflected)
+     */
+    public CompiledPolynomial compile() {
+        return new CompiledPolynomial(factory, powers, coefs, size);
+    }
+
     @Override
     public PolynomialFactory getFactory() {
         return factory;
     }
 
+    /**
+     * @return c such that this polynomial is c[0]*x_0 + ... + c[n-1]*x_{n-1} + c[n] where n is the number of (factory)
+     * variables, or null if it is not linear
+     */
+    public double[] getLinearCoefficients() {
+        double[] c = new double[numVars + 1];
+        for (int t = 0; t < size; t++) {
+            int var = -1;
+            for (int i = 0; i < numVars; i++) {
+                double p = powers[t * numVars + i];
+                if (p == 0d) continue;
+                if (p != 1d || var != -1) return null;
+                var = i;
+            }
+            c[var == -1 ? numVars : var] += coefs[t];
+        }
+        return c;
+    }
+
     public int degree() {
         int maxTermDegree = 0;
-        for (List<Double> pow : powers2coefMap.keySet()) {
+        for (int t = 0; t < size; t++) {
             int termDegree = 0;
-            for (Double p : pow) {
-                int pInt = p.intValue();
+            for (int i = 0; i < numVars; i++) {
+                double p = powers[t * numVars + i];
+                int pInt = (int) p;
                 if (pInt != p) throw new PolynomialException("degree cannot be computed for non-integer powers...");
                 termDegree += pInt; //note: p should be an integer...
             }
@@ -322,8 +468,8 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     //degree w.r.t. a particular var
     public int degree(int varIndex) {
         int maxDegree = 0;
-        for (List<Double> pow : powers2coefMap.keySet()) {
-            maxDegree = Math.max(maxDegree,  pow.get(varIndex).intValue());
+        for (int t = 0; t < size; t++) {
+            maxDegree = Math.max(maxDegree, (int) powers[t * numVars + varIndex]);
         }
         return maxDegree;
     }
@@ -340,9 +486,8 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
 
     @Override
     public Polynomial returnAddition(Polynomial a) {
-        Polynomial r = this.clone();
-        r.addToThis(a);
-        return r;
+        assetMatching(a);
+        return merge(this, a);
     }
 
 
@@ -353,10 +498,9 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     public Set<String> getScopeVars(){
         Set<String> scopeVars = new HashSet<String>();
         String[] allVars = factory.getAllVars();
-            for (List<Double> powers : powers2coefMap.keySet()) {
-                for (int vId = 0; vId < powers.size(); vId++) {
-                    Double power = powers.get(vId);
-                    if (power != 0) {
+            for (int t = 0; t < size; t++) {
+                for (int vId = 0; vId < numVars; vId++) {
+                    if (powers[t * numVars + vId] != 0) {
                         scopeVars.add(allVars[vId]);
                     }
                 }
@@ -384,12 +528,11 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
 
     //e.g. split 'x*y + 5*x*z^2' to ['x*y', '5*x*z^2']
     public Polynomial[] split() {
-        Polynomial[] results = new Polynomial[powers2coefMap.size()];
-        int i=0;
-        for (Map.Entry<List<Double>, Double> power2coef : powers2coefMap.entrySet()) {
-            Polynomial split = new Polynomial(factory);
-            split.addTerm(power2coef.getKey(), power2coef.getValue());
-            results[i++] = split;
+        Polynomial[] results = new Polynomial[size];
+        for (int i = 0; i < size; i++) {
+            Polynomial split = new Polynomial(factory, 1);
+            split.appendTerm(powers, i * numVars, coefs[i]);
+            results[i] = split;
         }
         return results;
     }
@@ -418,29 +561,29 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
             result[i] = new Polynomial(factory);
         }
 
-        for (List<Double> pow : getAllPowers()) {
-            int varDegree = pow.get(varIndex).intValue(); //only works for int
-            List<Double> clonedPow = new ArrayList<Double>(pow);
-            clonedPow.set(varIndex, 0d);
-            result[varDegree].addTerm(clonedPow, getCoefficient(pow));
+        double[] clonedPow = new double[numVars];
+        for (int t = 0; t < size; t++) {
+            int varDegree = (int) powers[t * numVars + varIndex]; //only works for int
+            System.arraycopy(powers, t * numVars, clonedPow, 0, numVars);
+            clonedPow[varIndex] = 0d;
+            result[varDegree].addTerm(clonedPow, 0, coefs[t]);
         }
         return result;
     }
 
     public boolean isNumber() {
-        if (powers2coefMap.size() >1) return false; //just to make it a bit faster.
+        if (size >1) return false; //just to make it a bit faster.
         return degree() == 0;
     }
 
     public double getNumericalValue() {
         if (!isNumber()) throw new RuntimeException("this is a symbolic expression: " + this);
-        if (powers2coefMap.size() == 0) return 0;
-        List<Double> allZeroPow = powers2coefMap.keySet().iterator().next();
-        return getCoefficient(allZeroPow);
+        if (size == 0) return 0;
+        return coefs[0];
     }
 
     public boolean isZero() {
-        return powers2coefMap.isEmpty();
+        return size == 0;
     }
 
 
@@ -452,11 +595,11 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     public boolean isAlwaysPositive() {
         if (this.isNumber() && this.getNumericalValue()>0) return true;
 
-        for (List<Double> powers : powers2coefMap.keySet()) {
-            for (Double power : powers) {
-                if ((power % 2) != 0) return false; //at the moment only if all powers are even and coefficients are positive, 'true' is returned.... clearly more patterns can be found...
+        for (int t = 0; t < size; t++) {
+            for (int i = 0; i < numVars; i++) {
+                if ((powers[t * numVars + i] % 2) != 0) return false; //at the moment only if all powers are even and coefficients are positive, 'true' is returned.... clearly more patterns can be found...
             }
-            if (powers2coefMap.get(powers) < 0) return false;
+            if (coefs[t] < 0) return false;
         }
         return true;
     }
@@ -465,13 +608,12 @@ public class Polynomial implements Expression<Polynomial>, Cloneable{
     public boolean isAlwaysNegative() {
         if (this.isNumber() && this.getNumericalValue()<0) return true;
 
-        for (List<Double> powers : powers2coefMap.keySet()) {
-            for (Double power : powers) {
-                if ((power % 2) != 0) return false; //at the moment only if all powers are even and coefficients are negative, 'true' is returned.... clearly more patterns can be found...
+        for (int t = 0; t < size; t++) {
+            for (int i = 0; i < numVars; i++) {
+                if ((powers[t * numVars + i] % 2) != 0) return false; //at the moment only if all powers are even and coefficients are negative, 'true' is returned.... clearly more patterns can be found...
             }
-            if (powers2coefMap.get(powers) > 0) return false;
+            if (coefs[t] > 0) return false;
         }
         return true;
     }
 }
-
@@ -157,6 +157,15 @@ public class PolynomialFactory {
         return Arrays.binarySearch(vars, var);
     }
 
+    public int[] getVarIndices(Collection<String> vars) {
+        int[] indices = new int[vars.size()];
+        int i = 0;
+        for (String var : vars) {
+            indices[i++] = getVarIndex(var);
+        }
+        return indices;
+    }
+
     //condition polynomial is always > 0
     public Polynomial makePositiveConstraint(String polyStr) {
         polyStr = polyStr.replaceAll(" ", "");
@@ -4,6 +4,7 @@ import hgm.poly.ConstrainedExpression;
 import hgm.poly.PiecewiseExpression;
 import hgm.poly.Polynomial;
 import hgm.poly.PolynomialFactory;
+import hgm.poly.integral.InvertibleOneDimFunction;
 import hgm.poly.integral.OneDimFunction;
 import hgm.poly.integral.OneDimPolynomialIntegral;
 import hgm.poly.pref.FatalSamplingException;
@@ -190,6 +191,11 @@ public abstract class AbstractGeneralBayesianGibbsSampler implements SamplerInte
         Double cdfInfinity = varCDF.eval(maxVarValue + 0.1);
 
         double s = randomDoubleUniformBetween(0.0, cdfInfinity);
+        if (varCDF instanceof InvertibleOneDimFunction && cdfInfinity > 0) {
+            //piecewise polynomial CDF, inverted directly (rather than by bisection):
+            double x = ((InvertibleOneDimFunction) varCDF).inverse(s);
+            return Math.max(minVarValue, Math.min(maxVarValue, x));
+        }
         //now: F^{-1}(X=s) should be computed:
         //Binary search algorithm:
         double low = minVarValue;
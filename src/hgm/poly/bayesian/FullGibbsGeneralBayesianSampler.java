@@ -3,6 +3,7 @@ package hgm.poly.bayesian;
 import hgm.asve.cnsrv.approxator.sampler.GridSampler;
 import hgm.poly.PiecewiseExpression;
 import hgm.poly.integral.OneDimFunction;
+import hgm.poly.integral.PiecewisePolynomialCdf;
 import hgm.poly.pref.FatalSamplingException;
 
 import java.util.ArrayList;
@@ -81,7 +82,8 @@ public class FullGibbsGeneralBayesianSampler extends AbstractGeneralBayesianGibb
         if (polyCDFs.isEmpty()) throw new FatalSamplingException("all regions are zero");
 
 
-        OneDimFunction varCDF = new OneDimFunction() {
+        OneDimFunction piecewiseCDF = PiecewisePolynomialCdf.sum(polyCDFs.toArray(new OneDimFunction[polyCDFs.size()])); //null if a CDF is not piecewise polynomial
+        OneDimFunction varCDF = piecewiseCDF != null ? piecewiseCDF : new OneDimFunction() {
             @Override
             public double eval(double var) {
 
@@ -1,5 +1,10 @@
 package hgm.poly.diagnostics;
 
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -79,4 +84,83 @@ public class AutoCorrelationHandler {
 
         return Arrays.asList(result);
     }
+
+    //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Autocorrelations of a single dimensional chain (centered by its sample mean) by the Wiener-Khinchin theorem: the
+     * chain is zero padded to (a power of 2 at least) twice its length, so that the inverse FFT of its power spectrum
+     * is its (non-circular) autocovariance. This is O(n log(n)) rather than O(n * maxLag).
+     * @return rho[k] for k = 0, ..., min(maxLag, n-1) (rho[0] = 1)
+     */
+    public static double[] computeAutoCorrelationsByFFT(double[] chain, int maxLag) {
+        int n = chain.length;
+        if (n == 0) throw new RuntimeException("empty chain");
+        int lags = Math.min(maxLag, n - 1);
+
+        double mean = 0d;
+        for (double x : chain) {
+            mean += x;
+        }
+        mean /= n;
+
+        int paddedLength = Integer.highestOneBit(Math.max(2 * n - 1, 1));
+        if (paddedLength < 2 * n) paddedLength *= 2;
+        double[] padded = new double[paddedLength];
+        for (int i = 0; i < n; i++) {
+            padded[i] = chain[i] - mean;
+        }
+
+        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+        Complex[] spectrum = fft.transform(padded, TransformType.FORWARD);
+        for (int i = 0; i < paddedLength; i++) {
+            double re = spectrum[i].getReal();
+            double im = spectrum[i].getImaginary();
+            spectrum[i] = new Complex(re * re + im * im, 0d);
+        }
+        Complex[] autoCovariances = fft.transform(spectrum, TransformType.INVERSE);
+
+        double[] rho = new double[lags + 1];
+        double c0 = autoCovariances[0].getReal();
+        rho[0] = 1d;
+        if (c0 <= 0d) return rho; // constant chain
+        for (int k = 1; k <= lags; k++) {
+            rho[k] = autoCovariances[k].getReal() / c0;
+        }
+        return rho;
+    }
+
+    /**
+     * Effective sample size n / tau of a single dimensional chain, where the integrated autocorrelation time tau is
+     * estimated by Geyer's initial positive sequence: the sums of adjacent pairs of (FFT) autocorrelations are added
+     * while positive.
+     */
+    public static double computeEffectiveSampleSizeByFFT(double[] chain) {
+        int n = chain.length;
+        if (n < 2) return n;
+        double[] rho = computeAutoCorrelationsByFFT(chain, n - 1);
+        double tau = -1d;
+        for (int k = 0; k + 1 < rho.length; k += 2) {
+            double pairSum = rho[k] + rho[k + 1];
+            if (pairSum <= 0d) break;
+            tau += 2d * pairSum;
+        }
+        return n / Math.max(tau, 1d / Math.log10(Math.max(n, 10))); // for anti-correlated chains, capped at n log10(n)
+    }
+
+    /**
+     * @return the FFT based effective sample size (see {@link #computeEffectiveSampleSizeByFFT(double[])}) of each
+     * dimension of the stored samples
+     */
+    public double[] computeEffectiveSampleSizesByFFT() {
+        double[] ess = new double[groundTruth.length];
+        double[] chain = new double[samples.size()];
+        for (int j = 0; j < ess.length; j++) {
+            for (int i = 0; i < chain.length; i++) {
+                chain[i] = samples.get(i)[j];
+            }
+            ess[j] = computeEffectiveSampleSizeByFFT(chain);
+        }
+        return ess;
+    }
 }
@@ -0,0 +1,163 @@
+package hgm.poly.diagnostics;
+
+import java.util.Arrays;
+
+/**
+ * Streaming effective sample size per dimension by batch means: ESS = n * s^2 / (b * v) where s^2 is the sample
+ * variance, b the batch size and v the variance of the batch means. At most 'maxBatches' batches are kept; when they are
+ * full, adjacent batches are merged and the batch size is doubled, so the memory is O(maxBatches * #dims) regardless of
+ * the number of samples (and the number of batches stays between maxBatches/2 and maxBatches). Null entries (variables
+ * out of the scope of the sampler) are skipped, so the counts, moments and batch means are kept per dimension.
+ * <p/>
+ * As a measure on the run, it is the minimum ESS over the (non-null) dimensions, e.g. to stop sampling once all
+ * variables have a target ESS.
+ */
+public class BatchMeansEffectiveSampleSize implements MeasureOnTheRun<Double[]> {
+    public static final int DEFAULT_MAX_BATCHES = 64;
+
+    private int maxBatches;
+    private int batchSize = 1;
+    private int numBatches = 0;         //full batches
+    private int numInCurrentBatch = 0;
+    private double[][] batchSums;       //batchSums[batch][dim]
+    private int[][] batchCounts;        //non-null values of dim in batch
+    private double[] currentBatchSums;
+    private int[] currentBatchCounts;
+
+    // Welford's running means and sums of squared differences from them:
+    private long n = 0;
+    private long[] counts;
+    private double[] means;
+    private double[] m2s;
+    private int numDims = -1;
+
+    public BatchMeansEffectiveSampleSize() {
+        this(DEFAULT_MAX_BATCHES);
+    }
+
+    public BatchMeansEffectiveSampleSize(int maxBatches) {
+        if (maxBatches < 4 || maxBatches % 2 != 0) throw new IllegalArgumentException("an even number of batches >= 4 expected: " + maxBatches);
+        this.maxBatches = maxBatches;
+    }
+
+    @Override
+    public void addNewValue(Double[] sample) {
+        if (numDims == -1) {
+            numDims = sample.length;
+            batchSums = new double[maxBatches][numDims];
+            batchCounts = new int[maxBatches][numDims];
+            currentBatchSums = new double[numDims];
+            currentBatchCounts = new int[numDims];
+            counts = new long[numDims];
+            means = new double[numDims];
+            m2s = new double[numDims];
+        }
+        if (sample.length != numDims) throw new RuntimeException("size mismatch");
+
+        n++;
+        for (int i = 0; i < numDims; i++) {
+            Double x = sample[i];
+            if (x == null) continue;
+            counts[i]++;
+            currentBatchSums[i] += x;
+            currentBatchCounts[i]++;
+            double delta = x - means[i];
+            means[i] += delta / counts[i];
+            m2s[i] += delta * (x - means[i]);
+        }
+
+        if (++numInCurrentBatch < batchSize) return;
+        // the current batch is full:
+        if (numBatches == maxBatches) mergeBatches();
+        System.arraycopy(currentBatchSums, 0, batchSums[numBatches], 0, numDims);
+        System.arraycopy(currentBatchCounts, 0, batchCounts[numBatches], 0, numDims);
+        numBatches++;
+        Arrays.fill(currentBatchSums, 0d);
+        Arrays.fill(currentBatchCounts, 0);
+        numInCurrentBatch = 0;
+    }
+
+    private void mergeBatches() {
+        for (int j = 0; j < maxBatches / 2; j++) {
+            double[] merged = batchSums[j];
+            double[] b1 = batchSums[2 * j];
+            double[] b2 = batchSums[2 * j + 1];
+            int[] mergedCounts = batchCounts[j];
+            int[] c1 = batchCounts[2 * j];
+            int[] c2 = batchCounts[2 * j + 1];
+            for (int i = 0; i < numDims; i++) {
+                merged[i] = b1[i] + b2[i];
+                mergedCounts[i] = c1[i] + c2[i];
+            }
+        }
+        for (int j = maxBatches / 2; j < maxBatches; j++) {
+            Arrays.fill(batchSums[j], 0d);
+            Arrays.fill(batchCounts[j], 0);
+        }
+        numBatches = maxBatches / 2;
+        batchSize *= 2;
+    }
+
+    /**
+     * @return ESS per dimension (NaN for dimensions that are always null); as long as less than 2 batches of a
+     * dimension are non-empty, its number of (non-null) values is returned
+     */
+    public double[] computeEffectiveSampleSizes() {
+        double[] ess = new double[Math.max(numDims, 0)];
+        for (int i = 0; i < ess.length; i++) {
+            if (counts[i] == 0) {
+                ess[i] = Double.NaN;
+                continue;
+            }
+            int numNonEmptyBatches = 0;
+            long countInBatches = 0;
+            double grandMean = 0d;
+            for (int j = 0; j < numBatches; j++) {
+                if (batchCounts[j][i] == 0) continue;
+                numNonEmptyBatches++;
+                countInBatches += batchCounts[j][i];
+                grandMean += batchSums[j][i];
+            }
+            if (numNonEmptyBatches < 2) {
+                ess[i] = counts[i];
+                continue;
+            }
+            grandMean /= countInBatches;
+            double v = 0d;
+            for (int j = 0; j < numBatches; j++) {
+                if (batchCounts[j][i] == 0) continue;
+                double d = batchSums[j][i] / batchCounts[j][i] - grandMean;
+                v += d * d;
+            }
+            v /= (numNonEmptyBatches - 1d);
+            double s2 = counts[i] < 2 ? 0d : m2s[i] / (counts[i] - 1d);
+            double meanBatchSize = countInBatches / (double) numNonEmptyBatches;
+
+            ess[i] = v == 0d ? counts[i] : counts[i] * s2 / (meanBatchSize * v);
+        }
+        return ess;
+    }
+
+    /**
+     * @return the minimum ESS over the dimensions that are not always null
+     */
+    @Override
+    public double computeMeasure() {
+        double min = Double.POSITIVE_INFINITY;
+        for (double ess : computeEffectiveSampleSizes()) {
+            if (!Double.isNaN(ess)) min = Math.min(min, ess);
+        }
+        return min == Double.POSITIVE_INFINITY ? n : min;
+    }
+
+    public long getNumSamples() {
+        return n;
+    }
+
+    /**
+     * @return the number of samples per batch (it doubles whenever the batches are merged)
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
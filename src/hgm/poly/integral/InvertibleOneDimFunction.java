@@ -0,0 +1,11 @@
+package hgm.poly.integral;
+
+/**
+ * A non-decreasing 1D function (typically a CDF) whose inverse can be computed directly rather than by bisection.
+ */
+public interface InvertibleOneDimFunction extends OneDimFunction {
+    /**
+     * @return the smallest x such that eval(x) = y (for y between eval(-infinity) and eval(+infinity))
+     */
+    double inverse(double y);
+}
@@ -1,5 +1,6 @@
 package hgm.poly.integral;
 
+import hgm.poly.CompiledPolynomial;
 import hgm.poly.Polynomial;
 import hgm.poly.PolynomialException;
 import hgm.poly.PolynomialFactory;
@@ -7,6 +8,7 @@ import hgm.sampling.gibbs.integral.Interval;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Hadi Afshar.
@@ -17,6 +19,8 @@ import java.util.List;
  */
 public class PiecewiseOffset1DPolynomial implements OneDimFunction{
     Polynomial integral;
+    CompiledPolynomial compiledIntegral;
+    double[] hornerCoefficients; // if the integral is univariate polynomial in the var (otherwise null)
     Double[] varAssign;
     List<Interval> intervals;
     List<Double> offsets;
@@ -33,6 +37,13 @@ public class PiecewiseOffset1DPolynomial implements OneDimFunction{
         intervals = new ArrayList<Interval>();
         offsets = new ArrayList<Double>();
 
+        compiledIntegral = integral.compile();
+        Set<String> scopeVars = integral.getScopeVars();
+        scopeVars.remove(factory.getAllVars()[varIndex]);
+        if (scopeVars.isEmpty() && compiledIntegral.isPolynomialIn(varIndex)) {
+            hornerCoefficients = compiledIntegral.collapse(varAssign, varIndex);
+        }
+
 //        varIndex = factory.getVarIndex(integrationVar);
 //        varAssign[varIndex] = interval.getHighBound();
 //        maxValue = integral.evaluate(varAssign);
@@ -53,8 +64,7 @@ public class PiecewiseOffset1DPolynomial implements OneDimFunction{
             if (interval.getUpperBound() >= varValue) {
                 if (interval.getLowerBound() <= varValue) {
                     //in the interval:
-                    varAssign[varIndex] = varValue;
-                    return integral.evaluate(varAssign) + offsets.get(i);
+                    return integralAt(varValue) + offsets.get(i);
                 } else {
                     //between two intervals (or before all intervals):
                     if (i==0) {
@@ -62,16 +72,20 @@ public class PiecewiseOffset1DPolynomial implements OneDimFunction{
                         return 0d;
                     } else {
                         //return last value of the prev. interval
-                        varAssign[varIndex] = intervals.get(i-1).getUpperBound();
-                        return integral.evaluate(varAssign) + offsets.get(i-1);
+                        return integralAt(intervals.get(i-1).getUpperBound()) + offsets.get(i-1);
                     }
                 }
             }
         }
 
         //todo: max value may be cached
-        varAssign[varIndex] = intervals.get(intervals.size()-1).getUpperBound();
-        return integral.evaluate(varAssign) + offsets.get(intervals.size()-1);
+        return integralAt(intervals.get(intervals.size()-1).getUpperBound()) + offsets.get(intervals.size()-1);
+    }
+
+    private double integralAt(double varValue) {
+        if (hornerCoefficients != null) return CompiledPolynomial.horner(hornerCoefficients, varValue);
+        varAssign[varIndex] = varValue;
+        return compiledIntegral.evaluate(varAssign);
     }
 
 
@@ -82,6 +96,21 @@ public class PiecewiseOffset1DPolynomial implements OneDimFunction{
         offsets.add(offset);
     }
 
+    /**
+     * Adds each interval as a polynomial segment, see {@link PiecewisePolynomialCdf#addSegment(double[], double, double)}
+     * @return false if the integral is not a univariate polynomial in the var (or an interval is unbounded)
+     */
+    public boolean addSegmentsTo(PiecewisePolynomialCdf cdf) {
+        if (hornerCoefficients == null) return false;
+        for (Interval interval : intervals) {
+            if (Double.isInfinite(interval.getLowerBound()) || Double.isInfinite(interval.getUpperBound())) return false;
+        }
+        for (Interval interval : intervals) {
+            cdf.addSegment(hornerCoefficients, interval.getLowerBound(), interval.getUpperBound());
+        }
+        return true;
+    }
+
     public List<Interval> getIntervals() {
         return intervals;
     }
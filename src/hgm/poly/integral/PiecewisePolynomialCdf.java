@@ -0,0 +1,250 @@
+package hgm.poly.integral;
+
+import hgm.poly.CompiledPolynomial;
+
+import java.util.Arrays;
+
+/**
+ * Sum of polynomial segment CDFs (see {@link PolynomialSegmentCdf}) as a piecewise univariate polynomial with known
+ * breakpoints. Its inverse is computed by a binary search over the cumulative masses at the breakpoints followed by
+ * solving the polynomial of the located piece, analytically if its degree is at most 2 and by safeguarded Newton steps
+ * otherwise. This replaces the bisection over the whole CDF (each step of which evaluates all segments).
+ * <p/>
+ * An instance can be refilled (see {@link #clear()}) so that its arrays are reused across samples.
+ */
+public class PiecewisePolynomialCdf implements InvertibleOneDimFunction {
+    public static final double TOLERANCE = 1E-12;
+    public static final int MAX_NEWTON_STEPS = 50;
+
+    // Added segments:
+    private double[][] segCoefficients = new double[8][];
+    private double[] segLows = new double[8];
+    private double[] segHighs = new double[8];
+    private int numSegments = 0;
+
+    // Pieces: on [breakpoints[k], breakpoints[k+1]] the CDF is horner(pieceCoefficients[k], x) + pieceShifts[k]
+    // (or the constant pieceShifts[k] if pieceCoefficients[k] is null), cumulative[k] is the CDF at breakpoints[k]:
+    private double[] breakpoints = new double[16];
+    private double[] cumulative = new double[16];
+    private double[][] pieceCoefficients = new double[16][];
+    private double[] pieceShifts = new double[16];
+    private int numPieces = 0;
+
+    /**
+     * @return the sum of the given CDFs or null if one of them is not (a sum of) polynomial segment CDFs
+     */
+    public static PiecewisePolynomialCdf sum(OneDimFunction... cdfs) {
+        PiecewisePolynomialCdf sum = new PiecewisePolynomialCdf();
+        for (OneDimFunction cdf : cdfs) {
+            if (!sum.add(cdf)) return null;
+        }
+        sum.build();
+        return sum;
+    }
+
+    public void clear() {
+        numSegments = 0;
+        numPieces = 0;
+    }
+
+    /**
+     * @return false if the CDF is not supported (in which case this object should not be used before being cleared)
+     */
+    public boolean add(OneDimFunction cdf) {
+        if (cdf == OneDimFunction.ZERO_1D_FUNCTION) return true;
+        if (cdf instanceof PolynomialSegmentCdf) {
+            PolynomialSegmentCdf segment = (PolynomialSegmentCdf) cdf;
+            addSegment(segment.coefficients, segment.lowerBound, segment.upperBound);
+            return true;
+        }
+        if (cdf instanceof PiecewiseOffset1DPolynomial) {
+            return ((PiecewiseOffset1DPolynomial) cdf).addSegmentsTo(this);
+        }
+        return false;
+    }
+
+    /**
+     * Adds the CDF of a polynomial density supported on [lowerBound, upperBound] where 'coefficients' are the Horner
+     * coefficients of an indefinite integral of the density.
+     */
+    public void addSegment(double[] coefficients, double lowerBound, double upperBound) {
+        if (lowerBound >= upperBound) return;
+        if (numSegments == segLows.length) {
+            int capacity = 2 * numSegments;
+            segCoefficients = Arrays.copyOf(segCoefficients, capacity);
+            segLows = Arrays.copyOf(segLows, capacity);
+            segHighs = Arrays.copyOf(segHighs, capacity);
+        }
+        segCoefficients[numSegments] = coefficients;
+        segLows[numSegments] = lowerBound;
+        segHighs[numSegments] = upperBound;
+        numSegments++;
+    }
+
+    /**
+     * Splits the real line at the bounds of all segments; segments usually do not overlap in which case each piece is
+     * (a gap or) a single segment and no coefficients are copied.
+     */
+    public void build() {
+        int numBreakpoints = 0;
+        ensurePieceCapacity(2 * numSegments);
+        for (int s = 0; s < numSegments; s++) {
+            breakpoints[numBreakpoints++] = segLows[s];
+            breakpoints[numBreakpoints++] = segHighs[s];
+        }
+        Arrays.sort(breakpoints, 0, numBreakpoints);
+        int unique = 0;
+        for (int i = 0; i < numBreakpoints; i++) {
+            if (unique == 0 || breakpoints[i] != breakpoints[unique - 1]) breakpoints[unique++] = breakpoints[i];
+        }
+        numPieces = Math.max(unique - 1, 0);
+        if (numPieces == 0) return;
+
+        cumulative[0] = 0d;
+        for (int k = 0; k < numPieces; k++) {
+            double low = breakpoints[k];
+            double high = breakpoints[k + 1];
+            double[] coefficients = null;
+            double shift = cumulative[k];
+            for (int s = 0; s < numSegments; s++) {
+                if (segLows[s] > low || segHighs[s] < high) continue; // not active in this piece
+                double[] c = segCoefficients[s];
+                shift -= CompiledPolynomial.horner(c, low);
+                if (coefficients == null) {
+                    coefficients = c;
+                } else {
+                    coefficients = addCoefficients(coefficients, c);
+                }
+            }
+            pieceCoefficients[k] = coefficients;
+            pieceShifts[k] = shift;
+            cumulative[k + 1] = coefficients == null ? shift : CompiledPolynomial.horner(coefficients, high) + shift;
+        }
+    }
+
+    private void ensurePieceCapacity(int numBreakpoints) {
+        if (breakpoints.length >= numBreakpoints) return;
+        breakpoints = new double[numBreakpoints];
+        cumulative = new double[numBreakpoints];
+        pieceCoefficients = new double[numBreakpoints][];
+        pieceShifts = new double[numBreakpoints];
+    }
+
+    private static double[] addCoefficients(double[] c1, double[] c2) {
+        double[] sum = Arrays.copyOf(c1.length >= c2.length ? c1 : c2, Math.max(c1.length, c2.length));
+        double[] other = c1.length >= c2.length ? c2 : c1;
+        for (int i = 0; i < other.length; i++) {
+            sum[i] += other[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double eval(double var) {
+        if (numPieces == 0 || var <= breakpoints[0]) return 0d;
+        if (var >= breakpoints[numPieces]) return cumulative[numPieces];
+
+        // the last piece starting at or before var:
+        int low = 0, high = numPieces - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (breakpoints[mid] <= var) low = mid;
+            else high = mid - 1;
+        }
+        double[] c = pieceCoefficients[low];
+        return c == null ? pieceShifts[low] : CompiledPolynomial.horner(c, var) + pieceShifts[low];
+    }
+
+    public double getTotalMass() {
+        return numPieces == 0 ? 0d : cumulative[numPieces];
+    }
+
+    @Override
+    public double inverse(double y) {
+        if (numPieces == 0) throw new RuntimeException("inverse of an empty CDF");
+        if (y <= 0d) return breakpoints[0];
+        if (y >= cumulative[numPieces]) y = cumulative[numPieces];
+
+        // the first piece at the end of which the CDF reaches y (it is not flat since y > cumulative[k]):
+        int low = 0, high = numPieces - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid + 1] >= y) high = mid;
+            else low = mid + 1;
+        }
+        double[] c = pieceCoefficients[low];
+        if (c == null) return breakpoints[low];
+        return solve(c, y - pieceShifts[low], breakpoints[low], breakpoints[low + 1]);
+    }
+
+    /**
+     * @return x in [low, high] such that horner(coefficients, x) = target, where the polynomial is assumed non-decreasing
+     * in [low, high] and its values at low and high bracket the target
+     */
+    public static double solve(double[] coefficients, double target, double low, double high) {
+        int degree = coefficients.length - 1;
+        while (degree > 0 && coefficients[degree] == 0d) degree--;
+
+        if (degree <= 1) {
+            if (degree == 0) return low;
+            return clamp((target - coefficients[0]) / coefficients[1], low, high);
+        }
+
+        if (degree == 2) {
+            // a x^2 + b x + c = 0 (with the numerically stable form of the quadratic formula):
+            double a = coefficients[2];
+            double b = coefficients[1];
+            double c = coefficients[0] - target;
+            double discriminant = Math.max(b * b - 4 * a * c, 0d);
+            double q = -0.5 * (b + Math.copySign(Math.sqrt(discriminant), b));
+            double r1 = q / a;
+            double r2 = q == 0d ? r1 : c / q;
+            double slack = TOLERANCE * (high - low) + TOLERANCE;
+            boolean in1 = r1 >= low - slack && r1 <= high + slack;
+            boolean in2 = r2 >= low - slack && r2 <= high + slack;
+            if (in1 && (!in2 || rootResidual(coefficients, target, r1) <= rootResidual(coefficients, target, r2)))
+                return clamp(r1, low, high);
+            if (in2) return clamp(r2, low, high);
+            // rounding put both roots out of the interval
+        }
+
+        return newton(coefficients, degree, target, low, high);
+    }
+
+    private static double rootResidual(double[] coefficients, double target, double x) {
+        return Math.abs(CompiledPolynomial.horner(coefficients, x) - target);
+    }
+
+    private static double newton(double[] coefficients, int degree, double target, double low, double high) {
+        double tolerance = TOLERANCE * Math.max(high - low, 1d);
+        double fLow = CompiledPolynomial.horner(coefficients, low) - target;
+        double fHigh = CompiledPolynomial.horner(coefficients, high) - target;
+        if (fLow >= 0) return low;
+        if (fHigh <= 0) return high;
+
+        double x = low - fLow * (high - low) / (fHigh - fLow);  // secant start
+        for (int i = 0; i < MAX_NEWTON_STEPS; i++) {
+            // value and derivative by Horner's scheme:
+            double f = coefficients[degree];
+            double df = 0d;
+            for (int k = degree - 1; k >= 0; k--) {
+                df = df * x + f;
+                f = f * x + coefficients[k];
+            }
+            f -= target;
+            if (f == 0d) return x;
+            if (f > 0) high = x;
+            else low = x;
+
+            double next = x - f / df;
+            if (!(next > low && next < high)) next = (low + high) / 2; // bisect if Newton leaves the bracket
+            if (Math.abs(next - x) <= tolerance || high - low <= tolerance) return next;
+            x = next;
+        }
+        return x;
+    }
+
+    private static double clamp(double x, double low, double high) {
+        return Math.max(low, Math.min(high, x));
+    }
+}
@@ -0,0 +1,41 @@
+package hgm.poly.integral;
+
+import hgm.poly.CompiledPolynomial;
+
+/**
+ * CDF of a univariate polynomial density supported on [lowerBound, upperBound]: given the Horner coefficients of an
+ * indefinite integral F of the density, it is 0 below the interval, F(x) - F(lowerBound) inside it and the segment mass
+ * above it.
+ */
+public class PolynomialSegmentCdf implements SegmentCdf {
+    double[] coefficients;
+    double lowerBound;
+    double upperBound;
+    double offset;
+    double mass;
+
+    public PolynomialSegmentCdf(double[] coefficients, double lowerBound, double upperBound) {
+        this.coefficients = coefficients;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.offset = CompiledPolynomial.horner(coefficients, lowerBound);
+        this.mass = CompiledPolynomial.horner(coefficients, upperBound) - offset;
+    }
+
+    @Override
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    @Override
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    @Override
+    public double eval(double var) {
+        if (var < lowerBound) return 0.0;
+        if (var > upperBound) return mass;
+        return CompiledPolynomial.horner(coefficients, var) - offset;
+    }
+}
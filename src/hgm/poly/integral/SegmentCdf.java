@@ -0,0 +1,11 @@
+package hgm.poly.integral;
+
+/**
+ * CDF of a density supported on a single interval: 0 below the lower bound and constant (the mass of the segment) above
+ * the upper bound.
+ */
+public interface SegmentCdf extends OneDimFunction {
+    double getLowerBound();
+
+    double getUpperBound();
+}
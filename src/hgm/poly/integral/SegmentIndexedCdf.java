@@ -0,0 +1,105 @@
+package hgm.poly.integral;
+
+import java.util.Arrays;
+
+/**
+ * Sum of segment CDFs (see {@link SegmentCdf}) indexed by their intervals: zero segments are dropped, the real line is
+ * split at the segment bounds and for each piece the CDF at its start and the segments overlapping it are precomputed.
+ * An evaluation locates its piece by binary search and only evaluates the overlapping segments (usually one), rather
+ * than all segments.
+ * <p/>
+ * An instance can be refilled (see {@link #clear()}) so that its arrays are reused across samples.
+ * For polynomial segments see {@link PiecewisePolynomialCdf} which can be inverted as well.
+ */
+public class SegmentIndexedCdf implements OneDimFunction {
+    private SegmentCdf[] segments = new SegmentCdf[8];
+    private int numSegments = 0;
+
+    // Pieces: on [breakpoints[k], breakpoints[k+1]] the CDF is pieceShifts[k] plus the sum of the segments
+    // pieceSegments[pieceStarts[k]] ... pieceSegments[pieceStarts[k+1]-1]:
+    private double[] breakpoints = new double[16];
+    private double[] pieceShifts = new double[16];
+    private int[] pieceStarts = new int[16];
+    private SegmentCdf[] pieceSegments = new SegmentCdf[16];
+    private double totalMass;
+    private int numPieces = 0;
+
+    public void clear() {
+        numSegments = 0;
+        numPieces = 0;
+    }
+
+    /**
+     * @return false if the CDF is neither a segment CDF nor zero (in which case this object should not be used before
+     * being cleared)
+     */
+    public boolean add(OneDimFunction cdf) {
+        if (cdf == OneDimFunction.ZERO_1D_FUNCTION) return true;
+        if (!(cdf instanceof SegmentCdf)) return false;
+        SegmentCdf segment = (SegmentCdf) cdf;
+        if (segment.getLowerBound() >= segment.getUpperBound()) return true;
+        if (numSegments == segments.length) segments = Arrays.copyOf(segments, 2 * numSegments);
+        segments[numSegments++] = segment;
+        return true;
+    }
+
+    public void build() {
+        int numBreakpoints = 2 * numSegments;
+        if (breakpoints.length < numBreakpoints) {
+            breakpoints = new double[numBreakpoints];
+            pieceShifts = new double[numBreakpoints];
+            pieceStarts = new int[numBreakpoints];
+        }
+        for (int s = 0; s < numSegments; s++) {
+            breakpoints[2 * s] = segments[s].getLowerBound();
+            breakpoints[2 * s + 1] = segments[s].getUpperBound();
+        }
+        Arrays.sort(breakpoints, 0, numBreakpoints);
+        int unique = 0;
+        for (int i = 0; i < numBreakpoints; i++) {
+            if (unique == 0 || breakpoints[i] != breakpoints[unique - 1]) breakpoints[unique++] = breakpoints[i];
+        }
+        numPieces = Math.max(unique - 1, 0);
+
+        int numPieceSegments = 0;
+        double cumulative = 0d; // CDF at the start of the current piece
+        for (int k = 0; k < numPieces; k++) {
+            double low = breakpoints[k];
+            double high = breakpoints[k + 1];
+            double shift = cumulative;
+            pieceStarts[k] = numPieceSegments;
+            for (int s = 0; s < numSegments; s++) {
+                SegmentCdf segment = segments[s];
+                if (segment.getLowerBound() > low || segment.getUpperBound() < high) continue; // not overlapping
+                if (numPieceSegments == pieceSegments.length) {
+                    pieceSegments = Arrays.copyOf(pieceSegments, 2 * numPieceSegments);
+                }
+                pieceSegments[numPieceSegments++] = segment;
+                shift -= segment.eval(low);
+                cumulative += segment.eval(high) - segment.eval(low);
+            }
+            pieceShifts[k] = shift;
+        }
+        if (numPieces > 0) pieceStarts[numPieces] = numPieceSegments;
+        totalMass = cumulative;
+    }
+
+    @Override
+    public double eval(double var) {
+        if (numPieces == 0 || var <= breakpoints[0]) return 0d;
+        if (var >= breakpoints[numPieces]) return totalMass;
+
+        // the last piece starting at or before var:
+        int low = 0, high = numPieces - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (breakpoints[mid] <= var) low = mid;
+            else high = mid - 1;
+        }
+        double result = pieceShifts[low];
+        for (int i = pieceStarts[low]; i < pieceStarts[low + 1]; i++) {
+            result += pieceSegments[i].eval(var);
+        }
+        return result;
+    }
+}
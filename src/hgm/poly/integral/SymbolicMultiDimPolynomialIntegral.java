@@ -57,6 +57,17 @@ public class SymbolicMultiDimPolynomialIntegral {
         final Polynomial indefIntegral = cp.getFruit().clone();
         indefIntegral.replaceThisWithIndefiniteIntegral(integrationVar);
 
+        //compiled once, evaluated per sample:
+        final CompiledPolynomial compiledIndefIntegral = indefIntegral.compile();
+        final boolean collapsible = compiledIndefIntegral.isPolynomialIn(integrationVarIndex);
+        final CompiledPolynomial[] compiledIndependents = compile(independentConstraints);
+        final CompiledPolynomial[] compiledMaxLB = compile(maxLB);
+        final CompiledPolynomial[] compiledMinUB = compile(minUB);
+
+        Set<String> parameterVars = cp.getScopeVars();
+        parameterVars.remove(integrationVar);
+        final int[] parameterVarIndices = cp.getPolynomialFactory().getVarIndices(parameterVars);
+
         //having 3 lists and indefinite integral we generate a class that when all X\x are instantiated, calculates integral F dx.
         return new SymbolicOneDimFunctionGenerator(){
 
@@ -69,12 +80,17 @@ public class SymbolicMultiDimPolynomialIntegral {
             }
 
             @Override
-            public OneDimFunction makeFunction(final Double[] reusableVarAssign) { //NOTE: be very careful about the reusable array
+            public int[] getParameterVarIndices() {
+                return parameterVarIndices;
+            }
+
+            @Override
+            public OneDimFunction makeFunction(final Double[] reusableVarAssign, final CompiledPolynomial.PowerTables reusablePowerTables) { //NOTE: be very careful about the reusable array
 //                if (reusableVarAssign[integrationVarIndex] != null)
 //                    throw new RuntimeException("although does not matter, for debug sake please make it NULL"); //to exclude integration var from being instantiated
 
                 //independent constraints and lower/higher bounds do not contain the integration var so we do not need to 'null' it.
-                for (Polynomial independent : independentConstraints) {
+                for (CompiledPolynomial independent : compiledIndependents) {
 
                     //todo just test:
 //                    Double[] debugArr = new Double[]{-8d, -2d};
@@ -82,7 +98,7 @@ public class SymbolicMultiDimPolynomialIntegral {
 
 
 
-                    double v = independent.evaluate(reusableVarAssign);
+                    double v = independent.evaluate(reusableVarAssign, reusablePowerTables);
                     if (v <= 0) {
 //                        System.out.println("Returning 0");
                         return OneDimFunction.ZERO_1D_FUNCTION; //what should I do with '='?
@@ -90,47 +106,70 @@ public class SymbolicMultiDimPolynomialIntegral {
                     //since independent "positive" constraints are not satisfied.
                 }
 
-                final double lb = max(maxLB, reusableVarAssign);
-                final double ub = min(minUB, reusableVarAssign);
+                final double lb = max(compiledMaxLB, reusableVarAssign, reusablePowerTables);
+                final double ub = min(compiledMinUB, reusableVarAssign, reusablePowerTables);
 
 //                System.out.println("lb = " + lb);
 //                System.out.println("ub = " + ub);
                 if (lb >=ub) return OneDimFunction.ZERO_1D_FUNCTION;
 
+                if (collapsible) {
+                    //all other variables are fixed, so the integral is a univariate polynomial evaluated by Horner's scheme:
+                    return new PolynomialSegmentCdf(compiledIndefIntegral.collapse(reusableVarAssign, integrationVarIndex, reusablePowerTables), lb, ub);
+                }
+
                 reusableVarAssign[integrationVarIndex]=lb;
-                final double offset1 = indefIntegral.evaluate(reusableVarAssign);
+                final double offset1 = compiledIndefIntegral.evaluate(reusableVarAssign, reusablePowerTables);
                 reusableVarAssign[integrationVarIndex]=ub;
-                final double u = indefIntegral.evaluate(reusableVarAssign) - offset1;
+                final double u = compiledIndefIntegral.evaluate(reusableVarAssign, reusablePowerTables) - offset1;
+
+                return new SegmentCdf() {
+                    @Override
+                    public double getLowerBound() {
+                        return lb;
+                    }
+
+                    @Override
+                    public double getUpperBound() {
+                        return ub;
+                    }
 
-                return new OneDimFunction() {
                     @Override
                     public double eval(double var) {
                         if (var < lb) return 0.0;
                         if (var > ub) return u;
 
                         reusableVarAssign[integrationVarIndex]=var;
-                        double f = indefIntegral.evaluate(reusableVarAssign);
+                        double f = compiledIndefIntegral.evaluate(reusableVarAssign, reusablePowerTables);
                         return f - offset1;
                     }
                 };
             }
 
-            private double max(List<Polynomial> polynomials, Double[] reusableVarAssign) {
+            private double max(CompiledPolynomial[] polynomials, Double[] reusableVarAssign, CompiledPolynomial.PowerTables reusablePowerTables) {
                 double max = Double.NEGATIVE_INFINITY;
-                for (Polynomial polynomial : polynomials) {
-                       max = Math.max(max, polynomial.evaluate(reusableVarAssign));
+                for (CompiledPolynomial polynomial : polynomials) {
+                       max = Math.max(max, polynomial.evaluate(reusableVarAssign, reusablePowerTables));
                 }
                 return max;
             }
 
-            private double min(List<Polynomial> polynomials, Double[] reusableVarAssign) {
+            private double min(CompiledPolynomial[] polynomials, Double[] reusableVarAssign, CompiledPolynomial.PowerTables reusablePowerTables) {
                 double min = Double.POSITIVE_INFINITY;
-                for (Polynomial polynomial : polynomials) {
-                       min = Math.min(min, polynomial.evaluate(reusableVarAssign));
+                for (CompiledPolynomial polynomial : polynomials) {
+                       min = Math.min(min, polynomial.evaluate(reusableVarAssign, reusablePowerTables));
                 }
                 return min;
             }
         };
     }
+
+    private static CompiledPolynomial[] compile(List<Polynomial> polynomials) {
+        CompiledPolynomial[] compiled = new CompiledPolynomial[polynomials.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = polynomials.get(i).compile();
+        }
+        return compiled;
+    }
 }
 
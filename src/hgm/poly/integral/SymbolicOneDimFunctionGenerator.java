@@ -1,11 +1,18 @@
 package hgm.poly.integral;
 
+import hgm.poly.CompiledPolynomial;
+
 /**
  * Created by Hadi Afshar.
  * Date: 3/04/14
  * Time: 2:11 PM
  */
 public interface SymbolicOneDimFunctionGenerator {
-    //generates a 1-D function in which only one var. remained  parametric
-    OneDimFunction makeFunction(Double[] varAssign);
+    //generates a 1-D function in which only one var. remained  parametric; compiled polynomials are evaluated with the
+    // given power tables (of the calling sampling chain) so that a generator can be shared between chains
+    OneDimFunction makeFunction(Double[] varAssign, CompiledPolynomial.PowerTables reusablePowerTables);
+
+    //indices of the (instantiated) variables the generated function depends on, i.e. if they are not changed, a
+    // function generated formerly (with the same assignment array) can be reused
+    int[] getParameterVarIndices();
 }
@@ -2,6 +2,8 @@ package hgm.poly.integral.frac;
 
 import hgm.poly.*;
 import hgm.poly.integral.OneDimFunction;
+import hgm.poly.integral.PolynomialSegmentCdf;
+import hgm.poly.integral.SegmentCdf;
 import hgm.poly.integral.SymbolicOneDimFunctionGenerator;
 import hgm.poly.pref.SymbolicCdfArrayHandler;
 
@@ -47,12 +49,13 @@ public class Digester {
         simplify(inters);
 
         //5.
-        Map<Fraction, Expression> fruitsToTheirIndefIntegrals = new HashMap<Fraction, Expression>(); //since many fruits are repeated, we cache integrals.
+        Map<Fraction, WeakExpression> fruitsToTheirIndefIntegrals = new HashMap<Fraction, WeakExpression>(); //since many fruits are repeated, we cache integrals.
         for (IntermediateConstraintExpression inter : inters) {
             Fraction fruit = inter.fruit;
             WeakExpression indefIntegral = fruitsToTheirIndefIntegrals.get(fruit);
             if (indefIntegral == null) {
                 indefIntegral = fruit.calcIndefIntegral(varIndex);
+                fruitsToTheirIndefIntegrals.put(fruit, indefIntegral);
             }
             inter.fruitIndefIntegral = indefIntegral;
         }
@@ -300,6 +303,7 @@ public class Digester {
         Set<WeakExpression> lowerBounds; //x>l for each lower bound
         Set<WeakExpression> upperBounds; //x<u for each upper bound
         WeakExpression fruitIndefIntegral;
+        Set<String> scopeVars; //of the original constrained expression (from which all bounds are derived)
 
         private IntermediateConstraintExpression(Fraction fruit,
                                                  Set<Fraction> unDigestedFractionConstraints,
@@ -307,7 +311,8 @@ public class Digester {
                                                  Set<Polynomial> independentConstraints,
                                                  Set<WeakExpression> lowerBounds,
                                                  Set<WeakExpression> upperBounds,
-                                                 WeakExpression fruitIndefIntegral) {
+                                                 WeakExpression fruitIndefIntegral,
+                                                 Set<String> scopeVars) {
             this.fruit = fruit;
             this.unDigestedFractionConstraints = unDigestedFractionConstraints;
             this.unsolvedPolynomials = unsolvedPolynomials;
@@ -315,6 +320,7 @@ public class Digester {
             this.lowerBounds = lowerBounds;
             this.upperBounds = upperBounds;
             this.fruitIndefIntegral = fruitIndefIntegral;
+            this.scopeVars = scopeVars;
         }
 
         public IntermediateConstraintExpression(ConstrainedExpression<Fraction> fractionConstrainedExpression) {
@@ -327,6 +333,7 @@ public class Digester {
             upperBounds = new HashSet<WeakExpression>();
 
             fruitIndefIntegral = null;
+            scopeVars = fractionConstrainedExpression.getScopeVars();
         }
 
         boolean fractionDigestionCompleted() {
@@ -346,7 +353,8 @@ public class Digester {
                     new HashSet<Polynomial>(independentConstraints),
                     new HashSet<WeakExpression>(lowerBounds),
                     new HashSet<WeakExpression>(upperBounds),
-                    fruitIndefIntegral);
+                    fruitIndefIntegral,
+                    scopeVars);
         }
 
         @Override
@@ -364,6 +372,20 @@ public class Digester {
         }
 
         public SymbolicOneDimFunctionGenerator integrate(final int integrationVarIndex) {
+            //a polynomial (rather than log/atan) indefinite integral is compiled so that, once all other variables are
+            // fixed, its numerator and denominator are evaluated by Horner's scheme:
+            CompiledFraction compiled = null;
+            if (fruitIndefIntegral instanceof Fraction) {
+                compiled = ((Fraction) fruitIndefIntegral).compile();
+                if (!compiled.getNumerator().isPolynomialIn(integrationVarIndex) ||
+                        !compiled.getDenominator().isPolynomialIn(integrationVarIndex)) compiled = null;
+            }
+            final CompiledFraction compiledIndefIntegral = compiled;
+
+            Set<String> parameterVars = new HashSet<String>(scopeVars);
+            parameterVars.remove(fruit.getFactory().getAllVars()[integrationVarIndex]);
+            final int[] parameterVarIndices = fruit.getFactory().getVarIndices(parameterVars);
+
             return new SymbolicOneDimFunctionGenerator() {
 
                 @Override
@@ -375,7 +397,12 @@ public class Digester {
                 }
 
                 @Override
-                public OneDimFunction makeFunction(final Double[] reusableVarAssign) { //NOTE: be very careful about the reusable array
+                public int[] getParameterVarIndices() {
+                    return parameterVarIndices;
+                }
+
+                @Override
+                public OneDimFunction makeFunction(final Double[] reusableVarAssign, CompiledPolynomial.PowerTables reusablePowerTables) { //NOTE: be very careful about the reusable array
                     //independent constraints and lower/higher bounds do not contain the integration var so we do not need to 'null' it.
                     for (Polynomial independent : independentConstraints) {
                         double v = independent.evaluate(reusableVarAssign);
@@ -390,12 +417,55 @@ public class Digester {
 
                     if (lb >= ub) return OneDimFunction.ZERO_1D_FUNCTION; //critical!
 
+                    if (compiledIndefIntegral != null) {
+                        final double[] nCoefficients = compiledIndefIntegral.getNumerator().collapse(reusableVarAssign, integrationVarIndex, reusablePowerTables);
+                        final double[] dCoefficients = compiledIndefIntegral.getDenominator().collapse(reusableVarAssign, integrationVarIndex, reusablePowerTables);
+                        if (dCoefficients.length == 1) {
+                            //polynomial in the integration var:
+                            for (int k = 0; k < nCoefficients.length; k++) {
+                                nCoefficients[k] /= dCoefficients[0];
+                            }
+                            return new PolynomialSegmentCdf(nCoefficients, lb, ub);
+                        }
+                        final double offset1 = CompiledPolynomial.horner(nCoefficients, lb) / CompiledPolynomial.horner(dCoefficients, lb);
+                        final double u = CompiledPolynomial.horner(nCoefficients, ub) / CompiledPolynomial.horner(dCoefficients, ub) - offset1;
+
+                        return new SegmentCdf() {
+                            @Override
+                            public double getLowerBound() {
+                                return lb;
+                            }
+
+                            @Override
+                            public double getUpperBound() {
+                                return ub;
+                            }
+
+                            @Override
+                            public double eval(double var) {
+                                if (var < lb) return 0.0;
+                                if (var > ub) return u;
+                                return CompiledPolynomial.horner(nCoefficients, var) / CompiledPolynomial.horner(dCoefficients, var) - offset1;
+                            }
+                        };
+                    }
+
                     reusableVarAssign[integrationVarIndex] = lb;
                     final double offset1 = fruitIndefIntegral.evaluate(reusableVarAssign);
                     reusableVarAssign[integrationVarIndex] = ub;
                     final double u = fruitIndefIntegral.evaluate(reusableVarAssign) - offset1;
 
-                    return new OneDimFunction() {
+                    return new SegmentCdf() {
+                        @Override
+                        public double getLowerBound() {
+                            return lb;
+                        }
+
+                        @Override
+                        public double getUpperBound() {
+                            return ub;
+                        }
+
                         @Override
                         public double eval(double var) {
                             if (var < lb) return 0.0;
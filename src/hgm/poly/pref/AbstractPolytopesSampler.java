@@ -2,6 +2,7 @@ package hgm.poly.pref;
 
 import hgm.poly.ConstrainedExpression;
 import hgm.poly.PolynomialFactory;
+import hgm.poly.integral.InvertibleOneDimFunction;
 import hgm.poly.integral.OneDimFunction;
 import hgm.poly.integral.OneDimPolynomialIntegral;
 import hgm.poly.sampling.SamplerInterface;
@@ -179,6 +180,11 @@ public abstract class AbstractPolytopesSampler implements SamplerInterface {
         Double cdfInfinity = varCDF.eval(maxVarValue + 0.1);
 
         double s = randomDoubleUniformBetween(0.0, cdfInfinity);
+        if (varCDF instanceof InvertibleOneDimFunction && cdfInfinity > 0) {
+            //piecewise polynomial CDF, inverted directly (rather than by bisection):
+            double x = ((InvertibleOneDimFunction) varCDF).inverse(s);
+            return Math.max(minVarValue, Math.min(maxVarValue, x));
+        }
         //now: F^{-1}(X=s) should be computed:
         //Binary search algorithm:
         double low = minVarValue;
@@ -2,6 +2,7 @@ package hgm.poly.pref;
 
 import hgm.poly.ConstrainedExpression;
 import hgm.poly.integral.OneDimFunction;
+import hgm.poly.integral.PiecewisePolynomialCdf;
 import hgm.poly.vis.FunctionVisualizer;
 
 import java.util.ArrayList;
@@ -67,7 +68,8 @@ public class FullGibbsPolytopesSampler extends AbstractPolytopesSampler {
         if (!aNonZeroPolytopeFuncExists) throw new FatalSamplingException("all regions are zero");
 
 
-        OneDimFunction varCDF = new OneDimFunction() {
+        OneDimFunction piecewiseCDF = PiecewisePolynomialCdf.sum(polyCDFs); //null if a CDF is not piecewise polynomial
+        OneDimFunction varCDF = piecewiseCDF != null ? piecewiseCDF : new OneDimFunction() {
             @Override
             public double eval(double var) {
 
@@ -1,6 +1,9 @@
 package hgm.poly.pref;
 
+import hgm.poly.CompiledPolynomial;
 import hgm.poly.integral.OneDimFunction;
+import hgm.poly.integral.PiecewisePolynomialCdf;
+import hgm.poly.integral.SegmentIndexedCdf;
 import hgm.poly.integral.SymbolicOneDimFunctionGenerator;
 
 import java.util.Arrays;
@@ -8,24 +11,72 @@ import java.util.Arrays;
 public class SymbolicCdfArrayHandler {
     SymbolicOneDimFunctionGenerator[] generators;
     final OneDimFunction[] reusableInstantiatedFunctions;
+    final PiecewisePolynomialCdf reusablePiecewiseCdf = new PiecewisePolynomialCdf();
+    final SegmentIndexedCdf reusableSegmentIndexedCdf = new SegmentIndexedCdf();
+    final CompiledPolynomial.PowerTables reusablePowerTables = new CompiledPolynomial.PowerTables();
+
+    //the assignment array of the last instantiation and a copy of its values, to only re-instantiate the generators whose
+    // parameter variables are changed since then (typically in a Gibbs sweep only one coordinate changes between visits):
+    Double[] lastVarAssign = null;
+    Double[] lastVarValues;
+    boolean[] changedVars;
+    int numReinstantiatedSegments = 0;
+    int numReusedSegments = 0;
 
     public SymbolicCdfArrayHandler(SymbolicOneDimFunctionGenerator[] generators) {
         this.generators = generators;
         reusableInstantiatedFunctions = new OneDimFunction[generators.length];
     }
 
+    /**
+     * @return a handler over the same (read-only) generators with its own reusable instantiation state, e.g. for
+     * another sampling chain (a handler itself should not be shared between threads)
+     */
+    public SymbolicCdfArrayHandler copy() {
+        return new SymbolicCdfArrayHandler(generators);
+    }
+
+    public SymbolicOneDimFunctionGenerator[] getGenerators() {
+        return generators;
+    }
+
     @Override
     public String toString() {
         return "Generators: " + Arrays.toString(generators);
     }
 
     //note that each instantiation changes the result of the former due to reused object
+    //if all segment CDFs are polynomial, the result is an (invertible) PiecewisePolynomialCdf, otherwise if they are
+    //segment CDFs (with known intervals) it is a SegmentIndexedCdf, that only evaluates segments overlapping the query point
     public OneDimFunction instantiate(Double[] varAssign) {
+        boolean piecewisePolynomial = true;
+        boolean segmentIndexed = true;
+        reusablePiecewiseCdf.clear();
+        reusableSegmentIndexedCdf.clear();
+        boolean reusable = updateChangedVars(varAssign);
         for (int i = 0; i < generators.length; i++) {
             SymbolicOneDimFunctionGenerator generator = generators[i];
-            OneDimFunction segmentCdf = generator.makeFunction(varAssign);
+            OneDimFunction segmentCdf;
+            if (reusable && !anyChanged(generator.getParameterVarIndices())) {
+                segmentCdf = reusableInstantiatedFunctions[i];
+                numReusedSegments++;
+            } else {
+                segmentCdf = generator.makeFunction(varAssign, reusablePowerTables);
+                numReinstantiatedSegments++;
+            }
 //            if (!segmentCdf.equals(OneDimFunction.ZERO_1D_FUNCTION)) {
             reusableInstantiatedFunctions[i] = segmentCdf;
+            piecewisePolynomial = piecewisePolynomial && reusablePiecewiseCdf.add(segmentCdf);
+            segmentIndexed = segmentIndexed && reusableSegmentIndexedCdf.add(segmentCdf);
+        }
+
+        if (piecewisePolynomial) {
+            reusablePiecewiseCdf.build();
+            return reusablePiecewiseCdf;
+        }
+        if (segmentIndexed) {
+            reusableSegmentIndexedCdf.build();
+            return reusableSegmentIndexedCdf;
         }
 
 
@@ -46,4 +97,30 @@ public class SymbolicCdfArrayHandler {
             }
         };
     }
+
+    /**
+     * @return false if the former instantiated functions cannot be reused at all (they refer to another assignment array)
+     */
+    private boolean updateChangedVars(Double[] varAssign) {
+        boolean sameArray = varAssign == lastVarAssign;
+        if (!sameArray) {
+            lastVarAssign = varAssign;
+            lastVarValues = new Double[varAssign.length];
+            changedVars = new boolean[varAssign.length];
+        }
+        for (int v = 0; v < varAssign.length; v++) {
+            Double value = varAssign[v];
+            Double lastValue = lastVarValues[v];
+            changedVars[v] = value == null ? lastValue != null : !value.equals(lastValue);
+            lastVarValues[v] = value;
+        }
+        return sameArray;
+    }
+
+    private boolean anyChanged(int[] varIndices) {
+        for (int v : varIndices) {
+            if (changedVars[v]) return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,97 @@
+package hgm.poly.sampling;
+
+import hgm.poly.sampling.frac.FractionalJointSymbolicGibbsSampler;
+import hgm.sampling.SamplingFailureException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several independent sampling chains in parallel. The (expensive) symbolic precomputation is done once, by the
+ * sampler the chains are made from; each chain only owns its reusable objects (sample array, CDF handlers) and an
+ * independent random stream split from a single seed. The samples of all chains are merged into a lock-free queue.
+ */
+public class ParallelChainSampler {
+
+    public interface ChainFactory {
+        /**
+         * Called in the worker thread of the chain; the returned sampler should only use the given random stream.
+         */
+        SamplerInterface makeChain(SplittableRandom chainRandom);
+    }
+
+    public static ChainFactory makeChainFactory(final FractionalJointSymbolicGibbsSampler sharedSampler) {
+        return new ChainFactory() {
+            @Override
+            public SamplerInterface makeChain(SplittableRandom chainRandom) {
+                return sharedSampler.makeChain(chainRandom);
+            }
+        };
+    }
+
+    private ChainFactory chainFactory;
+    private int numChains;
+    private int numThreads;
+    private SplittableRandom seeds;
+
+    public ParallelChainSampler(ChainFactory chainFactory, int numChains, long seed) {
+        this(chainFactory, numChains, Math.min(numChains, Runtime.getRuntime().availableProcessors()), seed);
+    }
+
+    public ParallelChainSampler(ChainFactory chainFactory, int numChains, int numThreads, long seed) {
+        if (numChains < 1 || numThreads < 1) throw new IllegalArgumentException("at least one chain and thread expected");
+        this.chainFactory = chainFactory;
+        this.numChains = numChains;
+        this.numThreads = numThreads;
+        this.seeds = new SplittableRandom(seed);
+    }
+
+    /**
+     * Each chain discards its first 'numBurnedSamplesPerChain' samples and then takes 'numSamplesPerChain' samples.
+     * @return the (cloned) samples of all chains; the samples of a chain are in order but interleaved with other chains
+     */
+    public List<Double[]> takeSamples(final int numBurnedSamplesPerChain, final int numSamplesPerChain) throws SamplingFailureException {
+        final ConcurrentLinkedQueue<Double[]> collector = new ConcurrentLinkedQueue<Double[]>();
+
+        List<Callable<Object>> chains = new ArrayList<Callable<Object>>(numChains);
+        for (int c = 0; c < numChains; c++) {
+            final SplittableRandom chainRandom = seeds.split();
+            chains.add(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    SamplerInterface chain = chainFactory.makeChain(chainRandom);
+                    for (int i = 0; i < numBurnedSamplesPerChain; i++) {
+                        chain.reusableSample();
+                    }
+                    for (int i = 0; i < numSamplesPerChain; i++) {
+                        collector.add(chain.reusableSample().clone());
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            for (Future<Object> result : pool.invokeAll(chains)) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SamplingFailureException) throw (SamplingFailureException) e.getCause();
+            throw new SamplingFailureException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SamplingFailureException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return new ArrayList<Double[]>(collector);
+    }
+}
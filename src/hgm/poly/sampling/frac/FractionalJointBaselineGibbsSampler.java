@@ -5,6 +5,7 @@ import hgm.poly.PiecewiseExpression;
 import hgm.poly.PolynomialFactory;
 import hgm.poly.gm.JointToSampler;
 import hgm.poly.gm.JointWrapper;
+import hgm.poly.integral.InvertibleOneDimFunction;
 import hgm.poly.integral.OneDimFunction;
 import hgm.poly.integral.frac.Digester;
 import hgm.poly.pref.FatalSamplingException;
@@ -243,6 +244,11 @@ public class FractionalJointBaselineGibbsSampler implements SamplerInterface {
         Double cdfInfinity = varCDF.eval(maxVarValue + 0.1);
 
         double s = randomDoubleUniformBetween(0.0, cdfInfinity);
+        if (varCDF instanceof InvertibleOneDimFunction && cdfInfinity > 0) {
+            //piecewise polynomial CDF, inverted directly (rather than by bisection):
+            double x = ((InvertibleOneDimFunction) varCDF).inverse(s);
+            return Math.max(minVarValue, Math.min(maxVarValue, x));
+        }
         //now: F^{-1}(X=s) should be computed:
         //Binary search algorithm:
         double low = minVarValue;
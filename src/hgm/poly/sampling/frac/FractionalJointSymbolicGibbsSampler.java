@@ -3,6 +3,7 @@ package hgm.poly.sampling.frac;
 import hgm.poly.*;
 import hgm.poly.gm.JointToSampler;
 import hgm.poly.gm.JointWrapper;
+import hgm.poly.integral.InvertibleOneDimFunction;
 import hgm.poly.integral.OneDimFunction;
 import hgm.poly.integral.frac.Digester;
 import hgm.poly.pref.FatalSamplingException;
@@ -65,6 +66,7 @@ public class FractionalJointSymbolicGibbsSampler implements SamplerInterface {
 
     PolynomialFactory factory;
     private Map<String, Double> reusableSampleAssignment;
+    SplittableRandom chainRandom; // random stream of this chain, or null if the shared (static) random is used
 
 
     public FractionalJointSymbolicGibbsSampler(PiecewiseExpression<Fraction> joint,
@@ -121,6 +123,39 @@ public class FractionalJointSymbolicGibbsSampler implements SamplerInterface {
 //        }
     }
 
+    /**
+     * A chain sharing the joint, the bounds and the symbolic CDF generators of 'shared' (that are only read while
+     * sampling), with its own CDF handlers, sample array and random stream, so that it can run in parallel with other
+     * chains made the same way (see {@link hgm.poly.sampling.ParallelChainSampler}).
+     */
+    protected FractionalJointSymbolicGibbsSampler(FractionalJointSymbolicGibbsSampler shared, SplittableRandom chainRandom) {
+        this.joint = shared.joint;
+        this.numScopeVars = shared.numScopeVars;
+        this.factory = shared.factory;
+        this.scopeVarIndexes = shared.scopeVarIndexes;
+        this.varIndex2MinMap = shared.varIndex2MinMap;
+        this.varIndex2MaxMap = shared.varIndex2MaxMap;
+        this.chainRandom = chainRandom;
+
+        reusableSampleAssignment = new HashMap<String, Double>(shared.reusableSampleAssignment);
+
+        varToSymbolicIntegralMap = new HashMap<Integer, SymbolicCdfArrayHandler>(shared.varToSymbolicIntegralMap.size());
+        for (Map.Entry<Integer, SymbolicCdfArrayHandler> entry : shared.varToSymbolicIntegralMap.entrySet()) {
+            varToSymbolicIntegralMap.put(entry.getKey(), entry.getValue().copy());
+        }
+
+        this.reusableSample = new Double[shared.reusableSample.length];
+        takeInitialSample(reusableSample);
+    }
+
+    public FractionalJointSymbolicGibbsSampler makeChain(SplittableRandom chainRandom) {
+        return new FractionalJointSymbolicGibbsSampler(this, chainRandom);
+    }
+
+    public SymbolicCdfArrayHandler getSymbolicCdfArrayHandler(int varIndex) {
+        return varToSymbolicIntegralMap.get(varIndex);
+    }
+
     public Map<String, Double> reusableSampleAssignment() throws SamplingFailureException {
         reusableSample = reusableSample();
         for (String v : reusableSampleAssignment.keySet()) {
@@ -167,7 +202,7 @@ public class FractionalJointSymbolicGibbsSampler implements SamplerInterface {
 
         OneDimFunction varCDF = symbolicCDFListHandler.instantiate(reusableVarAssign);
 
-        double s = takeSampleFrom1DFunc(varCDF, minVarValue, maxVarValue);
+        double s = takeSampleFrom1DFunc(varCDF, minVarValue, maxVarValue, nextUniform());
 
         // here the sample is stored....
         reusableVarAssign[varIndexToBeSampled] = s;
@@ -242,7 +277,7 @@ public class FractionalJointSymbolicGibbsSampler implements SamplerInterface {
                 int scopeVarIndex = scopeVarIndexes[i];
                 double minVarValue = varIndex2MinMap.get(scopeVarIndex);
                 double maxVarValue = varIndex2MaxMap.get(scopeVarIndex);
-                reusableSample[scopeVarIndex] = randomDoubleUniformBetween(minVarValue, maxVarValue);
+                reusableSample[scopeVarIndex] = nextUniform() * (maxVarValue - minVarValue) + minVarValue;
             }
 
             targetValue = joint.evaluate(reusableSample);
@@ -251,10 +286,22 @@ public class FractionalJointSymbolicGibbsSampler implements SamplerInterface {
 
 
     public static double takeSampleFrom1DFunc(OneDimFunction varCDF, double minVarValue, double maxVarValue) throws FatalSamplingException {
+        return takeSampleFrom1DFunc(varCDF, minVarValue, maxVarValue, random.nextDouble());
+    }
+
+    /**
+     * @param uniform a uniform random number in [0, 1)
+     */
+    public static double takeSampleFrom1DFunc(OneDimFunction varCDF, double minVarValue, double maxVarValue, double uniform) throws FatalSamplingException {
         Double cdfInfinity = varCDF.eval(maxVarValue + 0.1);
         double normalizedAccuracy = SAMPLE_ACCURACY * cdfInfinity;
 
-        double s = randomDoubleUniformBetween(0.0, cdfInfinity);
+        double s = uniform * cdfInfinity;
+        if (varCDF instanceof InvertibleOneDimFunction && cdfInfinity > 0) {
+            //piecewise polynomial CDF, inverted directly (rather than by bisection):
+            double x = ((InvertibleOneDimFunction) varCDF).inverse(s);
+            return Math.max(minVarValue, Math.min(maxVarValue, x));
+        }
         //now: F^{-1}(X=s) should be computed:
         //Binary search algorithm:
         double low = minVarValue;
@@ -323,6 +370,10 @@ public class FractionalJointSymbolicGibbsSampler implements SamplerInterface {
         return random.nextDouble() * (max - min) + min;
     }
 
+    protected double nextUniform() {
+        return chainRandom == null ? random.nextDouble() : chainRandom.nextDouble();
+    }
+
 
 }
 
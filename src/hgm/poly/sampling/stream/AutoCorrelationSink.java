@@ -0,0 +1,96 @@
+package hgm.poly.sampling.stream;
+
+/**
+ * Per-dimension autocorrelations up to a maximum lag (and the effective sample sizes they imply) in O(maxLag * #dims)
+ * memory: only the first and the last 'maxLag' samples are kept, along with the sums of the lagged products.
+ * The products are centered by the sample mean when the autocorrelations are computed, since
+ * sum_t (x_t - m)(x_{t-k} - m) = sum_t x_t x_{t-k} - m (sum_t x_t + sum_t x_{t-k}) + (n - k) m^2.
+ * Null entries are taken as zero.
+ */
+public class AutoCorrelationSink implements SampleSink {
+    private int maxLag;
+    private long n = 0;
+    private double[] sums;
+    private double[][] lagProducts; // lagProducts[k][i] = sum_t x_t[i] * x_{t-k}[i]
+    private double[][] firstSamples;
+    private double[][] lastSamples; // circular, the sample t is at (t % maxLag)
+
+    public AutoCorrelationSink(int maxLag) {
+        if (maxLag < 1) throw new IllegalArgumentException("max. lag should be positive: " + maxLag);
+        this.maxLag = maxLag;
+    }
+
+    @Override
+    public void addSample(Double[] reusableSample) {
+        int dims = reusableSample.length;
+        if (sums == null) {
+            sums = new double[dims];
+            lagProducts = new double[maxLag + 1][dims];
+            firstSamples = new double[maxLag][dims];
+            lastSamples = new double[maxLag][dims];
+        }
+        if (dims != sums.length) throw new RuntimeException("size mismatch");
+
+        double[] current = lastSamples[(int) (n % maxLag)]; // holds the sample at lag maxLag, read before overwritten
+        for (int i = 0; i < dims; i++) {
+            double x = reusableSample[i] == null ? 0d : reusableSample[i];
+            for (int k = 1; k <= Math.min(n, maxLag); k++) {
+                lagProducts[k][i] += x * lastSamples[(int) ((n - k) % maxLag)][i];
+            }
+            lagProducts[0][i] += x * x;
+            sums[i] += x;
+            current[i] = x;
+        }
+        if (n < maxLag) System.arraycopy(current, 0, firstSamples[(int) n], 0, dims);
+        n++;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getCount() {
+        return n;
+    }
+
+    /**
+     * @return rho[k][i]: the autocorrelation of dimension i at lag k (rho[0][i] = 1)
+     */
+    public double[][] computeAutoCorrelations() {
+        if (n == 0) throw new RuntimeException("no sample is taken");
+        int dims = sums.length;
+        int lags = (int) Math.min(maxLag, n - 1);
+        double[][] rho = new double[lags + 1][dims];
+        for (int i = 0; i < dims; i++) {
+            double m = sums[i] / n;
+            double c0 = lagProducts[0][i] - n * m * m;
+            rho[0][i] = 1d;
+            if (c0 <= 0d) continue; // constant dimension, no correlation
+            double headSum = 0d; // sum of the first k samples
+            double tailSum = 0d; // sum of the last k samples
+            for (int k = 1; k <= lags; k++) {
+                headSum += firstSamples[k - 1][i];
+                tailSum += lastSamples[(int) ((n - k) % maxLag)][i];
+                double ck = lagProducts[k][i] - m * ((sums[i] - headSum) + (sums[i] - tailSum)) + (n - k) * m * m;
+                rho[k][i] = ck / c0;
+            }
+        }
+        return rho;
+    }
+
+    /**
+     * @return per dimension: n / (1 + 2 sum_k rho_k) where the sum is truncated at the first non-positive autocorrelation
+     */
+    public double[] computeEffectiveSampleSizes() {
+        double[][] rho = computeAutoCorrelations();
+        double[] ess = new double[sums.length];
+        for (int i = 0; i < ess.length; i++) {
+            double sumRho = 0d;
+            for (int k = 1; k < rho.length && rho[k][i] > 0d; k++) {
+                sumRho += rho[k][i];
+            }
+            ess[i] = n / (1d + 2d * sumRho);
+        }
+        return ess;
+    }
+}
@@ -0,0 +1,75 @@
+package hgm.poly.sampling.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Appends samples to a binary file: each sample is its length (int) followed by its entries (doubles, NaN for null).
+ * The samples can be streamed back to other sinks by {@link #readSamples(File, SampleSink)}.
+ */
+public class BinarySampleFileSink implements SampleSink {
+    private DataOutputStream out;
+
+    public BinarySampleFileSink(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true /*append*/)));
+    }
+
+    @Override
+    public void addSample(Double[] reusableSample) {
+        try {
+            out.writeInt(reusableSample.length);
+            for (Double x : reusableSample) {
+                out.writeDouble(x == null ? Double.NaN : x);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Pushes the samples of the file to the sink (in a reusable array) and closes the sink.
+     * @return the number of read samples
+     */
+    public static int readSamples(File file, SampleSink sink) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        int numSamples = 0;
+        Double[] reusableSample = new Double[0];
+        try {
+            for (; ; ) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break; // end of file
+                }
+                if (reusableSample.length != length) reusableSample = new Double[length];
+                for (int i = 0; i < length; i++) {
+                    double x = in.readDouble();
+                    reusableSample[i] = Double.isNaN(x) ? null : x;
+                }
+                sink.addSample(reusableSample);
+                numSamples++;
+            }
+        } finally {
+            in.close();
+            sink.close();
+        }
+        return numSamples;
+    }
+}
@@ -0,0 +1,28 @@
+package hgm.poly.sampling.stream;
+
+import hgm.poly.diagnostics.MeasureOnTheRun;
+
+/**
+ * Feeds the samples to a measure on the run (e.g. {@link hgm.poly.diagnostics.MeanMeasure} or
+ * {@link hgm.poly.diagnostics.CorrectedVarianceMeasure}), that are already computed online.
+ */
+public class MeasureSink implements SampleSink {
+    private MeasureOnTheRun<Double[]> measure;
+
+    public MeasureSink(MeasureOnTheRun<Double[]> measure) {
+        this.measure = measure;
+    }
+
+    @Override
+    public void addSample(Double[] reusableSample) {
+        measure.addNewValue(reusableSample);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public double computeMeasure() {
+        return measure.computeMeasure();
+    }
+}
@@ -0,0 +1,51 @@
+package hgm.poly.sampling.stream;
+
+/**
+ * Per-dimension running mean and (corrected) variance by Welford's update, that unlike accumulating E[X] and E[X^2]
+ * does not lose precision over long runs. Null entries (variables out of the scope of the sampler) are skipped.
+ */
+public class RunningMomentsSink implements SampleSink {
+    private long[] counts;
+    private double[] means;
+    private double[] m2s;   // sums of squared differences from the current means
+
+    @Override
+    public void addSample(Double[] reusableSample) {
+        if (counts == null) {
+            counts = new long[reusableSample.length];
+            means = new double[reusableSample.length];
+            m2s = new double[reusableSample.length];
+        }
+        if (reusableSample.length != counts.length) throw new RuntimeException("size mismatch");
+
+        for (int i = 0; i < reusableSample.length; i++) {
+            Double x = reusableSample[i];
+            if (x == null) continue;
+            counts[i]++;
+            double delta = x - means[i];
+            means[i] += delta / counts[i];
+            m2s[i] += delta * (x - means[i]);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getCount(int dim) {
+        return counts == null ? 0 : counts[dim];
+    }
+
+    public double[] getMeans() {
+        return means == null ? new double[0] : means.clone();
+    }
+
+    public double[] getCorrectedVariances() {
+        if (m2s == null) return new double[0];
+        double[] variances = new double[m2s.length];
+        for (int i = 0; i < m2s.length; i++) {
+            variances[i] = counts[i] < 2 ? 0d : m2s[i] / (counts[i] - 1d);   //Bessel's correction
+        }
+        return variances;
+    }
+}
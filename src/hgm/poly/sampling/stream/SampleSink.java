@@ -0,0 +1,17 @@
+package hgm.poly.sampling.stream;
+
+/**
+ * Consumer of a stream of samples (see {@link SampleStream}). Sinks process samples online, so that the memory of a
+ * sampling run does not grow with the number of taken samples.
+ */
+public interface SampleSink {
+    /**
+     * @param reusableSample is (possibly and often) reused by the sampler, hence should be copied if it is kept
+     */
+    void addSample(Double[] reusableSample);
+
+    /**
+     * Called once after the last sample.
+     */
+    void close();
+}
@@ -0,0 +1,84 @@
+package hgm.poly.sampling.stream;
+
+import hgm.poly.diagnostics.BatchMeansEffectiveSampleSize;
+import hgm.poly.sampling.SamplerInterface;
+import hgm.sampling.SamplingFailureException;
+
+/**
+ * Pushes the samples of a sampler to sinks rather than collecting them in a list, so that long runs are bounded by the
+ * sinks (and the disk if a {@link BinarySampleFileSink} is used) rather than by memory.
+ */
+public class SampleStream {
+    public static final int ESS_CHECK_PERIOD = 100; //#samples between the checks of the stopping criterion
+    //batch means of smaller batches are nearly independent draws even for a slowly mixing chain (so the ESS is
+    // overestimated), hence the stopping criterion is only checked once the batches are at least this large:
+    public static final int MIN_ESS_BATCH_SIZE = 16;
+
+    public static int run(SamplerInterface sampler, int numBurnedSamples, int numSamples, SampleSink... sinks) throws SamplingFailureException {
+        return run(sampler, numBurnedSamples, numSamples, Long.MAX_VALUE, sinks);
+    }
+
+    /**
+     * @return the number of samples pushed to the sinks (less than 'numSamples' if the time is out)
+     */
+    public static int run(SamplerInterface sampler, int numBurnedSamples, int numSamples, long maxWaitingTimeMillis,
+                          SampleSink... sinks) throws SamplingFailureException {
+        for (int i = 0; i < numBurnedSamples; i++) {
+            sampler.reusableSample(); //discard samples...
+        }
+
+        long t1 = System.currentTimeMillis();
+        int takenSamples = 0;
+        try {
+            while (takenSamples < numSamples) {
+                Double[] sample = sampler.reusableSample();
+                for (SampleSink sink : sinks) {
+                    sink.addSample(sample);
+                }
+                takenSamples++;
+                if (System.currentTimeMillis() - t1 > maxWaitingTimeMillis) break;
+            }
+        } finally {
+            for (SampleSink sink : sinks) {
+                sink.close();
+            }
+        }
+        return takenSamples;
+    }
+
+    /**
+     * Samples until the (streaming batch means) effective sample size of every variable passes 'targetEss' (checked
+     * once the batches have at least {@link #MIN_ESS_BATCH_SIZE} samples), or until 'maxSamples' samples are taken or
+     * the time is out.
+     * @return the number of samples pushed to the sinks
+     */
+    public static int runUntilEffectiveSampleSize(SamplerInterface sampler, int numBurnedSamples, double targetEss,
+                                                  int maxSamples, long maxWaitingTimeMillis,
+                                                  SampleSink... sinks) throws SamplingFailureException {
+        for (int i = 0; i < numBurnedSamples; i++) {
+            sampler.reusableSample(); //discard samples...
+        }
+
+        BatchMeansEffectiveSampleSize ess = new BatchMeansEffectiveSampleSize();
+        long t1 = System.currentTimeMillis();
+        int takenSamples = 0;
+        try {
+            while (takenSamples < maxSamples) {
+                Double[] sample = sampler.reusableSample();
+                ess.addNewValue(sample);
+                for (SampleSink sink : sinks) {
+                    sink.addSample(sample);
+                }
+                takenSamples++;
+                if (takenSamples % ESS_CHECK_PERIOD == 0 && ess.getBatchSize() >= MIN_ESS_BATCH_SIZE
+                        && ess.computeMeasure() >= targetEss) break;
+                if (System.currentTimeMillis() - t1 > maxWaitingTimeMillis) break;
+            }
+        } finally {
+            for (SampleSink sink : sinks) {
+                sink.close();
+            }
+        }
+        return takenSamples;
+    }
+}
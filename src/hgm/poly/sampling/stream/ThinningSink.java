@@ -0,0 +1,31 @@
+package hgm.poly.sampling.stream;
+
+/**
+ * Only forwards every k-th sample (the k-th, 2k-th, ...) to its sinks.
+ */
+public class ThinningSink implements SampleSink {
+    private int thinning;
+    private SampleSink[] sinks;
+    private int count = 0;
+
+    public ThinningSink(int thinning, SampleSink... sinks) {
+        if (thinning < 1) throw new IllegalArgumentException("thinning should be positive: " + thinning);
+        this.thinning = thinning;
+        this.sinks = sinks;
+    }
+
+    @Override
+    public void addSample(Double[] reusableSample) {
+        if (++count % thinning != 0) return;
+        for (SampleSink sink : sinks) {
+            sink.addSample(reusableSample);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (SampleSink sink : sinks) {
+            sink.close();
+        }
+    }
+}
@@ -145,34 +145,11 @@ public class GibbsSamplerWithCDFsPerSample extends XaddSampler {
         Double cdfInfinity = varCDF.value(maxVarValue + 0.1);
 
         double s = randomDoubleUniformBetween(0.0, cdfInfinity);
-        //now: F^{-1}(X=s) should be computed:
-        //Binary search algorithm:
-        double low = minVarValue;
-        double high = maxVarValue;
-        double approxS;
-        double average;
-
-        //NOTE: the algorithm only works since there is no delta (i.e. no discontinuity in the CDF)
-        //however, counter is added in case XADD rounding causes problems
-        int counter = 0;
-        do {
-            average = (high + low) / 2.0;
-
-//            reusableVarAssign.assignContinuousVariable(varToBeSampled, average);  //here the sample is stored
-//            approxS = context.evaluate(cdfId,
-//                    reusableVarAssign.getBooleanVarAssign(), reusableVarAssign.getContinuousVarAssign());
-
-            approxS = varCDF.value(average);
-
-            if (approxS < s) {
-                low = average;
-            } else {
-                high = average;
-            }
-        } while ((Math.abs(approxS - s) > SAMPLE_ACCURACY) && counter++ < MAX_ITERATIONS_TO_APPROX_F_INVERSE);
+        //now: F^{-1}(X=s) is computed piece by piece (see Piecewise1DPolynomialUsingArithExpr.inverse):
+        double sample = varCDF.inverse(s, minVarValue, maxVarValue);
 
         // here the sample is stored....
-        reusableVarAssign.assignExistingContinuousVariable(varToBeSampled, average);
+        reusableVarAssign.assignExistingContinuousVariable(varToBeSampled, sample);
     }
 
 
@@ -14,6 +14,9 @@ import xadd.ExprLib.*;
  * Time: 2:56 AM
  */
 public class Piecewise1DPolynomialUsingArithExpr {
+    public static final double INVERSE_TOLERANCE = 1E-10;
+    public static final int MAX_NEWTON_STEPS = 50;
+
     protected String var;
 
     /**
@@ -28,6 +31,10 @@ public class Piecewise1DPolynomialUsingArithExpr {
      * Start point of each interval
      */
     protected TreeSet<Double> startPoints;
+    /**
+     * Derivatives of the expressions, used for inversion
+     */
+    protected HashMap<ArithExpr, ArithExpr> derivatives = new HashMap<ArithExpr, ArithExpr>();
 
 
     public Piecewise1DPolynomialUsingArithExpr(String var) {
@@ -49,6 +56,54 @@ public class Piecewise1DPolynomialUsingArithExpr {
         return associatedExpr.evaluate(assign);
     }
 
+    /**
+     * Inverse of a non-decreasing piecewise function restricted to [low, high]: the piece in which the function reaches
+     * the target is located by evaluating the ends of the pieces and the target is solved for in it by safeguarded
+     * Newton steps (instead of bisection over all pieces).
+     */
+    public double inverse(double target, double low, double high) {
+        Double first = startPoints.floor(low);
+        for (Double start : (first == null ? startPoints : startPoints.tailSet(first))) {
+            Double next = startPoints.higher(start);
+            double pieceLow = Math.max(start, low);
+            double pieceHigh = next == null ? high : Math.min(next, high);
+            if (pieceHigh <= pieceLow) continue;
+
+            ArithExpr expr = intervalStartToExpressionMap.get(start);
+            if (pieceHigh == high || evaluate(expr, pieceHigh) >= target) {
+                return solve(expr, target, pieceLow, pieceHigh);
+            }
+        }
+        return high;
+    }
+
+    private double solve(ArithExpr expr, double target, double low, double high) {
+        ArithExpr derivative = derivatives.get(expr);
+        if (derivative == null) {
+            derivative = expr.differentiateExpr(var);
+            derivatives.put(expr, derivative);
+        }
+        double tolerance = INVERSE_TOLERANCE * Math.max(high - low, 1d);
+        double x = (low + high) / 2;
+        for (int i = 0; i < MAX_NEWTON_STEPS; i++) {
+            double f = evaluate(expr, x) - target;
+            if (f == 0d) return x;
+            if (f > 0) high = x;
+            else low = x;
+
+            double next = x - f / evaluate(derivative, x);
+            if (!(next > low && next < high)) next = (low + high) / 2; // bisect if Newton leaves the bracket
+            if (Math.abs(next - x) <= tolerance || high - low <= tolerance) return next;
+            x = next;
+        }
+        return x;
+    }
+
+    private double evaluate(ArithExpr expr, double x) {
+        assign.put(var, x);
+        return expr.evaluate(assign);
+    }
+
     @Override
     public String toString() {
         return intervalStartToExpressionMap.toString();
@@ -0,0 +1,148 @@
+/* Posterior over the query variables parameterized by evidence values.
+ *
+ * For streams of observations of the same evidence variables, the selected
+ * continuous evidence variables (parameters) are not substituted into the
+ * model factors but kept symbolic through the elimination, like query
+ * variables.  This yields the joint XADD over the query variables and the
+ * parameters, and its normalizer (the joint with the query variables
+ * integrated out), both computed once.  Each observation then only
+ * substitutes the parameter values into the joint and divides by the
+ * normalizer evaluated at them -- no integration.
+ *
+ * Symbolic evidence may appear in integration bounds, so the joint can be
+ * much larger than the factors of a single query (see QueryPlan); this pays
+ * off when many observations are instantiated against the same joint.
+ */
+package sve;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import sve.GraphicalModel.Factor;
+
+import xaddorig.XADD;
+import xaddorig.XADD.*;
+
+public class EvidencePosterior {
+
+    private SVE _sve;
+    private XADD _context;
+
+    // Posterior identity
+    private HashMap<String, ArrayList<Integer>> _hmVar2Expansion;
+    private ArrayList<String> _alQueryVars;
+    private HashSet<String> _hsParameters;
+    private HashMap<String, Double> _hmCFixedEvidence = new HashMap<String, Double>();
+    private HashMap<String, Boolean> _hmBFixedEvidence;
+    private ArrayList<String> _alVariableOrder;
+
+    // Joint over query variables and parameters, and its normalizer over the parameters
+    private int _joint;
+    private int _normalizer;
+
+    // Decision index -> whether the decision only tests parameters
+    private HashMap<Integer, Boolean> _hmParameterDecision = new HashMap<Integer, Boolean>();
+
+    public EvidencePosterior(SVE sve, Query q, Collection<String> parameters, ArrayList<String> var_order) {
+        for (String var : parameters)
+            if (!q._hmCVarAssign.containsKey(var))
+                throw new IllegalArgumentException("Symbolic evidence variable " + var
+                        + " is not continuous evidence of " + q._sFilename);
+
+        _sve = sve;
+        _context = sve._context;
+        _hmVar2Expansion = q._hmVar2Expansion;
+        _alQueryVars = new ArrayList<String>(q._alQueryVars);
+        _hsParameters = new HashSet<String>(parameters);
+        for (String var : q._hmCVarAssign.keySet())
+            if (!_hsParameters.contains(var))
+                _hmCFixedEvidence.put(var, q._hmCVarAssign.get(var));
+        _hmBFixedEvidence = new HashMap<String, Boolean>(q._hmBVarAssign);
+        _alVariableOrder = new ArrayList<String>(var_order);
+
+        _joint = sve.multiplyFactors(sve.eliminate(q, _hsParameters))._xadd;
+        _normalizer = _joint;
+        for (String var : _alQueryVars) {
+            _normalizer = SVE.MarginalizeOut(_context, _normalizer, var);
+            ArrayList<Factor> keep = new ArrayList<Factor>();
+            keep.add(sve._gm.new Factor(_joint));
+            keep.add(sve._gm.new Factor(_normalizer));
+            sve.flushCaches(keep);
+        }
+        System.out.println("Compiled posterior over " + _alQueryVars + " and " + _hsParameters + ": "
+                + _context.getNodeCount(_joint) + " nodes, normalizer " + _context.getNodeCount(_normalizer) + " nodes");
+    }
+
+    // Same model, query, evidence variables and order, and the same values for
+    // the evidence that is not symbolic
+    public boolean matches(Query q, Collection<String> parameters, ArrayList<String> var_order, XADD context) {
+        if (_context != context
+                || !_hmVar2Expansion.equals(q._hmVar2Expansion)
+                || !_alQueryVars.equals(q._alQueryVars)
+                || !_hsParameters.equals(new HashSet<String>(parameters))
+                || !_hmBFixedEvidence.equals(q._hmBVarAssign)
+                || !_alVariableOrder.equals(var_order)
+                || q._hmCVarAssign.size() != _hmCFixedEvidence.size() + _hsParameters.size())
+            return false;
+        for (String var : q._hmCVarAssign.keySet())
+            if (!_hsParameters.contains(var) && !q._hmCVarAssign.get(var).equals(_hmCFixedEvidence.get(var)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the normalized posterior over the query variables for the
+     * parameter values of q, which must match this posterior.
+     */
+    public Factor instantiate(Query q) {
+        HashMap<String, ArithExpr> subst = new HashMap<String, ArithExpr>();
+        HashMap<String, Double> assign = new HashMap<String, Double>();
+        for (String var : _hsParameters) {
+            double val = q._hmCVarAssign.get(var);
+            subst.put(var, new DoubleExpr(val));
+            assign.put(var, val);
+        }
+        double norm = _context.evaluate(_normalizer, SVE.EMPTY_BOOL, assign);
+        int restricted = restrictParameters(_joint, assign, new HashMap<Integer, Integer>());
+        int posterior = _context.substitute(restricted, subst);
+        return _sve._gm.new Factor(_context.scalarOp(posterior, 1d / norm, XADD.PROD));
+    }
+
+    // Follows the branches of the decisions over parameters only, whose outcome
+    // is known for the observation, so that only decisions which also test query
+    // variables remain to be substituted.  Order is unchanged, so nodes can be
+    // built directly.
+    private int restrictParameters(int node_id, HashMap<String, Double> assign, HashMap<Integer, Integer> cache) {
+        XADDNode n = _context.getNode(node_id);
+        if (n instanceof XADDTNode)
+            return node_id;
+        Integer ret = cache.get(node_id);
+        if (ret != null)
+            return ret;
+
+        XADDINode inode = (XADDINode) n;
+        Decision d = _context._alOrder.get(inode._var);
+        Boolean parameter_only = _hmParameterDecision.get(inode._var);
+        if (parameter_only == null) {
+            HashSet<String> vars = new HashSet<String>();
+            d.collectVars(vars);
+            parameter_only = (d instanceof ExprDec) && _hsParameters.containsAll(vars);
+            _hmParameterDecision.put(inode._var, parameter_only);
+        }
+        if (parameter_only)
+            ret = restrictParameters(((ExprDec) d)._expr.evaluate(assign) ? inode._high : inode._low, assign, cache);
+        else
+            ret = _context.getINode(inode._var, restrictParameters(inode._low, assign, cache),
+                    restrictParameters(inode._high, assign, cache));
+        cache.put(node_id, ret);
+        return ret;
+    }
+
+    // XADDs which must survive cache flushes
+    public void addCachedNodes(ArrayList<Integer> nodes) {
+        nodes.add(_joint);
+        nodes.add(_normalizer);
+    }
+}
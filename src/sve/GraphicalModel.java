@@ -25,6 +25,18 @@ public class GraphicalModel {
     public HashSet<String> _hsVariables = null;
     public XADD _context = null;
 
+    // Instantiation: expansion of _context, instantiated variable -> how to build
+    // its factor (in instantiation order) and the factors built so far
+    private HashMap<String, ArrayList<Integer>> _hmExpansion = null;
+    private LinkedHashMap<String, CptInstance> _hmInstances = null;
+    private HashMap<String, Factor> _hmHead2Factor = null;
+
+    private class CptInstance {
+        public int _cpt;                         // XADD of the CPF or template
+        public HashMap<String, ArithExpr> _subst; // expansion of a template, else null
+        public HashSet<String> _parents;
+    }
+
     public class Factor {
         public int _xadd;
         public HashSet<String> _vars;
@@ -55,9 +67,66 @@ public class GraphicalModel {
 
     public void instantiateGMTemplate(HashMap<String, ArrayList<Integer>> var2expansion) {
 
+        // Expand all variables and build the factors of all of them
+        instantiateStructure(var2expansion);
+        selectFactors(null);
+    }
+
+    /**
+     * As instantiateGMTemplate, but reuses the context and the factors already
+     * built if the expansion is unchanged
+     *
+     * @return whether the factors differ from the previous instantiation
+     */
+    public boolean instantiateAll(HashMap<String, ArrayList<Integer>> var2expansion) {
+        if (_hmInstances == null || !_hmExpansion.equals(var2expansion))
+            instantiateStructure(var2expansion);
+        return selectFactors(null);
+    }
+
+    /**
+     * Lazy instantiation for q: only the factors of the requisite variables (Bayes
+     * ball from the query variables given the evidence variables of q) are used
+     * and built, the others are not needed for P(query | evidence) when every
+     * factor is the conditional density of its head variable.  Factors are built
+     * on demand and reused by later queries with the same expansion.
+     *
+     * @return whether the factors differ from the previous instantiation
+     */
+    public boolean instantiateRelevant(Query q) {
+
+        if (_hmInstances == null || !_hmExpansion.equals(q._hmVar2Expansion))
+            instantiateStructure(q._hmVar2Expansion);
+
+        HashSet<String> evidence = new HashSet<String>(q._hmCVarAssign.keySet());
+        evidence.addAll(q._hmBVarAssign.keySet());
+        return selectFactors(getRequisiteVars(q._alQueryVars, evidence));
+    }
+
+    // Sets the factors to those of the given instantiated variables (all if null)
+    private boolean selectFactors(HashSet<String> heads) {
+        ArrayList<Factor> factors = new ArrayList<Factor>();
+        for (String head : _hmInstances.keySet())
+            if (heads == null || heads.contains(head))
+                factors.add(getFactor(head));
+        boolean changed = !factors.equals(_alFactors);
+        _alFactors = factors;
+        _hsVariables = new HashSet<String>();
+        for (Factor f : _alFactors)
+            _hsVariables.addAll(f._vars);
+        return changed;
+    }
+
+    // Expands the templates into the instantiated variables and their parents in
+    // a new context; the factors of expanded templates are only built by getFactor
+    private void instantiateStructure(HashMap<String, ArrayList<Integer>> var2expansion) {
+
         _context = new XADD();
-        _alFactors = new ArrayList<Factor>();
+        _alFactors = null;
         _hsVariables = new HashSet<String>();
+        _hmExpansion = var2expansion;
+        _hmInstances = new LinkedHashMap<String, CptInstance>();
+        _hmHead2Factor = new HashMap<String, Factor>();
 
         // Assumptions: * at most one free index per variable
         //              * if a variable x_i uses x_i' then it will be defined by x_i'
@@ -73,8 +142,7 @@ public class GraphicalModel {
                 String split[] = var.split("_");
                 if (split.length == 1 || (split.length == 2 && Character.isDigit(split[1].charAt(0)))) {
                     addXADDVar(var, list == _alBVarsTemplate);
-                    int cpt_id = getXADD(var, list == _alBVarsTemplate);
-                    _alFactors.add(new Factor(cpt_id));
+                    addInstance(var, getXADD(var, list == _alBVarsTemplate), null);
                 } else if (split.length == 2) {
 
                     String var_part = split[0];
@@ -102,8 +170,8 @@ public class GraphicalModel {
                         if (prime && i == 0) {
                             // If using prime, get first index CPF directly from cpt lookup
                             // table (must be defined)
-                            int cpt_id = getXADD(var_part + "_" + index_value, list == _alBVarsTemplate);
-                            _alFactors.add(new Factor(cpt_id));
+                            addInstance(var_part + "_" + index_value,
+                                    getXADD(var_part + "_" + index_value, list == _alBVarsTemplate), null);
                         } else { // i > 0
 
                             if (prime)
@@ -127,8 +195,7 @@ public class GraphicalModel {
                                 }
                             }
 
-                            int cpt_id = _context.substitute(cpt_template, subst);
-                            _alFactors.add(new Factor(cpt_id));
+                            addInstance(var_part + "_" + index_value, cpt_template, subst);
                         }
                     }
 
@@ -139,6 +206,86 @@ public class GraphicalModel {
         }
     }
 
+    // The factor of head is cpt with subst (if not null) applied
+    private void addInstance(String head, int cpt, HashMap<String, ArithExpr> subst) {
+        CptInstance inst = new CptInstance();
+        inst._cpt = cpt;
+        inst._subst = subst;
+        inst._parents = new HashSet<String>();
+        for (String var : _context.collectVars(cpt)) {
+            ArithExpr e = (subst == null) ? null : subst.get(var);
+            inst._parents.add((e instanceof VarExpr) ? ((VarExpr) e)._sVarName : var);
+        }
+        inst._parents.remove(head);
+        _hmInstances.put(head, inst);
+    }
+
+    // Builds the factor of an instantiated variable on first use
+    private Factor getFactor(String head) {
+        Factor f = _hmHead2Factor.get(head);
+        if (f == null) {
+            CptInstance inst = _hmInstances.get(head);
+            f = new Factor((inst._subst == null) ? inst._cpt : _context.substitute(inst._cpt, inst._subst));
+            _hmHead2Factor.put(head, f);
+        }
+        return f;
+    }
+
+    // All CPFs, templates and factors built so far, which must survive cache
+    // flushes: later queries may select factors that the current one does not use
+    public void addCachedNodes(ArrayList<Integer> nodes) {
+        if (_hmInstances == null)
+            return;
+        for (CptInstance inst : _hmInstances.values())
+            nodes.add(inst._cpt);
+        for (Factor f : _hmHead2Factor.values())
+            nodes.add(f._xadd);
+    }
+
+    // Bayes ball (Shachter, 1998): the variables whose factors are requisite for
+    // P(query | evidence) are those the ball passes through from a child (marked
+    // on top)
+    private HashSet<String> getRequisiteVars(Collection<String> query, HashSet<String> evidence) {
+
+        HashMap<String, HashSet<String>> children = new HashMap<String, HashSet<String>>();
+        for (Map.Entry<String, CptInstance> e : _hmInstances.entrySet())
+            for (String parent : e.getValue()._parents) {
+                if (!children.containsKey(parent))
+                    children.put(parent, new HashSet<String>());
+                children.get(parent).add(e.getKey());
+            }
+
+        HashSet<String> top = new HashSet<String>();
+        HashSet<String> bottom = new HashSet<String>();
+        LinkedList<String> schedule = new LinkedList<String>();
+        LinkedList<Boolean> from_child = new LinkedList<Boolean>();
+        for (String var : query) {
+            schedule.add(var);
+            from_child.add(true);
+        }
+        while (!schedule.isEmpty()) {
+            String var = schedule.removeFirst();
+            boolean up = from_child.removeFirst();
+            boolean observed = evidence.contains(var);
+            CptInstance inst = _hmInstances.get(var);
+
+            // Pass to parents: from a child through an unobserved variable or
+            // bounced back from a parent by an observed one
+            if ((up ? !observed : observed) && top.add(var) && inst != null)
+                for (String parent : inst._parents) {
+                    schedule.add(parent);
+                    from_child.add(true);
+                }
+            // Pass to children through an unobserved variable
+            if (!observed && bottom.add(var) && children.containsKey(var))
+                for (String child : children.get(var)) {
+                    schedule.add(child);
+                    from_child.add(false);
+                }
+        }
+        return top;
+    }
+
     public int getXADD(String var, boolean is_bool) {
         ArrayList cpt_desc = _hmVar2cptTemplate.get(var);
         if (cpt_desc == null)
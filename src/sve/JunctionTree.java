@@ -0,0 +1,323 @@
+/* Junction (clique) tree inference for Symbolic Variable Elimination.
+ *
+ * The tree is built from the elimination cliques of the SVE variable order
+ * (Graph.computeBestOrder() unless given): eliminating variable v creates the
+ * clique {v} + its remaining neighbors, whose parent is the clique of the first
+ * eliminated variable of its separator (the clique minus v).  Every instantiated
+ * factor is assigned to the clique of its first eliminated variable.
+ *
+ * One upward sweep (children to parents) and one downward sweep (parents to
+ * children) calibrate the tree, after which the marginal of every unobserved
+ * variable is read off its own clique.  Upward messages only depend on the
+ * evidence inside a subtree and downward messages on the evidence outside it,
+ * so messages are cached under the values of that evidence and reused when a
+ * later query only changes some evidence values.
+ */
+package sve;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import sve.GraphicalModel.Factor;
+
+import xaddorig.XADD;
+
+public class JunctionTree {
+
+    // Evidence assignments cached per message before the message cache is cleared
+    public final static int MAX_CACHED_EVIDENCE = 16;
+
+    private SVE _sve;
+    private XADD _context;
+
+    // Tree identity
+    private HashMap<String, ArrayList<Integer>> _hmVar2Expansion;
+    private HashSet<String> _hsCEvidence;
+    private HashSet<String> _hsBEvidence;
+    private ArrayList<String> _alVariableOrder;
+
+    // Clique c is created by eliminating _cliqueVar[c], cliques are in elimination
+    // order so children always precede their parent
+    private String[] _cliqueVar;
+    private ArrayList<HashSet<String>> _alCliqueVars = new ArrayList<HashSet<String>>();
+    private int[] _parent; // -1 for a root
+    private ArrayList<ArrayList<Integer>> _alChildren = new ArrayList<ArrayList<Integer>>();
+    private ArrayList<ArrayList<Integer>> _alCliqueFactors = new ArrayList<ArrayList<Integer>>();
+
+    // Evidence each potential, upward and downward message depends on
+    private String[][] _potentialEvidence;
+    private String[][] _upEvidence;
+    private String[][] _downEvidence;
+
+    // Per clique: evidence values -> XADD
+    private ArrayList<HashMap<String, Integer>> _alPotentialCache = new ArrayList<HashMap<String, Integer>>();
+    private ArrayList<HashMap<String, Integer>> _alUpCache = new ArrayList<HashMap<String, Integer>>();
+    private ArrayList<HashMap<String, Integer>> _alDownCache = new ArrayList<HashMap<String, Integer>>();
+
+    // Statistics of the last calibration
+    public int _nLastComputed = 0;
+    public int _nLastReused = 0;
+
+    public JunctionTree(SVE sve, Query q, ArrayList<String> var_order) {
+        _sve = sve;
+        _context = sve._context;
+        _hmVar2Expansion = q._hmVar2Expansion;
+        _hsCEvidence = new HashSet<String>(q._hmCVarAssign.keySet());
+        _hsBEvidence = new HashSet<String>(q._hmBVarAssign.keySet());
+        _alVariableOrder = new ArrayList<String>(var_order);
+        build(sve._gm._alFactors);
+    }
+
+    public boolean matches(Query q, ArrayList<String> var_order, XADD context) {
+        return _context == context
+                && _hmVar2Expansion.equals(q._hmVar2Expansion)
+                && _hsCEvidence.equals(q._hmCVarAssign.keySet())
+                && _hsBEvidence.equals(q._hmBVarAssign.keySet())
+                && _alVariableOrder.equals(var_order);
+    }
+
+    private boolean isEvidence(String var) {
+        return _hsCEvidence.contains(var) || _hsBEvidence.contains(var);
+    }
+
+    private void build(ArrayList<Factor> model_factors) {
+
+        // Unobserved variables in elimination order and their interaction graph
+        ArrayList<String> order = new ArrayList<String>();
+        HashMap<String, Integer> var2clique = new HashMap<String, Integer>();
+        for (String var : _alVariableOrder)
+            if (!isEvidence(var) && !var2clique.containsKey(var)) {
+                var2clique.put(var, order.size());
+                order.add(var);
+            }
+        HashMap<String, HashSet<String>> neighbors = new HashMap<String, HashSet<String>>();
+        for (String var : order)
+            neighbors.put(var, new HashSet<String>());
+        ArrayList<HashSet<String>> factor_vars = new ArrayList<HashSet<String>>();
+        for (Factor f : model_factors) {
+            HashSet<String> vars = new HashSet<String>();
+            for (String var : f._vars)
+                if (var2clique.containsKey(var))
+                    vars.add(var);
+            for (String var : vars)
+                neighbors.get(var).addAll(vars);
+            factor_vars.add(vars);
+        }
+
+        // Elimination cliques
+        int n = order.size();
+        _cliqueVar = order.toArray(new String[n]);
+        _parent = new int[n];
+        for (int c = 0; c < n; c++) {
+            String var = _cliqueVar[c];
+            HashSet<String> clique = neighbors.get(var);
+            clique.add(var);
+            _alCliqueVars.add(clique);
+            _alChildren.add(new ArrayList<Integer>());
+            _alCliqueFactors.add(new ArrayList<Integer>());
+            _alPotentialCache.add(new HashMap<String, Integer>());
+            _alUpCache.add(new HashMap<String, Integer>());
+            _alDownCache.add(new HashMap<String, Integer>());
+
+            // Connect the remaining neighbors (fill-in) and detach var
+            _parent[c] = -1;
+            for (String nbr : clique) {
+                if (nbr.equals(var))
+                    continue;
+                HashSet<String> nbr_set = neighbors.get(nbr);
+                nbr_set.addAll(clique);
+                nbr_set.remove(var);
+                int nbr_clique = var2clique.get(nbr);
+                if (_parent[c] == -1 || nbr_clique < _parent[c])
+                    _parent[c] = nbr_clique;
+            }
+        }
+        for (int c = 0; c < n; c++)
+            if (_parent[c] != -1)
+                _alChildren.get(_parent[c]).add(c);
+
+        // Assign each factor to the clique of its first eliminated variable;
+        // factors without unobserved variables are constants and normalized away
+        ArrayList<HashSet<String>> clique_evidence = new ArrayList<HashSet<String>>();
+        for (int c = 0; c < n; c++)
+            clique_evidence.add(new HashSet<String>());
+        for (int i = 0; i < model_factors.size(); i++) {
+            int c = Integer.MAX_VALUE;
+            for (String var : factor_vars.get(i))
+                c = Math.min(c, var2clique.get(var));
+            if (c == Integer.MAX_VALUE)
+                continue;
+            _alCliqueFactors.get(c).add(i);
+            for (String var : model_factors.get(i)._vars)
+                if (isEvidence(var))
+                    clique_evidence.get(c).add(var);
+        }
+
+        // Evidence dependencies of potentials and messages
+        _potentialEvidence = new String[n][];
+        _upEvidence = new String[n][];
+        _downEvidence = new String[n][];
+        ArrayList<HashSet<String>> up = new ArrayList<HashSet<String>>();
+        for (int c = 0; c < n; c++) {
+            _potentialEvidence[c] = toSortedArray(clique_evidence.get(c));
+            HashSet<String> evidence = new HashSet<String>(clique_evidence.get(c));
+            for (int child : _alChildren.get(c))
+                evidence.addAll(up.get(child));
+            up.add(evidence);
+            _upEvidence[c] = toSortedArray(evidence);
+        }
+        ArrayList<HashSet<String>> down = new ArrayList<HashSet<String>>();
+        for (int c = 0; c < n; c++)
+            down.add(null);
+        for (int c = n - 1; c >= 0; c--) {
+            HashSet<String> evidence = new HashSet<String>();
+            int p = _parent[c];
+            if (p != -1) {
+                evidence.addAll(clique_evidence.get(p));
+                evidence.addAll(down.get(p));
+                for (int sibling : _alChildren.get(p))
+                    if (sibling != c)
+                        evidence.addAll(up.get(sibling));
+            }
+            down.set(c, evidence);
+            _downEvidence[c] = toSortedArray(evidence);
+        }
+    }
+
+    private static String[] toSortedArray(HashSet<String> s) {
+        return new TreeSet<String>(s).toArray(new String[s.size()]);
+    }
+
+    /**
+     * Calibrates the tree for the evidence values of q (which must match this
+     * tree) and returns the normalized marginal of every unobserved variable.
+     */
+    public HashMap<String, Factor> computeMarginals(Query q) {
+        _nLastComputed = 0;
+        _nLastReused = 0;
+        int n = _cliqueVar.length;
+
+        // Upward sweep
+        int[] up_msg = new int[n];
+        for (int c = 0; c < n; c++)
+            up_msg[c] = getUpMessage(c, q, up_msg);
+
+        // Downward sweep
+        int[] down_msg = new int[n];
+        for (int c = n - 1; c >= 0; c--)
+            down_msg[c] = getDownMessage(c, q, up_msg, down_msg);
+        System.out.println("Junction tree: " + _nLastComputed + " messages computed, " + _nLastReused + " reused");
+
+        // Clique beliefs
+        HashMap<String, Factor> marginals = new HashMap<String, Factor>();
+        for (int c = 0; c < n; c++) {
+            ArrayList<Factor> factors = new ArrayList<Factor>();
+            factors.add(_sve._gm.new Factor(getPotential(c, q)));
+            if (_parent[c] != -1)
+                factors.add(_sve._gm.new Factor(down_msg[c]));
+            for (int child : _alChildren.get(c))
+                factors.add(_sve._gm.new Factor(up_msg[child]));
+            Factor belief = _sve.multiplyFactors(factors);
+            for (String var : _alCliqueVars.get(c))
+                if (!var.equals(_cliqueVar[c]))
+                    belief = _sve.marginalizeOut(belief, var);
+            marginals.put(_cliqueVar[c], _sve.normalize(belief));
+        }
+        return marginals;
+    }
+
+    private int getPotential(int c, Query q) {
+        String key = evidenceKey(_potentialEvidence[c], q);
+        Integer ret = _alPotentialCache.get(c).get(key);
+        if (ret != null)
+            return ret;
+
+        ArrayList<Factor> factors = new ArrayList<Factor>();
+        for (int i : _alCliqueFactors.get(c))
+            factors.add(_sve._gm.new Factor(_sve.instantiate(_sve._gm._alFactors.get(i), q)));
+        ret = _sve.multiplyFactors(factors)._xadd;
+        cache(_alPotentialCache.get(c), key, ret);
+        return ret;
+    }
+
+    // Message from c to its parent: eliminate the clique variable
+    private int getUpMessage(int c, Query q, int[] up_msg) {
+        String key = evidenceKey(_upEvidence[c], q);
+        Integer ret = _alUpCache.get(c).get(key);
+        if (ret != null) {
+            _nLastReused++;
+            return ret;
+        }
+
+        ArrayList<Factor> factors = new ArrayList<Factor>();
+        factors.add(_sve._gm.new Factor(getPotential(c, q)));
+        for (int child : _alChildren.get(c))
+            factors.add(_sve._gm.new Factor(up_msg[child]));
+        ret = _sve.marginalizeOut(_sve.multiplyFactors(factors), _cliqueVar[c])._xadd;
+        _nLastComputed++;
+        cache(_alUpCache.get(c), key, ret);
+        _sve.flushCaches(null);
+        return ret;
+    }
+
+    // Message from the parent p of c to c: eliminate the variables of p not in c
+    private int getDownMessage(int c, Query q, int[] up_msg, int[] down_msg) {
+        int p = _parent[c];
+        if (p == -1)
+            return -1;
+        String key = evidenceKey(_downEvidence[c], q);
+        Integer ret = _alDownCache.get(c).get(key);
+        if (ret != null) {
+            _nLastReused++;
+            return ret;
+        }
+
+        ArrayList<Factor> factors = new ArrayList<Factor>();
+        factors.add(_sve._gm.new Factor(getPotential(p, q)));
+        if (_parent[p] != -1)
+            factors.add(_sve._gm.new Factor(down_msg[p]));
+        for (int sibling : _alChildren.get(p))
+            if (sibling != c)
+                factors.add(_sve._gm.new Factor(up_msg[sibling]));
+        Factor msg = _sve.multiplyFactors(factors);
+        for (String var : _alCliqueVars.get(p))
+            if (!_alCliqueVars.get(c).contains(var))
+                msg = _sve.marginalizeOut(msg, var);
+        ret = msg._xadd;
+        _nLastComputed++;
+        cache(_alDownCache.get(c), key, ret);
+        _sve.flushCaches(null);
+        return ret;
+    }
+
+    private static void cache(HashMap<String, Integer> cache, String key, int xadd) {
+        if (cache.size() >= MAX_CACHED_EVIDENCE)
+            cache.clear();
+        cache.put(key, xadd);
+    }
+
+    private static String evidenceKey(String[] evidence, Query q) {
+        StringBuilder sb = new StringBuilder();
+        for (String var : evidence) {
+            Object val = q._hmCVarAssign.containsKey(var) ? q._hmCVarAssign.get(var) : q._hmBVarAssign.get(var);
+            sb.append(var).append('=').append(val).append(';');
+        }
+        return sb.toString();
+    }
+
+    // All cached XADDs, which must survive cache flushes
+    public void addCachedNodes(List<Integer> nodes) {
+        for (int c = 0; c < _cliqueVar.length; c++) {
+            nodes.addAll(_alPotentialCache.get(c).values());
+            nodes.addAll(_alUpCache.get(c).values());
+            nodes.addAll(_alDownCache.get(c).values());
+        }
+    }
+
+    public int getNumCliques() {
+        return _cliqueVar.length;
+    }
+}
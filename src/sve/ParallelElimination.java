@@ -0,0 +1,123 @@
+/* Parallel scheduler for the elimination steps of a query plan.
+ *
+ * Steps of the elimination tree (see QueryPlan) whose inputs are disjoint, e.g.,
+ * different time slices, are independent and are run concurrently by a pool of
+ * workers.  XADD contexts are not thread-safe, so each step builds its result in
+ * a fresh context of its own: it copies in its inputs (XADD.copyFrom) from the
+ * contexts that produced them, which are no longer modified, multiplies them and
+ * marginalizes out the step variable.  The main context is only read while the
+ * workers run.  Every step copies and multiplies its inputs in plan order in a
+ * context that nothing else touches, so results do not depend on thread timing.
+ */
+package sve;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import sve.GraphicalModel.Factor;
+
+import xaddorig.XADD;
+import xaddorig.XADD.*;
+
+public class ParallelElimination {
+
+    private SVE _sve;
+    private QueryPlan _plan;
+    private int _nWorkers;
+
+    // An XADD and the context it lives in
+    private static class Result {
+        public XADD _context;
+        public int _xadd;
+
+        public Result(XADD context, int xadd) {
+            _context = context;
+            _xadd = xadd;
+        }
+    }
+
+    public ParallelElimination(SVE sve, QueryPlan plan, int workers) {
+        _sve = sve;
+        _plan = plan;
+        _nWorkers = workers;
+    }
+
+    /**
+     * Returns the factors over the query variables (in the main context) for the
+     * evidence of q, which must match the plan.
+     */
+    public ArrayList<Factor> eliminate(Query q) {
+
+        final XADD main = _sve._context;
+        final int n_factors = _plan.getNumModelFactors();
+        final int n_steps = _plan.getNumSteps();
+
+        // Instantiate evidence in the main context, which is read-only from here on
+        final Result[] model_factors = new Result[n_factors];
+        for (int i = 0; i < n_factors; i++)
+            model_factors[i] = new Result(main, _sve.instantiate(_sve._gm._alFactors.get(i), q));
+
+        // Steps are submitted in plan order and only wait on earlier steps, so the
+        // oldest unfinished step can always run (the list never grows past its capacity,
+        // so workers may read the earlier steps while later ones are added)
+        final List<Future<Result>> steps = new ArrayList<Future<Result>>(n_steps);
+        ExecutorService pool = Executors.newFixedThreadPool(_nWorkers);
+        for (int step = 0; step < n_steps; step++) {
+            final String var = _plan.getStepVar(step);
+            final int[] inputs = _plan.getStepInputs(step);
+            final int step_id = step;
+            steps.add(pool.submit(new Callable<Result>() {
+                public Result call() throws Exception {
+                    XADD context = newWorkerContext(main);
+                    int xadd = context.getTermNode(new DoubleExpr(1d));
+                    for (int input : inputs) {
+                        Result r = (input < n_factors) ? model_factors[input] : steps.get(input - n_factors).get();
+                        xadd = context.applyInt(xadd, context.copyFrom(r._context, r._xadd), XADD.PROD);
+                    }
+                    if (_sve._bOutputResults)
+                        System.out.println("Eliminating: " + var + " [plan step " + step_id + ", " + inputs.length
+                                + " factors, " + Thread.currentThread().getName() + "]");
+                    return new Result(context, SVE.MarginalizeOut(context, xadd, var));
+                }
+            }));
+        }
+
+        // Once all steps are done (the main context is then no longer read by any
+        // worker), copy the remaining factors back in plan order
+        ArrayList<Factor> factors = new ArrayList<Factor>();
+        try {
+            for (Future<Result> f : steps)
+                f.get();
+            for (int slot : _plan.getResultInputs()) {
+                Result r = (slot < n_factors) ? model_factors[slot] : steps.get(slot - n_factors).get();
+                factors.add(_sve._gm.new Factor(main.copyFrom(r._context, r._xadd)));
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Parallel elimination interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Parallel elimination failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return factors;
+    }
+
+    // Context with the variable bounds and the decision order of the main context,
+    // so that diagrams keep the same variable ordering when copied back
+    private static XADD newWorkerContext(XADD main) {
+        XADD context = new XADD();
+        context._hmMinVal.putAll(main._hmMinVal);
+        context._hmMaxVal.putAll(main._hmMaxVal);
+        for (Decision d : main._alOrder)
+            if (d instanceof BoolDec)
+                context.getVarIndex(context.new BoolDec(((BoolDec) d)._sVarName), true);
+            else if (d instanceof ExprDec)
+                context.getVarIndex(context.new ExprDec(((ExprDec) d)._expr), true);
+        return context;
+    }
+}
@@ -0,0 +1,222 @@
+/* Compiled query plan for repeated Symbolic Variable Elimination queries.
+ *
+ * The elimination tree of a query depends only on the instantiated model, the
+ * query variables, the set of evidence variables and the variable order -- not
+ * on the evidence values.  A plan fixes this tree once: slots 0..F-1 hold the
+ * evidence-instantiated model factors, every later slot holds the marginal
+ * produced by one elimination step.  Each slot depends on a subset of the
+ * evidence variables and its XADD is cached under the values of that subset, so
+ * when consecutive queries differ in a single evidence value only the slots on
+ * the path from the affected factors to the result are recomputed.
+ *
+ * Evidence is substituted when the model factors are instantiated (as in
+ * SVE.infer) rather than carried symbolically through the integrals, since
+ * symbolic evidence in integration bounds generally leads to much larger
+ * (non-linear) factors.
+ */
+package sve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+
+import sve.GraphicalModel.Factor;
+
+import xaddorig.XADD;
+import xaddorig.XADD.*;
+
+public class QueryPlan {
+
+    // Evidence assignments cached per slot before the slot cache is cleared
+    public final static int MAX_CACHED_EVIDENCE = 16;
+
+    private SVE _sve;
+    private XADD _context;
+
+    // Plan identity
+    private HashMap<String, ArrayList<Integer>> _hmVar2Expansion;
+    private ArrayList<String> _alQueryVars;
+    private HashSet<String> _hsCEvidence;
+    private HashSet<String> _hsBEvidence;
+    private ArrayList<String> _alVariableOrder;
+
+    // Elimination tree
+    private int _nModelFactors;
+    private ArrayList<String> _alStepVar = new ArrayList<String>();
+    private ArrayList<int[]> _alStepInputs = new ArrayList<int[]>();
+    private ArrayList<String[]> _alSlotEvidence = new ArrayList<String[]>();
+    private int[] _resultInputs;
+
+    // Slot -> (evidence values -> XADD)
+    private ArrayList<HashMap<String, Integer>> _alSlotCache = new ArrayList<HashMap<String, Integer>>();
+
+    // Statistics of the last evaluation
+    public int _nLastComputed = 0;
+    public int _nLastReused = 0;
+
+    public QueryPlan(SVE sve, Query q, ArrayList<String> var_order) {
+        _sve = sve;
+        _context = sve._context;
+        _hmVar2Expansion = q._hmVar2Expansion;
+        _alQueryVars = new ArrayList<String>(q._alQueryVars);
+        _hsCEvidence = new HashSet<String>(q._hmCVarAssign.keySet());
+        _hsBEvidence = new HashSet<String>(q._hmBVarAssign.keySet());
+        _alVariableOrder = new ArrayList<String>(var_order);
+        compile(sve._gm._alFactors);
+    }
+
+    public boolean matches(Query q, ArrayList<String> var_order, XADD context) {
+        return _context == context
+                && _hmVar2Expansion.equals(q._hmVar2Expansion)
+                && _alQueryVars.equals(q._alQueryVars)
+                && _hsCEvidence.equals(q._hmCVarAssign.keySet())
+                && _hsBEvidence.equals(q._hmBVarAssign.keySet())
+                && _alVariableOrder.equals(var_order);
+    }
+
+    // Simulates variable elimination on variable sets only (see SVE.infer)
+    private void compile(ArrayList<Factor> model_factors) {
+
+        ArrayList<HashSet<String>> slot_vars = new ArrayList<HashSet<String>>();
+        for (Factor f : model_factors) {
+            HashSet<String> vars = new HashSet<String>(f._vars);
+            HashSet<String> evidence = new HashSet<String>();
+            for (String var : f._vars)
+                if (isEvidence(var)) {
+                    vars.remove(var);
+                    evidence.add(var);
+                }
+            addSlot(vars, evidence, slot_vars);
+        }
+        _nModelFactors = model_factors.size();
+
+        ArrayList<Integer> open_slots = new ArrayList<Integer>();
+        for (int i = 0; i < _nModelFactors; i++)
+            open_slots.add(i);
+
+        for (String var : _alVariableOrder) {
+            if (_alQueryVars.contains(var) || isEvidence(var))
+                continue;
+
+            ArrayList<Integer> inputs = new ArrayList<Integer>();
+            HashSet<String> vars = new HashSet<String>();
+            HashSet<String> evidence = new HashSet<String>();
+            for (Integer slot : open_slots)
+                if (slot_vars.get(slot).contains(var)) {
+                    inputs.add(slot);
+                    vars.addAll(slot_vars.get(slot));
+                    evidence.addAll(Arrays.asList(_alSlotEvidence.get(slot)));
+                }
+            vars.remove(var);
+            open_slots.removeAll(inputs);
+            open_slots.add(slot_vars.size());
+
+            _alStepVar.add(var);
+            _alStepInputs.add(toArray(inputs));
+            addSlot(vars, evidence, slot_vars);
+        }
+        _resultInputs = toArray(open_slots);
+    }
+
+    private boolean isEvidence(String var) {
+        return _hsCEvidence.contains(var) || _hsBEvidence.contains(var);
+    }
+
+    private void addSlot(HashSet<String> vars, HashSet<String> evidence, ArrayList<HashSet<String>> slot_vars) {
+        slot_vars.add(vars);
+        _alSlotEvidence.add(new TreeSet<String>(evidence).toArray(new String[evidence.size()]));
+        _alSlotCache.add(new HashMap<String, Integer>());
+    }
+
+    private static int[] toArray(List<Integer> l) {
+        int[] a = new int[l.size()];
+        for (int i = 0; i < a.length; i++)
+            a[i] = l.get(i);
+        return a;
+    }
+
+    /**
+     * Returns the factors over the query variables (to be multiplied and
+     * normalized) for the evidence values of q, which must match this plan.
+     */
+    public ArrayList<Factor> evaluate(Query q) {
+        _nLastComputed = 0;
+        _nLastReused = 0;
+        ArrayList<Factor> factors = new ArrayList<Factor>();
+        for (int slot : _resultInputs)
+            factors.add(_sve._gm.new Factor(getSlot(slot, q)));
+        System.out.println("Query plan: " + _nLastComputed + " factors computed, " + _nLastReused + " reused");
+        return factors;
+    }
+
+    private int getSlot(int slot, Query q) {
+
+        String key = evidenceKey(slot, q);
+        HashMap<String, Integer> cache = _alSlotCache.get(slot);
+        Integer ret = cache.get(key);
+        if (ret != null) {
+            _nLastReused++;
+            return ret;
+        }
+
+        if (slot < _nModelFactors) {
+            ret = _sve.instantiate(_sve._gm._alFactors.get(slot), q);
+        } else {
+            int step = slot - _nModelFactors;
+            String var = _alStepVar.get(step);
+            ArrayList<Factor> factors_with_var = new ArrayList<Factor>();
+            for (int input : _alStepInputs.get(step))
+                factors_with_var.add(_sve._gm.new Factor(getSlot(input, q)));
+            System.out.println("Eliminating: " + var + " [plan step " + step + ", " + factors_with_var.size() + " factors]");
+            ret = _sve.marginalizeOut(_sve.multiplyFactors(factors_with_var), var)._xadd;
+        }
+        _nLastComputed++;
+
+        if (cache.size() >= MAX_CACHED_EVIDENCE)
+            cache.clear();
+        cache.put(key, ret);
+        if (slot >= _nModelFactors)
+            _sve.flushCaches(null);
+        return ret;
+    }
+
+    private String evidenceKey(int slot, Query q) {
+        StringBuilder sb = new StringBuilder();
+        for (String var : _alSlotEvidence.get(slot)) {
+            Object val = q._hmCVarAssign.containsKey(var) ? q._hmCVarAssign.get(var) : q._hmBVarAssign.get(var);
+            sb.append(var).append('=').append(val).append(';');
+        }
+        return sb.toString();
+    }
+
+    // All cached XADDs, which must survive cache flushes
+    public void addCachedNodes(ArrayList<Integer> nodes) {
+        for (HashMap<String, Integer> cache : _alSlotCache)
+            nodes.addAll(cache.values());
+    }
+
+    public int getNumSteps() {
+        return _alStepVar.size();
+    }
+
+    // Elimination tree: slots below getNumModelFactors() are model factors, slot
+    // getNumModelFactors() + step is the output of step
+    int getNumModelFactors() {
+        return _nModelFactors;
+    }
+
+    String getStepVar(int step) {
+        return _alStepVar.get(step);
+    }
+
+    int[] getStepInputs(int step) {
+        return _alStepInputs.get(step);
+    }
+
+    int[] getResultInputs() {
+        return _resultInputs;
+    }
+}
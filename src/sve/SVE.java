@@ -15,7 +15,9 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 import sve.GraphicalModel.Factor;
@@ -35,6 +37,13 @@ public class SVE {
     public XADD _context = null;
     public Query _lastQuery = null;
     public ArrayList<Integer> _alVariableResultSaveNodes = new ArrayList<Integer>();
+    public boolean _bUseQueryPlan = false; // reuse evidence-independent work across queries (see QueryPlan)
+    public boolean _bOutputResults = true; // plot and export 1D / 2D results
+    public boolean _bPruneModel = false; // only instantiate the factors requisite for the query (see GraphicalModel.instantiateRelevant)
+    public int _nWorkers = 1; // > 1 runs independent elimination steps concurrently (see ParallelElimination)
+    public QueryPlan _plan = null;
+    public JunctionTree _junctionTree = null;
+    public EvidencePosterior _posterior = null;
 
     public SVE(GraphicalModel gm) {
         _gm = gm;
@@ -62,52 +71,162 @@ public class SVE {
 
         // TODO: Handle expectation for general algebraic expression
 
-        // Set up model and variable ordering
-        if (_lastQuery == null || !_lastQuery._hmVar2Expansion.equals(q._hmVar2Expansion)) {
+        prepareModel(q, var_ordering, true);
 
-            // Instantiate the graphical model (expand indexed variables into factors)
+        ArrayList<Factor> factors = null;
+        if (_bUseQueryPlan || _nWorkers > 1) {
+            if (_plan == null || !_plan.matches(q, _alVariableOrder, _context)) {
+                _plan = new QueryPlan(this, q, _alVariableOrder);
+                System.out.println("Compiled query plan with " + _plan.getNumSteps() + " elimination steps");
+            }
+        }
+        if (_nWorkers > 1)
+            factors = new ParallelElimination(this, _plan, _nWorkers).eliminate(q);
+        else if (_bUseQueryPlan)
+            factors = _plan.evaluate(q);
+        else
+            factors = eliminate(q);
+
+        // Done variable elimination, have a set of factors just over query vars,
+        // need to compute normalizer
+        Factor result = multiplyFactors(factors);
+        Factor norm_result = normalize(result);
+        System.out.println("Done: result " + norm_result._vars
+        /* + ":\n" + _context.getString(norm_result._xadd) */);
+
+        // Data visualization and export for 1D and 2D cases
+        // (see plot_local.m and plot3d.m for 1D and 2D plotting of output files in Matlab)
+        if (_bOutputResults && norm_result._vars.size() == 1) {
+            Visualize1DFactor(norm_result, "P(" + q._alQueryVars + " | " + q._hmBVarAssign + ", " + q._hmCVarAssign
+                    + ")");
+            ExportData(norm_result, q._sFilename + ".txt");
+        } else if (_bOutputResults && norm_result._vars.size() == 2) {
+            Visualize2DFactor(norm_result, "P(" + q._alQueryVars + " | " + q._hmBVarAssign + ", " + q._hmCVarAssign
+                    + ")");
+            Export3DData(norm_result, q._sFilename);
+        }
+
+        _alVariableResultSaveNodes.add(norm_result._xadd);
+
+        return norm_result;
+    }
+
+    /**
+     * Computes the normalized marginal of every unobserved variable given the
+     * evidence of q (the query variables of q are ignored) with a calibrated
+     * junction tree, which is reused while the model and evidence variables do not
+     * change (see JunctionTree).
+     */
+    public HashMap<String, Factor> inferAllMarginals(Query q) {
+        return inferAllMarginals(q, null);
+    }
+
+    /**
+     * Computes the posterior over the query variables of q with the continuous
+     * evidence variables in parameters kept symbolic: the joint over query
+     * variables and parameters is compiled once (see EvidencePosterior) and each
+     * later query that only changes parameter values is answered by substitution
+     * and normalization.
+     */
+    public Factor inferSymbolic(Query q, Collection<String> parameters) {
+        return inferSymbolic(q, parameters, null);
+    }
+
+    public Factor inferSymbolic(Query q, Collection<String> parameters, ArrayList<String> var_ordering) {
+
+        prepareModel(q, var_ordering, true);
+        if (_posterior == null || !_posterior.matches(q, parameters, _alVariableOrder, _context))
+            _posterior = new EvidencePosterior(this, q, parameters, _alVariableOrder);
+        Factor result = _posterior.instantiate(q);
+        _alVariableResultSaveNodes.add(result._xadd);
+        return result;
+    }
+
+    public HashMap<String, Factor> inferAllMarginals(Query q, ArrayList<String> var_ordering) {
+
+        System.out.println("All marginals | " + q._hmCVarAssign + ", " + q._hmBVarAssign);
+
+        prepareModel(q, var_ordering, false);
+        if (_junctionTree == null || !_junctionTree.matches(q, _alVariableOrder, _context)) {
+            _junctionTree = new JunctionTree(this, q, _alVariableOrder);
+            System.out.println("Built junction tree with " + _junctionTree.getNumCliques() + " cliques");
+        }
+        HashMap<String, Factor> marginals = _junctionTree.computeMarginals(q);
+        for (Factor f : marginals.values())
+            _alVariableResultSaveNodes.add(f._xadd);
+        return marginals;
+    }
+
+    // All marginals need all factors, so prune is false for them
+    private void prepareModel(Query q, ArrayList<String> var_ordering, boolean prune) {
+
+        // Instantiate the graphical model (expand indexed variables into factors)
+        boolean model_changed;
+        if (_bPruneModel)
+            model_changed = prune ? _gm.instantiateRelevant(q) : _gm.instantiateAll(q._hmVar2Expansion);
+        else if (model_changed = (_lastQuery == null || !_lastQuery._hmVar2Expansion.equals(q._hmVar2Expansion)))
             _gm.instantiateGMTemplate(q._hmVar2Expansion);
 
+        // Set up variable ordering
+        if (model_changed) {
+
             // Find best variable order -- build map from each variable to CPTs
             Graph g = new Graph(/* directed */true, false, true, false);
             g.setBottomToTop(false);
             g.setMultiEdges(false);
             for (Factor f : _gm._alFactors)
                 g.addAllUniLinks(f._vars, f._vars);
+            setNodeWeights(g);
             // g.launchViewer();
 
             // Use a topological sort to find a good variable ordering
             if (var_ordering == null)
-                _alVariableOrder = (ArrayList<String>) g.computeBestOrder();
-            else
+                _alVariableOrder = new ArrayList<String>(g.computeBestOrder());
+            else if (_bPruneModel) {
+                _alVariableOrder = new ArrayList<String>(var_ordering);
+                _alVariableOrder.retainAll(_gm._hsVariables);
+            } else
                 _alVariableOrder = var_ordering;
             System.out.println("Using best ordering: " + _alVariableOrder);
         }
         _lastQuery = q;
         _context = _gm._alFactors.get(0)._localContext;
+    }
 
-        // Instantiate all assigned variables and add them to the factor list
-        ArrayList<Factor> factors = new ArrayList<Factor>();
+    // Weights each variable by the number of distinct decisions mentioning it in
+    // the model factors, so that computeBestOrder estimates the XADD sizes
+    private void setNodeWeights(Graph g) {
+        HashMap<String, Integer> n_decisions = new HashMap<String, Integer>();
+        HashSet<Integer> seen = new HashSet<Integer>();
         for (Factor f : _gm._alFactors) {
-
-            int instantiated_f = f._xadd;
-            HashMap<String, ArithExpr> subst = new HashMap<String, ArithExpr>();
-
-            for (String var : f._vars) {
-                if (q._hmBVarAssign.containsKey(var)) {
-                    // Boolean assignment -- restrict
-                    boolean bassign = q._hmBVarAssign.get(var);
-                    instantiated_f = _context.opOut(instantiated_f, _context.getBoolVarIndex(var),
-                            bassign ? XADD.RESTRICT_HIGH : XADD.RESTRICT_LOW);
-                } else if (q._hmCVarAssign.containsKey(var)) {
-                    // Continuous assignment -- add substitution
-                    double dassign = q._hmCVarAssign.get(var);
-                    subst.put(var, new DoubleExpr(dassign));
-                }
+            XADD context = f._localContext;
+            for (XADDNode n : context.getNode(f._xadd).collectNodes()) {
+                if (!(n instanceof XADDINode) || !seen.add(((XADDINode) n)._var))
+                    continue;
+                HashSet<String> vars = new HashSet<String>();
+                context._alOrder.get(((XADDINode) n)._var).collectVars(vars);
+                for (String var : vars)
+                    n_decisions.put(var, n_decisions.containsKey(var) ? n_decisions.get(var) + 1 : 1);
             }
-            instantiated_f = _context.substitute(instantiated_f, subst);
-            factors.add(_gm.new Factor(instantiated_f));
         }
+        for (Factor f : _gm._alFactors)
+            for (String var : f._vars)
+                g.addNode(var, n_decisions.containsKey(var) ? n_decisions.get(var) : 1);
+    }
+
+    // Plain variable elimination, returns the remaining factors over the query variables
+    private ArrayList<Factor> eliminate(Query q) {
+        return eliminate(q, null);
+    }
+
+    // As above, but the evidence variables in symbolic (may be null) are neither
+    // instantiated nor eliminated
+    ArrayList<Factor> eliminate(Query q, HashSet<String> symbolic) {
+
+        // Instantiate all assigned variables and add them to the factor list
+        ArrayList<Factor> factors = new ArrayList<Factor>();
+        for (Factor f : _gm._alFactors)
+            factors.add(_gm.new Factor(instantiate(f, q, symbolic)));
 
         // Decide which variables to eliminate
         ArrayList<String> vars_to_eliminate = new ArrayList<String>();
@@ -138,38 +257,72 @@ public class SVE {
             System.out.println(" - remaining factors: " + factors.size());
 
             // Flush caches
-            _context.clearSpecialNodes();
-            for (Integer xadd : _alVariableResultSaveNodes)
-                _context.addSpecialNode(xadd);
-            for (Factor f : _gm._alFactors)
-                _context.addSpecialNode(f._xadd);
-            for (Factor f : factors)
-                _context.addSpecialNode(f._xadd);
-            _context.flushCaches();
+            flushCaches(factors);
         }
+        return factors;
+    }
 
-        // Done variable elimination, have a set of factors just over query vars,
-        // need to compute normalizer
-        Factor result = multiplyFactors(factors);
-        Factor norm_result = normalize(result);
-        System.out.println("Done: result " + norm_result._vars
-        /* + ":\n" + _context.getString(norm_result._xadd) */);
+    // Restricts / substitutes the evidence of q in a model factor
+    int instantiate(Factor f, Query q) {
+        return instantiate(f, q, null);
+    }
 
-        // Data visualization and export for 1D and 2D cases
-        // (see plot_local.m and plot3d.m for 1D and 2D plotting of output files in Matlab)
-        if (norm_result._vars.size() == 1) {
-            Visualize1DFactor(norm_result, "P(" + q._alQueryVars + " | " + q._hmBVarAssign + ", " + q._hmCVarAssign
-                    + ")");
-            ExportData(norm_result, q._sFilename + ".txt");
-        } else if (norm_result._vars.size() == 2) {
-            Visualize2DFactor(norm_result, "P(" + q._alQueryVars + " | " + q._hmBVarAssign + ", " + q._hmCVarAssign
-                    + ")");
-            Export3DData(norm_result, q._sFilename);
+    private int instantiate(Factor f, Query q, HashSet<String> symbolic) {
+
+        int instantiated_f = f._xadd;
+        HashMap<String, ArithExpr> subst = new HashMap<String, ArithExpr>();
+
+        for (String var : f._vars) {
+            if (q._hmBVarAssign.containsKey(var)) {
+                // Boolean assignment -- restrict
+                boolean bassign = q._hmBVarAssign.get(var);
+                instantiated_f = _context.opOut(instantiated_f, _context.getBoolVarIndex(var),
+                        bassign ? XADD.RESTRICT_HIGH : XADD.RESTRICT_LOW);
+            } else if (q._hmCVarAssign.containsKey(var) && (symbolic == null || !symbolic.contains(var))) {
+                // Continuous assignment -- add substitution
+                double dassign = q._hmCVarAssign.get(var);
+                subst.put(var, new DoubleExpr(dassign));
+            }
         }
+        return _context.substitute(instantiated_f, subst);
+    }
 
-        _alVariableResultSaveNodes.add(norm_result._xadd);
-
-        return norm_result;
+    // Flushes all XADD caches, keeping the model (including the factors built for
+    // other queries), previous results, the given factors (may be null) and the
+    // cached factors of the live query plan and junction tree: these may be reused
+    // by a later query even if the last query was of another kind
+    void flushCaches(ArrayList<Factor> factors) {
+        _context.clearSpecialNodes();
+        for (Integer xadd : _alVariableResultSaveNodes)
+            _context.addSpecialNode(xadd);
+        for (Factor f : _gm._alFactors)
+            _context.addSpecialNode(f._xadd);
+        ArrayList<Integer> model_nodes = new ArrayList<Integer>();
+        _gm.addCachedNodes(model_nodes);
+        for (Integer xadd : model_nodes)
+            _context.addSpecialNode(xadd);
+        if (factors != null)
+            for (Factor f : factors)
+                _context.addSpecialNode(f._xadd);
+        if (_plan != null) {
+            ArrayList<Integer> plan_nodes = new ArrayList<Integer>();
+            _plan.addCachedNodes(plan_nodes);
+            for (Integer xadd : plan_nodes)
+                _context.addSpecialNode(xadd);
+        }
+        if (_posterior != null) {
+            ArrayList<Integer> posterior_nodes = new ArrayList<Integer>();
+            _posterior.addCachedNodes(posterior_nodes);
+            for (Integer xadd : posterior_nodes)
+                _context.addSpecialNode(xadd);
+        }
+        if (_junctionTree != null) {
+            ArrayList<Integer> tree_nodes = new ArrayList<Integer>();
+            _junctionTree.addCachedNodes(tree_nodes);
+            for (Integer xadd : tree_nodes)
+                _context.addSpecialNode(xadd);
+        }
+        _context.flushCaches();
     }
 
     private void splitFactors(String split_var, ArrayList<Factor> factor_source, ArrayList<Factor> factors_with_var,
@@ -184,34 +337,36 @@ public class SVE {
                 factors_without_var.add(f);
     }
 
-    private Factor multiplyFactors(ArrayList<Factor> factors) {
+    Factor multiplyFactors(ArrayList<Factor> factors) {
         int mult_xadd = _context.getTermNode(new DoubleExpr(1d));
         for (Factor f : factors)
             mult_xadd = _context.applyInt(mult_xadd, f._xadd, XADD.PROD);
         return _gm.new Factor(mult_xadd);
     }
 
-    private Factor marginalizeOut(Factor f, String var) {
+    Factor marginalizeOut(Factor f, String var) {
+        return _gm.new Factor(MarginalizeOut(_context, f._xadd, var));
+    }
+
+    static int MarginalizeOut(XADD context, int xadd, String var) {
 
         // Take appropriate action based on whether var is boolean or continuous
-        int bool_var_index = _context.getBoolVarIndex(var);  //TODO [comment by Hadi]: IMPORTANT BUG: This line produces bugs by adding new boolean var to alBooleanVars where it should not...
+        int bool_var_index = context.getBoolVarIndex(var);  //TODO [comment by Hadi]: IMPORTANT BUG: This line produces bugs by adding new boolean var to alBooleanVars where it should not...
         int xadd_marginal = -1;
         if (bool_var_index > 0) {
             // Sum out boolean variable
-            int restrict_high = _context.opOut(f._xadd, bool_var_index, XADD.RESTRICT_HIGH);
-            int restrict_low = _context.opOut(f._xadd, bool_var_index, XADD.RESTRICT_LOW);
-            xadd_marginal = _context.apply(restrict_high, restrict_low, XADD.SUM);
+            int restrict_high = context.opOut(xadd, bool_var_index, XADD.RESTRICT_HIGH);
+            int restrict_low = context.opOut(xadd, bool_var_index, XADD.RESTRICT_LOW);
+            xadd_marginal = context.apply(restrict_high, restrict_low, XADD.SUM);
         } else {
             // Integrate out continuous variable
-            xadd_marginal = _context.computeDefiniteIntegral(f._xadd, var);
+            xadd_marginal = context.computeDefiniteIntegral(xadd, var);
         }
-        return _gm.new Factor(xadd_marginal);
+        return xadd_marginal;
     }
 
-    private Factor normalize(Factor f) {
-        int xadd_norm = f._xadd;
-        for (String var : f._vars)
-            xadd_norm = _context.computeDefiniteIntegral(xadd_norm, var);
+    Factor normalize(Factor f) {
+        int xadd_norm = _context.computeDefiniteIntegral(f._xadd, new ArrayList<String>(f._vars));
         double norm = _context.evaluate(xadd_norm, EMPTY_BOOL, EMPTY_DOUBLE);
         xadd_norm = _context.scalarOp(f._xadd, 1d / norm, XADD.PROD);
         return _gm.new Factor(xadd_norm);
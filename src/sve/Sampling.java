@@ -6,14 +6,21 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import sve.GraphicalModel.Factor;
 
@@ -43,6 +50,28 @@ public class Sampling {
         double[] likelihoodWeights;
     }
 
+    // Columnar samples of a compiled plan: columns[c][i] is the value of
+    // vars[c] in sample i
+    public static class BlockSamples {
+        String[] vars;
+        double[][] columns;
+        double[] likelihoodWeights;
+        double effectiveSampleSize;
+        long time;
+    }
+
+    // A distribution whose parameters are resolved once: param_col[k] is the
+    // column of parameter k, SELF for the variable itself or CONSTANT for
+    // param_val[k]
+    private static class CompiledDistribution {
+        Distribution.DistributionType dist_type;
+        double coef;
+        int[] param_col;
+        double[] param_val;
+        CompiledDistribution[] trueDist;
+        CompiledDistribution[] falseDist;
+    }
+
     private static class Stats {
         public HashMap<String, Double> mean;
         public HashMap<String, Double> std;
@@ -68,8 +97,19 @@ public class Sampling {
 
     private HashMap<String, Distribution[]> _var_distributions;
     private static Random _RANDOM = new Random();
+    private static DecimalFormat _df = new DecimalFormat("#.##");
     private ArrayList<String> _alVariableOrder = null;
 
+    // Compiled plan of the last query expansion (see generateSampleBlocks)
+    public static int BLOCK_SIZE = 4096;
+    public static int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int SELF = -1;
+    private static final int CONSTANT = -2;
+    private HashMap<String, ArrayList<Integer>> _planExpansion = null;
+    private String[] _planVars;
+    private CompiledDistribution[][] _planDists;
+    private int[] _planOrder;
+
     public Sampling(GraphicalModel gm) {
         _var_distributions = new HashMap<String, Distribution[]>();
         Set<Entry<String, ArrayList>> variable_val = gm._hmVar2cptTemplate.entrySet();
@@ -161,29 +201,51 @@ public class Sampling {
 
     public Samples generateSamples(final int n, Query q) {
         Samples ss = new Samples();
-        ss.varDists = new HashMap<String, Sampling.Distribution[]>();
+        ss.varDists = expandDistributions(q);
+
+        ss.samples = new ArrayList<HashMap<String, Double>>();
+        for (int i = 0; i < n; i++) {
+            ss.samples.add(sample(ss.varDists));
+        }
+
+        Stats stat = generateStats(ss);
+        System.out.println(stat);
+
+        writeSamples(ss);
+
+        likelihoodWeighting(ss, q);
+
+        return ss;
+    }
+
+    // Distributions of the variables of the expansion of q (template parameters
+    // are renamed on copies, so that the expanded variables do not share them)
+    private HashMap<String, Distribution[]> expandDistributions(Query q) {
+        HashMap<String, Distribution[]> var_dists = new HashMap<String, Sampling.Distribution[]>();
         for (String v : _alVariableOrder) {
             System.out.println(v);
             if (_var_distributions.containsKey(v)) {
-                ss.varDists.put(v, _var_distributions.get(v));
+                var_dists.put(v, _var_distributions.get(v));
             } else {
                 for (String s : q._hmVar2Expansion.keySet()) {
                     int idx = v.indexOf("_");
                     String newVar = v.substring(0, idx + 1) + s;
                     int num = Integer.parseInt(v.substring(idx + 1));
                     if (_var_distributions.containsKey(newVar) || _var_distributions.containsKey(newVar + "'")) {
+                        Distribution[] dists;
                         if (_var_distributions.containsKey(newVar + "'")) {
                             newVar = newVar + "'";
-                            Distribution[] dists = _var_distributions.get(newVar).clone();
+                            dists = copy(_var_distributions.get(newVar));
                             formatDistribution(s + "'", num, dists);
                             num--;
+                        } else {
+                            dists = copy(_var_distributions.get(newVar));
                         }
-                        Distribution[] dists = _var_distributions.get(newVar).clone();
                         formatDistribution(s, num, dists);
                         // for (Distribution dd : dists) {
                         // dd.params = dd.params.replace("_" + s, "_" + num);
                         // }
-                        ss.varDists.put(v, dists);
+                        var_dists.put(v, dists);
                         break;
                     }
                 }
@@ -198,28 +260,32 @@ public class Sampling {
             // dd.params = dd.params.replace("_" + s, "_" + val.get(i));
             // }
             //
-            // ss.varDists.put(v.replace("_" + s, "_" + val.get(i)), d);
+            // var_dists.put(v.replace("_" + s, "_" + val.get(i)), d);
             // }
             // }
             // }
             // if (!v.contains("_")) {
-            // ss.varDists.put(v, _var_distributions.get(v));
+            // var_dists.put(v, _var_distributions.get(v));
             // }
         }
 
-        ss.samples = new ArrayList<HashMap<String, Double>>();
-        for (int i = 0; i < n; i++) {
-            ss.samples.add(sample(ss.varDists));
-        }
-
-        Stats stat = generateStats(ss);
-        System.out.println(stat);
-
-        writeSamples(ss);
-
-        likelihoodWeighting(ss, q);
+        return var_dists;
+    }
 
-        return ss;
+    private static Distribution[] copy(Distribution[] dists) {
+        if (dists == null)
+            return null;
+
+        Distribution[] c = new Distribution[dists.length];
+        for (int i = 0; i < dists.length; i++) {
+            c[i] = new Distribution();
+            c[i].dist_type = dists[i].dist_type;
+            c[i].params = dists[i].params;
+            c[i].coef = dists[i].coef;
+            c[i].trueDist = copy(dists[i].trueDist);
+            c[i].falseDist = copy(dists[i].falseDist);
+        }
+        return c;
     }
 
     private Stats generateStats(Samples ss) {
@@ -373,6 +439,272 @@ public class Sampling {
         return s;
     }
 
+    /**
+     * Same estimator as generateSamples, but the distributions are compiled once
+     * per query expansion into column-indexed parameters, samples are drawn in
+     * blocks of BLOCK_SIZE into columnar arrays (blocks run in parallel, each
+     * row with a generator seeded from its index) and weighted in the same
+     * pass. Variables are sampled once each, parents first.
+     *
+     * @param seed : seed of the row generators, results do not depend on
+     *             BLOCK_SIZE or NUM_THREADS
+     */
+    public BlockSamples generateSampleBlocks(final int n, Query q, final long seed) {
+        if (_planExpansion == null || !_planExpansion.equals(q._hmVar2Expansion)) {
+            compilePlan(expandDistributions(q));
+            _planExpansion = new HashMap<String, ArrayList<Integer>>();
+            for (Entry<String, ArrayList<Integer>> e : q._hmVar2Expansion.entrySet())
+                _planExpansion.put(e.getKey(), new ArrayList<Integer>(e.getValue()));
+        }
+
+        // Evidence per column: NaN for none, booleans as 0/1
+        final int n_vars = _planVars.length;
+        final double[] c_evidence = new double[n_vars];
+        final double[] b_evidence = new double[n_vars];
+        for (int c = 0; c < n_vars; c++) {
+            String var = _planVars[c];
+            Double d = q._hmCVarAssign.get(var);
+            c_evidence[c] = (d == null) ? Double.NaN : d;
+            Object b = q._hmBVarAssign.containsKey(var) ? q._hmBVarAssign.get(var)
+                    : q._hmBVarAssign.get(var.replace("'", ""));
+            b_evidence[c] = (b == null) ? Double.NaN : (Boolean.parseBoolean(b.toString()) ? 1 : 0);
+        }
+
+        final BlockSamples bs = new BlockSamples();
+        bs.vars = _planVars;
+        bs.columns = new double[n_vars][n];
+        bs.likelihoodWeights = new double[n];
+        long time = System.currentTimeMillis();
+
+        int n_blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ArrayList<Callable<Object>> blocks = new ArrayList<Callable<Object>>();
+        for (int b = 0; b < n_blocks; b++) {
+            final int start = b * BLOCK_SIZE;
+            final int end = Math.min(n, start + BLOCK_SIZE);
+            blocks.add(new Callable<Object>() {
+                public Object call() {
+                    sampleBlock(bs, start, end, c_evidence, b_evidence, seed);
+                    return null;
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+                Math.min(n_blocks, NUM_THREADS)));
+        try {
+            for (Future<Object> f : pool.invokeAll(blocks))
+                f.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Block sampling interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Block sampling failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        bs.time = System.currentTimeMillis() - time;
+
+        // Effective sample size of the accepted (non-negative) weights
+        double sum = 0, sum2 = 0;
+        for (double w : bs.likelihoodWeights)
+            if (w >= 0) {
+                sum += w;
+                sum2 += w * w;
+            }
+        bs.effectiveSampleSize = (sum2 == 0) ? 0 : sum * sum / sum2;
+        System.out.println(n + " samples in " + n_blocks + " blocks, " + bs.time + " ms, ESS: "
+                + _df.format(bs.effectiveSampleSize) + ", ESS/s: "
+                + _df.format(bs.effectiveSampleSize * 1000d / Math.max(1, bs.time)));
+
+        return bs;
+    }
+
+    public double likelihoodWeightExpectation(BlockSamples s, String[] queryVar) {
+        int c = Arrays.asList(s.vars).indexOf(queryVar[0]);
+        if (c < 0)
+            c = Arrays.asList(s.vars).indexOf(queryVar[0] + "'");
+        double[] x = s.columns[c];
+        double[] w = s.likelihoodWeights;
+        double z = 0, zn = 0;
+        for (int i = 0; i < w.length; i++) {
+            if (w[i] >= 0) {
+                z += w[i] * x[i];
+                zn += w[i];
+            }
+        }
+
+        return z / zn;
+    }
+
+    private void compilePlan(HashMap<String, Distribution[]> var_dists) {
+        _planVars = var_dists.keySet().toArray(new String[var_dists.size()]);
+        HashMap<String, Integer> column = new HashMap<String, Integer>();
+        for (int c = 0; c < _planVars.length; c++)
+            column.put(_planVars[c], c);
+
+        _planDists = new CompiledDistribution[_planVars.length][];
+        ArrayList<HashSet<Integer>> parents = new ArrayList<HashSet<Integer>>();
+        for (int c = 0; c < _planVars.length; c++) {
+            HashSet<Integer> p = new HashSet<Integer>();
+            _planDists[c] = compile(_planVars[c], var_dists.get(_planVars[c]), column, p);
+            parents.add(p);
+        }
+
+        // Parents first
+        _planOrder = new int[_planVars.length];
+        int[] state = new int[_planVars.length];
+        int next = 0;
+        for (int c = 0; c < _planVars.length; c++)
+            next = visit(c, parents, state, _planOrder, next);
+    }
+
+    private int visit(int c, ArrayList<HashSet<Integer>> parents, int[] state, int[] order, int next) {
+        if (state[c] == 2)
+            return next;
+        if (state[c] == 1)
+            throw new IllegalStateException("Sampling: cyclic dependency on " + _planVars[c]);
+        state[c] = 1;
+        for (int p : parents.get(c))
+            next = visit(p, parents, state, order, next);
+        state[c] = 2;
+        order[next] = c;
+        return next + 1;
+    }
+
+    private CompiledDistribution[] compile(String var, Distribution[] dists, HashMap<String, Integer> column,
+                                           HashSet<Integer> parents) {
+        if (dists == null)
+            return null;
+
+        CompiledDistribution[] cd = new CompiledDistribution[dists.length];
+        for (int i = 0; i < dists.length; i++) {
+            cd[i] = new CompiledDistribution();
+            cd[i].dist_type = dists[i].dist_type;
+            cd[i].coef = dists[i].coef;
+            String[] params = dists[i].params.split(",");
+            cd[i].param_col = new int[params.length];
+            cd[i].param_val = new double[params.length];
+            for (int k = 0; k < params.length; k++) {
+                String t = params[k];
+                if (t.equalsIgnoreCase(var)) {
+                    cd[i].param_col[k] = SELF;
+                } else if (column.containsKey(t)) {
+                    cd[i].param_col[k] = column.get(t);
+                    parents.add(column.get(t));
+                } else {
+                    cd[i].param_col[k] = CONSTANT;
+                    try {
+                        cd[i].param_val[k] = Double.parseDouble(t);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Sampling: unknown parameter '" + t + "' of " + var, e);
+                    }
+                }
+            }
+            cd[i].trueDist = compile(var, dists[i].trueDist, column, parents);
+            cd[i].falseDist = compile(var, dists[i].falseDist, column, parents);
+        }
+        return cd;
+    }
+
+    // Samples [start, end) and their likelihood weights (as likelihoodWeighting)
+    private void sampleBlock(BlockSamples bs, int start, int end, double[] c_evidence, double[] b_evidence,
+                             long seed) {
+        final double epsilon = .5;
+        double[][] col = bs.columns;
+        double[] row = new double[col.length];
+        double[] params = new double[8];
+
+        Random r = new Random();
+        for (int i = start; i < end; i++) {
+            r.setSeed(rowSeed(seed, i));
+            for (int c : _planOrder) {
+                row[c] = sample(_planDists[c], row, params, r);
+                col[c][i] = row[c];
+            }
+
+            double w = 1;
+            boolean matched = false;
+            for (int c = 0; c < row.length; c++) {
+                if ((!Double.isNaN(c_evidence[c]) && Math.abs(row[c] - c_evidence[c]) < epsilon)
+                        || (!Double.isNaN(b_evidence[c]) && (row[c] > 0) == (b_evidence[c] == 1))) {
+                    w *= density(_planDists[c], row[c], row, params);
+                    matched = true;
+                }
+            }
+            bs.likelihoodWeights[i] = matched ? w : -1;
+        }
+    }
+
+    // SplitMix64 finalizer of the i-th step from seed
+    private static long rowSeed(long seed, long i) {
+        long z = seed + (i + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Parameters of d for the current row, self is x
+    private static double[] resolve(CompiledDistribution d, double x, double[] row, double[] params) {
+        if (params.length < d.param_col.length)
+            params = new double[d.param_col.length];
+        for (int k = 0; k < d.param_col.length; k++) {
+            int c = d.param_col[k];
+            params[k] = (c >= 0) ? row[c] : (c == SELF ? x : d.param_val[k]);
+        }
+        return params;
+    }
+
+    private static double sample(CompiledDistribution[] dists, double[] row, double[] params, Random r) {
+        double component = r.nextDouble();
+        int idx = dists.length - 1;
+        double s = 0;
+        for (int i = 0; i < dists.length; i++) {
+            s += dists[i].coef;
+            if (component < s) {
+                idx = i;
+                break;
+            }
+        }
+        CompiledDistribution d = dists[idx];
+        double[] p = resolve(d, 0, row, params);
+        switch (d.dist_type) {
+            case Normal:
+                return p[1] + p[2] * r.nextGaussian();
+            case Uniform:
+                return p[1] + (p[3] - p[2]) * r.nextDouble();
+            case Triangular: {
+                double mu = p[1], a = p[1] - p[2], b = p[1] + p[3];
+                double u = r.nextDouble();
+                if (u < ((mu - a) / (b - a)))
+                    return a + Math.sqrt(u * (mu - a) * (b - a));
+                return b - Math.sqrt((1 - u) * (b - mu) * (b - a));
+            }
+            default:
+                if (d.trueDist == null)
+                    return r.nextDouble();
+                return sample(p[0] > .5 ? d.trueDist : d.falseDist, row, params, r);
+        }
+    }
+
+    private static double density(CompiledDistribution[] dists, double x, double[] row, double[] params) {
+        double s = 0;
+        for (CompiledDistribution d : dists) {
+            double[] p = resolve(d, x, row, params);
+            switch (d.dist_type) {
+                case Normal:
+                    s += evaluateNormal(p[0], p[1], p[2]);
+                    break;
+                case Uniform:
+                    s += evaluateUniform(p[2], p[3]);
+                    break;
+                case Triangular:
+                    s += evaluateTriangular(p[0], p[1], p[2], p[3]);
+                    break;
+                default:
+                    s += d.param_col.length == 1 ? evaluateBoolean(x, p[0]) : evaluateBoolean(x, p[0], p[1]);
+            }
+        }
+        return s;
+    }
+
     private static double evaluateBoolean(double x, double d) {
         return x > .5 ? d : 1 - d;
     }
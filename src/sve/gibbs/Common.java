@@ -22,6 +22,7 @@ public class Common {
     static BufferedWriter _XADD_WRITER;
     static BufferedWriter _RESULTS_WRITER;
     static final boolean WRITE_XADDS = false;
+    static final boolean INVERSE_CDF_SAMPLING = true;
 
     static void init() {
         try {
@@ -77,6 +78,41 @@ public class Common {
         return xadd;
     }
 
+    /**
+     * Gelman-Rubin potential scale reduction factor (R-hat) of a variable
+     *
+     * @param chains : chains[j][i] is the i-th sample of the j-th chain, all
+     *               chains are of equal length
+     * @return close to 1 if the chains have converged, NaN if undefined
+     */
+    public static double gelmanRubin(double[][] chains) {
+        int m = chains.length;
+        int n = chains[0].length;
+        if (m < 2 || n < 2)
+            return Double.NaN;
+
+        double[] mean = new double[m];
+        double grand_mean = 0, w = 0;
+        for (int j = 0; j < m; j++) {
+            for (int i = 0; i < n; i++)
+                mean[j] += chains[j][i];
+            mean[j] /= n;
+            grand_mean += mean[j] / m;
+
+            double s2 = 0;
+            for (int i = 0; i < n; i++)
+                s2 += (chains[j][i] - mean[j]) * (chains[j][i] - mean[j]);
+            w += s2 / (n - 1) / m; // Within-chain variance
+        }
+        double b = 0; // Between-chain variance
+        for (int j = 0; j < m; j++)
+            b += (mean[j] - grand_mean) * (mean[j] - grand_mean);
+        b = b * n / (m - 1);
+
+        double var = (n - 1) / (double) n * w + b / n;
+        return Math.sqrt(var / w);
+    }
+
     static void close() {
         try {
             if (_XADD_WRITER != null)
@@ -4,11 +4,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
 
 public class Driver {
 
@@ -44,12 +48,19 @@ public class Driver {
         return null;
     }
 
+    /**
+     * One chain: a Gibbs instance with its own graphical model (and hence XADD
+     * context), random number generator, output file and results log
+     */
     private static class RunInstance implements Callable<String>, Runnable {
 
         private Gibbs g;
         private Args arg;
-        private Double sum;
-        private TreeMap<String, Double> percentage;
+        private int chain;
+        private int no_chains;
+        private DoubleAdder sum;
+        private ConcurrentSkipListMap<String, Double> percentage;
+        private ConcurrentHashMap<String, double[][][]> samples;
         private int u;
         private String str = "";
 
@@ -64,20 +75,29 @@ public class Driver {
                     g.infer(e);
                     Common.println(">> user: " + u + ", epsilon: "
                             + Double.toString(e) + ", experiment: " + (i + 1)
-                            + " is starting");
+                            + ", chain: " + chain + " is starting");
                     Common.println(
                             ">> user: " + u + ", epsilon: "
                                     + Double.toString(e) + ", experiment: "
-                                    + (i + 1) + " is starting",
-                            Common._RESULTS_WRITER);
+                                    + (i + 1) + ", chain: " + chain
+                                    + " is starting",
+                            g._resultsWriter);
                     double d = g.test(arg.dsTest);
                     Common.println("-------");
-                    Common.println("-------", Common._RESULTS_WRITER);
+                    Common.println("-------", g._resultsWriter);
                     String s = g._prefDs.getPreferenceFilename() + ":" + u
                             + ":" + Double.toString(e) + ":" + i;
-                    str = str + "\n" + s;
-                    percentage.put(str, d);
-                    sum += d;
+                    str = str + "\n" + s + ":" + chain;
+                    percentage.put(s + ":" + chain, d);
+                    sum.add(d);
+
+                    // Each chain fills its own slot
+                    String[] vars = g.getVariables();
+                    double[][] chain_samples = new double[vars.length][];
+                    for (int v = 0; v < vars.length; v++)
+                        chain_samples[v] = g.getSamples(vars[v]);
+                    samples.putIfAbsent(s, new double[no_chains][][]);
+                    samples.get(s)[chain] = chain_samples;
                 }
             }
 
@@ -93,12 +113,23 @@ public class Driver {
 
     }
 
+    /**
+     * Arguments (all optional): number of threads (default: number of
+     * processors), number of chains per run (default: 4) and seed (default: 0)
+     */
     public static void main(String[] args) {
-        TreeMap<String, Double> percentage = new TreeMap<String, Double>();
-        Double sum = new Double(0);
+        int no_threads = (args.length > 0) ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        int no_chains = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        long seed = (args.length > 2) ? Long.parseLong(args[2]) : 0L;
+
+        ConcurrentSkipListMap<String, Double> percentage = new ConcurrentSkipListMap<String, Double>();
+        ConcurrentHashMap<String, double[][][]> samples = new ConcurrentHashMap<String, double[][][]>();
+        DoubleAdder sum = new DoubleAdder();
+        SplittableRandom seeds = new SplittableRandom(seed);
         Gibbs g = null;
         Common.init();
-        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService executor = Executors.newFixedThreadPool(no_threads);
         ArrayList<RunInstance> threads = new ArrayList<RunInstance>();
 
         for (Experiments ex : Experiments.values()) {
@@ -114,14 +145,23 @@ public class Driver {
                 for (String l : arg.likelihood) {
                     for (String p : arg.prior) {
                         for (int u = 0; u < 1 /* arg.dsTrain.getUsersCount() */; u++) {
-                            g = getInstance(ex, p, l, arg, evaluate_exact);
-                            RunInstance r = new RunInstance();
-                            r.arg = arg;
-                            r.g = g;
-                            r.percentage = percentage;
-                            r.sum = sum;
-
-                            threads.add(r);
+                            for (int c = 0; c < no_chains; c++) {
+                                // Instances are created sequentially, so the
+                                // seeds do not depend on thread timing
+                                g = getInstance(ex, p, l, arg, evaluate_exact);
+                                g.setChain(c, seeds.split());
+                                RunInstance r = new RunInstance();
+                                r.arg = arg;
+                                r.g = g;
+                                r.u = u;
+                                r.chain = c;
+                                r.no_chains = no_chains;
+                                r.percentage = percentage;
+                                r.sum = sum;
+                                r.samples = samples;
+
+                                threads.add(r);
+                            }
                         }
                     }
                 }
@@ -136,8 +176,30 @@ public class Driver {
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        // Results of each chain, in the order the chains were created
+        for (RunInstance r : threads)
+            Common.println(r.g.getChainResults(), Common._RESULTS_WRITER);
+        Common.flush();
+
+        // Convergence diagnostics across the chains of each run
+        for (String key : new TreeMap<String, double[][][]>(samples).keySet()) {
+            double[][][] chains = samples.get(key);
+            if (chains.length < 2 || Arrays.asList(chains).contains(null))
+                continue;
+            StringBuilder sb = new StringBuilder("R-hat " + key + ":");
+            for (int v = 0; v < chains[0].length; v++) {
+                double[][] var_chains = new double[chains.length][];
+                for (int c = 0; c < chains.length; c++)
+                    var_chains[c] = chains[c][v];
+                sb.append(" ").append(Common.gelmanRubin(var_chains));
+            }
+            Common.println(sb.toString());
+            Common.println(sb.toString(), Common._RESULTS_WRITER);
+        }
+
         Common.close();
         Common.println(percentage);
-        Common.println("average: " + sum / (double) percentage.size());
+        Common.println("average: " + sum.sum() / (double) percentage.size());
     }
 }
@@ -2,6 +2,8 @@ package sve.gibbs;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -9,6 +11,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.SortedMap;
+import java.util.SplittableRandom;
 import java.util.TreeMap;
 
 import sve.GraphicalModel;
@@ -36,12 +39,17 @@ public abstract class Gibbs {
      * Field values are set here
      */
     protected GraphicalModel _gm;
-    protected Random _r = new Random();
+    protected SplittableRandom _r = new SplittableRandom();
     protected SortedMap<String, Integer> _varList = new TreeMap<String, Integer>();
     protected HashMap<String, ArrayList<Integer>> _var2exp = new HashMap<String, ArrayList<Integer>>();
     protected HashMap<String, Integer> _numer = new HashMap<String, Integer>(),
             _denom = new HashMap<String, Integer>();
     HashMap<String, ArrayList<Double>> _samples;
+    private HashMap<String, InverseCdf> _inverseCdf = new HashMap<String, InverseCdf>();
+    protected String _outputPath = Common.OUTPUT_FILEPATH;
+    // Results log, the shared one until setChain gives the chain its own
+    protected BufferedWriter _resultsWriter = Common._RESULTS_WRITER;
+    private StringWriter _chainResults = null;
     protected PreferenceDataset _prefDs;
 
     protected int _likelihood;
@@ -140,30 +148,30 @@ public abstract class Gibbs {
             // some comments for the log
             Common.println(
                     "------------------------------------------------------",
-                    Common._RESULTS_WRITER);
-            Common.println(Common.getDateTime(), Common._RESULTS_WRITER);
-            Common.println("Prior path: " + filename, Common._RESULTS_WRITER);
+                    _resultsWriter);
+            Common.println(Common.getDateTime(), _resultsWriter);
+            Common.println("Prior path: " + filename, _resultsWriter);
             Common.println("Likelihood path: " + likelighoodPath,
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println("Utility path: " + utilityPath,
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println(
                     "Compute exact posterior: "
                             + Boolean.toString(_evaluate_exact),
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println("Sample size: " + SAMPLE_SIZE,
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println("Samples to ignore : " + SAMPLES_TO_IGNORE,
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println("Preference dataset: " + ds.getPreferenceFilepath(),
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println(" # items : " + ds.getItemsCount(),
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println(" # preferences : " + ds.getPreferencesCount(),
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.println(
                     "------------------------------------------------------",
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
             Common.flush();
 
             // select the factors for each variable
@@ -184,6 +192,52 @@ public abstract class Gibbs {
         }
     }
 
+    /**
+     * Gives the sampler its own random number generator, output file and results
+     * log, so that several chains (instances) can run concurrently and
+     * reproducibly; the log is collected by getChainResults
+     *
+     * @param chain : index of the chain
+     * @param rand  : random number generator of the chain (e.g. split from the
+     *              generator of the run)
+     */
+    public void setChain(int chain, SplittableRandom rand) {
+        _r = rand;
+        _outputPath = Common.OUTPUT_FILEPATH.replace(".csv", "_chain" + chain
+                + ".csv");
+        _chainResults = new StringWriter();
+        _resultsWriter = new BufferedWriter(_chainResults);
+    }
+
+    /**
+     * Results logged by this chain since setChain
+     */
+    public String getChainResults() {
+        if (_chainResults == null)
+            return "";
+        try {
+            _resultsWriter.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return _chainResults.toString();
+    }
+
+    /**
+     * Samples of var kept by the last call to infer
+     */
+    public double[] getSamples(String var) {
+        ArrayList<Double> l = _samples.get(var);
+        double[] d = new double[l.size()];
+        for (int i = 0; i < d.length; i++)
+            d[i] = l.get(i);
+        return d;
+    }
+
+    public String[] getVariables() {
+        return _varList.keySet().toArray(new String[_varList.size()]);
+    }
+
     private int getXADD(String var) {
         return _gm.getXADD(var, _gm._alBVarsTemplate.contains(var));
     }
@@ -227,7 +281,7 @@ public abstract class Gibbs {
             _exactposterior = prior;
             _inference_time_exact = (System.currentTimeMillis() - _inference_time_exact);
             Common.println("Time to calculate prior: " + _inference_time_exact,
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
         } else
             _exactposterior = -1;
 
@@ -269,7 +323,7 @@ public abstract class Gibbs {
                 + _inference_time + " for " + count + " likelihoods");
         Common.println("Time to apply likelihood for user " + _userId + ": "
                 + _inference_time + " for " + count + " likelihoods",
-                Common._RESULTS_WRITER);
+                _resultsWriter);
 
         for (String key : _varList.keySet()) {
             int a = pw.get(key);
@@ -306,7 +360,7 @@ public abstract class Gibbs {
             _node_count_exact = 0; // _gm._context.getNodeCount(_exactposterior);
             _max_node_count_exact = 0; // _node_count_exact;
             Common.println("Time to compute exact posterior: "
-                    + _inference_time_exact, Common._RESULTS_WRITER);
+                    + _inference_time_exact, _resultsWriter);
         }
     }
 
@@ -349,21 +403,37 @@ public abstract class Gibbs {
 
         // Generate samples from the current posteior and the xadd
         _inference_time += System.currentTimeMillis();
-        generateSamples(SAMPLE_SIZE + SAMPLES_TO_IGNORE, false);
-        _inference_time = (System.currentTimeMillis() - _inference_time);
-
-        // keep the last sampleSize
-        // if (i % 2 == 0) {
-        for (String key : _samples.keySet()) {
-            List<Double> d = _samples.get(key).subList(
-                    Math.max(0, _samples.get(key).size() - SAMPLE_SIZE - 1),
-                    _samples.get(key).size() - 1);
-            _samples.put(key, new ArrayList<Double>());
-            _samples.get(key).addAll(d);
+        if (Common.INVERSE_CDF_SAMPLING) {
+            double[][] samples = generateSamplesInverseCdf(SAMPLE_SIZE
+                    + SAMPLES_TO_IGNORE, false);
+            _inference_time = (System.currentTimeMillis() - _inference_time);
+
+            // keep the last sampleSize
+            int v = 0;
+            for (String key : _varList.keySet()) {
+                ArrayList<Double> d = new ArrayList<Double>(SAMPLE_SIZE);
+                for (int i = samples[v].length - SAMPLE_SIZE; i < samples[v].length; i++)
+                    d.add(samples[v][i]);
+                _samples.put(key, d);
+                v++;
+            }
+        } else {
+            generateSamples(SAMPLE_SIZE + SAMPLES_TO_IGNORE, false);
+            _inference_time = (System.currentTimeMillis() - _inference_time);
+
+            // keep the last sampleSize
+            // if (i % 2 == 0) {
+            for (String key : _samples.keySet()) {
+                List<Double> d = _samples.get(key).subList(
+                        Math.max(0, _samples.get(key).size() - SAMPLE_SIZE - 1),
+                        _samples.get(key).size() - 1);
+                _samples.put(key, new ArrayList<Double>());
+                _samples.get(key).addAll(d);
+            }
+            // }
         }
-        // }
 
-        CSVHandler.writecsv(Common.OUTPUT_FILEPATH.replace(".csv", "1.csv"),
+        CSVHandler.writecsv(_outputPath.replace(".csv", "1.csv"),
                 _samples);
 
         if (_evaluate_exact) {
@@ -414,13 +484,57 @@ public abstract class Gibbs {
             }
             Common.println("Time to generate " + sampleSize + " samples: "
                     + (System.currentTimeMillis() - time),
-                    Common._RESULTS_WRITER);
-            CSVHandler.writecsv(Common.OUTPUT_FILEPATH, ar, append);
+                    _resultsWriter);
+            CSVHandler.writecsv(_outputPath, ar, append);
+        } catch (Exception ex) {
+            System.err.println(ex.getMessage());
+            ex.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Same chain as generateSamples, but each draw inverts the CDF instantiated
+     * at the current values of the other variables (see InverseCdf). Samples
+     * are kept in primitive arrays and the rows are streamed to the output file.
+     *
+     * @param sampleSize
+     * @param append
+     * @return samples[v][i] is the i-th sample of the v-th variable of _varList
+     */
+    private double[][] generateSamplesInverseCdf(int sampleSize, boolean append) {
+        String[] vars = _varList.keySet().toArray(new String[_varList.size()]);
+        double[][] samples = new double[vars.length][sampleSize];
+        HashMap<String, Double> assign = new HashMap<String, Double>();
+        for (String var : vars)
+            assign.put(var, 0D);
+
+        try {
+            long time = System.currentTimeMillis();
+            BufferedWriter bw = new BufferedWriter(new FileWriter(
+                    _outputPath, append));
+            for (int i = 0; i < sampleSize; i++) {
+                for (int v = 0; v < vars.length; v++) {
+                    double d = sampleInverseCdf(vars[v], _numer.get(vars[v]),
+                            _denom.get(vars[v]), assign);
+                    samples[v][i] = d;
+                    assign.put(vars[v], d);
+                    if (v > 0)
+                        bw.write(',');
+                    bw.write(Double.toString(d));
+                }
+                bw.write('\n');
+            }
+            bw.close();
+            Common.println("Time to generate " + sampleSize + " samples: "
+                    + (System.currentTimeMillis() - time),
+                    _resultsWriter);
         } catch (Exception ex) {
             System.err.println(ex.getMessage());
             ex.printStackTrace();
             System.exit(0);
         }
+        return samples;
     }
 
     protected void exactInfer() {
@@ -496,7 +610,7 @@ public abstract class Gibbs {
         }
 
         Common.println("Time to build CDF: "
-                + (System.currentTimeMillis() - time), Common._RESULTS_WRITER);
+                + (System.currentTimeMillis() - time), _resultsWriter);
     }
 
     private void evaluate(int xadd, String var) {
@@ -561,12 +675,12 @@ public abstract class Gibbs {
      */
     private double sample(String var, Integer num, Integer denom,
                           HashMap<String, ArithExpr> subst) {
-        float u = _r.nextFloat();
+        double u = _r.nextDouble();
         double high = 1, low = 0;
         HashMap<String, Double> assignment = new HashMap<String, Double>();
 
         for (String k : subst.keySet()) {
-            if (!k.matches(var))
+            if (!k.equals(var))
                 assignment.put(k, ((DoubleExpr) subst.get(k))._dConstVal);
         }
 
@@ -594,6 +708,37 @@ public abstract class Gibbs {
         return assignment.get(var);
     }
 
+    /**
+     * Generates sample by inverting the CDF instantiated at the values of the
+     * other variables in assign, falls back on the binary search of sample if
+     * the CDF can not be instantiated
+     *
+     * @param num    : numerator of the CDF
+     * @param denom  : Denominator for the CDF
+     * @param assign : current values of all variables
+     */
+    private double sampleInverseCdf(String var, int num, int denom,
+                                    HashMap<String, Double> assign) {
+        double u = _r.nextDouble();
+        double current = assign.get(var);
+        double d = _gm._context.evaluate(denom, null, assign);
+
+        InverseCdf inverse = _inverseCdf.get(var);
+        if (inverse == null) {
+            inverse = new InverseCdf(_gm._context, var);
+            _inverseCdf.put(var, inverse);
+        }
+        Double x = inverse.invert(num, u * d, 0, 1, assign);
+        assign.put(var, current);
+        if (x != null)
+            return x;
+
+        HashMap<String, ArithExpr> subst = new HashMap<String, ArithExpr>();
+        for (String k : assign.keySet())
+            subst.put(k, new DoubleExpr(assign.get(k)));
+        return sample(var, num, denom, subst);
+    }
+
     /**
      * Integrate
      *
@@ -736,7 +881,7 @@ public abstract class Gibbs {
 
         Common.println("Time to evaluate one expected utility for user "
                 + _userId + ": " + expected_time / (double) count,
-                Common._RESULTS_WRITER);
+                _resultsWriter);
 
         expected_time = expected_time / (double) count;
         expected_exact_time = expected_exact_time / (double) count;
@@ -745,7 +890,7 @@ public abstract class Gibbs {
 
         String s = samplesStat().toString();
         Common.println(s);
-        Common.println(s, Common._RESULTS_WRITER);
+        Common.println(s, _resultsWriter);
 
         Common.println("user ID: " + _userId);
 
@@ -755,12 +900,12 @@ public abstract class Gibbs {
                 + ", no_nodes: " + _node_count + ", max_no_nodes: "
                 + _max_node_count;
         Common.println(s);
-        Common.println(s, Common._RESULTS_WRITER);
+        Common.println(s, _resultsWriter);
 
         if (_evaluate_exact) {
             Common.println("Time to evaluate one expected utility for user "
                     + _userId + ": " + (expected_exact_time / (double) count),
-                    Common._RESULTS_WRITER);
+                    _resultsWriter);
 
             s = "# prefs_exact: " + count + ", # correct_exact: "
                     + correct_exact + ", # wrong_exact: " + wrong_exact + " : "
@@ -770,7 +915,7 @@ public abstract class Gibbs {
                     + ", no_exact_nodes: " + _node_count_exact
                     + ", max_no_exact_nodes: " + _max_node_count_exact;
             Common.println(s);
-            Common.println(s, Common._RESULTS_WRITER);
+            Common.println(s, _resultsWriter);
         }
 
         Common.flush();
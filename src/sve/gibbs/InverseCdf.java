@@ -0,0 +1,201 @@
+package sve.gibbs;
+
+import java.util.HashMap;
+
+import xadd.XADD;
+import xadd.XADD.Decision;
+import xadd.XADD.ExprDec;
+import xadd.XADD.XADDINode;
+import xadd.XADD.XADDNode;
+import xadd.XADD.XADDTNode;
+import xadd.ExprLib.ArithExpr;
+import xadd.ExprLib.CompExpr;
+
+/**
+ * Inverts the numerator of the CDF of one variable (see Gibbs.buildCDF) for
+ * fixed values of all other variables. The XADD is walked once per draw and the
+ * sampling interval is split at the roots of the decisions on the variable, so
+ * the CDF becomes a sequence of segments, each given by a single leaf
+ * expression. The target is located by evaluating segment ends and solved for
+ * analytically when the leaf is linear in the variable, by safeguarded Newton
+ * steps otherwise. Nothing is substituted into the XADD, so no nodes are created.
+ */
+class InverseCdf {
+
+    private static final double TOLERANCE = 1E-6;
+    private static final int MAX_NEWTON_STEPS = 50;
+
+    private XADD _context;
+    private String _var;
+
+    // Highest order of _var per decision and leaf, derivatives of leaves
+    private HashMap<Integer, Integer> _hmDecisionOrder = new HashMap<Integer, Integer>();
+    private HashMap<ArithExpr, Integer> _hmLeafOrder = new HashMap<ArithExpr, Integer>();
+    private HashMap<ArithExpr, ArithExpr> _hmDerivative = new HashMap<ArithExpr, ArithExpr>();
+
+    // Segments of the last instantiation (arrays are reused across draws)
+    private double[] _segLow = new double[8];
+    private double[] _segHigh = new double[8];
+    private ArithExpr[] _segExpr = new ArithExpr[8];
+    private int _nSegments;
+
+    public InverseCdf(XADD context, String var) {
+        _context = context;
+        _var = var;
+    }
+
+    /**
+     * Returns x in [low, high] with cdf(x) = target
+     *
+     * @param cdf    : numerator of the CDF
+     * @param target : uniform draw times the denominator of the CDF
+     * @param assign : values of the other variables, the value of var is
+     *               overwritten
+     * @return null if the CDF could not be instantiated (a decision is not
+     * linear in var or a variable is unassigned)
+     */
+    public Double invert(int cdf, double target, double low, double high,
+                         HashMap<String, Double> assign) {
+        _nSegments = 0;
+        if (!instantiate(cdf, low, high, assign))
+            return null;
+
+        for (int k = 0; k < _nSegments; k++) {
+            assign.put(_var, _segHigh[k]);
+            Double f_high = _segExpr[k].evaluate(assign);
+            if (f_high == null)
+                return null;
+            if (f_high >= target || k == _nSegments - 1)
+                return solve(k, target, assign);
+        }
+        return null;
+    }
+
+    private boolean instantiate(int node_id, double low, double high,
+                                HashMap<String, Double> assign) {
+        XADDNode n = _context.getExistNode(node_id);
+        if (n instanceof XADDTNode) {
+            addSegment(low, high, ((XADDTNode) n)._expr);
+            return true;
+        }
+
+        XADDINode inode = (XADDINode) n;
+        Decision d = _context._alOrder.get(inode._var);
+        int order = decisionOrder(inode._var, d);
+        if (order > 1)
+            return false;
+
+        // Root of lhs - rhs = a * var + b inside (low, high) splits the interval
+        double root = Double.NaN;
+        if (order == 1) {
+            CompExpr e = ((ExprDec) d)._expr;
+            Double f0 = difference(e, 0d, assign);
+            Double f1 = difference(e, 1d, assign);
+            if (f0 == null || f1 == null)
+                return false;
+            if (f1.doubleValue() != f0.doubleValue())
+                root = -f0 / (f1 - f0);
+        }
+        if (!(root > low && root < high)) {
+            assign.put(_var, (low + high) / 2);
+            Boolean b = _context.evaluateDecision(d, null, assign);
+            if (b == null)
+                return false;
+            return instantiate(b ? inode._high : inode._low, low, high, assign);
+        }
+
+        assign.put(_var, (low + root) / 2);
+        Boolean b_low = _context.evaluateDecision(d, null, assign);
+        if (b_low == null)
+            return false;
+        return instantiate(b_low ? inode._high : inode._low, low, root, assign)
+                && instantiate(b_low ? inode._low : inode._high, root, high, assign);
+    }
+
+    private Double difference(CompExpr e, double x, HashMap<String, Double> assign) {
+        assign.put(_var, x);
+        Double lhs = e._lhs.evaluate(assign);
+        Double rhs = e._rhs.evaluate(assign);
+        return (lhs == null || rhs == null) ? null : lhs - rhs;
+    }
+
+    private void addSegment(double low, double high, ArithExpr expr) {
+        if (_nSegments == _segExpr.length) {
+            int size = 2 * _nSegments;
+            double[] seg_low = new double[size];
+            double[] seg_high = new double[size];
+            ArithExpr[] seg_expr = new ArithExpr[size];
+            System.arraycopy(_segLow, 0, seg_low, 0, _nSegments);
+            System.arraycopy(_segHigh, 0, seg_high, 0, _nSegments);
+            System.arraycopy(_segExpr, 0, seg_expr, 0, _nSegments);
+            _segLow = seg_low;
+            _segHigh = seg_high;
+            _segExpr = seg_expr;
+        }
+        _segLow[_nSegments] = low;
+        _segHigh[_nSegments] = high;
+        _segExpr[_nSegments++] = expr;
+    }
+
+    // Solves leaf(x) = target on segment k, the CDF is increasing in x
+    private double solve(int k, double target, HashMap<String, Double> assign) {
+        double low = _segLow[k], high = _segHigh[k];
+        ArithExpr f = _segExpr[k];
+
+        if (leafOrder(f) <= 1) {
+            assign.put(_var, low);
+            double f_low = f.evaluate(assign);
+            assign.put(_var, high);
+            double f_high = f.evaluate(assign);
+            if (f_high <= f_low)
+                return low;
+            double x = low + (target - f_low) * (high - low) / (f_high - f_low);
+            return Math.max(low, Math.min(high, x));
+        }
+
+        ArithExpr df = _hmDerivative.get(f);
+        if (df == null) {
+            df = f.differentiateExpr(_var);
+            _hmDerivative.put(f, df);
+        }
+        double x = (low + high) / 2;
+        for (int i = 0; i < MAX_NEWTON_STEPS && high - low > TOLERANCE; i++) {
+            assign.put(_var, x);
+            double r = f.evaluate(assign) - target;
+            if (r > 0)
+                high = x;
+            else
+                low = x;
+            double next = x - r / df.evaluate(assign);
+            if (!(next > low && next < high)) // Bisect if Newton leaves the bracket
+                next = (low + high) / 2;
+            if (Math.abs(next - x) < TOLERANCE)
+                return next;
+            x = next;
+        }
+        return x;
+    }
+
+    private int decisionOrder(int var_id, Decision d) {
+        Integer order = _hmDecisionOrder.get(var_id);
+        if (order == null) {
+            order = 0;
+            if (d instanceof ExprDec) {
+                CompExpr e = ((ExprDec) d)._expr;
+                order = Math.max(e._lhs.determineHighestOrderOfVar(_var),
+                        e._rhs.determineHighestOrderOfVar(_var));
+            }
+            _hmDecisionOrder.put(var_id, order);
+        }
+        return order;
+    }
+
+    private int leafOrder(ArithExpr f) {
+        Integer order = _hmLeafOrder.get(f);
+        if (order == null) {
+            order = f.determineHighestOrderOfVar(_var);
+            _hmLeafOrder.put(f, order);
+        }
+        return order;
+    }
+}
@@ -0,0 +1,67 @@
+package util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Bounded memo of definite integrals, (integration vars, node) -> node, for
+ * xadd.XADD and xaddorig.XADD. The owning context copies getNodes() into its
+ * new node tables on every flush, so entries stay valid across flushes; the
+ * memo is cleared once it holds MAX_SIZE entries. When disabled every integral
+ * is computed afresh.
+ */
+public class DefIntegralMemo {
+    public final static int MAX_SIZE = 1000;
+    public boolean _bEnabled = true;
+
+    private HashMap<String, HashMap<Integer, Integer>> _hmVars2Cache = new HashMap<String, HashMap<Integer, Integer>>();
+    private int _nSize = 0;
+
+    public Integer get(String int_vars, int xadd) {
+        if (!_bEnabled)
+            return null;
+        HashMap<Integer, Integer> cache = _hmVars2Cache.get(int_vars);
+        return (cache == null) ? null : cache.get(xadd);
+    }
+
+    public void put(String int_vars, int xadd, int integral) {
+        if (!_bEnabled)
+            return;
+        if (_nSize >= MAX_SIZE)
+            clear();
+        HashMap<Integer, Integer> cache = _hmVars2Cache.get(int_vars);
+        if (cache == null) {
+            cache = new HashMap<Integer, Integer>();
+            _hmVars2Cache.put(int_vars, cache);
+        }
+        if (cache.put(xadd, integral) == null)
+            _nSize++;
+    }
+
+    // Key of a fused integral over several variables (names never contain ',')
+    public static String key(Iterable<String> int_vars) {
+        StringBuilder sb = new StringBuilder();
+        for (String var : int_vars)
+            sb.append(sb.length() == 0 ? "" : ",").append(var);
+        return sb.toString();
+    }
+
+    // Nodes to keep on a flush: every memoised XADD and its integral
+    public HashSet<Integer> getNodes() {
+        HashSet<Integer> nodes = new HashSet<Integer>();
+        for (HashMap<Integer, Integer> cache : _hmVars2Cache.values()) {
+            nodes.addAll(cache.keySet());
+            nodes.addAll(cache.values());
+        }
+        return nodes;
+    }
+
+    public int size() {
+        return _nSize;
+    }
+
+    public void clear() {
+        _hmVars2Cache.clear();
+        _nSize = 0;
+    }
+}
@@ -17,6 +17,7 @@ import java.io.FileReader;
 import java.io.PrintStream;
 import java.util.*;
 
+import util.DefIntegralMemo;
 import util.IntPair;
 import util.IntTriple;
 import camdp.HierarchicalParser;
@@ -127,6 +128,9 @@ public class XADD {
     public HashMap<IntTriple, Integer> _hmApplyCache = new HashMap<IntTriple, Integer>();
     public HashMap<XADDINode, HashSet<String>> _hmINode2Vars = new HashMap<XADDINode, HashSet<String>>();
 
+    // Definite integrals, pinned across flushes (see DefIntegralMemo)
+    public DefIntegralMemo _defIntegralMemo = new DefIntegralMemo();
+
     // Flush
     public HashSet<Integer> _hsSpecialNodes = new HashSet<Integer>();
     public HashMap<XADDNode, Integer> _hmNode2IntNew = new HashMap<XADDNode, Integer>();
@@ -614,6 +618,73 @@ public class XADD {
         return ret;
     }
 
+    // Substitutes each of values[k] for the continuous var in one pass over the diagram,
+    // result[k] = substitute(node_id, {var -> values[k]}). Sub-diagrams that do not
+    // mention var are shared by all values rather than rebuilt once per value.
+    public int[] substituteValues(int node_id, String var, ArithExpr[] values) {
+        ArrayList<HashMap<String, ArithExpr>> substs = new ArrayList<HashMap<String, ArithExpr>>(values.length);
+        for (ArithExpr value : values) {
+            HashMap<String, ArithExpr> subst = new HashMap<String, ArithExpr>();
+            subst.put(var, value);
+            substs.add(subst);
+        }
+        int[] ret = reduceSubValues(node_id, var, substs, new HashMap<Integer, int[]>());
+        if (ret == null) {
+            ret = new int[values.length];
+            Arrays.fill(ret, node_id);
+        }
+        return ret;
+    }
+
+    // Returns null if var does not occur in node_id (i.e., every substitution is node_id)
+    private int[] reduceSubValues(int node_id, String var, ArrayList<HashMap<String, ArithExpr>> substs,
+                                  HashMap<Integer, int[]> subst_cache) {
+
+        if (subst_cache.containsKey(node_id))
+            return subst_cache.get(node_id);
+
+        int[] ret = null;
+        XADDNode n = getExistNode(node_id);
+        HashSet<String> vars = new HashSet<String>();
+
+        if (n instanceof XADDTNode) {
+            XADDTNode tnode = (XADDTNode) n;
+            tnode._expr.collectVars(vars);
+            if (tnode._annotate != null && tnode._annotate instanceof ArithExpr)
+                ((ArithExpr) tnode._annotate).collectVars(vars);
+            if (vars.contains(var)) {
+                ret = new int[substs.size()];
+                for (int k = 0; k < ret.length; k++)
+                    ret[k] = reduceSub(node_id, substs.get(k), null);
+            }
+            subst_cache.put(node_id, ret);
+            return ret;
+        }
+
+        XADDINode inode = (XADDINode) n;
+        int[] low = reduceSubValues(inode._low, var, substs, subst_cache);
+        int[] high = reduceSubValues(inode._high, var, substs, subst_cache);
+
+        Decision d = _alOrder.get(inode._var);
+        boolean dec_has_var = false;
+        if (d instanceof ExprDec) {
+            ((ExprDec) d)._expr.collectVars(vars);
+            dec_has_var = vars.contains(var);
+        }
+
+        if (low != null || high != null || dec_has_var) {
+            ret = new int[substs.size()];
+            for (int k = 0; k < ret.length; k++) {
+                int dec = inode._var;
+                if (dec_has_var)
+                    dec = getVarIndex(new ExprDec(((ExprDec) d)._expr.substitute(substs.get(k))), true);
+                ret[k] = getINodeCanon(dec, (low == null) ? inode._low : low[k], (high == null) ? inode._high : high[k]);
+            }
+        }
+        subst_cache.put(node_id, ret);
+        return ret;
+    }
+
     public int substituteBoolVars(int node_id, HashMap<String, Boolean> subst){
         HashSet<String> varSet = collectVars(node_id);
         for (String var: subst.keySet()){
@@ -1569,6 +1640,8 @@ public class XADD {
         for (Integer n : _hsSpecialNodes) {
             copyInNewCacheNode(n);
         }
+        for (Integer n : _defIntegralMemo.getNodes())
+            copyInNewCacheNode(n);
         _hmNode2Int = _hmNode2IntNew;
         _hmInt2Node = _hmInt2NodeNew;
         createStandardNodes();
@@ -1944,23 +2017,37 @@ public class XADD {
     public class XADDLeafMinOrMax extends XADDLeafOperation {
 
         public int _runningResult; // XADD for the running max of all leaf substitutions
+        public int _runningArgResult; // XADD for the argmax of _runningResult (only if tracked)
         double _lowerBound, _upperBound;
         String _minOrMaxVar;
         String _sOpName;
         boolean _bIsMax;
+        boolean _bTrackArg;
         ArrayList<String> _contVars;
         PrintStream _log = null;
 
         public XADDLeafMinOrMax(String min_or_max_var, double lower_bound, double upper_bound, boolean is_max, PrintStream ps) {
+            this(min_or_max_var, lower_bound, upper_bound, is_max, false, ps);
+        }
+
+        public XADDLeafMinOrMax(String min_or_max_var, double lower_bound, double upper_bound, boolean is_max, boolean track_arg, PrintStream ps) {
             _minOrMaxVar = min_or_max_var.intern();
             _bIsMax = is_max;
+            _bTrackArg = track_arg;
             _sOpName = _bIsMax ? "MAX" : "MIN";
             _lowerBound = lower_bound;
             _upperBound = upper_bound;
             _runningResult = -1;
+            _runningArgResult = -1;
             _log = ps;
         }
 
+        // Returns arg1 where val1 is strictly better (greater for max, smaller for min) than val2, else arg2
+        private int selectArg(int val1, int arg1, int val2, int arg2) {
+            int better = _bIsMax ? apply(val1, val2, MINUS) : apply(val2, val1, MINUS);
+            return selectByIndicator(indicatorPositive(better), arg1, arg2);
+        }
+
         // TODO: revisit whether caching is possible, or in what circumstances
         public boolean isCacheable() {
             return false;
@@ -2116,6 +2203,7 @@ public class XADD {
             //     e.g., could an unreachable constant prune out another reachable node?
             //     (don't think this can happen... still in context of unreachable constraints)
             int min_max_eval = apply(eval_upper, eval_lower, _bIsMax ? MAX : MIN); // handle min and max
+            int arg_eval = _bTrackArg ? selectArg(eval_upper, xadd_upper_bound, eval_lower, xadd_lower_bound) : -1;
             min_max_eval = reduceLinearize(min_max_eval);
 
             // TODO: investigate... sometimes we are getting a quadratic decision below that should have been linearized!
@@ -2152,6 +2240,7 @@ public class XADD {
                 //max_eval_root = reduceLP(max_eval_root); // Result should be canonical
 
                 if (VERBOSE_MIN_MAX) _log.println("constrained root substitute: " + getString(eval_root));
+                if (_bTrackArg) arg_eval = selectArg(eval_root, getTermNode(root), min_max_eval, arg_eval);
                 min_max_eval = apply(min_max_eval, eval_root, _bIsMax ? MAX : MIN); // handle min or max
                 min_max_eval = reduceLinearize(min_max_eval);
                 min_max_eval = reduceLP(min_max_eval); // Result should be canonical
@@ -2182,6 +2271,12 @@ public class XADD {
             min_max_eval = reduceLP(min_max_eval); // Result should be canonical
             if (VERBOSE_MIN_MAX) _log.println("After linearize and reduceLP: " + getString(min_max_eval));
 
+            if (_bTrackArg) {
+                _runningArgResult = (_runningResult == -1) ? arg_eval
+                        : selectArg(min_max_eval, arg_eval, _runningResult, _runningArgResult);
+                _runningArgResult = reduceLP(reduceLinearize(_runningArgResult));
+            }
+
             if (_runningResult == -1)
                 _runningResult = min_max_eval;
             else
@@ -2202,6 +2297,38 @@ public class XADD {
             return getTermNode(leaf_val);
         }
     }
+    ////////////////////////////////////////////////////////////////////////////////
+    // 0/1 indicator of the positive regions of an XADD: each leaf f is replaced by
+    // (f > 0) ? 1 : 0, so +inf leaves map to 1 and -inf and NaN leaves to 0.
+    ////////////////////////////////////////////////////////////////////////////////
+
+    public int indicatorPositive(int xadd) {
+        return reduceProcessXADDLeaf(xadd, new XADDLeafIndicator(), /* canonical_reorder */true);
+    }
+
+    // Returns (indicator == 1) ? xadd_true : xadd_false, for a 0/1 valued indicator XADD
+    public int selectByIndicator(int indicator, int xadd_true, int xadd_false) {
+        int when_true = apply(indicator, xadd_true, PROD);
+        int when_false = apply(apply(ONE, indicator, MINUS), xadd_false, PROD);
+        return apply(when_true, when_false, SUM);
+    }
+
+    public class XADDLeafIndicator extends XADDLeafOperation {
+
+        public boolean isCacheable() {
+            return true;
+        }
+
+        public int processXADDLeaf(ArrayList<Decision> decisions, ArrayList<Boolean> decision_values, ArithExpr leaf_val) {
+            if (leaf_val instanceof DoubleExpr)
+                return (((DoubleExpr) leaf_val)._dConstVal > 0d) ? ONE : ZERO;
+            return getVarNode(new ExprDec(new CompExpr(CompOperation.GT, leaf_val, ExprLib.ZERO)), 0d, 1d);
+        }
+
+        public int hashCode() {
+            return XADDLeafIndicator.class.hashCode();
+        }
+    }
     ////////////////////////////////////////////////////
 
     // Given argument var v, the XADD on which this is called contains substitutions
@@ -2284,11 +2411,64 @@ public class XADD {
     }
 
     public int computeDefiniteIntegral(int xadd, String int_var) {
+        Integer ret = _defIntegralMemo.get(int_var, xadd);
+        if (ret != null)
+            return ret;
+
         XADDLeafDefIntegral integrator = new XADDLeafDefIntegral(int_var);
         reduceProcessXADDLeaf(xadd, integrator, /* canonical_reorder */false);
+        _defIntegralMemo.put(int_var, xadd, integrator._runningSum);
         return integrator._runningSum;
     }
 
+    // Integrates out all int_vars in order in a single traversal of xadd (see
+    // XADDLeafMultiDefIntegral), the result is memoised
+    public int computeDefiniteIntegral(int xadd, List<String> int_vars) {
+        if (int_vars.size() <= 1)
+            return int_vars.isEmpty() ? xadd : computeDefiniteIntegral(xadd, int_vars.get(0));
+
+        String key = DefIntegralMemo.key(int_vars);
+        Integer ret = _defIntegralMemo.get(key, xadd);
+        if (ret != null)
+            return ret;
+
+        XADDLeafMultiDefIntegral integrator = new XADDLeafMultiDefIntegral(int_vars);
+        reduceProcessXADDLeaf(xadd, integrator, /* canonical_reorder */false);
+        _defIntegralMemo.put(key, xadd, integrator._runningSum);
+        return integrator._runningSum;
+    }
+
+    public void clearDefIntegralCache() {
+        _defIntegralMemo.clear();
+    }
+
+    // Integral of each leaf over its path w.r.t. the first variable, integrated
+    // over the remaining ones before it is added to the running sum (integration
+    // is linear, so this is the integral of the whole XADD)
+    public class XADDLeafMultiDefIntegral extends XADDLeafDefIntegral {
+        private List<String> _remainingVars;
+
+        public XADDLeafMultiDefIntegral(List<String> int_vars) {
+            super(int_vars.get(0));
+            _remainingVars = int_vars.subList(1, int_vars.size());
+        }
+
+        public int processXADDLeaf(ArrayList<Decision> decisions,
+                                   ArrayList<Boolean> decision_values, ArithExpr leaf_val) {
+            int running_sum = _runningSum;
+            _runningSum = ZERO;
+            int ret = super.processXADDLeaf(decisions, decision_values, leaf_val);
+            int leaf_integral = _runningSum;
+            for (String var : _remainingVars) {
+                XADDLeafDefIntegral integrator = new XADDLeafDefIntegral(var);
+                reduceProcessXADDLeaf(leaf_integral, integrator, /* canonical_reorder */false);
+                leaf_integral = integrator._runningSum;
+            }
+            _runningSum = apply(running_sum, leaf_integral, SUM);
+            return ret;
+        }
+    }
+
     public class XADDLeafDefIntegral extends XADDLeafIndefIntegral {
         public int _runningSum; // XADD for the running sum of all leaf substitutions      //Made public by Hadi
 
@@ -35,6 +35,7 @@ import java.util.Map;
 import logic.kb.fol.FOPC;
 import lpsolve.LP;
 import lpsolve.LpSolve;
+import util.DefIntegralMemo;
 import util.IntPair;
 import util.IntTriple;
 import util.MapList;
@@ -129,6 +130,9 @@ public class XADD {
 	public MapList _mlImplications = new MapList();
 	public MapList _mlNonImplications = new MapList();
 	
+	// Definite integrals, pinned across flushes (see DefIntegralMemo)
+	public DefIntegralMemo _defIntegralMemo = new DefIntegralMemo();
+
 	// Flush
 	public HashSet<Integer> _hsSpecialNodes = new HashSet<Integer>();
 	public HashMap<XADDNode, Integer> _hmNode2IntNew = new HashMap<XADDNode, Integer>();
@@ -1212,6 +1216,47 @@ public class XADD {
 		return ret;
 	}
 
+	// Rebuilds node_id of another XADD context in this one.  The source context is
+	// only read, so several contexts may copy from it concurrently as long as it is
+	// not modified meanwhile.  Decisions may have a different order in this
+	// context, hence internal nodes are built via apply (as in reduceSub).
+	public int copyFrom(XADD src, int node_id) {
+		return copyFrom(src, node_id, new HashMap<Integer, Integer>());
+	}
+
+	private int copyFrom(XADD src, int node_id, HashMap<Integer, Integer> copy_cache) {
+
+		Integer ret = copy_cache.get(node_id);
+		if (ret != null)
+			return ret;
+
+		XADDNode n = src._hmInt2Node.get(node_id);
+		if (n instanceof XADDTNode) {
+			ret = getTermNode(((XADDTNode) n)._expr, ((XADDTNode) n)._annotate);
+		} else {
+			XADDINode inode = (XADDINode) n;
+			int low = copyFrom(src, inode._low, copy_cache);
+			int high = copyFrom(src, inode._high, copy_cache);
+
+			Decision d = src._alOrder.get(inode._var);
+			if (d instanceof ExprDec)
+				d = new ExprDec(((ExprDec) d)._expr);
+			else
+				d = new BoolDec(((BoolDec) d)._sVarName);
+			int var = getVarIndex(d, true);
+
+			int T_ZERO = getTermNode(ZERO);
+			int T_ONE  = getTermNode(ONE);
+			int ind_true  = getINode(var, /* low */T_ZERO, /* high */T_ONE);
+			int ind_false = getINode(var, /* low */T_ONE, /* high */T_ZERO);
+			int true_half = applyInt(ind_true, high, PROD);
+			int false_half = applyInt(ind_false, low, PROD);
+			ret = applyInt(true_half, false_half, SUM);
+		}
+		copy_cache.put(node_id, ret);
+		return ret;
+	}
+
 	// Convert an ArithExpr to an XADD while performing (optional) substitution of
 	// an XADD for a var (set var = null if no substitution is needed)
 	public int substituteXADDforVarInArithExpr(ArithExpr leaf_val, String var, int xadd) {
@@ -1781,11 +1826,64 @@ public class XADD {
 
 
 	public int computeDefiniteIntegral(int xadd, String int_var) {
+		Integer ret = _defIntegralMemo.get(int_var, xadd);
+		if (ret != null)
+			return ret;
+
 		XADDLeafDefIntegral integrator = new XADDLeafDefIntegral(int_var);
 		reduceProcessXADDLeaf(xadd, integrator, /* canonical_reorder */false);
+		_defIntegralMemo.put(int_var, xadd, integrator._runningSum);
 		return integrator._runningSum;
 	}
 
+	// Integrates out all int_vars in order in a single traversal of xadd (see
+	// XADDLeafMultiDefIntegral), the result is memoised
+	public int computeDefiniteIntegral(int xadd, List<String> int_vars) {
+		if (int_vars.size() <= 1)
+			return int_vars.isEmpty() ? xadd : computeDefiniteIntegral(xadd, int_vars.get(0));
+
+		String key = DefIntegralMemo.key(int_vars);
+		Integer ret = _defIntegralMemo.get(key, xadd);
+		if (ret != null)
+			return ret;
+
+		XADDLeafMultiDefIntegral integrator = new XADDLeafMultiDefIntegral(int_vars);
+		reduceProcessXADDLeaf(xadd, integrator, /* canonical_reorder */false);
+		_defIntegralMemo.put(key, xadd, integrator._runningSum);
+		return integrator._runningSum;
+	}
+
+	public void clearDefIntegralCache() {
+		_defIntegralMemo.clear();
+	}
+
+	// Integral of each leaf over its path w.r.t. the first variable, integrated
+	// over the remaining ones before it is added to the running sum (integration
+	// is linear, so this is the integral of the whole XADD)
+	public class XADDLeafMultiDefIntegral extends XADDLeafDefIntegral {
+		private List<String> _remainingVars;
+
+		public XADDLeafMultiDefIntegral(List<String> int_vars) {
+			super(int_vars.get(0));
+			_remainingVars = int_vars.subList(1, int_vars.size());
+		}
+
+		public int processXADDLeaf(ArrayList<Decision> decisions,
+								   ArrayList<Boolean> decision_values, ArithExpr leaf_val) {
+			int running_sum = _runningSum;
+			_runningSum = getTermNode(ZERO);
+			int ret = super.processXADDLeaf(decisions, decision_values, leaf_val);
+			int leaf_integral = _runningSum;
+			for (String var : _remainingVars) {
+				XADDLeafDefIntegral integrator = new XADDLeafDefIntegral(var);
+				reduceProcessXADDLeaf(leaf_integral, integrator, /* canonical_reorder */false);
+				leaf_integral = integrator._runningSum;
+			}
+			_runningSum = apply(running_sum, leaf_integral, SUM);
+			return ret;
+		}
+	}
+
 	public class XADDLeafDefIntegral extends XADDLeafIndefIntegral {
 		int _runningSum; // XADD for the running sum of all leaf substitutions
 
@@ -3946,6 +4044,8 @@ public class XADD {
 		for (Integer n : _hsSpecialNodes) {
 			copyInNewCacheNode(n);
 		}
+		for (Integer n : _defIntegralMemo.getNodes())
+			copyInNewCacheNode(n);
 		_hmNode2Int = _hmNode2IntNew;
 		_hmInt2Node = _hmInt2NodeNew;
 
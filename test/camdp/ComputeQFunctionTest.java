@@ -0,0 +1,80 @@
+package camdp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import xadd.XADD;
+
+public class ComputeQFunctionTest {
+
+    public static final String DOMAIN = "src/camdp/ex/jair/inventory1-8-1.cmdp";
+
+    @Test
+    public void testBatchedDiscretizationMatchesSequential() {
+        CAMDP mdp = new CAMDP(DOMAIN);
+        mdp.DISCRETIZE_PROBLEM = true;
+        mdp.DISCRETE_NUMBER = 11;
+        mdp.GLOBAL_LB = -9;
+        mdp.GLOBAL_UB = 9;
+        XADD context = mdp._context;
+        ComputeQFunction qfun = mdp._qfunHelper;
+
+        // Step (9 - -9) / 10 = 1.8: -9, -7.2, ..., 9
+        ArrayList<Double> values = qfun.discreteValues();
+        assertEquals(11, values.size());
+        for (int i = 0; i < values.size(); i++)
+            assertEquals(-9d + 1.8d * i, values.get(i), 1e-12);
+
+        // Q = -|a - x|, maximal at the discrete a nearest to x
+        int q = context.buildCanonicalXADDFromString("([a > x] ([x - a]) ([a - x]))");
+        int batched = qfun.maxOutDiscreteVar(q, "a");
+        int sequential = qfun.maxOutDiscreteVarSequential(q, "a");
+
+        HashMap<String, Boolean> bool = new HashMap<String, Boolean>();
+        HashMap<String, Double> cont = new HashMap<String, Double>();
+        for (double x = -12d; x <= 12d; x += 0.25d) {
+            cont.put("x", x);
+            double expected = Double.NEGATIVE_INFINITY;
+            for (double a : values) {
+                cont.put("a", a);
+                expected = Math.max(expected, context.evaluate(q, bool, cont));
+            }
+            cont.remove("a");
+            assertEquals("x = " + x, expected, context.evaluate(sequential, bool, cont), 1e-9);
+            assertEquals("x = " + x, expected, context.evaluate(batched, bool, cont), 1e-9);
+        }
+    }
+
+    @Test
+    public void testMoreValuesThanIntegers() {
+        CAMDP mdp = new CAMDP(DOMAIN);
+        mdp.DISCRETIZE_PROBLEM = true;
+        mdp.DISCRETE_NUMBER = 25;
+        mdp.GLOBAL_LB = -1;
+        mdp.GLOBAL_UB = 1;
+        XADD context = mdp._context;
+        ComputeQFunction qfun = mdp._qfunHelper;
+
+        ArrayList<Double> values = qfun.discreteValues();
+        assertEquals(25, values.size());
+        assertEquals(-1d, values.get(0), 0d);
+        assertEquals(1d, values.get(24), 0d);
+        assertEquals(0d, values.get(12), 1e-12);
+
+        // Q = -|a - x|, so the max is 0 at x = a for every discrete a
+        int q = context.buildCanonicalXADDFromString("([a > x] ([x - a]) ([a - x]))");
+        int sequential = qfun.maxOutDiscreteVarSequential(q, "a");
+        int batched = qfun.maxOutDiscreteVar(q, "a");
+        HashMap<String, Boolean> bool = new HashMap<String, Boolean>();
+        HashMap<String, Double> cont = new HashMap<String, Double>();
+        for (double a : values) {
+            cont.put("x", a);
+            assertEquals(0d, context.evaluate(sequential, bool, cont), 1e-9);
+            assertEquals(0d, context.evaluate(batched, bool, cont), 1e-9);
+        }
+    }
+}
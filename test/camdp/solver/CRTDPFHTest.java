@@ -0,0 +1,38 @@
+package camdp.solver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import camdp.CAMDP;
+
+public class CRTDPFHTest {
+
+    public static final String INVENTORY = "src/camdp/ex/initialstate/inventory1.cmdp";
+    public static final int TRIALS = 12;
+    public static final int HORIZON = 4;
+    public static final long SEED = 5L;
+
+    private static CRTDPFH solve(int nWorkers) {
+        CRTDPFH solver = new CRTDPFH(new CAMDP(INVENTORY), TRIALS, HORIZON, 0d, nWorkers);
+        solver.setSeed(SEED);
+        solver.solve();
+        return solver;
+    }
+
+    @Test
+    public void testWorkersAgreeWithSequential() {
+        CRTDPFH sequential = solve(1);
+        CRTDPFH parallel = solve(3);
+        assertEquals(sequential.solutionInitialSValueList[TRIALS],
+                parallel.solutionInitialSValueList[TRIALS], 1e-6);
+    }
+
+    @Test
+    public void testParallelRunsAreReproducible() {
+        CRTDPFH first = solve(3);
+        CRTDPFH second = solve(3);
+        assertArrayEquals(first.solutionInitialSValueList, second.solutionInitialSValueList, 0d);
+    }
+}
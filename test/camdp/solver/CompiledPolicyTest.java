@@ -0,0 +1,45 @@
+package camdp.solver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import camdp.CAMDP;
+import camdp.CAction;
+import camdp.State;
+
+public class CompiledPolicyTest {
+
+    public static final String INVENTORY = "src/camdp/ex/initialstate/inventory1.cmdp";
+    public static final double[] LEVELS = {0d, 5d, 10d, 15.5d, 20d, 30.5d, 60d};
+
+    @Test
+    public void testCompiledArgmaxMatchesActionQs() {
+        VI solver = new VI(new CAMDP(INVENTORY), 3);
+        solver.solve();
+        CompiledPolicy policy = solver.compilePolicy();
+
+        for (double x1 : LEVELS)
+            for (double x2 : LEVELS) {
+                HashMap<String, Double> cont = new HashMap<String, Double>();
+                cont.put("x1", x1);
+                cont.put("x2", x2);
+                State s = new State(cont, new HashMap<String, Boolean>());
+
+                // Q of each action, evaluated directly from the regressed value function
+                double bestQ = Double.NEGATIVE_INFINITY;
+                HashMap<String, Double> q = new HashMap<String, Double>();
+                for (CAction a : solver.mdp._hmName2Action.values()) {
+                    int qDD = solver.regress(solver.valueDD, a, false);
+                    double val = solver.context.evaluate(qDD, s._hmBoolVars, s._hmContVars);
+                    q.put(a._sName, val);
+                    bestQ = Math.max(bestQ, val);
+                }
+
+                ParametrizedAction chosen = policy.getAction(s);
+                assertEquals("Compiled action at " + s, bestQ, q.get(chosen._action._sName), 1e-6);
+            }
+    }
+}
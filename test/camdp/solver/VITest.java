@@ -0,0 +1,95 @@
+package camdp.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import camdp.CAMDP;
+
+public class VITest {
+
+    // Discounted linear domain whose value 2 * (1 - 0.5^n) never reaches a fixed point
+    public static final String DISCOUNTED_DOMAIN =
+            "cvariables (x1)\nmin-values (0)\nmax-values (10)\nbvariables ()\nnvariables()\n"
+            + "icvariables()\nmin-values ()\nmax-values ()\nibvariables()\navariables()\n\n"
+            + "action stay ()\nx1' ([x1])\nreward ([1])\nendaction\n\n"
+            + "discount 0.5\nInitialState (1) ()\niterations 30\nLINEAR\nMAXREWARD 2\n";
+
+    private static String writeDomain(String name, String text) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "vitest");
+        dir.mkdirs();
+        File domain = new File(dir, name);
+        PrintStream ps = new PrintStream(domain);
+        ps.print(text);
+        ps.close();
+        domain.deleteOnExit();
+        return domain.getPath();
+    }
+
+    @Test
+    public void testResidualStopsBeforeHorizon() throws Exception {
+        int nIter = 30;
+        double epsilon = 1e-3;
+        VI solver = new VI(new CAMDP(writeDomain("discounted.cmdp", DISCOUNTED_DOMAIN)), nIter);
+        solver.setResidualConvergence(epsilon);
+        int used = solver.solve();
+
+        // Residual after n iterations is 0.5^(n-1), the first below 1e-3 is at n = 11
+        assertTrue("VI used " + used + " iterations", used < nIter);
+        assertEquals(11, used);
+        assertTrue(solver.solutionResidualList[used] <= epsilon);
+        assertTrue(solver.solutionResidualList[used - 1] > epsilon);
+        assertEquals(2d * (1d - Math.pow(0.5, used)), solver.solutionInitialSValueList[used], 1e-6);
+    }
+
+    @Test
+    public void testCheckpointsReloadExactly() throws Exception {
+        // Discount 0.3: the values 1 + 0.3 + 0.09 + ... need more than 8 decimals
+        String domain = writeDomain("checkpoints.cmdp", DISCOUNTED_DOMAIN.replace("discount 0.5", "discount 0.3"));
+        int nIter = 12;
+        VI solver = new VI(new CAMDP(domain), nIter);
+        solver.enableCheckpoints(false, 2);
+        assertEquals(nIter, solver.solve());
+
+        // Only the last 2 iterations stay in memory, the others are reloaded exactly
+        for (int i = 1; i <= nIter; i++) {
+            assertEquals("iteration " + i, i <= nIter - 2, solver.solutionDDList[i] == -1);
+            double value = solver.mdp.evaluateInitialS(solver.getSolutionDD(i));
+            assertEquals("iteration " + i, solver.solutionInitialSValueList[i], value, 0d);
+        }
+        assertEquals(solver.solutionDDList[nIter], solver.checkpointer.load(nIter));
+
+        // A second solve() writes its checkpoints again
+        assertEquals(nIter, solver.solve());
+        assertEquals(nIter, solver.checkpointer.readIndex().size());
+        assertEquals(solver.solutionInitialSValueList[1], solver.mdp.evaluateInitialS(solver.getSolutionDD(1)), 0d);
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        String domain = writeDomain("resume.cmdp", DISCOUNTED_DOMAIN.replace("discount 0.5", "discount 0.3"));
+        VI first = new VI(new CAMDP(domain), 6);
+        first.enableCheckpoints(false, Integer.MAX_VALUE);
+        first.solve();
+
+        int nIter = 9;
+        VI resumed = new VI(new CAMDP(domain), nIter);
+        resumed.enableCheckpoints(true, Integer.MAX_VALUE);
+        assertEquals(nIter, resumed.solve());
+        VI fresh = new VI(new CAMDP(domain), nIter);
+        fresh.solve();
+
+        // Iterations 1-5 were restored from the checkpoint (not recomputed, so not in memory), 6 was reloaded
+        for (int i = 1; i <= nIter; i++) {
+            assertEquals("iteration " + i, i < 6, resumed.solutionDDList[i] == -1);
+            assertEquals("iteration " + i, fresh.solutionInitialSValueList[i], resumed.solutionInitialSValueList[i], 0d);
+            assertEquals("iteration " + i, fresh.solutionInitialSValueList[i],
+                    resumed.mdp.evaluateInitialS(resumed.getSolutionDD(i)), 0d);
+        }
+        assertEquals(nIter, resumed.checkpointer.readIndex().size());
+    }
+}
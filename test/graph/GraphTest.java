@@ -0,0 +1,98 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GraphTest {
+
+    // Chain A - B - C, each link goes from a child to its parent
+    private static Graph chain() {
+        Graph g = new Graph(true, false, true, false);
+        g.addUniLink("A", "B");
+        g.addUniLink("B", "C");
+        return g;
+    }
+
+    // Star with center X (of size 3) and leaves L0..L4
+    private static Graph star() {
+        Graph g = new Graph(true, false, true, false);
+        for (int i = 0; i < 5; i++)
+            g.addUniLink("L" + i, "X");
+        g.addNode("X", 3);
+        return g;
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2d);
+    }
+
+    @Test
+    public void testScoreOrder() {
+        Graph g = chain();
+        // A: {A,B} 2^2, B: {B,C} 2^2, C: {C} 2^1
+        double[] score = g.scoreOrder(Arrays.asList("A", "B", "C"));
+        Assert.assertEquals(1d, score[0], 0d);
+        Assert.assertEquals(log2(4 + 4 + 2), score[1], 1e-9);
+        Assert.assertEquals(2d, score[2], 0d);
+
+        // B: {A,B,C} 2^3 and links A - C, A: {A,C} 2^2, C: {C} 2^1
+        score = g.scoreOrder(Arrays.asList("B", "A", "C"));
+        Assert.assertEquals(2d, score[0], 0d);
+        Assert.assertEquals(log2(8 + 4 + 2), score[1], 1e-9);
+        Assert.assertEquals(3d, score[2], 0d);
+        Assert.assertEquals(g.computeTreeWidth(Arrays.asList("B", "A", "C")), (int) score[0]);
+    }
+
+    @Test
+    public void testIncrementalOrderSort() {
+        Graph g = star();
+        HashSet<String> nodes = new HashSet<String>(Arrays.asList("X", "L0", "L1", "L2", "L3", "L4"));
+        for (boolean min_weight : new boolean[]{false, true}) {
+            List order = g.incrementalOrderSort(min_weight);
+            Assert.assertEquals(nodes, new HashSet(order));
+            Assert.assertEquals(nodes.size(), order.size());
+            // Leaves first (no fill), the center only once at most one leaf is left
+            Assert.assertTrue(order.indexOf("X") >= order.size() - 2);
+            Assert.assertEquals(1d, g.scoreOrder(order)[0], 0d);
+        }
+    }
+
+    @Test
+    public void testComputeBestOrder() {
+        Graph g = star();
+        List<?> order = g.computeBestOrder();
+        double[] score = g.scoreOrder(order);
+        Assert.assertEquals(1, g._nTreeWidth);
+        Assert.assertEquals(score[2], g._dMaxBinaryWidth, 0d);
+
+        // The widths are those of the chosen order with only the incremental heuristics too
+        Graph.LEGACY_ORDERS = false;
+        try {
+            List<?> incremental = g.computeBestOrder();
+            double[] incremental_score = g.scoreOrder(incremental);
+            Assert.assertTrue(score[1] <= incremental_score[1]);
+            Assert.assertEquals((int) incremental_score[0], g._nTreeWidth);
+            Assert.assertEquals(incremental_score[2], g._dMaxBinaryWidth, 0d);
+        } finally {
+            Graph.LEGACY_ORDERS = true;
+        }
+    }
+
+    @Test
+    public void testInterruptedComputeBestOrder() {
+        Thread.currentThread().interrupt();
+        try {
+            star().computeBestOrder();
+            Assert.fail("An interrupted search must not return an order");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof InterruptedException);
+            Assert.assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -92,7 +92,7 @@ public class FractionTest {
         Fraction g = factory.makeFraction("[a^(1)]/[b^(1)]");//("[ 1 ] / [c^(1) + d^(1)] ");
         System.out.println("f = " + f);
         Fraction f2 = f.substitute("x", g);
-        Assert.assertEquals("[6.0*a^(1.0)*b^(1.0)*y^(1.0)+5.0*a^(2.0)*y^(1.0)]/[1.0*b^(2.0)+1.0*a^(2.0)]", f2.toString());
+        Assert.assertEquals("[5.0*a^(2.0)*y^(1.0)+6.0*a^(1.0)*b^(1.0)*y^(1.0)]/[1.0*a^(2.0)+1.0*b^(2.0)]", f2.toString());
         System.out.println("f2 = " + f2);
 
 //            PiecewisePolynomial xp.substitute()
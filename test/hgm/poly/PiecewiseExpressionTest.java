@@ -3,8 +3,11 @@ package hgm.poly;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 /**
  * Created by Hadi Afshar.
@@ -97,6 +100,82 @@ public class PiecewiseExpressionTest {
         Assert.assertTrue(pp3.equals(expectedPp3));
     }
 
+    @Test
+    public void testMultiplyPrunesEmptyCases() throws Exception {
+        PolynomialFactory factory = new PolynomialFactory("x", "y");
+
+        // (x<0 | x>0) * (x>1 | x<1): the case x<0 & x>1 is empty
+        PiecewiseExpression<Polynomial> pp1 = piecewise(factory, "2", "-1*x^(1)", "3", "1*x^(1)");
+        PiecewiseExpression<Polynomial> pp2 = piecewise(factory, "5", "1*x^(1) + -1", "7", "-1*x^(1) + 1");
+        PiecewiseExpression<?> product = pp1.multiply(pp2);
+        Assert.assertEquals(3, product.numCases().intValue());
+        Assert.assertEquals(14d, product.evaluate(new Double[]{-1d, 0d}), 0d);
+        Assert.assertEquals(21d, product.evaluate(new Double[]{0.5, 0d}), 0d);
+        Assert.assertEquals(15d, product.evaluate(new Double[]{2d, 0d}), 0d);
+
+        // (x+y>0 | x+y<0) * (x+y>1 | x+y<1): the case x+y<0 & x+y>1 is only found empty by linear programming
+        PiecewiseExpression<Polynomial> pp3 = piecewise(factory, "1", "1*x^(1) + 1*y^(1)", "1", "-1*x^(1) + -1*y^(1)");
+        PiecewiseExpression<Polynomial> pp4 = piecewise(factory, "1", "1*x^(1) + 1*y^(1) + -1", "1", "-1*x^(1) + -1*y^(1) + 1");
+        Assert.assertEquals(4, pp3.multiply(pp4).numCases().intValue());
+        PiecewiseExpression.PRUNE_EMPTY_CASES_BY_LINEAR_PROGRAMMING = true;
+        try {
+            Assert.assertEquals(3, pp3.multiply(pp4).numCases().intValue());
+        } finally {
+            PiecewiseExpression.PRUNE_EMPTY_CASES_BY_LINEAR_PROGRAMMING = false;
+        }
+    }
+
+    /**
+     * @return a jointly exhaustive piecewise polynomial the cases of which are given as (fruit, constraint) pairs
+     */
+    private static PiecewiseExpression<Polynomial> piecewise(PolynomialFactory factory, String... fruitConstraintPairs) {
+        List<ConstrainedExpression<Polynomial>> cases = new ArrayList<ConstrainedExpression<Polynomial>>();
+        for (int i = 0; i < fruitConstraintPairs.length; i += 2) {
+            cases.add(new ConstrainedExpression<Polynomial>(factory.makePolynomial(fruitConstraintPairs[i]),
+                    Arrays.asList(factory.makePolynomial(fruitConstraintPairs[i + 1]))));
+        }
+        return new PiecewiseExpression<Polynomial>(true, cases);
+    }
+
+    @Test
+    public void testActivatedCaseIdByIndex() throws Exception {
+        PolynomialFactory factory = new PolynomialFactory("x", "y");
+        // a 3*3 grid, the cases of which share constraints:
+        String[] xConstraints = {"-1*x^(1) + 1", "1*x^(1) + -1", "-1*x^(1) + 2", "1*x^(1) + -2"};
+        String[] yConstraints = {"-1*y^(1) + 1", "1*y^(1) + -1", "-1*y^(1) + 2", "1*y^(1) + -2"};
+        String[][] xSegments = {{xConstraints[0]}, {xConstraints[1], xConstraints[2]}, {xConstraints[3]}};
+        String[][] ySegments = {{yConstraints[0]}, {yConstraints[1], yConstraints[2]}, {yConstraints[3]}};
+        List<ConstrainedExpression<Polynomial>> cases = new ArrayList<ConstrainedExpression<Polynomial>>();
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                List<Polynomial> constraints = new ArrayList<Polynomial>();
+                for (String c : xSegments[i]) constraints.add(factory.makePolynomial(c));
+                for (String c : ySegments[j]) constraints.add(factory.makePolynomial(c));
+                cases.add(new ConstrainedExpression<Polynomial>(factory.makePolynomial((3 * i + j) + ""), constraints));
+            }
+        }
+        PiecewiseExpression<Polynomial> pe = new PiecewiseExpression<Polynomial>(true, cases);
+
+        Random random = new Random(1);
+        for (int t = 0; t < 1000; t++) {
+            double x = random.nextDouble() * 3;
+            double y = random.nextDouble() * 3;
+            int expected = 3 * (int) x + (int) y;
+            Double[] assignment = new Double[]{x, y};
+            Assert.assertEquals(expected, pe.getActivatedCaseId(assignment).intValue());
+            Assert.assertEquals(expected, pe.getActivatedCaseId(assignment).intValue()); //by the last activated case
+            Assert.assertEquals(expected, pe.evaluate(assignment), 0d);
+        }
+
+        List<ConstrainedExpression<Polynomial>> someCases = new ArrayList<ConstrainedExpression<Polynomial>>();
+        someCases.add(cases.get(0));
+        someCases.add(cases.get(4));
+        PiecewiseExpression<Polynomial> nonExhaustive = new PiecewiseExpression<Polynomial>(false, someCases);
+        Assert.assertEquals(1, nonExhaustive.getActivatedCaseId(new Double[]{1.5, 1.5}).intValue());
+        Assert.assertEquals(-1, nonExhaustive.getActivatedCaseId(new Double[]{2.5, 0.5}).intValue());
+        Assert.assertEquals(0, nonExhaustive.getActivatedCaseId(new Double[]{0.5, 0.5}).intValue());
+    }
+
     @Test
     public void testSub2SuperSet(){
         /*
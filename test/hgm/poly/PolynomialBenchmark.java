@@ -0,0 +1,86 @@
+package hgm.poly;
+
+import java.util.Random;
+
+/**
+ * Micro-benchmark of the polynomial operations used by the symbolic Gibbs samplers (multiply, substitute, evaluate, compiled evaluate)
+ * on a factory with many variables. Each operation is warmed up before it is timed; run with
+ * {@code java hgm.poly.PolynomialBenchmark [#vars] [#terms]}.
+ */
+public class PolynomialBenchmark {
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int numVars = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int numTerms = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+
+        PolynomialFactory factory = new PolynomialFactory(PolynomialFactory.makeIndexedVars("x", 1, numVars));
+        Random random = new Random(1);
+        final Polynomial p1 = makeRandomPolynomial(factory, numTerms, random);
+        final Polynomial p2 = makeRandomPolynomial(factory, numTerms, random);
+
+        // half of the variables instantiated:
+        final Double[] partialAssign = new Double[numVars];
+        final Double[] fullAssign = new Double[numVars];
+        for (int i = 0; i < numVars; i++) {
+            fullAssign[i] = random.nextDouble();
+            if (i % 2 == 0) partialAssign[i] = fullAssign[i];
+        }
+
+        time("multiply", 200, new Runnable() {
+            public void run() {
+                p1.returnMultiplication(p2);
+            }
+        });
+        time("substitute", 20000, new Runnable() {
+            public void run() {
+                p1.substitute(partialAssign);
+            }
+        });
+        time("evaluate", 100000, new Runnable() {
+            public void run() {
+                p1.evaluate(fullAssign);
+            }
+        });
+        final CompiledPolynomial c1 = p1.compile();
+        time("compiled evaluate", 100000, new Runnable() {
+            public void run() {
+                c1.evaluate(fullAssign);
+            }
+        });
+        final double[] coefficients = c1.collapse(fullAssign, 0);
+        time("horner (collapsed)", 100000, new Runnable() {
+            public void run() {
+                CompiledPolynomial.horner(coefficients, fullAssign[0]);
+            }
+        });
+    }
+
+    private static Polynomial makeRandomPolynomial(PolynomialFactory factory, int numTerms, Random random) {
+        String[] vars = factory.getAllVars();
+        StringBuilder sb = new StringBuilder();
+        for (int t = 0; t < numTerms; t++) {
+            if (t > 0) sb.append(" + ");
+            sb.append(random.nextInt(10) + 1);
+            int numFactors = random.nextInt(3) + 1;
+            for (int f = 0; f < numFactors; f++) {
+                sb.append("*").append(vars[random.nextInt(vars.length)]).append("^(").append(random.nextInt(3) + 1).append(")");
+            }
+        }
+        return factory.makePolynomial(sb.toString());
+    }
+
+    private static void time(String name, int iterations, Runnable op) {
+        for (int r = 0; r < WARM_UP_ROUNDS; r++) {
+            for (int i = 0; i < iterations; i++) op.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) op.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(name + ":\t" + (best / iterations) + " ns/op");
+    }
+}
@@ -13,7 +13,7 @@ public class PolynomialFactoryTest {
     public void testMakePolynomial() throws Exception {
         PolynomialFactory factory = new PolynomialFactory("v", "w", "x", "y", "z");
         Polynomial p1 = factory.makePolynomial("222 + 3*y^(0.0005)*z^(-3.8)*v^(1) + 5*x^(3)");
-        Assert.assertEquals(p1.toString(), "3.0*v^(1.0)*y^(5.0E-4)*z^(-3.8)+222.0+5.0*x^(3.0)");
+        Assert.assertEquals(p1.toString(), "3.0*v^(1.0)*y^(5.0E-4)*z^(-3.8)+5.0*x^(3.0)+222.0");
 
         Polynomial p2 = factory.makePolynomial(p1.toString());
         Assert.assertEquals(p2.toString(), p1.toString());
@@ -24,7 +24,7 @@ public class PolynomialTest {
 
         Polynomial p3 = p1.clone();
         p3.addToThis(p2);
-        Assert.assertEquals(p3.toString(), "8.0*x^(2.0)*y^(2.0)+3.0*x^(2.0)*y^(3.0)");
+        Assert.assertEquals(p3.toString(), "3.0*x^(2.0)*y^(3.0)+8.0*x^(2.0)*y^(2.0)");
 
         //p1 should not be changed
         Assert.assertEquals(p1.toString(), p1Str);
@@ -36,7 +36,7 @@ public class PolynomialTest {
         PolynomialFactory factory = new PolynomialFactory("v", "w", "x", "y", "z");
         Polynomial p1 = factory.makePolynomial("z^(2)*y^(2) + 3*y^(2)*x^(2) + 4*x^(2)");
         p1.multiplyScalarInThis(10);
-        Assert.assertEquals("30.0*x^(2.0)*y^(2.0)+10.0*y^(2.0)*z^(2.0)+40.0*x^(2.0)", p1.toString());
+        Assert.assertEquals("30.0*x^(2.0)*y^(2.0)+40.0*x^(2.0)+10.0*y^(2.0)*z^(2.0)", p1.toString());
 
     }
 
@@ -47,9 +47,9 @@ public class PolynomialTest {
         Polynomial p2 = p1.returnMultiplication(factory.makePolynomial("10*x^(10)"));
         Assert.assertEquals("10.0*x^(12.0)*y^(2.0)+30.0*x^(12.0)+50.0*x^(10.0)*y^(2.0)", p2.toString());
         Polynomial p3 = p1.returnMultiplication(factory.makePolynomial("1000 + 2*x^(1)"));
-        Assert.assertEquals("1000.0*x^(2.0)*y^(2.0)+2.0*x^(3.0)*y^(2.0)+3000.0*x^(2.0)+5000.0*y^(2.0)+10.0*x^(1.0)*y^(2.0)+6.0*x^(3.0)", p3.toString());
+        Assert.assertEquals("2.0*x^(3.0)*y^(2.0)+6.0*x^(3.0)+1000.0*x^(2.0)*y^(2.0)+3000.0*x^(2.0)+10.0*x^(1.0)*y^(2.0)+5000.0*y^(2.0)", p3.toString());
         Polynomial p4 = p1.returnMultiplication(factory.makePolynomial("10*x^(1)*v^(1)*w^(1)"));
-        Assert.assertEquals("50.0*v^(1.0)*w^(1.0)*x^(1.0)*y^(2.0)+10.0*v^(1.0)*w^(1.0)*x^(3.0)*y^(2.0)+30.0*v^(1.0)*w^(1.0)*x^(3.0)", p4.toString());
+        Assert.assertEquals("10.0*v^(1.0)*w^(1.0)*x^(3.0)*y^(2.0)+30.0*v^(1.0)*w^(1.0)*x^(3.0)+50.0*v^(1.0)*w^(1.0)*x^(1.0)*y^(2.0)", p4.toString());
     }
 
     @Test
@@ -80,9 +80,9 @@ public class PolynomialTest {
         Polynomial p1 = factory.makePolynomial("x^(2)*y^(2) + 3*x^(2)*y^(1) + 5*y^(2)");
         Polynomial p2 = factory.makePolynomial("z^(2)");
         Polynomial p3 = p1.substitute("y", p2);
-        Assert.assertEquals("3.0*x^(2.0)*z^(2.0)+5.0*z^(4.0)+1.0*x^(2.0)*z^(4.0)", p3.toString());
+        Assert.assertEquals("1.0*x^(2.0)*z^(4.0)+3.0*x^(2.0)*z^(2.0)+5.0*z^(4.0)", p3.toString());
         Polynomial p4 = factory.makePolynomial("x^(2)*y^(2) + 5*y^(2)").substitute("x", factory.makePolynomial("v^(1) + w^(1)"));
-        Assert.assertEquals("2.0*v^(1.0)*w^(1.0)*y^(2.0)+1.0*w^(2.0)*y^(2.0)+1.0*v^(2.0)*y^(2.0)+5.0*y^(2.0)", p4.toString());
+        Assert.assertEquals("1.0*v^(2.0)*y^(2.0)+2.0*v^(1.0)*w^(1.0)*y^(2.0)+1.0*w^(2.0)*y^(2.0)+5.0*y^(2.0)", p4.toString());
     }
 
     @Test
@@ -100,7 +100,7 @@ public class PolynomialTest {
         PolynomialFactory factory = new PolynomialFactory("z", "v", "w", "x", "y");
         Polynomial p1 = factory.makePolynomial("x^(2)*y^(2) + 3*x^(2) + 5*y^(2)");
         p1.replaceThisWithIndefiniteIntegral("x");
-        Assert.assertEquals("5.0*x^(1.0)*y^(2.0)+1.0*x^(3.0)+0.3333333333333333*x^(3.0)*y^(2.0)", p1.toString());
+        Assert.assertEquals("0.3333333333333333*x^(3.0)*y^(2.0)+1.0*x^(3.0)+5.0*x^(1.0)*y^(2.0)", p1.toString());
     }
 
     @Test
@@ -132,6 +132,23 @@ public class PolynomialTest {
         Assert.assertEquals("7.5*w^(4.0)*x^(1.5)*y^(2.0)+8.0*x^(1.0)", derivativeX.toString());
     }
 
+    @Test
+    public void testCompiledEvaluation() throws Exception {
+        PolynomialFactory factory = new PolynomialFactory("v", "w", "x", "y");
+        Polynomial p = factory.makePolynomial("2*x^(3)*y^(2) + -3*x^(1)*v^(0.5) + 5*y^(-1) + 7");
+        CompiledPolynomial c = p.compile();
+        Double[] assign = new Double[]{4d, null, 1.5d, 2d};
+        Assert.assertEquals(p.evaluate(assign), c.evaluate(assign), 1E-9);
+        Assert.assertEquals(p.evaluate(assign), c.evaluate(new double[]{4d, 0d, 1.5d, 2d}), 1E-9);
+
+        //collapse into x: 7 + 5/2 + (-3*2)*x + (2*4)*x^3
+        Assert.assertTrue(c.isPolynomialIn(2));
+        Assert.assertFalse(c.isPolynomialIn(3));
+        double[] coefficients = c.collapse(new Double[]{4d, null, null, 2d}, 2);
+        Assert.assertEquals("[9.5, -6.0, 0.0, 8.0]", Arrays.toString(coefficients));
+        Assert.assertEquals(p.evaluate(assign), CompiledPolynomial.horner(coefficients, 1.5d), 1E-9);
+    }
+
     @Test
     public void testIsAlwaysPositive() {
         PolynomialFactory factory = new PolynomialFactory("v", "w", "x", "y", "z");
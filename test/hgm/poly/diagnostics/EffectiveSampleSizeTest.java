@@ -0,0 +1,69 @@
+package hgm.poly.diagnostics;
+
+import hgm.poly.sampling.AR1Sampler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class EffectiveSampleSizeTest {
+
+    @Test
+    public void testFFTAutoCorrelationsMatchDirectSums() {
+        double[] chain = AR1Sampler.makeChain(0.7, 1000, 1);
+        int maxLag = 30;
+        double[] rho = AutoCorrelationHandler.computeAutoCorrelationsByFFT(chain, maxLag);
+        Assert.assertEquals(maxLag + 1, rho.length);
+
+        double mean = 0d;
+        for (double x : chain) mean += x / chain.length;
+        double c0 = 0d;
+        for (double x : chain) c0 += (x - mean) * (x - mean);
+        for (int k = 0; k <= maxLag; k++) {
+            double ck = 0d;
+            for (int t = k; t < chain.length; t++) {
+                ck += (chain[t] - mean) * (chain[t - k] - mean);
+            }
+            Assert.assertEquals(ck / c0, rho[k], 1E-9);
+        }
+    }
+
+    @Test
+    public void testEffectiveSampleSizeOfAR1Chain() {
+        double phi = 0.9;
+        int n = 1000000;
+        double[] chain = AR1Sampler.makeChain(phi, n, 2);
+        double expectedEss = n * (1 - phi) / (1 + phi);
+
+        Assert.assertEquals(expectedEss, AutoCorrelationHandler.computeEffectiveSampleSizeByFFT(chain), 0.1 * expectedEss);
+
+        BatchMeansEffectiveSampleSize batchMeans = new BatchMeansEffectiveSampleSize();
+        for (double x : chain) {
+            batchMeans.addNewValue(new Double[]{x, null});
+        }
+        double[] ess = batchMeans.computeEffectiveSampleSizes();
+        Assert.assertEquals(expectedEss, ess[0], 0.3 * expectedEss); // batch means are noisier
+        Assert.assertTrue(Double.isNaN(ess[1]));
+        Assert.assertEquals(ess[0], batchMeans.computeMeasure(), 0d);
+    }
+
+    @Test
+    public void testBatchMeansCountNullsPerDimension() {
+        // the second dimension is independent and only present in every other sample:
+        Random random = new Random(4);
+        BatchMeansEffectiveSampleSize batchMeans = new BatchMeansEffectiveSampleSize();
+        for (int t = 0; t < 100000; t++) {
+            batchMeans.addNewValue(new Double[]{random.nextGaussian(), t % 2 == 0 ? 5d + random.nextGaussian() : null});
+        }
+        double[] ess = batchMeans.computeEffectiveSampleSizes();
+        Assert.assertEquals(100000, ess[0], 30000);
+        Assert.assertEquals(50000, ess[1], 15000);
+    }
+
+    @Test
+    public void testIndependentSamples() {
+        double[] chain = AR1Sampler.makeChain(0d, 10000, 3);
+        double ess = AutoCorrelationHandler.computeEffectiveSampleSizeByFFT(chain);
+        Assert.assertEquals(10000, ess, 1500);
+    }
+}
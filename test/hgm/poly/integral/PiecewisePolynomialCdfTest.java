@@ -0,0 +1,56 @@
+package hgm.poly.integral;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PiecewisePolynomialCdfTest {
+
+    @Test
+    public void testInverseOfDisjointSegments() {
+        OneDimFunction[] segments = new OneDimFunction[]{
+                new PolynomialSegmentCdf(new double[]{0d, 2d}, -3d, -1d),             // uniform density 2
+                OneDimFunction.ZERO_1D_FUNCTION,
+                new PolynomialSegmentCdf(new double[]{0d, 0d, 1.5d}, 0d, 2d),         // density 3x
+                new PolynomialSegmentCdf(new double[]{1d, 0d, 0d, 0d, 0.25d}, 2d, 3d) // density x^3
+        };
+        PiecewisePolynomialCdf cdf = PiecewisePolynomialCdf.sum(segments);
+        Assert.assertNotNull(cdf);
+        Assert.assertEquals(4d + 6d + (81d - 16d) / 4d, cdf.getTotalMass(), 1E-12);
+
+        for (double x = -4d; x <= 4d; x += 0.125) {
+            double expected = 0d;
+            for (OneDimFunction segment : segments) expected += segment.eval(x);
+            Assert.assertEquals(expected, cdf.eval(x), 1E-9);
+        }
+        for (double x = -3d; x <= 3d; x += 0.125) {
+            if (x > -1d && x <= 0d) continue; // gap: the inverse is its start (the smallest solution)
+            Assert.assertEquals(x, cdf.inverse(cdf.eval(x)), 1E-8);
+        }
+        Assert.assertEquals(-1d, cdf.inverse(cdf.eval(-0.5d)), 1E-12);
+    }
+
+    @Test
+    public void testInverseOfOverlappingSegments() {
+        PiecewisePolynomialCdf cdf = new PiecewisePolynomialCdf();
+        for (int round = 0; round < 2; round++) { // the same instance is reused
+            cdf.clear();
+            Assert.assertTrue(cdf.add(new PolynomialSegmentCdf(new double[]{0d, 1d}, 0d, 2d)));
+            Assert.assertTrue(cdf.add(new PolynomialSegmentCdf(new double[]{0d, 0d, 0d, 1d}, 1d, 3d)));
+            Assert.assertFalse(cdf.add(new OneDimFunction() {
+                @Override
+                public double eval(double var) {
+                    return var;
+                }
+            }));
+            cdf.clear();
+            cdf.add(new PolynomialSegmentCdf(new double[]{0d, 1d}, 0d, 2d));
+            cdf.add(new PolynomialSegmentCdf(new double[]{0d, 0d, 0d, 1d}, 1d, 3d));
+            cdf.build();
+
+            Assert.assertEquals(2d + 26d, cdf.getTotalMass(), 1E-12);
+            for (double x = 0d; x <= 3d; x += 0.1) {
+                Assert.assertEquals(x, cdf.inverse(cdf.eval(x)), 1E-8);
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package hgm.poly.integral;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SegmentIndexedCdfTest {
+
+    @Test
+    public void testEvalMatchesSumOfSegments() {
+        OneDimFunction[] segments = new OneDimFunction[]{
+                OneDimFunction.ZERO_1D_FUNCTION,
+                new PolynomialSegmentCdf(new double[]{0d, 0d, 1.5d}, 0d, 2d),
+                logSegment(2d, 5d),
+                OneDimFunction.ZERO_1D_FUNCTION,
+                logSegment(-4d, -1d),
+                logSegment(3d, 6d) // overlaps the other segment
+        };
+
+        SegmentIndexedCdf cdf = new SegmentIndexedCdf();
+        for (int round = 0; round < 2; round++) { // the same instance is reused
+            cdf.clear();
+            for (OneDimFunction segment : segments) {
+                Assert.assertTrue(cdf.add(segment));
+            }
+            cdf.build();
+
+            for (double x = -5d; x <= 7d; x += 0.125) {
+                double expected = 0d;
+                for (OneDimFunction segment : segments) expected += segment.eval(x);
+                Assert.assertEquals(expected, cdf.eval(x), 1E-9);
+            }
+        }
+        Assert.assertFalse(cdf.add(new OneDimFunction() {
+            @Override
+            public double eval(double var) {
+                return var;
+            }
+        }));
+    }
+
+    // CDF of the density 1/(x + 10) on [lb, ub]
+    private static SegmentCdf logSegment(final double lb, final double ub) {
+        return new SegmentCdf() {
+            @Override
+            public double getLowerBound() {
+                return lb;
+            }
+
+            @Override
+            public double getUpperBound() {
+                return ub;
+            }
+
+            @Override
+            public double eval(double var) {
+                return Math.log(Math.max(lb, Math.min(ub, var)) + 10) - Math.log(lb + 10);
+            }
+        };
+    }
+}
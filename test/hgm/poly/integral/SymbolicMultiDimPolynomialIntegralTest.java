@@ -1,5 +1,6 @@
 package hgm.poly.integral;
 
+import hgm.poly.CompiledPolynomial;
 import hgm.poly.ConstrainedExpression;
 import hgm.poly.Polynomial;
 import hgm.poly.PolynomialFactory;
@@ -38,7 +39,7 @@ public class SymbolicMultiDimPolynomialIntegralTest {
 
         SymbolicMultiDimPolynomialIntegral integral = new SymbolicMultiDimPolynomialIntegral();
         SymbolicOneDimFunctionGenerator genX = integral.integrate(cp, "x");
-        OneDimFunction fx = genX.makeFunction(new Double[]{null, 4d});
+        OneDimFunction fx = genX.makeFunction(new Double[]{null, 4d}, new CompiledPolynomial.PowerTables());
         double eval = fx.eval(2);
         System.out.println("eval = " + eval);
         FunctionVisualizer.visualize(fx, -10,10,0.1, "fx");
@@ -0,0 +1,46 @@
+package hgm.poly.pref;
+
+import hgm.poly.ConstrainedExpression;
+import hgm.poly.PolynomialFactory;
+import hgm.poly.integral.OneDimFunction;
+import hgm.poly.integral.SymbolicMultiDimPolynomialIntegral;
+import hgm.poly.integral.SymbolicOneDimFunctionGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SymbolicCdfArrayHandlerTest {
+
+    @Test
+    public void testOnlySegmentsOfChangedVarsAreReinstantiated() {
+        PolynomialFactory factory = new PolynomialFactory("x", "y", "z");
+        ConstrainedExpression[] cases = new ConstrainedExpression[]{
+                factory.makeConstrainedPolynomial("1*x^(1)*y^(1) + 1", "1*x^(1)>0", "1*x^(1) + -1*y^(1)<0"),  // x in (0, y)
+                factory.makeConstrainedPolynomial("2*x^(2) + 1*z^(1)", "1*x^(1) + -5<0", "1*x^(1) + -1*z^(1)>0") // x in (z, 5)
+        };
+        SymbolicMultiDimPolynomialIntegral integrator = new SymbolicMultiDimPolynomialIntegral();
+        SymbolicOneDimFunctionGenerator[] generators = new SymbolicOneDimFunctionGenerator[cases.length];
+        for (int i = 0; i < cases.length; i++) {
+            generators[i] = integrator.integrate(cases[i], "x");
+        }
+        SymbolicCdfArrayHandler handler = new SymbolicCdfArrayHandler(generators);
+
+        Double[] assign = new Double[]{null, 2d, 3d};
+        handler.instantiate(assign);
+        Assert.assertEquals(2, handler.numReinstantiatedSegments);
+
+        assign[0] = 1.5d; // the sampled variable (not a parameter of its own CDF)
+        handler.instantiate(assign);
+        Assert.assertEquals(2, handler.numReinstantiatedSegments);
+        Assert.assertEquals(2, handler.numReusedSegments);
+
+        assign[1] = 2.5d; // only the first case depends on y
+        OneDimFunction cdf = handler.instantiate(assign);
+        Assert.assertEquals(3, handler.numReinstantiatedSegments);
+        Assert.assertEquals(3, handler.numReusedSegments);
+
+        OneDimFunction expected = new SymbolicCdfArrayHandler(generators).instantiate(assign.clone());
+        for (double x = -1d; x <= 6d; x += 0.25) {
+            Assert.assertEquals(expected.eval(x), cdf.eval(x), 1E-9);
+        }
+    }
+}
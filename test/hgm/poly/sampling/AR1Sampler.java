@@ -0,0 +1,33 @@
+package hgm.poly.sampling;
+
+import java.util.Random;
+
+/**
+ * Test chain x_t = phi * x_{t-1} + e_t (e_t standard normal, x_0 = 0) whose ESS is about n (1 - phi) / (1 + phi). The
+ * samples have a second, out of scope (null) dimension.
+ */
+public class AR1Sampler implements SamplerInterface {
+    private double phi;
+    private Random random;
+    private Double[] reusableSample = new Double[]{0d, null};
+
+    public AR1Sampler(double phi, long seed) {
+        this.phi = phi;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    public Double[] reusableSample() {
+        reusableSample[0] = phi * reusableSample[0] + random.nextGaussian();
+        return reusableSample;
+    }
+
+    public static double[] makeChain(double phi, int n, long seed) {
+        AR1Sampler sampler = new AR1Sampler(phi, seed);
+        double[] chain = new double[n];
+        for (int t = 0; t < n; t++) {
+            chain[t] = sampler.reusableSample()[0];
+        }
+        return chain;
+    }
+}
@@ -0,0 +1,142 @@
+package hgm.poly.sampling;
+
+import hgm.poly.ConstrainedExpression;
+import hgm.poly.Fraction;
+import hgm.poly.PiecewiseExpression;
+import hgm.poly.PolynomialFactory;
+import hgm.poly.pref.SymbolicCdfArrayHandler;
+import hgm.poly.sampling.frac.FractionalJointSymbolicGibbsSampler;
+import hgm.sampling.SamplingFailureException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+public class ParallelChainSamplerTest {
+
+    // the given density on the unit square (constraints are positive):
+    private static FractionalJointSymbolicGibbsSampler makeSampler(String density) {
+        PolynomialFactory factory = new PolynomialFactory("x", "y");
+        PiecewiseExpression<Fraction> joint = new PiecewiseExpression<Fraction>(
+                new ConstrainedExpression<Fraction>(factory.makeFraction(density),
+                        Arrays.asList(factory.makeFraction("1*x^(1)"), factory.makeFraction("-1*x^(1) + 1"),
+                                factory.makeFraction("1*y^(1)"), factory.makeFraction("-1*y^(1) + 1"))));
+        return FractionalJointSymbolicGibbsSampler.makeSampler(joint, 0d, 1d);
+    }
+
+    @Test
+    public void testChainsShareSymbolicIntegrals() throws Exception {
+        // density x + y, E[x] = E[y] = 7/12:
+        FractionalJointSymbolicGibbsSampler sampler = makeSampler("1*x^(1) + 1*y^(1)");
+
+        // a chain has its own CDF handlers over the generators (symbolic integrals) of the shared sampler:
+        FractionalJointSymbolicGibbsSampler chain = sampler.makeChain(new SplittableRandom(2L));
+        for (int v = 0; v < 2; v++) {
+            SymbolicCdfArrayHandler shared = sampler.getSymbolicCdfArrayHandler(v);
+            Assert.assertNotSame(shared, chain.getSymbolicCdfArrayHandler(v));
+            Assert.assertSame(shared.getGenerators(), chain.getSymbolicCdfArrayHandler(v).getGenerators());
+        }
+
+        int numChains = 4;
+        int numSamplesPerChain = 5000;
+        ParallelChainSampler chains = new ParallelChainSampler(ParallelChainSampler.makeChainFactory(sampler), numChains, 2, 1L);
+        List<Double[]> samples = chains.takeSamples(100, numSamplesPerChain);
+        Assert.assertEquals(numChains * numSamplesPerChain, samples.size());
+        Assert.assertNotSame(samples.get(0), samples.get(1)); // reusable samples are cloned
+
+        double[] means = new double[2];
+        for (Double[] sample : samples) {
+            for (int v = 0; v < 2; v++) {
+                Assert.assertTrue(sample[v] >= 0 && sample[v] <= 1);
+                means[v] += sample[v] / samples.size();
+            }
+        }
+        Assert.assertEquals(7d / 12d, means[0], 0.02);
+        Assert.assertEquals(7d / 12d, means[1], 0.02);
+
+        assertChainsIndependentOfThreads(sampler);
+    }
+
+    @Test
+    public void testChainsOnFractionalDensity() throws Exception {
+        // the CDFs of density 1/(x + y + 1) are logarithms, evaluated concurrently by all chains:
+        FractionalJointSymbolicGibbsSampler sampler = makeSampler("[1]/[1*x^(1) + 1*y^(1) + 1]");
+
+        // E[x] = E[y] by a midpoint rule:
+        int n = 1000;
+        double mass = 0;
+        double moment = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double x = (i + 0.5) / n;
+                double p = 1d / (x + (j + 0.5) / n + 1);
+                mass += p;
+                moment += x * p;
+            }
+        }
+        double expectedMean = moment / mass;
+
+        ParallelChainSampler chains = new ParallelChainSampler(ParallelChainSampler.makeChainFactory(sampler), 4, 4, 3L);
+        List<Double[]> samples = chains.takeSamples(100, 5000);
+        double[] means = new double[2];
+        for (Double[] sample : samples) {
+            for (int v = 0; v < 2; v++) {
+                Assert.assertTrue(sample[v] >= 0 && sample[v] <= 1);
+                means[v] += sample[v] / samples.size();
+            }
+        }
+        Assert.assertEquals(expectedMean, means[0], 0.02);
+        Assert.assertEquals(expectedMean, means[1], 0.02);
+
+        assertChainsIndependentOfThreads(sampler);
+    }
+
+    // the chains of a fixed seed do not depend on the number of threads (nor on the other chains):
+    private static void assertChainsIndependentOfThreads(FractionalJointSymbolicGibbsSampler sampler) {
+        List<List<Double[]>> expected = takeChainSamples(sampler, 1);
+        List<List<Double[]>> actual = takeChainSamples(sampler, 3);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int c = 0; c < expected.size(); c++) {
+            Assert.assertEquals(expected.get(c).size(), actual.get(c).size());
+            for (int i = 0; i < expected.get(c).size(); i++) {
+                Assert.assertArrayEquals(expected.get(c).get(i), actual.get(c).get(i));
+            }
+        }
+    }
+
+    // the samples of each of 3 chains seeded by 7, ordered by their first samples (chains may finish in any order)
+    private static List<List<Double[]>> takeChainSamples(final FractionalJointSymbolicGibbsSampler sampler, int numThreads) {
+        final List<List<Double[]>> chainSamples = Collections.synchronizedList(new ArrayList<List<Double[]>>());
+        ParallelChainSampler.ChainFactory recordingFactory = new ParallelChainSampler.ChainFactory() {
+            @Override
+            public SamplerInterface makeChain(SplittableRandom chainRandom) {
+                final SamplerInterface chain = sampler.makeChain(chainRandom);
+                final List<Double[]> samples = new ArrayList<Double[]>();
+                chainSamples.add(samples);
+                return new SamplerInterface() {
+                    @Override
+                    public Double[] reusableSample() throws SamplingFailureException {
+                        Double[] sample = chain.reusableSample();
+                        samples.add(sample.clone());
+                        return sample;
+                    }
+                };
+            }
+        };
+        new ParallelChainSampler(recordingFactory, 3, numThreads, 7L).takeSamples(10, 200);
+
+        List<List<Double[]>> sorted = new ArrayList<List<Double[]>>(chainSamples);
+        Collections.sort(sorted, new Comparator<List<Double[]>>() {
+            @Override
+            public int compare(List<Double[]> c1, List<Double[]> c2) {
+                return Double.compare(c1.get(0)[0], c2.get(0)[0]);
+            }
+        });
+        return sorted;
+    }
+}
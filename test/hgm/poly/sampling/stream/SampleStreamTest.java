@@ -0,0 +1,73 @@
+package hgm.poly.sampling.stream;
+
+import hgm.poly.diagnostics.BatchMeansEffectiveSampleSize;
+import hgm.poly.sampling.AR1Sampler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class SampleStreamTest {
+
+    @Test
+    public void testRunningMomentsAndThinning() throws Exception {
+        double phi = 0.5;
+        RunningMomentsSink moments = new RunningMomentsSink();
+        RunningMomentsSink thinnedMoments = new RunningMomentsSink();
+        int taken = SampleStream.run(new AR1Sampler(phi, 1), 100, 200000, moments, new ThinningSink(10, thinnedMoments));
+
+        Assert.assertEquals(200000, taken);
+        Assert.assertEquals(200000, moments.getCount(0));
+        Assert.assertEquals(20000, thinnedMoments.getCount(0));
+        Assert.assertEquals(0, moments.getCount(1));
+        Assert.assertEquals(0d, moments.getMeans()[0], 0.02);
+        Assert.assertEquals(1d / (1d - phi * phi), moments.getCorrectedVariances()[0], 0.03); // stationary variance
+        Assert.assertEquals(1d / (1d - phi * phi), thinnedMoments.getCorrectedVariances()[0], 0.06);
+    }
+
+    @Test
+    public void testAutoCorrelation() throws Exception {
+        double phi = 0.8;
+        AutoCorrelationSink autoCorrelation = new AutoCorrelationSink(50);
+        SampleStream.run(new AR1Sampler(phi, 2), 100, 200000, autoCorrelation);
+
+        double[][] rho = autoCorrelation.computeAutoCorrelations();
+        Assert.assertEquals(51, rho.length);
+        for (int k = 0; k <= 5; k++) {
+            Assert.assertEquals(Math.pow(phi, k), rho[k][0], 0.02);
+        }
+        Assert.assertEquals(1d, rho[0][1], 0d); // null entries are constant
+
+        double expectedEss = 200000 * (1 - phi) / (1 + phi);
+        Assert.assertEquals(expectedEss, autoCorrelation.computeEffectiveSampleSizes()[0], 0.1 * expectedEss);
+    }
+
+    @Test
+    public void testStopOnEffectiveSampleSize() throws Exception {
+        RunningMomentsSink moments = new RunningMomentsSink();
+        int taken = SampleStream.runUntilEffectiveSampleSize(new AR1Sampler(0.9, 5), 100, 1000, 1000000, Long.MAX_VALUE, moments);
+        // ESS is about n (1 - phi) / (1 + phi):
+        Assert.assertTrue("" + taken, taken > 10000 && taken < 40000);
+        Assert.assertEquals(taken, moments.getCount(0));
+
+        // a small target is not reached before the batches have MIN_ESS_BATCH_SIZE samples:
+        taken = SampleStream.runUntilEffectiveSampleSize(new AR1Sampler(0d, 6), 0, 10, 1000000, Long.MAX_VALUE);
+        Assert.assertTrue("" + taken, taken >= BatchMeansEffectiveSampleSize.DEFAULT_MAX_BATCHES / 2 * SampleStream.MIN_ESS_BATCH_SIZE);
+    }
+
+    @Test
+    public void testBinarySampleFile() throws Exception {
+        File file = File.createTempFile("samples", ".bin");
+        file.deleteOnExit();
+        RunningMomentsSink moments = new RunningMomentsSink();
+        SampleStream.run(new AR1Sampler(0.3, 3), 0, 1000, moments, new BinarySampleFileSink(file));
+        SampleStream.run(new AR1Sampler(0.3, 4), 0, 500, moments, new BinarySampleFileSink(file)); //appended
+
+        RunningMomentsSink readMoments = new RunningMomentsSink();
+        Assert.assertEquals(1500, BinarySampleFileSink.readSamples(file, readMoments));
+        Assert.assertEquals(0, readMoments.getCount(1));
+        Assert.assertEquals(moments.getMeans()[0], readMoments.getMeans()[0], 1E-12);
+        Assert.assertEquals(moments.getCorrectedVariances()[0], readMoments.getCorrectedVariances()[0], 1E-12);
+        Assert.assertTrue(file.delete());
+    }
+}
@@ -1,8 +1,16 @@
 package sve;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Assert;
 import org.junit.Test;
 
+import util.DefIntegralMemo;
+
 /**
  * Created by Hadi Afshar
  * Date: 15/09/13
@@ -21,6 +29,193 @@ public class SVETest {
 //        runSve("./src/sve/radar.gm", "./src/sve/radar.query.4");
     }
 
+    @Test
+    public void testQueryPlanMatchesInfer() {
+        String[] queries = {"./src/sve/tracking.query.1", "./src/sve/tracking.query.2", "./src/sve/tracking.query.1"};
+        SVE plain = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        SVE planned = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        plain._bOutputResults = false;
+        planned._bOutputResults = false;
+        planned._bUseQueryPlan = true;
+        for (String query : queries) {
+            double expected = SVE.Get1DExpectedValue(plain.infer(new Query(query)));
+            double actual = SVE.Get1DExpectedValue(planned.infer(new Query(query)));
+            Assert.assertEquals(expected, actual, 1e-9);
+        }
+        // The last query repeats the first one: every factor is reused
+        Assert.assertEquals(0, planned._plan._nLastComputed);
+    }
+
+    @Test
+    public void testJunctionTreeMarginalsMatchInfer() {
+        SVE plain = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        SVE tree = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        plain._bOutputResults = false;
+        tree._bOutputResults = false;
+
+        // Leave x_2 unobserved so the tree has more than one clique
+        Query q = new Query("./src/sve/tracking.query.1");
+        q._hmCVarAssign.remove("x_2");
+        HashMap<String, GraphicalModel.Factor> marginals = tree.inferAllMarginals(q);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("d", "x_2")), marginals.keySet());
+
+        for (String var : marginals.keySet()) {
+            Query var_query = new Query("./src/sve/tracking.query.1");
+            var_query._hmCVarAssign.remove("x_2");
+            var_query._alQueryVars.clear();
+            var_query._alQueryVars.add(var);
+            double expected = SVE.Get1DExpectedValue(plain.infer(var_query));
+            Assert.assertEquals(expected, SVE.Get1DExpectedValue(marginals.get(var)), 1e-6);
+        }
+
+        // Same evidence again: every message is reused
+        tree.inferAllMarginals(q);
+        Assert.assertEquals(0, tree._junctionTree._nLastComputed);
+    }
+
+    @Test
+    public void testInterleavedQueriesKeepCachedFactors() {
+        SVE sve = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        sve._bOutputResults = false;
+        sve._bUseQueryPlan = true;
+        Query q1 = new Query("./src/sve/tracking.query.1");
+        double expected = SVE.Get1DExpectedValue(sve.infer(q1));
+
+        // Another kind of query (and evidence) in between, with cache flushes
+        Query q2 = new Query("./src/sve/tracking.query.1");
+        q2._hmCVarAssign.remove("x_2");
+        HashMap<String, GraphicalModel.Factor> marginals = sve.inferAllMarginals(q2);
+        double expected_d = SVE.Get1DExpectedValue(marginals.get("d"));
+        sve.flushCaches(null);
+
+        // The plan and the junction tree are reused, and their cached factors are still valid
+        Assert.assertEquals(expected, SVE.Get1DExpectedValue(sve.infer(new Query("./src/sve/tracking.query.1"))), 1e-9);
+        Assert.assertEquals(0, sve._plan._nLastComputed);
+        sve.flushCaches(null);
+        marginals = sve.inferAllMarginals(q2);
+        Assert.assertEquals(0, sve._junctionTree._nLastComputed);
+        Assert.assertEquals(expected_d, SVE.Get1DExpectedValue(marginals.get("d")), 1e-9);
+    }
+
+    @Test
+    public void testParallelEliminationMatchesInfer() {
+        // No evidence: x_1 and x_2 are eliminated independently
+        String query = "./src/sve/tracking.query.0";
+        SVE plain = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        plain._bOutputResults = false;
+        double expected = SVE.Get1DExpectedValue(plain.infer(new Query(query)));
+
+        double[] actual = new double[2];
+        for (int run = 0; run < actual.length; run++) {
+            SVE parallel = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+            parallel._bOutputResults = false;
+            parallel._nWorkers = 2;
+            actual[run] = SVE.Get1DExpectedValue(parallel.infer(new Query(query)));
+            Assert.assertEquals(expected, actual[run], 1e-9);
+        }
+        // Deterministic regardless of thread timing
+        Assert.assertEquals(actual[0], actual[1], 0d);
+    }
+
+    @Test
+    public void testSymbolicEvidenceMatchesInfer() {
+        SVE plain = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        SVE symbolic = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        plain._bOutputResults = false;
+        symbolic._bOutputResults = false;
+
+        // x_1 stays observed, the observation of x_2 is a parameter
+        double[] observations = {6d, 3d, 7.5d};
+        EvidencePosterior posterior = null;
+        for (double x_2 : observations) {
+            Query q = new Query("./src/sve/tracking.query.1");
+            q._hmCVarAssign.put("x_2", x_2);
+            double expected = SVE.Get1DExpectedValue(plain.infer(q));
+            double actual = SVE.Get1DExpectedValue(symbolic.inferSymbolic(q, Arrays.asList("x_2")));
+            Assert.assertEquals(expected, actual, 1e-6);
+
+            // Compiled once for all observations
+            if (posterior == null)
+                posterior = symbolic._posterior;
+            Assert.assertSame(posterior, symbolic._posterior);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSymbolicEvidenceMustBeObserved() {
+        SVE sve = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        sve._bOutputResults = false;
+        sve.inferSymbolic(new Query("./src/sve/tracking.query.1"), Arrays.asList("d"));
+    }
+
+    @Test
+    public void testPrunedModelMatchesInfer() {
+        String[] queries = {"./src/sve/radar.query.1", "./src/sve/radar.query.5", "./src/sve/radar.query.1"};
+        SVE plain = new SVE(new GraphicalModel("./src/sve/radar.gm"));
+        SVE pruned = new SVE(new GraphicalModel("./src/sve/radar.gm"));
+        plain._bOutputResults = false;
+        pruned._bOutputResults = false;
+        pruned._bPruneModel = true;
+        for (String query : queries) {
+            double expected = SVE.Get1DExpectedValue(plain.infer(new Query(query)));
+            double actual = SVE.Get1DExpectedValue(pruned.infer(new Query(query)));
+            Assert.assertEquals(expected, actual, 1e-6);
+            Assert.assertTrue(pruned._gm._alFactors.size() < plain._gm._alFactors.size());
+        }
+
+        // P(x_2 | o_1, b_1) only needs the factors of x_1, x_2 and o_1
+        Assert.assertEquals(3, pruned._gm._alFactors.size());
+
+        // Factors cached for earlier queries survive the flushes of later ones
+        for (String query : new String[]{"./src/sve/radar.query.3", "./src/sve/radar.query.5", "./src/sve/radar.query.4"}) {
+            double expected = SVE.Get1DExpectedValue(plain.infer(new Query(query)));
+            double actual = SVE.Get1DExpectedValue(pruned.infer(new Query(query)));
+            Assert.assertEquals(expected, actual, 1e-6);
+        }
+    }
+
+    @Test
+    public void testDefiniteIntegralMemoSurvivesFlush() {
+        SVE sve = new SVE(new GraphicalModel("./src/sve/tracking.gm"));
+        sve._bOutputResults = false;
+        GraphicalModel.Factor result = sve.infer(new Query("./src/sve/tracking.query.1"));
+        xaddorig.XADD context = result._localContext;
+
+        // The fused integral over several variables matches the sequential one
+        int n_fused = 0;
+        for (GraphicalModel.Factor f : sve._gm._alFactors) {
+            if (f._vars.size() < 2)
+                continue;
+            ArrayList<String> vars = new ArrayList<String>(f._vars);
+            int fused = context.computeDefiniteIntegral(f._xadd, vars);
+            int sequential = f._xadd;
+            for (String var : vars)
+                sequential = context.computeDefiniteIntegral(sequential, var);
+            Assert.assertEquals(context.evaluate(sequential, SVE.EMPTY_BOOL, SVE.EMPTY_DOUBLE),
+                    context.evaluate(fused, SVE.EMPTY_BOOL, SVE.EMPTY_DOUBLE), 1e-6);
+            n_fused++;
+        }
+        Assert.assertTrue(n_fused > 0);
+
+        int integral = context.computeDefiniteIntegral(result._xadd, "d");
+        context.clearSpecialNodes();
+        context.flushCaches();
+        Assert.assertEquals(integral, context.computeDefiniteIntegral(result._xadd, "d"));
+        Assert.assertEquals(1d, context.evaluate(integral, SVE.EMPTY_BOOL, SVE.EMPTY_DOUBLE), 1e-6);
+
+        // The memoised integral is the one computed without the memo
+        context._defIntegralMemo._bEnabled = false;
+        Assert.assertEquals(integral, context.computeDefiniteIntegral(result._xadd, "d"));
+        context._defIntegralMemo._bEnabled = true;
+
+        // The memo is cleared once it is full
+        for (int i = 0; i < 2 * DefIntegralMemo.MAX_SIZE; i++) {
+            int scaled = context.scalarOp(result._xadd, i + 2d, xaddorig.XADD.PROD);
+            context.computeDefiniteIntegral(scaled, "d");
+            Assert.assertTrue(context._defIntegralMemo.size() <= DefIntegralMemo.MAX_SIZE);
+        }
+    }
+
     public void runSve(String gmFileName, String queryFileName) {
         GraphicalModel gm = new GraphicalModel(gmFileName);
         SVE sve = new SVE(gm);
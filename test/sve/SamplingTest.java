@@ -0,0 +1,56 @@
+package sve;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SamplingTest {
+
+    private final int _blockSize = Sampling.BLOCK_SIZE;
+    private final int _numThreads = Sampling.NUM_THREADS;
+
+    @After
+    public void restore() {
+        Sampling.BLOCK_SIZE = _blockSize;
+        Sampling.NUM_THREADS = _numThreads;
+        new File("./out.csv").delete();
+    }
+
+    private static Sampling sampling(String gm_file, Query q) {
+        GraphicalModel gm = new GraphicalModel(gm_file);
+        gm.instantiateGMTemplate(q._hmVar2Expansion);
+        return new Sampling(gm);
+    }
+
+    @Test
+    public void testBlocksDoNotDependOnBlockSizeOrThreads() {
+        Query q = new Query("./src/sve/tracking.query.1");
+        Sampling s = sampling("./src/sve/tracking.gm", q);
+        Sampling.BLOCK_SIZE = 4096;
+        Sampling.NUM_THREADS = 1;
+        Sampling.BlockSamples expected = s.generateSampleBlocks(10000, q, 7L);
+
+        int[][] configs = {{4096, 4}, {1000, 1}, {1000, 4}, {7, 3}};
+        for (int[] config : configs) {
+            Sampling.BLOCK_SIZE = config[0];
+            Sampling.NUM_THREADS = config[1];
+            Sampling.BlockSamples actual = s.generateSampleBlocks(10000, q, 7L);
+            Assert.assertArrayEquals(expected.vars, actual.vars);
+            for (int c = 0; c < expected.columns.length; c++)
+                Assert.assertArrayEquals(expected.columns[c], actual.columns[c], 0d);
+            Assert.assertArrayEquals(expected.likelihoodWeights, actual.likelihoodWeights, 0d);
+        }
+    }
+
+    @Test
+    public void testBlocksMatchSequentialSampler() {
+        Query q = new Query("./src/sve/tracking.query.1");
+        Sampling s = sampling("./src/sve/tracking.gm", q);
+        String[] query_var = {"d"};
+        double sequential = s.likelihoodWeightExpectation(s.generateSamples(50000, q), query_var);
+        double blocks = s.likelihoodWeightExpectation(s.generateSampleBlocks(50000, q, 11L), query_var);
+        Assert.assertEquals(sequential, blocks, 0.25);
+    }
+}
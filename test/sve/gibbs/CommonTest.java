@@ -0,0 +1,42 @@
+package sve.gibbs;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommonTest {
+
+    private static double[][] chains(int m, int n, double shift) {
+        Random r = new Random(1);
+        double[] base = new double[n];
+        for (int i = 0; i < n; i++)
+            base[i] = r.nextGaussian();
+        double[][] chains = new double[m][n];
+        for (int j = 0; j < m; j++)
+            for (int i = 0; i < n; i++)
+                chains[j][i] = base[i] + j * shift;
+        return chains;
+    }
+
+    @Test
+    public void testGelmanRubinIdenticalChains() {
+        // No between-chain variance: R-hat = sqrt((n - 1) / n)
+        double r_hat = Common.gelmanRubin(chains(4, 1000, 0d));
+        Assert.assertEquals(Math.sqrt(999d / 1000d), r_hat, 1e-12);
+        Assert.assertEquals(1d, r_hat, 1e-3);
+    }
+
+    @Test
+    public void testGelmanRubinShiftedChains() {
+        // Chains centered one standard deviation apart have not mixed
+        Assert.assertTrue(Common.gelmanRubin(chains(4, 1000, 1d)) > 1.2);
+        Assert.assertTrue(Common.gelmanRubin(chains(4, 1000, 1d)) > Common.gelmanRubin(chains(4, 1000, 0.1d)));
+    }
+
+    @Test
+    public void testGelmanRubinUndefined() {
+        Assert.assertTrue(Double.isNaN(Common.gelmanRubin(chains(1, 1000, 0d))));
+        Assert.assertTrue(Double.isNaN(Common.gelmanRubin(chains(4, 1, 0d))));
+    }
+}
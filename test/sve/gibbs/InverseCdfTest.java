@@ -0,0 +1,68 @@
+package sve.gibbs;
+
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import xadd.XADD;
+
+public class InverseCdfTest {
+
+    private static final HashMap<String, Boolean> NO_BOOL = new HashMap<String, Boolean>();
+
+    // Piecewise linear on [0, 3], the second split depends on y
+    public static final String LINEAR_CDF =
+            "([x < 1] ([0.2 * x]) ([x < y] ([-0.3 + 0.5 * x]) ([0.1 + 0.3 * x])))";
+
+    // Quadratic on [0, 1] (solved by Newton steps), linear on [1, 2.5]
+    public static final String QUADRATIC_CDF =
+            "([x < 1] ([0.25 * x * x]) ([-0.25 + 0.5 * x]))";
+
+    // Reference inversion: bisection on the evaluated XADD
+    private static double bisect(XADD context, int cdf, double target, double low, double high,
+                                 HashMap<String, Double> assign) {
+        while (high - low > 1e-10) {
+            double mid = (low + high) / 2;
+            assign.put("x", mid);
+            if (context.evaluate(cdf, NO_BOOL, assign) < target)
+                low = mid;
+            else
+                high = mid;
+        }
+        return (low + high) / 2;
+    }
+
+    private static void checkInversion(String cdf_str, double low, double high) {
+        XADD context = new XADD();
+        int cdf = context.buildCanonicalXADDFromString(cdf_str);
+        InverseCdf inverse = new InverseCdf(context, "x");
+        HashMap<String, Double> assign = new HashMap<String, Double>();
+        for (double target = 0.05; target < 1d; target += 0.05) {
+            assign.clear();
+            assign.put("y", 2d);
+            Double x = inverse.invert(cdf, target, low, high, assign);
+            Assert.assertNotNull(x);
+            double expected = bisect(context, cdf, target, low, high, assign);
+            Assert.assertEquals("target " + target, expected, x, 1e-5);
+        }
+    }
+
+    @Test
+    public void testAnalyticInversion() {
+        checkInversion(LINEAR_CDF, 0d, 3d);
+    }
+
+    @Test
+    public void testNewtonInversion() {
+        checkInversion(QUADRATIC_CDF, 0d, 2.5d);
+    }
+
+    @Test
+    public void testUnassignedVariable() {
+        XADD context = new XADD();
+        int cdf = context.buildCanonicalXADDFromString(LINEAR_CDF);
+        // y is needed to split [1, 3]
+        Assert.assertNull(new InverseCdf(context, "x").invert(cdf, 0.5, 0d, 3d, new HashMap<String, Double>()));
+    }
+}